@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding credit cards and shows.  What an iteration adds is taken away
+ * again after it, outside the measurement, so every iteration starts from
+ * the dataset as it was generated.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeBenchmarks {
+
+	/**
+	 * The cards added in one iteration, numbered after the dataset's own
+	 */
+	@State(Scope.Benchmark)
+	public static class AddedCards {
+		long nextCard;
+		final List<int[]> added = new ArrayList<int[]>(); // customer index and card number
+
+		@Setup(Level.Iteration)
+		public void start(TheaterDataset data) {
+			nextCard = data.customers;
+		}
+
+		synchronized long next(int customer) {
+			added.add(new int[] {customer, (int) nextCard});
+			return nextCard++;
+		}
+
+		@TearDown(Level.Iteration)
+		public synchronized void removeAll(TheaterDataset data) {
+			for (int[] card : added) {
+				data.theater.removeCreditCard(data.customerIDs[card[0]], TheaterDataset.cardNumber(card[1]));
+			}
+			added.clear();
+		}
+	}
+
+	/**
+	 * Puts the schedule back to the dataset's shows after each iteration
+	 */
+	@State(Scope.Benchmark)
+	public static class AddedShows {
+		long lastShowEnd;
+
+		@Setup(Level.Iteration)
+		public void start(TheaterDataset data) {
+			lastShowEnd = data.lastShowEnd;
+		}
+
+		@TearDown(Level.Iteration)
+		public void reset(TheaterDataset data) {
+			Schedule schedule = Schedule.instance();
+			List<Show> kept = new ArrayList<Show>();
+			for (Show show : schedule) {
+				if (show.getEndTime() <= lastShowEnd) {
+					kept.add(show);
+				}
+			}
+			schedule.clear();
+			for (Show show : kept) {
+				schedule.add(show);
+			}
+			data.lastShowEnd = lastShowEnd;
+		}
+	}
+
+	@Benchmark
+	public Customer addCreditCard(TheaterDataset data, AddedCards cards) {
+		int customer = ThreadLocalRandom.current().nextInt(data.customers);
+		return data.theater.addCreditCard(data.customerIDs[customer], TheaterDataset.cardNumber(cards.next(customer)),
+				data.expiration);
+	}
+
+	@Benchmark
+	public Show scheduleAdd(TheaterDataset data, AddedShows shows) {
+		synchronized (data) {
+			return data.addShow(data.clientIDs[ThreadLocalRandom.current().nextInt(data.clientIDs.length)]);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups by ID and by card number, for random records of the dataset
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmarks {
+
+	@Benchmark
+	public Customer customerListGet(TheaterDataset data) {
+		return CustomerList.instance().get(data.customerIDs[ThreadLocalRandom.current().nextInt(data.customerIDs.length)]);
+	}
+
+	@Benchmark
+	public Client clientListGet(TheaterDataset data) {
+		return ClientList.instance().get(data.clientIDs[ThreadLocalRandom.current().nextInt(data.clientIDs.length)]);
+	}
+
+	@Benchmark
+	public boolean isCardOnFile(TheaterDataset data) {
+		return data.theater.isCardOnFile(data.cardNumbers[ThreadLocalRandom.current().nextInt(data.cardNumbers.length)]);
+	}
+
+	/**
+	 * A card that is not on file, the usual case when a new card is added
+	 */
+	@Benchmark
+	public boolean isCardOnFileMissing(TheaterDataset data) {
+		return data.theater.isCardOnFile(TheaterDataset.cardNumber(data.customers
+				+ ThreadLocalRandom.current().nextInt(data.customers)));
+	}
+}
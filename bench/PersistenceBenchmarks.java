@@ -0,0 +1,61 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving the Theater to TheaterData and reading it back, in both snapshot
+ * formats.  The files are written to the working directory, so run the
+ * benchmarks from a scratch directory.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmarks {
+
+	/**
+	 * The snapshot format, serialized objects or the binary codec
+	 */
+	@Param({"serialized", "binary"})
+	public String format;
+
+	/**
+	 * Chooses the format and writes a first snapshot for retrieve to read
+	 */
+	@Setup(Level.Trial)
+	public void prepare(TheaterDataset data) {
+		Theater.useBinarySnapshots(format.equals("binary"));
+		if (!Theater.save()) {
+			throw new IllegalStateException("could not write TheaterData");
+		}
+	}
+
+	@Benchmark
+	public boolean save(TheaterDataset data) {
+		return Theater.save();
+	}
+
+	@Benchmark
+	public Theater retrieve(TheaterDataset data) {
+		return Theater.retrieve();
+	}
+
+	@Benchmark
+	public Theater roundTrip(TheaterDataset data) {
+		Theater.save();
+		return Theater.retrieve();
+	}
+}
@@ -0,0 +1,65 @@
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Schedule checks and listing everything the Theater holds
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmarks {
+
+	/**
+	 * A window of a few days somewhere in the run of shows, which nearly always overlaps one
+	 */
+	@Benchmark
+	public Show anyShowScheduled(TheaterDataset data) {
+		long start = data.firstShow + (long) (ThreadLocalRandom.current().nextDouble() * (data.lastShowEnd - data.firstShow));
+		return Schedule.instance().anyShowScheduled(new Date(start), new Date(start + 3 * TheaterDataset.DAY));
+	}
+
+	@Benchmark
+	public boolean scheduled(TheaterDataset data) {
+		return Schedule.instance().scheduled(data.clientIDs[ThreadLocalRandom.current().nextInt(data.clientIDs.length)]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int listCustomers(TheaterDataset data, Blackhole blackhole) {
+		return consume(data.theater.listCustomers(), blackhole);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int listClients(TheaterDataset data, Blackhole blackhole) {
+		return consume(data.theater.listClients(), blackhole);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int listShows(TheaterDataset data, Blackhole blackhole) {
+		return consume(data.theater.listShows(), blackhole);
+	}
+
+	private static int consume(Iterator<?> iterator, Blackhole blackhole) {
+		int count = 0;
+		while (iterator.hasNext()) {
+			blackhole.consume(iterator.next());
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,99 @@
+import java.util.Date;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A Theater filled with generated data for the benchmarks.  The number of
+ * customers is a benchmark parameter; there is one client for every 100
+ * customers and one show for every 10, running back to back from tomorrow
+ * so none of them is archived.  The data comes from a fixed seed, so every
+ * run and every release is measured against the same Theater.
+ *
+ * The Theater is a singleton, so the dataset empties it before filling it.
+ * Each benchmark runs in its own forked JVM, so datasets never mix.
+ */
+@State(Scope.Benchmark)
+public class TheaterDataset {
+
+	static final long DAY = 24L * 60 * 60 * 1000;
+	static final long SHOW_LENGTH = 2 * DAY;
+
+	/**
+	 * The number of customers, each with one card
+	 */
+	@Param({"10000", "100000"})
+	public int customers;
+
+	Theater theater;
+	int[] customerIDs;
+	int[] clientIDs;
+	String[] cardNumbers;
+	long firstShow; // start of the first show, in milliseconds since the epoch
+	long lastShowEnd;
+	Date expiration;
+
+	/**
+	 * Fills the Theater
+	 */
+	@Setup(Level.Trial)
+	public void generate() {
+		Random random = new Random(42);
+		theater = Theater.instance();
+		theater.clear();
+		expiration = new Date(System.currentTimeMillis() + 3 * 365 * DAY);
+		customerIDs = new int[customers];
+		cardNumbers = new String[customers];
+		for (int i = 0; i < customers; i++) {
+			cardNumbers[i] = cardNumber(i);
+			Customer customer = theater.addCustomer(name(random), (1 + random.nextInt(9999)) + " Main Street",
+					phone(random), cardNumbers[i], expiration);
+			customerIDs[i] = customer.getID();
+		}
+		clientIDs = new int[Math.max(10, customers / 100)];
+		for (int i = 0; i < clientIDs.length; i++) {
+			clientIDs[i] = theater.addClient(name(random) + " Productions", (1 + random.nextInt(999)) + " Broadway",
+					phone(random)).getID();
+		}
+		firstShow = System.currentTimeMillis() + DAY;
+		lastShowEnd = firstShow;
+		int shows = Math.max(10, customers / 10);
+		for (int i = 0; i < shows; i++) {
+			addShow(clientIDs[random.nextInt(clientIDs.length)]);
+		}
+	}
+
+	/**
+	 * Schedules a show right after the last one
+	 * @param clientID the client running it
+	 * @return the show
+	 */
+	Show addShow(int clientID) {
+		long start = lastShowEnd + 1;
+		lastShowEnd = start + SHOW_LENGTH;
+		return Schedule.instance().add(new Show("Show " + start, new Date(start), new Date(lastShowEnd), clientID));
+	}
+
+	/**
+	 * @param index the number of a card
+	 * @return a card number no other card has
+	 */
+	static String cardNumber(long index) {
+		return String.format("4%015d", index);
+	}
+
+	private static final String[] FIRST_NAMES = {"Ann", "Bob", "Carla", "Dev", "Erin", "Femi", "Gus", "Hana", "Ivan", "Jo"};
+	private static final String[] LAST_NAMES = {"Smith", "Lee", "Garcia", "Khan", "Nguyen", "Brown", "Ito", "Okafor", "Silva", "Weber"};
+
+	private static String name(Random random) {
+		return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+	}
+
+	private static String phone(Random random) {
+		return String.format("(%03d) %03d-%04d", 200 + random.nextInt(800), random.nextInt(1000), random.nextInt(10000));
+	}
+}
@@ -0,0 +1,306 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs Theater commands from a script or a stream without any prompts, for
+ * scripted and bulk operations.  Each line holds one command, a space and its
+ * arguments separated by |.  Blank lines and lines starting with # are
+ * skipped.  Dates are written yyyy-MM-dd.
+ *
+ *   addClient name|address|phone
+ *   removeClient clientId
+ *   listClients
+ *   addCustomer name|address|phone|cardNumber|expiration
+ *   removeCustomer customerId
+ *   addCard customerId|cardNumber|expiration
+ *   removeCard customerId|cardNumber
+ *   listCustomers
+ *   addShow name|clientId|start|end
+ *   listShows
+ *   import clients|customers|shows|csvFile|rejectsFile
+ *   export clients|customers|shows|csv|jsonl|file
+ *   save
+ *   retrieve
+ *
+ * One result line is written per command, all through a single buffered
+ * writer, and a summary of how many of each command succeeded and failed and
+ * the overall throughput is written at the end.
+ */
+public class BatchRunner {
+
+	/*
+	 * How often each command was run and how often it failed
+	 */
+	private static class Tally {
+		int run;
+		int failed;
+	}
+
+	private final BufferedReader input;
+	private final Writer output;
+	private final Map<String, Tally> tallies = new LinkedHashMap<String, Tally>();
+	private Theater theater;
+	private boolean changesMade;
+	private String failure; // why the last command failed
+
+	/**
+	 * @param input where to read the commands
+	 * @param output where to write the results; it is flushed but not closed
+	 */
+	public BatchRunner(BufferedReader input, Writer output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	/**
+	 * Runs every command in the input, then saves the Theater if anything was
+	 * changed
+	 * @return the number of commands that failed
+	 * @throws IOException if the input cannot be read or the output written
+	 */
+	public int run() throws IOException {
+		long start = System.nanoTime();
+		int commands = 0;
+		int failures = 0;
+		String line;
+		int lineNumber = 0;
+		while ((line = input.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int space = line.indexOf(' ');
+			String command = space < 0 ? line : line.substring(0, space);
+			String[] arguments = space < 0 ? new String[0] : line.substring(space + 1).split("\\|", -1);
+			Tally tally = tallies.get(command);
+			if (tally == null) {
+				tally = new Tally();
+				tallies.put(command, tally);
+			}
+			tally.run++;
+			commands++;
+			String result;
+			try {
+				result = execute(command, arguments);
+			} catch (IllegalArgumentException badCommand) {
+				result = failed(badCommand.getMessage());
+			}
+			if (result == null) {
+				tally.failed++;
+				failures++;
+				output.write(lineNumber + " " + command + " failed: " + failure + "\n");
+			} else {
+				output.write(lineNumber + " " + command + " ok" + (result.isEmpty() ? "" : " " + result) + "\n");
+			}
+		}
+		if (changesMade) {
+			output.write(Theater.save() ? "The theater has been saved\n" : "There has been an error in saving\n");
+		}
+		long nanos = System.nanoTime() - start;
+		output.write("Summary:\n");
+		for (Map.Entry<String, Tally> entry : tallies.entrySet()) {
+			Tally tally = entry.getValue();
+			output.write("  " + entry.getKey() + ": " + tally.run + " run, " + (tally.run - tally.failed) + " ok, "
+					+ tally.failed + " failed\n");
+		}
+		double seconds = nanos / 1e9;
+		output.write(commands + " commands in " + String.format("%.3f", seconds) + " s ("
+				+ String.format("%.0f", seconds > 0 ? commands / seconds : 0.0) + " commands/s)\n");
+		output.flush();
+		return failures;
+	}
+
+	/*
+	 * Runs one command.  Returns what to report on success, or null with the
+	 * reason in failure.  Bad arguments throw IllegalArgumentException.
+	 */
+	private String execute(String command, String[] arguments) throws IOException {
+		if (command.equals("retrieve")) {
+			expect(arguments, 0);
+			return retrieve();
+		}
+		if (theater == null) {
+			theater = Theater.instance();
+		}
+		if (command.equals("addClient")) {
+			expect(arguments, 3);
+			Client client = theater.addClient(arguments[0], arguments[1], arguments[2]);
+			return changed(client == null ? null : "ID " + client.getID(), "Could not add client");
+		} else if (command.equals("removeClient")) {
+			expect(arguments, 1);
+			Client client = theater.removeClient(number(arguments[0]));
+			return changed(client == null ? null : "ID " + client.getID(),
+					"Client currently has a show scheduled or no clients with that ID");
+		} else if (command.equals("addCustomer")) {
+			expect(arguments, 5);
+			Customer customer = theater.addCustomer(arguments[0], arguments[1], arguments[2], arguments[3],
+					BulkImporter.date(arguments[4]));
+			return changed(customer == null ? null : "ID " + customer.getID(),
+					"Card is already on file or has expired");
+		} else if (command.equals("removeCustomer")) {
+			expect(arguments, 1);
+			Customer customer = theater.removeCustomer(number(arguments[0]));
+			return changed(customer == null ? null : "ID " + customer.getID(), "No customer with that ID");
+		} else if (command.equals("addCard")) {
+			expect(arguments, 3);
+			Customer customer = theater.addCreditCard(number(arguments[0]), arguments[1],
+					BulkImporter.date(arguments[2]));
+			return changed(customer == null ? null : "", "The card is already on file, has expired or the customer was not found");
+		} else if (command.equals("removeCard")) {
+			expect(arguments, 2);
+			CreditCard card = theater.removeCreditCard(number(arguments[0]), arguments[1]);
+			return changed(card == null ? null : "", "The card was not found or is the customer's only card");
+		} else if (command.equals("addShow")) {
+			expect(arguments, 4);
+			Date start = BulkImporter.date(arguments[2]);
+			Date end = BulkImporter.date(arguments[3]);
+			if (start.after(end)) {
+				throw new IllegalArgumentException("Start date must be before end date");
+			}
+			int clientID = number(arguments[1]);
+			Show show = theater.addShow(arguments[0], start, end, clientID);
+			// addShow only returns null for a missing client or a journal that couldn't be written
+			return changed(show == null ? null : "", ClientList.instance().get(clientID) == null
+					? "That client could not be found" : "The show could not be written to the journal");
+		} else if (command.equals("listClients")) {
+			expect(arguments, 0);
+			return list(theater.listClients());
+		} else if (command.equals("listCustomers")) {
+			expect(arguments, 0);
+			return list(theater.listCustomers());
+		} else if (command.equals("listShows")) {
+			expect(arguments, 0);
+			return list(theater.listShows());
+		} else if (command.equals("import")) {
+			expect(arguments, 3);
+			BulkImporter.Result result;
+			try {
+				result = new BulkImporter(theater).importFile(kind(arguments[0]), arguments[1], arguments[2]);
+			} catch (IOException ioe) {
+				return failed("The file could not be imported: " + ioe.getMessage());
+			}
+			if (result.getAccepted() > 0) {
+				changesMade = true;
+			}
+			return result.toString();
+		} else if (command.equals("export")) {
+			expect(arguments, 3);
+			return export(kind(arguments[0]), arguments[1], arguments[2]);
+		} else if (command.equals("save")) {
+			expect(arguments, 0);
+			if (!Theater.save()) {
+				return failed("There has been an error in saving");
+			}
+			return "";
+		}
+		throw new IllegalArgumentException("Unknown command");
+	}
+
+	private String retrieve() {
+		if (changesMade) {
+			return failed("You cannot retrieve data once changes to the current data model have been made");
+		}
+		Theater retrieved = Theater.retrieve();
+		if (retrieved == null) {
+			theater = Theater.instance();
+			if (new File("TheaterData").exists()) {
+				return failed("The file TheaterData could not be read; started with an empty Theater");
+			}
+			return "File doesn't exist; created a new Theater";
+		}
+		theater = retrieved;
+		return "";
+	}
+
+	private String export(int kind, String format, String fileName) {
+		int exportFormat;
+		if (format.equals("csv")) {
+			exportFormat = Exporter.CSV;
+		} else if (format.equals("jsonl")) {
+			exportFormat = Exporter.JSON_LINES;
+		} else {
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+		try {
+			FileOutputStream file = new FileOutputStream(fileName);
+			try {
+				Exporter exporter = new Exporter(file.getChannel(), exportFormat);
+				int count;
+				if (kind == BulkImporter.CLIENTS) {
+					count = exporter.exportClients(theater.walkClients(), null);
+				} else if (kind == BulkImporter.CUSTOMERS) {
+					count = exporter.exportCustomers(theater.walkCustomers(), null);
+				} else {
+					count = exporter.exportShows(theater.walkShows(), null);
+				}
+				return count + " records exported";
+			} finally {
+				file.close();
+			}
+		} catch (IOException ioe) {
+			return failed("The file could not be written: " + ioe.getMessage());
+		}
+	}
+
+	/*
+	 * Writes every listed object on its own line and reports how many there were
+	 */
+	private String list(Iterator<?> iterator) throws IOException {
+		int count = 0;
+		while (iterator.hasNext()) {
+			output.write(iterator.next().toString());
+			output.write('\n');
+			count++;
+		}
+		return count + " listed";
+	}
+
+	/*
+	 * Reports the result of a change, noting that there is something to save
+	 */
+	private String changed(String result, String reason) {
+		if (result == null) {
+			return failed(reason);
+		}
+		changesMade = true;
+		return result;
+	}
+
+	private String failed(String reason) {
+		failure = reason;
+		return null;
+	}
+
+	private static void expect(String[] arguments, int count) {
+		if (arguments.length != count) {
+			throw new IllegalArgumentException("Expected " + count + " arguments but got " + arguments.length);
+		}
+	}
+
+	private static int kind(String name) {
+		if (name.equals("clients")) {
+			return BulkImporter.CLIENTS;
+		} else if (name.equals("customers")) {
+			return BulkImporter.CUSTOMERS;
+		} else if (name.equals("shows")) {
+			return BulkImporter.SHOWS;
+		}
+		throw new IllegalArgumentException("Expected clients, customers or shows, not " + name);
+	}
+
+	private static int number(String text) {
+		try {
+			return Integer.parseInt(text.trim());
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Not a number: " + text);
+		}
+	}
+}
@@ -0,0 +1,460 @@
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sells the seats of every performance.  A show plays once on each day of its
+ * run, and each performance has its own SeatMap, made the first time one of
+ * its seats is asked for.  Seats are taken with a compare-and-set on the seat
+ * map, so any number of terminals can sell at once without locking each
+ * other out, and a seat can never be sold twice.
+ *
+ * A seat can be bought outright, or held by a reservation and paid for
+ * later.  Either way it is paid for with a card the customer holds that has
+ * not expired.  Reservations that are not paid for in time are released.
+ *
+ * Sales are written to a TicketLog when there is one, and replayed from it
+ * when the box office is opened.
+ */
+public class BoxOffice {
+
+	/**
+	 * The seat was sold
+	 */
+	public static final int SOLD = 0;
+
+	/**
+	 * The seat is already sold or held
+	 */
+	public static final int SEAT_TAKEN = 1;
+
+	/**
+	 * The show does not play that day, or there is no such seat
+	 */
+	public static final int NO_SUCH_SEAT = 2;
+
+	/**
+	 * The card is not on file for the customer or has expired
+	 */
+	public static final int CARD_REJECTED = 3;
+
+	/**
+	 * The reservation ran out or was already paid for or cancelled
+	 */
+	public static final int RESERVATION_CLOSED = 4;
+
+	/**
+	 * The sale could not be written to the ticket log, so it was undone
+	 */
+	public static final int NOT_RECORDED = 5;
+
+	/**
+	 * The show is not on the Schedule
+	 */
+	public static final int NO_SUCH_SHOW = 6;
+
+	/**
+	 * The sale could not be credited to the show's client, so it was undone
+	 */
+	public static final int NOT_CREDITED = 7;
+
+	/**
+	 * There is no customer with that ID
+	 */
+	public static final int NO_SUCH_CUSTOMER = 8;
+
+	/**
+	 * Seats held for a customer until they are paid for
+	 */
+	public static class Reservation {
+		private final Show show;
+		private final long day;
+		private final SeatMap seats;
+		private final int[] seatNumbers;
+		private final int customerID;
+		private final long expires;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		Reservation(Show show, long day, SeatMap seats, int[] seatNumbers, int customerID, long expires) {
+			this.show = show;
+			this.day = day;
+			this.seats = seats;
+			this.seatNumbers = seatNumbers;
+			this.customerID = customerID;
+			this.expires = expires;
+		}
+
+		/**
+		 * @return the show the seats are for
+		 */
+		public Show getShow() {
+			return show;
+		}
+
+		/**
+		 * @return the seat numbers held
+		 */
+		public int[] getSeats() {
+			return seatNumbers.clone();
+		}
+
+		/**
+		 * @return the ID of the customer the seats are held for
+		 */
+		public int getCustomerID() {
+			return customerID;
+		}
+
+		/**
+		 * @return when the hold runs out, in milliseconds since the epoch
+		 */
+		public long getExpires() {
+			return expires;
+		}
+
+		/**
+		 * @return true once the seats have been paid for, cancelled or released
+		 */
+		public boolean isClosed() {
+			return closed.get();
+		}
+
+		@Override
+		public String toString() {
+			return "Seats " + Arrays.toString(seatNumbers) + " held for customer " + customerID + " until "
+					+ new Date(expires);
+		}
+	}
+
+	private final int seatsPerPerformance;
+	private final long holdMillis;
+	private final TicketLog log;
+	// Show start to the performance day to its seats
+	private final ConcurrentMap<Long, ConcurrentMap<Long, SeatMap>> performances =
+			new ConcurrentHashMap<Long, ConcurrentMap<Long, SeatMap>>();
+	private final ConcurrentMap<Reservation, Boolean> reservations = new ConcurrentHashMap<Reservation, Boolean>();
+	private final AtomicLong nextRelease = new AtomicLong();
+
+	/**
+	 * @param seatsPerPerformance the number of seats in the house
+	 * @param holdSeconds how long a reservation holds its seats
+	 * @param log where sales are recorded, or null to keep them in memory only
+	 */
+	public BoxOffice(int seatsPerPerformance, long holdSeconds, TicketLog log) {
+		if (seatsPerPerformance <= 0 || holdSeconds <= 0) {
+			throw new IllegalArgumentException("The house needs seats and reservations need time to be paid");
+		}
+		this.seatsPerPerformance = seatsPerPerformance;
+		this.holdMillis = holdSeconds * 1000;
+		this.log = log;
+	}
+
+	/**
+	 * Replays the ticket log and opens it for new sales
+	 * @return the number of seats replayed
+	 * @throws IOException if the log cannot be read or opened
+	 */
+	public int open() throws IOException {
+		if (log == null) {
+			return 0;
+		}
+		int replayed = log.replay(this);
+		log.open();
+		return replayed;
+	}
+
+	/**
+	 * @return the number of seats in each performance
+	 */
+	public int getSeatsPerPerformance() {
+		return seatsPerPerformance;
+	}
+
+	/**
+	 * Returns the seats of a performance
+	 * @param show the show
+	 * @param date any time on the day of the performance
+	 * @return the seats, or null if the show does not play that day
+	 */
+	public SeatMap seats(Show show, Date date) {
+		long day = day(date.getTime());
+		if (day < day(show.getStartTime()) || day > day(show.getEndTime())) {
+			return null;
+		}
+		return seats(show.getStartTime(), day);
+	}
+
+	/**
+	 * Sells one seat outright
+	 * @param show the show
+	 * @param date any time on the day of the performance
+	 * @param seat the seat number
+	 * @param customer the customer buying it
+	 * @param cardNumber the card the customer pays with
+	 * @return SOLD, or why the seat could not be sold
+	 */
+	public int buy(Show show, Date date, int seat, Customer customer, String cardNumber) {
+		SeatMap seats = seats(show, date);
+		if (seats == null || seat < 0 || seat >= seatsPerPerformance) {
+			return NO_SUCH_SEAT;
+		}
+		if (!validCard(customer, cardNumber)) {
+			return CARD_REJECTED;
+		}
+		if (!seats.buy(seat)) {
+			return SEAT_TAKEN;
+		}
+		if (!record(show.getStartTime(), day(date.getTime()), seats, new int[] {seat}, customer.getID())) {
+			return NOT_RECORDED;
+		}
+		return SOLD;
+	}
+
+	/**
+	 * Holds seats for a customer.  Either every seat is held or none is.
+	 * @param show the show
+	 * @param date any time on the day of the performance
+	 * @param seatNumbers the seats to hold
+	 * @param customer the customer to hold them for
+	 * @return the reservation, or null if a seat does not exist or is taken
+	 */
+	public Reservation reserve(Show show, Date date, int[] seatNumbers, Customer customer) {
+		releaseExpired(false);
+		SeatMap seats = seats(show, date);
+		if (seats == null || seatNumbers.length == 0) {
+			return null;
+		}
+		for (int seat : seatNumbers) {
+			if (seat < 0 || seat >= seatsPerPerformance) {
+				return null;
+			}
+		}
+		for (int held = 0; held < seatNumbers.length; held++) {
+			if (!seats.hold(seatNumbers[held])) {
+				for (int i = 0; i < held; i++) {
+					seats.release(seatNumbers[i]);
+				}
+				return null;
+			}
+		}
+		Reservation reservation = new Reservation(show, day(date.getTime()), seats,
+				seatNumbers.clone(), customer.getID(), System.currentTimeMillis() + holdMillis);
+		reservations.put(reservation, Boolean.TRUE);
+		return reservation;
+	}
+
+	/**
+	 * Pays for the seats of a reservation
+	 * @param reservation the reservation
+	 * @param customer the customer it was made for
+	 * @param cardNumber the card the customer pays with
+	 * @return SOLD, or why the seats could not be sold
+	 */
+	public int purchase(Reservation reservation, Customer customer, String cardNumber) {
+		if (customer.getID() != reservation.customerID || !validCard(customer, cardNumber)) {
+			return CARD_REJECTED;
+		}
+		if (System.currentTimeMillis() > reservation.expires || !reservation.closed.compareAndSet(false, true)) {
+			return RESERVATION_CLOSED;
+		}
+		reservations.remove(reservation);
+		for (int seat : reservation.seatNumbers) {
+			reservation.seats.sell(seat);
+		}
+		if (!record(reservation.show.getStartTime(), reservation.day, reservation.seats, reservation.seatNumbers,
+				customer.getID())) {
+			return NOT_RECORDED;
+		}
+		return SOLD;
+	}
+
+	/**
+	 * Takes back seats that were sold outright, such as for a sale that could
+	 * not be credited to the show's client
+	 * @param show the show
+	 * @param date any time on the day of the performance
+	 * @param seatNumbers the seats sold
+	 * @param customerID the customer who bought them
+	 * @return true if the seats are free again, false if the refund could not be recorded and they stay sold
+	 */
+	public boolean refund(Show show, Date date, int[] seatNumbers, int customerID) {
+		SeatMap seats = seats(show, date);
+		if (seats == null) {
+			return false;
+		}
+		return refund(show.getStartTime(), day(date.getTime()), seats, seatNumbers, customerID);
+	}
+
+	/**
+	 * Takes back the seats of a reservation that was paid for
+	 * @param reservation the reservation
+	 * @return true if the seats are free again, false if the refund could not be recorded and they stay sold
+	 */
+	public boolean refund(Reservation reservation) {
+		return refund(reservation.show.getStartTime(), reservation.day, reservation.seats, reservation.seatNumbers,
+				reservation.customerID);
+	}
+
+	/**
+	 * Gives up the seats of a reservation
+	 * @param reservation the reservation
+	 * @return true if the seats were released, false if it was already closed
+	 */
+	public boolean cancel(Reservation reservation) {
+		if (!reservation.closed.compareAndSet(false, true)) {
+			return false;
+		}
+		reservations.remove(reservation);
+		for (int seat : reservation.seatNumbers) {
+			reservation.seats.release(seat);
+		}
+		return true;
+	}
+
+	/**
+	 * Releases the seats of reservations whose time has run out.  This is
+	 * done at most once a second as reservations are made, so it does not
+	 * need a thread of its own.
+	 * @param now true to release them now, however recently it was last done
+	 * @return the number of reservations released
+	 */
+	public int releaseExpired(boolean now) {
+		long time = System.currentTimeMillis();
+		long due = nextRelease.get();
+		if (!now && (time < due || !nextRelease.compareAndSet(due, time + 1000))) {
+			return 0;
+		}
+		int released = 0;
+		Iterator<Reservation> iterator = reservations.keySet().iterator();
+		while (iterator.hasNext()) {
+			Reservation reservation = iterator.next();
+			if (time > reservation.expires && cancel(reservation)) {
+				released++;
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * @return the number of reservations waiting to be paid for
+	 */
+	public int openReservations() {
+		return reservations.size();
+	}
+
+	/**
+	 * Marks a seat sold while the ticket log is replayed
+	 * @param showStart the start of the show in milliseconds since the epoch
+	 * @param day the day of the performance, counted from the epoch
+	 * @param seat the seat number
+	 */
+	void restoreSale(long showStart, long day, int seat) {
+		if (seat >= 0 && seat < seatsPerPerformance) {
+			seats(showStart, day).buy(seat);
+		}
+	}
+
+	/**
+	 * Frees a seat that was refunded while the ticket log is replayed
+	 * @param showStart the start of the show in milliseconds since the epoch
+	 * @param day the day of the performance, counted from the epoch
+	 * @param seat the seat number
+	 */
+	void restoreRefund(long showStart, long day, int seat) {
+		if (seat >= 0 && seat < seatsPerPerformance) {
+			seats(showStart, day).refund(seat);
+		}
+	}
+
+	/*
+	 * Returns the seats of a performance, making them if need be
+	 */
+	private SeatMap seats(long showStart, long day) {
+		ConcurrentMap<Long, SeatMap> days = performances.get(showStart);
+		if (days == null) {
+			days = new ConcurrentHashMap<Long, SeatMap>();
+			ConcurrentMap<Long, SeatMap> raced = performances.putIfAbsent(showStart, days);
+			if (raced != null) {
+				days = raced;
+			}
+		}
+		SeatMap seats = days.get(day);
+		if (seats == null) {
+			seats = new SeatMap(seatsPerPerformance);
+			SeatMap raced = days.putIfAbsent(day, seats);
+			if (raced != null) {
+				seats = raced;
+			}
+		}
+		return seats;
+	}
+
+	/*
+	 * Writes sold seats to the log.  If they cannot be written the sale is
+	 * taken back, so nothing is sold that would be lost on a restart.
+	 */
+	private boolean record(long showStart, long day, SeatMap seats, int[] seatNumbers, int customerID) {
+		if (log == null) {
+			return true;
+		}
+		try {
+			log.sold(showStart, day, seatNumbers, customerID);
+			return true;
+		} catch (IOException ioe) {
+			System.out.println("Error writing to the ticket log");
+			for (int seat : seatNumbers) {
+				seats.refund(seat);
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * Writes the refund to the log first, so seats are only freed once a
+	 * restart would not sell them again
+	 */
+	private boolean refund(long showStart, long day, SeatMap seats, int[] seatNumbers, int customerID) {
+		if (log != null) {
+			try {
+				log.refunded(showStart, day, seatNumbers, customerID);
+			} catch (IOException ioe) {
+				System.out.println("Error writing to the ticket log");
+				return false;
+			}
+		}
+		for (int seat : seatNumbers) {
+			seats.refund(seat);
+		}
+		return true;
+	}
+
+	/*
+	 * Returns true if the customer holds the card and it has not expired
+	 */
+	private static boolean validCard(Customer customer, String cardNumber) {
+		String key = CreditCard.normalize(cardNumber);
+		long now = System.currentTimeMillis();
+		Iterator<CreditCard> cards = customer.listCards();
+		while (cards.hasNext()) {
+			CreditCard card = cards.next();
+			if (CreditCard.normalize(card.getAccountNumber()).equals(key)) {
+				return !card.expiredBy(now);
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Numbers days from the epoch in the local time zone
+	 */
+	private static long day(long time) {
+		return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+	}
+}
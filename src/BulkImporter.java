@@ -0,0 +1,507 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads clients, customers or shows into the Theater from large CSV files.
+ *
+ * The file is read a batch of lines at a time and each batch is parsed and
+ * validated on a pool of threads, one per core, while the next batch is read.
+ * Only a few batches are in flight at once; as each comes back its rows drop
+ * their raw text, and only the accepted rows and a line number and reason for
+ * each rejected one are kept.
+ * Checks that involve more than one row are then made in bulk: duplicate
+ * cards with one hash pass over the rows, and show conflicts with one sort by
+ * start date and a sweep.  Last, every accepted row is added to the Theater
+ * as one change, checked against the data already there while nothing else
+ * can change it, and saved with a single checkpoint in journal mode rather
+ * than one journal record per row.
+ *
+ * The files have one record per line, with an optional first line naming the
+ * fields exactly as below, in any case.  Fields may be quoted, with "" for a
+ * quote inside a field.  Dates are written yyyy-MM-dd.
+ *
+ *   clients:    name,address,phone
+ *   customers:  name,address,phone,cardNumber,expiration
+ *   shows:      name,clientId,start,end
+ *
+ * Rows that are turned down are listed in a rejection report, a CSV file of
+ * line number, reason and the original line.  The original lines are read
+ * back from the file as the report is written, so the file should not change
+ * during an import.
+ */
+public class BulkImporter {
+
+	public static final int CLIENTS = 0;
+	public static final int CUSTOMERS = 1;
+	public static final int SHOWS = 2;
+
+	private static final int BATCH_SIZE = 8192;
+	private static final String[][] HEADERS = {
+		{ "name", "address", "phone" },
+		{ "name", "address", "phone", "cardNumber", "expiration" },
+		{ "name", "clientId", "start", "end" }
+	};
+
+	/**
+	 * What an import did
+	 */
+	public static class Result {
+		private final int accepted;
+		private final int rejected;
+		private final long millis;
+
+		Result(int accepted, int rejected, long millis) {
+			this.accepted = accepted;
+			this.rejected = rejected;
+			this.millis = millis;
+		}
+
+		/**
+		 * @return the number of rows added to the Theater
+		 */
+		public int getAccepted() {
+			return accepted;
+		}
+
+		/**
+		 * @return the number of rows listed in the rejection report
+		 */
+		public int getRejected() {
+			return rejected;
+		}
+
+		@Override
+		public String toString() {
+			return accepted + " rows imported and " + rejected + " rejected in " + millis + " ms";
+		}
+	}
+
+	/*
+	 * One line of the file, and what was made of it
+	 */
+	private static class Row {
+		final int line;
+		String text; // the line as read, until it is parsed
+		String[] fields;
+		String rejection;
+		String card; // normalized card number, for customers
+		int clientID; // for shows
+		Date first; // expiration for customers, start for shows
+		Date second; // end for shows
+
+		Row(int line, String text) {
+			this.line = line;
+			this.text = text;
+		}
+	}
+
+	/*
+	 * A row that was turned down; its text is read back from the file for the report
+	 */
+	private static class Rejection {
+		final int line;
+		final String reason;
+
+		Rejection(int line, String reason) {
+			this.line = line;
+			this.reason = reason;
+		}
+	}
+
+	private final Theater theater;
+
+	/**
+	 * @param theater the Theater to import into
+	 */
+	public BulkImporter(Theater theater) {
+		this.theater = theater;
+	}
+
+	/**
+	 * Imports a CSV file
+	 * @param kind CLIENTS, CUSTOMERS or SHOWS
+	 * @param csvFile the file to read
+	 * @param rejectsFile where to write the rejection report
+	 * @return how many rows were imported and rejected
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public Result importFile(final int kind, String csvFile, String rejectsFile) throws IOException {
+		if (kind < CLIENTS || kind > SHOWS) {
+			throw new IllegalArgumentException("Unknown kind of record " + kind);
+		}
+		long start = System.nanoTime();
+		final List<Rejection> rejected = new ArrayList<Rejection>();
+		final List<Row> valid = parse(kind, csvFile, rejected);
+		if (kind == CUSTOMERS) {
+			rejectDuplicateCards(valid, rejected);
+		} else if (kind == SHOWS) {
+			rejectConflictingShows(valid, rejected);
+		}
+		final int[] accepted = new int[1];
+		if (valid.isEmpty()) {
+			writeRejections(rejected, csvFile, rejectsFile);
+			return new Result(0, rejected.size(), (System.nanoTime() - start) / 1000000);
+		}
+		boolean saved = Theater.applyInBulk(new Runnable() {
+			@Override
+			public void run() {
+				accepted[0] = apply(kind, valid, rejected);
+			}
+		});
+		if (!saved) {
+			throw new IOException("The imported records could not be saved");
+		}
+		writeRejections(rejected, csvFile, rejectsFile);
+		return new Result(accepted[0], rejected.size(), (System.nanoTime() - start) / 1000000);
+	}
+
+	/*
+	 * Reads the file a batch at a time, parsing each batch on the pool while
+	 * the next one is read.  At most two batches per thread are in flight; when
+	 * that many are, the oldest is waited for and its rows sorted out before
+	 * more is read.  The valid rows come back in file order.
+	 */
+	private List<Row> parse(final int kind, String csvFile, List<Rejection> rejected) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<List<Row>>> batches = new ArrayDeque<Future<List<Row>>>();
+		List<Row> valid = new ArrayList<Row>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile),
+				StandardCharsets.UTF_8), 1 << 16);
+		try {
+			int lineNumber = 0;
+			String line;
+			List<Row> batch = new ArrayList<Row>(BATCH_SIZE);
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty() || (lineNumber == 1 && isHeader(kind, line))) {
+					continue;
+				}
+				batch.add(new Row(lineNumber, line));
+				if (batch.size() == BATCH_SIZE) {
+					if (batches.size() == threads * 2) {
+						sortOut(batches.poll().get(), valid, rejected);
+					}
+					batches.add(pool.submit(parser(kind, batch)));
+					batch = new ArrayList<Row>(BATCH_SIZE);
+				}
+			}
+			batches.add(pool.submit(parser(kind, batch)));
+			while (!batches.isEmpty()) {
+				sortOut(batches.poll().get(), valid, rejected);
+			}
+			return valid;
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The import was interrupted");
+		} catch (ExecutionException failed) {
+			throw new IOException("Error parsing " + csvFile, failed.getCause());
+		} finally {
+			reader.close();
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Checks whether a line names the fields of kind, in order
+	 */
+	private static boolean isHeader(int kind, String line) {
+		String[] fields;
+		try {
+			fields = split(line);
+		} catch (IllegalArgumentException badLine) {
+			return false;
+		}
+		if (fields.length != HEADERS[kind].length) {
+			return false;
+		}
+		for (int i = 0; i < fields.length; i++) {
+			if (!fields[i].equalsIgnoreCase(HEADERS[kind][i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Keeps a parsed batch's valid rows and a compact record of each rejected one
+	 */
+	private static void sortOut(List<Row> batch, List<Row> valid, List<Rejection> rejected) {
+		for (Row row : batch) {
+			if (row.rejection == null) {
+				valid.add(row);
+			} else {
+				rejected.add(new Rejection(row.line, row.rejection));
+			}
+		}
+	}
+
+	private static Callable<List<Row>> parser(final int kind, final List<Row> batch) {
+		return new Callable<List<Row>>() {
+			@Override
+			public List<Row> call() {
+				Date now = new Date();
+				for (Row row : batch) {
+					validate(kind, row, now);
+				}
+				return batch;
+			}
+		};
+	}
+
+	/*
+	 * Checks everything about a row that doesn't depend on other rows
+	 */
+	private static void validate(int kind, Row row, Date now) {
+		String text = row.text;
+		row.text = null;
+		try {
+			row.fields = split(text);
+		} catch (IllegalArgumentException badLine) {
+			row.rejection = badLine.getMessage();
+			return;
+		}
+		if (row.fields.length != HEADERS[kind].length) {
+			row.rejection = "Expected " + HEADERS[kind].length + " fields but found " + row.fields.length;
+			row.fields = null;
+			return;
+		}
+		for (int i = 0; i < row.fields.length; i++) {
+			if (row.fields[i].isEmpty()) {
+				row.rejection = "Field " + (i + 1) + " is empty";
+				return;
+			}
+		}
+		try {
+			if (kind == CUSTOMERS) {
+				row.card = CreditCard.normalize(row.fields[3]);
+				row.first = date(row.fields[4]);
+				if (!row.first.after(now)) {
+					row.rejection = "The credit card has already expired";
+				}
+			} else if (kind == SHOWS) {
+				row.clientID = Integer.parseInt(row.fields[1]);
+				row.first = date(row.fields[2]);
+				row.second = date(row.fields[3]);
+				if (!row.first.before(row.second)) {
+					row.rejection = "The show must start before it ends";
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			row.rejection = "Not a client ID: " + row.fields[1];
+		} catch (IllegalArgumentException badDate) {
+			row.rejection = badDate.getMessage();
+		}
+	}
+
+	/*
+	 * One hash pass: the first row with a card keeps it
+	 */
+	private static void rejectDuplicateCards(List<Row> valid, List<Rejection> rejected) {
+		Map<String, Integer> firstLine = new HashMap<String, Integer>(valid.size() * 2);
+		List<Row> unique = new ArrayList<Row>(valid.size());
+		for (Row row : valid) {
+			Integer line = firstLine.putIfAbsent(row.card, row.line);
+			if (line == null) {
+				unique.add(row);
+			} else {
+				rejected.add(new Rejection(row.line, "The card is also on line " + line));
+			}
+		}
+		valid.clear();
+		valid.addAll(unique);
+	}
+
+	/*
+	 * One sort by start date and a sweep: a show is kept if it starts after
+	 * the last kept show ends, so of two conflicting shows the earlier one wins
+	 */
+	private static void rejectConflictingShows(List<Row> valid, List<Rejection> rejected) {
+		Row[] byStart = valid.toArray(new Row[valid.size()]);
+		Arrays.sort(byStart, new Comparator<Row>() {
+			@Override
+			public int compare(Row one, Row other) {
+				int order = one.first.compareTo(other.first);
+				return order != 0 ? order : Integer.compare(one.line, other.line);
+			}
+		});
+		valid.clear();
+		Row last = null;
+		for (Row row : byStart) {
+			if (last != null && !row.first.after(last.second)) {
+				rejected.add(new Rejection(row.line, "The show conflicts with the show on line " + last.line));
+			} else {
+				valid.add(row);
+				last = row;
+			}
+		}
+	}
+
+	/*
+	 * Adds the rows to the Theater.  Runs while no other change can be made,
+	 * so the checks against the data already in the Theater still hold when
+	 * the rows are added.
+	 * @return the number of rows added
+	 */
+	private int apply(int kind, List<Row> valid, List<Rejection> rejected) {
+		List<Row> accepted = new ArrayList<Row>(valid.size());
+		for (Row row : valid) {
+			if (kind == CUSTOMERS && theater.isCardOnFile(row.card)) {
+				row.rejection = "Card is already on file";
+			} else if (kind == SHOWS && ClientList.instance().get(row.clientID) == null) {
+				row.rejection = "No client with ID " + row.clientID;
+			} else if (kind == SHOWS && Schedule.instance().anyShowScheduled(row.first, row.second) != null) {
+				row.rejection = "The show conflicts with a show already scheduled";
+			}
+			if (row.rejection == null) {
+				accepted.add(row);
+			} else {
+				rejected.add(new Rejection(row.line, row.rejection));
+			}
+		}
+		if (accepted.isEmpty()) {
+			return 0;
+		}
+		IDServer server = IDServer.instance();
+		if (kind == CLIENTS) {
+			int ID = server.leaseClientIDs(accepted.size());
+			for (Row row : accepted) {
+				theater.replayAddClient(ID++, row.fields[0], row.fields[1], row.fields[2]);
+			}
+		} else if (kind == CUSTOMERS) {
+			int ID = server.leaseCustomerIDs(accepted.size());
+			for (Row row : accepted) {
+				Customer customer = new Customer(ID++, row.fields[0], row.fields[1], row.fields[2]);
+				customer.restoreCard(row.fields[3], row.first);
+				theater.restoreCustomer(customer);
+			}
+		} else {
+			for (Row row : accepted) {
+				theater.replayAddShow(row.fields[0], row.first, row.second, row.clientID);
+			}
+		}
+		return accepted.size();
+	}
+
+	/*
+	 * Writes the report in line order, reading the file through once more for
+	 * the text of the rejected lines
+	 */
+	private static void writeRejections(List<Rejection> rejected, String csvFile, String rejectsFile) throws IOException {
+		Collections.sort(rejected, new Comparator<Rejection>() {
+			@Override
+			public int compare(Rejection one, Rejection other) {
+				return Integer.compare(one.line, other.line);
+			}
+		});
+		Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejectsFile),
+				StandardCharsets.UTF_8), 1 << 16);
+		BufferedReader input = null;
+		try {
+			output.write("line,reason,record");
+			output.write(System.lineSeparator());
+			if (rejected.isEmpty()) {
+				return;
+			}
+			input = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile),
+					StandardCharsets.UTF_8), 1 << 16);
+			int lineNumber = 0;
+			String line = null;
+			for (Rejection rejection : rejected) {
+				while (lineNumber < rejection.line && (line = input.readLine()) != null) {
+					lineNumber++;
+				}
+				output.write(Integer.toString(rejection.line));
+				output.write(',');
+				output.write(quote(rejection.reason));
+				output.write(',');
+				output.write(quote(lineNumber == rejection.line && line != null ? line : ""));
+				output.write(System.lineSeparator());
+			}
+		} finally {
+			if (input != null) {
+				input.close();
+			}
+			output.close();
+		}
+	}
+
+	/*
+	 * Splits one CSV line into its fields, removing quotes and surrounding spaces
+	 */
+	static String[] split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString().trim());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("Unterminated quote");
+		}
+		fields.add(field.toString().trim());
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/*
+	 * Quotes a CSV field if it needs it
+	 */
+	static String quote(String field) {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+			return field;
+		}
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+
+	/*
+	 * Parses a yyyy-MM-dd date, as midnight at the start of the day
+	 */
+	static Date date(String text) {
+		try {
+			return Date.from(LocalDate.parse(text).atStartOfDay(ZoneId.systemDefault()).toInstant());
+		} catch (DateTimeParseException dtpe) {
+			throw new IllegalArgumentException("Not a yyyy-MM-dd date: " + text);
+		}
+	}
+}
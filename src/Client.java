@@ -1,88 +1,205 @@
-import java.io.Serializable;
-
-/**
- * Represents a single client
- * 
- * @author Dan Hanson
- * 
- */
-public class Client implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private String name;
-    private String address;
-    private String phone;
-    private int ID;
-    private long balance = 0; // In cents. It's cleaner than using a double
-
-    /**
-     * Simple creation of a Client.  ID is generated automatically from the IDServer class
-     * 
-     * @param name client's name
-     * @param address client's address
-     * @param phone client's phone number
-     */
-    public Client(String name, String address, String phone) {
-		this.setName(name);
-		this.setAddress(address);
-		this.setPhone(phone);
-		this.ID = IDServer.instance().getClientID();
-    }
-
-    /**
-     * @return the client's ID
-     */
-    public int getID() {
-    	return ID;
-    }
-
-    /**
-     * @return the client's name
-     */
-    public String getName() {
-    	return name;
-    }
-
-    /**
-     * @return the client's address
-     */
-    public String getAddress() {
-    	return address;
-    }
-
-    /**
-     * @return the client's phone number
-     */
-    public String getPhone() {
-    	return phone;
-    }
-
-    /**
-     * @param name the client's name to set
-     */
-    public void setName(String name) {
-    	this.name = name;
-    }
-
-    /**
-     * @param address the client's address to set
-     */
-    public void setAddress(String address) {
-    	this.address = address;
-    }
-
-    /**
-     * @param phone the client's phone number to set
-     */
-    public void setPhone(String phone) {
-    	this.phone = phone;
-    }
-
-    /**
-     * Returns a string with all of the client's data
-     */
-    @Override
-    public String toString() {
-		return "Name:" + name + ", Address:" + address + ", Phone Number:"
-			+ phone + ", ID:" + ID;
-    }
-}
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents a single client
+ * 
+ * The balance, what the theater owes the client in cents, is kept in a
+ * LongAdder so that many ticket sales can credit the same client at once
+ * without contending.  Changes to it go through the ClientLedger.
+ * 
+ * @author Dan Hanson
+ * 
+ */
+public class Client implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String name;
+    private String address;
+    private String phone;
+    private int ID;
+    private transient LongAdder balance = new LongAdder(); // In cents. It's cleaner than using a double
+    private transient ClientList owner; // the list indexing this client's details, if any
+
+    // The balance is still written as a long so files saved before it was a LongAdder can be read
+    private static final ObjectStreamField[] serialPersistentFields = {
+    	new ObjectStreamField("name", String.class),
+    	new ObjectStreamField("address", String.class),
+    	new ObjectStreamField("phone", String.class),
+    	new ObjectStreamField("ID", int.class),
+    	new ObjectStreamField("balance", long.class)
+    };
+
+    /**
+     * Simple creation of a Client.  ID is generated automatically from the IDServer class
+     * 
+     * @param name client's name
+     * @param address client's address
+     * @param phone client's phone number
+     */
+    public Client(String name, String address, String phone) {
+		this.setName(name);
+		this.setAddress(address);
+		this.setPhone(phone);
+		this.ID = IDServer.instance().getClientID();
+    }
+
+    /**
+     * Recreates a client that already has an ID, such as one read back from the journal
+     * 
+     * @param ID the client's existing ID
+     * @param name client's name
+     * @param address client's address
+     * @param phone client's phone number
+     */
+    Client(int ID, String name, String address, String phone) {
+		this.setName(name);
+		this.setAddress(address);
+		this.setPhone(phone);
+		this.ID = ID;
+    }
+
+    /**
+     * @return a separate Client with the same data, for snapshots
+     */
+    Client copy() {
+		Client copy = new Client(ID, name, address, phone);
+		copy.balance.add(balance.sum());
+		return copy;
+    }
+
+    /**
+     * @return the client's ID
+     */
+    public int getID() {
+    	return ID;
+    }
+
+    /**
+     * @return the client's name
+     */
+    public String getName() {
+    	return name;
+    }
+
+    /**
+     * @return the client's address
+     */
+    public String getAddress() {
+    	return address;
+    }
+
+    /**
+     * @return the client's phone number
+     */
+    public String getPhone() {
+    	return phone;
+    }
+
+    /**
+     * @return the client's balance in cents
+     */
+    long getBalance() {
+    	return balance.sum();
+    }
+
+    /**
+     * @param balance the client's balance in cents
+     */
+    void setBalance(long balance) {
+    	this.balance.reset();
+    	this.balance.add(balance);
+    }
+
+    /**
+     * Sets the ClientList that indexes this client, so details set later are
+     * kept in its index
+     * 
+     * @param owner the list holding this client, or null once it has been removed
+     */
+    void setOwner(ClientList owner) {
+    	this.owner = owner;
+    }
+
+    /**
+     * @param amount the cents to add to the client's balance; negative to take them off
+     */
+    void post(long amount) {
+    	balance.add(amount);
+    }
+
+    /**
+     * @param name the client's name to set
+     */
+    public void setName(String name) {
+    	String old = this.name;
+    	this.name = name;
+    	if (owner != null) {
+    		owner.detailChanged(this, SearchIndex.NAME, old, name);
+    	}
+    }
+
+    /**
+     * @param address the client's address to set
+     */
+    public void setAddress(String address) {
+    	String old = this.address;
+    	this.address = address;
+    	if (owner != null) {
+    		owner.detailChanged(this, SearchIndex.ADDRESS, old, address);
+    	}
+    }
+
+    /**
+     * @param phone the client's phone number to set
+     */
+    public void setPhone(String phone) {
+    	String old = this.phone;
+    	this.phone = phone;
+    	if (owner != null) {
+    		owner.detailChanged(this, SearchIndex.PHONE, old, phone);
+    	}
+    }
+
+    /**
+     * Returns a string with all of the client's data
+     */
+    @Override
+    public String toString() {
+		return "Name:" + name + ", Address:" + address + ", Phone Number:"
+			+ phone + ", ID:" + ID;
+    }
+
+    /**
+     * Supports serialization
+     * 
+     * @param output the stream to be written to
+     */
+    private void writeObject(ObjectOutputStream output) throws IOException {
+		ObjectOutputStream.PutField fields = output.putFields();
+		fields.put("name", name);
+		fields.put("address", address);
+		fields.put("phone", phone);
+		fields.put("ID", ID);
+		fields.put("balance", balance.sum());
+		output.writeFields();
+    }
+
+    /**
+     * Supports serialization
+     * 
+     * @param input the stream to be read from
+     */
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		name = (String) fields.get("name", null);
+		address = (String) fields.get("address", null);
+		phone = (String) fields.get("phone", null);
+		ID = fields.get("ID", 0);
+		balance = new LongAdder();
+		balance.add(fields.get("balance", 0L));
+    }
+}
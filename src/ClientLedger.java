@@ -0,0 +1,515 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * Records what the theater owes each client.  Every credit, debit and payout
+ * is appended to a log file as one fixed size record:
+ *
+ *   long time, int client ID, byte type, long amount in cents, int CRC32
+ *
+ * and added to the client's balance, which is a LongAdder so concurrent
+ * sales crediting the same client don't contend.  The log is never emptied:
+ * it is the audit trail of every change to a balance, and replaying it gives
+ * every balance, so balances don't depend on when the Theater was last
+ * saved.
+ *
+ * Entries are group committed.  A posting thread queues its entry and then
+ * waits for the log, and whichever thread gets the log writes every entry
+ * queued by then in one write.  So while one batch is being written the
+ * next builds up, and each sale waits for at most one write ahead of its
+ * own rather than one per sale.  Each batch is handed to the operating
+ * system before its posts return, and the file is forced to disk every
+ * syncEvery entries.  A batch that can't be written is cut off the file
+ * again and none of its entries are posted.
+ */
+public class ClientLedger {
+
+	/**
+	 * Money owed to the client, such as revenue from a ticket sale
+	 */
+	public static final byte CREDIT = 1;
+
+	/**
+	 * Money the client owes, such as a fee or a refund
+	 */
+	public static final byte DEBIT = 2;
+
+	/**
+	 * A balance paid out to the client by a settlement
+	 */
+	public static final byte PAYOUT = 3;
+
+	private static final int RECORD_LENGTH = 29;
+	private static final int MAX_BATCH = 256;
+
+	/**
+	 * One change to a client's balance, as read back from the log
+	 */
+	public static class Entry {
+		private final long time;
+		private final int clientID;
+		private final byte type;
+		private final long amount;
+
+		Entry(long time, int clientID, byte type, long amount) {
+			this.time = time;
+			this.clientID = clientID;
+			this.type = type;
+			this.amount = amount;
+		}
+
+		/**
+		 * @return when the entry was made, in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the ID of the client
+		 */
+		public int getClientID() {
+			return clientID;
+		}
+
+		/**
+		 * @return CREDIT, DEBIT or PAYOUT
+		 */
+		public byte getType() {
+			return type;
+		}
+
+		/**
+		 * @return the change to the balance in cents: positive for a credit, negative otherwise
+		 */
+		public long getAmount() {
+			return amount;
+		}
+
+		@Override
+		public String toString() {
+			String name = type == CREDIT ? "Credit" : type == DEBIT ? "Debit" : "Payout";
+			return new Date(time) + " " + name + " " + cents(amount) + " for client " + clientID;
+		}
+	}
+
+	/**
+	 * What one settlement paid out
+	 */
+	public static class Settlement {
+		private final Map<Integer, Long> payouts;
+		private final long total;
+		private final long millis;
+
+		Settlement(Map<Integer, Long> payouts, long total, long millis) {
+			this.payouts = payouts;
+			this.total = total;
+			this.millis = millis;
+		}
+
+		/**
+		 * @return the amount paid to each client paid anything, in cents, by client ID
+		 */
+		public Map<Integer, Long> getPayouts() {
+			return payouts;
+		}
+
+		/**
+		 * @return the total paid out in cents
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		@Override
+		public String toString() {
+			return cents(total) + " paid out to " + payouts.size() + " clients in " + millis + " ms";
+		}
+	}
+
+	/*
+	 * Takes every positive balance in a range of clients down to zero,
+	 * splitting the range in two until it is small enough to do directly
+	 */
+	private static class Settle extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int DIRECT = 256;
+		private final Client[] clients;
+		private final long[] payouts;
+		private final int from;
+		private final int to;
+
+		Settle(Client[] clients, long[] payouts, int from, int to) {
+			this.clients = clients;
+			this.payouts = payouts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= DIRECT) {
+				for (int i = from; i < to; i++) {
+					long owed = clients[i].getBalance();
+					if (owed > 0) {
+						// Sales made meanwhile are left in the balance for the next settlement
+						clients[i].post(-owed);
+						payouts[i] = owed;
+					}
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Settle(clients, payouts, from, middle), new Settle(clients, payouts, middle, to));
+		}
+	}
+
+	/*
+	 * An entry waiting to be written by whichever thread next gets the log
+	 */
+	private static class Pending {
+		final long time;
+		final int clientID;
+		final byte type;
+		final long amount;
+		volatile boolean written;
+		volatile IOException failure;
+
+		Pending(long time, int clientID, byte type, long amount) {
+			this.time = time;
+			this.clientID = clientID;
+			this.type = type;
+			this.amount = amount;
+		}
+	}
+
+	private final File file;
+	private final int syncEvery;
+	private FileOutputStream fileStream;
+	private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<Pending>();
+	private final Pending[] batch = new Pending[MAX_BATCH];
+	private final byte[] batchBuffer = new byte[MAX_BATCH * RECORD_LENGTH];
+	private final byte[] record = new byte[RECORD_LENGTH];
+	private final CRC32 crc = new CRC32();
+	private int unsynced;
+	private long length; // the end of the last batch written whole
+
+	/**
+	 * Creates a ledger on a log file.  Nothing is opened until open() is called.
+	 * @param fileName the name of the log file
+	 * @param syncEvery how many entries may be written before the file is forced to disk
+	 */
+	public ClientLedger(String fileName, int syncEvery) {
+		if (syncEvery < 1) {
+			throw new IllegalArgumentException("syncEvery must be at least 1");
+		}
+		this.file = new File(fileName);
+		this.syncEvery = syncEvery;
+	}
+
+	/**
+	 * Opens the log for appending
+	 * @throws IOException if the file cannot be opened
+	 */
+	public synchronized void open() throws IOException {
+		close();
+		fileStream = new FileOutputStream(file, true);
+		length = fileStream.getChannel().size();
+		unsynced = 0;
+	}
+
+	/**
+	 * Forces any entries not yet on disk out and closes the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void close() throws IOException {
+		if (fileStream != null) {
+			if (unsynced > 0) {
+				fileStream.getChannel().force(false);
+			}
+			fileStream.close();
+			fileStream = null;
+		}
+	}
+
+	/**
+	 * Records a change to a client's balance and makes it.  The entry is
+	 * written first, so a balance never holds money the log doesn't.
+	 * @param client the client
+	 * @param type CREDIT or DEBIT
+	 * @param amount the amount in cents, which must be positive
+	 * @throws IOException if the entry cannot be written; the balance is then unchanged
+	 */
+	public void post(Client client, byte type, long amount) throws IOException {
+		if ((type != CREDIT && type != DEBIT) || amount <= 0) {
+			throw new IllegalArgumentException("A credit or debit must be for a positive amount");
+		}
+		long change = type == CREDIT ? amount : -amount;
+		Pending entry = new Pending(System.currentTimeMillis(), client.getID(), type, change);
+		queue.add(entry);
+		synchronized (this) {
+			// Another thread may have written it while this one waited for the log
+			if (!entry.written) {
+				writeQueued();
+			}
+		}
+		if (entry.failure != null) {
+			throw entry.failure;
+		}
+		client.post(change);
+	}
+
+	/**
+	 * Pays out every client's positive balance and takes it down to zero, in
+	 * one pass over the clients split across the common fork/join pool.
+	 * Negative balances are carried forward.
+	 * @param clients the clients to settle
+	 * @return what was paid out
+	 * @throws IOException if the payouts cannot be written; the balances are then unchanged
+	 */
+	public Settlement settle(List<Client> clients) throws IOException {
+		long start = System.currentTimeMillis();
+		Client[] settled = clients.toArray(new Client[clients.size()]);
+		long[] payouts = new long[settled.length];
+		ForkJoinPool.commonPool().invoke(new Settle(settled, payouts, 0, settled.length));
+		Map<Integer, Long> paid = new LinkedHashMap<Integer, Long>();
+		long total = 0;
+		synchronized (this) {
+			try {
+				checkOpen();
+				int count = 0;
+				for (int i = 0; i < settled.length; i++) {
+					if (payouts[i] > 0) {
+						count++;
+					}
+				}
+				byte[] records = new byte[count * RECORD_LENGTH];
+				int offset = 0;
+				for (int i = 0; i < settled.length; i++) {
+					if (payouts[i] > 0) {
+						encode(records, offset, start, settled[i].getID(), PAYOUT, -payouts[i]);
+						offset += RECORD_LENGTH;
+						paid.put(settled[i].getID(), payouts[i]);
+						total += payouts[i];
+					}
+				}
+				append(records, records.length);
+				fileStream.getChannel().force(false);
+				unsynced = 0;
+			} catch (IOException ioe) {
+				// Nothing is paid unless every payout is on disk
+				cutOffUnfinished();
+				for (int i = 0; i < settled.length; i++) {
+					settled[i].post(payouts[i]);
+				}
+				throw ioe;
+			}
+		}
+		return new Settlement(paid, total, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Adds up every entry in the log.  A torn or corrupt record ends the
+	 * replay and is cut off the file.
+	 * @return the balance of every client with an entry, by client ID, or null if the log is empty
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized Map<Integer, Long> balances() throws IOException {
+		final Map<Integer, Long> balances = new HashMap<Integer, Long>();
+		int entries = read(new EntryVisitor() {
+			@Override
+			public void visit(long time, int clientID, byte type, long amount) {
+				Long balance = balances.get(clientID);
+				balances.put(clientID, balance == null ? amount : balance + amount);
+			}
+		});
+		return entries == 0 ? null : balances;
+	}
+
+	/**
+	 * Lists one client's entries, oldest first
+	 * @param clientID the ID of the client
+	 * @return the entries
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized List<Entry> entries(final int clientID) throws IOException {
+		final List<Entry> entries = new ArrayList<Entry>();
+		read(new EntryVisitor() {
+			@Override
+			public void visit(long time, int ID, byte type, long amount) {
+				if (ID == clientID) {
+					entries.add(new Entry(time, ID, type, amount));
+				}
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Formats cents as dollars and cents
+	 * @param cents the amount
+	 * @return the amount such as -12.05
+	 */
+	public static String cents(long cents) {
+		return (cents < 0 ? "-" : "") + Math.abs(cents / 100) + "." + String.format("%02d", Math.abs(cents % 100));
+	}
+
+	private interface EntryVisitor {
+		void visit(long time, int clientID, byte type, long amount);
+	}
+
+	/*
+	 * Reads every good record, then cuts off a torn or corrupt one at the end.
+	 * Returns the number of records read.
+	 */
+	private int read(EntryVisitor visitor) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		int count = 0;
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			while (true) {
+				try {
+					input.readFully(record);
+				} catch (EOFException endOfLog) {
+					break;
+				}
+				crc.reset();
+				crc.update(record, 0, RECORD_LENGTH - 4);
+				if ((int) crc.getValue() != getInt(RECORD_LENGTH - 4)) {
+					break;
+				}
+				visitor.visit(getLong(0), getInt(8), record[12], getLong(13));
+				count++;
+			}
+		} finally {
+			input.close();
+		}
+		long goodLength = (long) count * RECORD_LENGTH;
+		if (goodLength < file.length() && fileStream == null) {
+			RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+			try {
+				truncate.setLength(goodLength);
+			} finally {
+				truncate.close();
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Writes the queued entries a batch at a time, forcing the file to disk
+	 * once syncEvery entries have built up, and tells their posters how it
+	 * went.  Needs the lock.
+	 */
+	private void writeQueued() {
+		while (!queue.isEmpty()) {
+			int count = 0;
+			Pending next;
+			while (count < MAX_BATCH && (next = queue.poll()) != null) {
+				encode(batchBuffer, count * RECORD_LENGTH, next.time, next.clientID, next.type, next.amount);
+				batch[count++] = next;
+			}
+			IOException failure = null;
+			try {
+				checkOpen();
+				append(batchBuffer, count * RECORD_LENGTH);
+				unsynced += count;
+				if (unsynced >= syncEvery) {
+					fileStream.getChannel().force(false);
+					unsynced = 0;
+				}
+			} catch (IOException ioe) {
+				cutOffUnfinished();
+				failure = ioe;
+			}
+			for (int i = 0; i < count; i++) {
+				batch[i].failure = failure;
+				batch[i].written = true;
+				batch[i] = null;
+			}
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (fileStream == null) {
+			throw new IOException("The ledger is not open");
+		}
+	}
+
+	/*
+	 * Hands records to the operating system in one write
+	 */
+	private void append(byte[] records, int count) throws IOException {
+		fileStream.write(records, 0, count);
+		length += count;
+	}
+
+	/*
+	 * Truncates the file to the last batch written whole, or closes the
+	 * ledger if it can't, so no entry is in the log that wasn't posted
+	 */
+	private void cutOffUnfinished() {
+		if (fileStream == null) {
+			return;
+		}
+		try {
+			fileStream.getChannel().truncate(length);
+		} catch (IOException ioe) {
+			try {
+				fileStream.close();
+			} catch (IOException ignored) {
+				// Already failing
+			}
+			fileStream = null;
+		}
+	}
+
+	private void encode(byte[] buffer, int offset, long time, int clientID, byte type, long amount) {
+		putLong(buffer, offset, time);
+		putInt(buffer, offset + 8, clientID);
+		buffer[offset + 12] = type;
+		putLong(buffer, offset + 13, amount);
+		crc.reset();
+		crc.update(buffer, offset, RECORD_LENGTH - 4);
+		putInt(buffer, offset + RECORD_LENGTH - 4, (int) crc.getValue());
+	}
+
+	private static void putLong(byte[] buffer, int offset, long value) {
+		putInt(buffer, offset, (int) (value >>> 32));
+		putInt(buffer, offset + 4, (int) value);
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private long getLong(int offset) {
+		return ((long) getInt(offset) << 32) | (getInt(offset + 4) & 0xFFFFFFFFL);
+	}
+
+	private int getInt(int offset) {
+		return ((record[offset] & 0xFF) << 24) | ((record[offset + 1] & 0xFF) << 16)
+				| ((record[offset + 2] & 0xFF) << 8) | (record[offset + 3] & 0xFF);
+	}
+}
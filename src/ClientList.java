@@ -1,161 +1,349 @@
-import java.io.IOException;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-/**
- * Maintains a list of clients and provides custom functionality for adding,
- * removing, and searching the list for a client via ID
- * 
- * @author Brahma Dathan and Sarnath Ramnath
- * @Copyright (c) 2010
- * 
- *            Redistribution and use with or without modification, are permitted
- *            provided that the following conditions are met:
- * 
- *            - the use is for academic purpose only - Redistributions of source
- *            code must retain the above copyright notice, this list of
- *            conditions and the following disclaimer. - Neither the name of
- *            Brahma Dathan or Sarnath Ramnath may be used to endorse or promote
- *            products derived from this software without specific prior written
- *            permission.
- * 
- *            The authors do not make any claims regarding the correctness of
- *            the code in this module and are not responsible for any loss or
- *            damage resulting from its use.
- */
-
-public class ClientList implements Serializable {
-
-    private static final long serialVersionUID = 1L;
-    private List<Client> clients = new ArrayList<Client>();
-    private static ClientList clientList;
-
-    private ClientList(){
-    	// Default private for singleton
-    }
-    
-    /**
-     * Supports the singleton pattern
-     * 
-     * @return the singleton object
-     */
-    public static ClientList instance() {
-		if (clientList == null) {
-		    return (clientList = new ClientList());
-		} else {
-		    return clientList;
-		}
-    }
-
-    /**
-     * Returns the client with ID matching 'ID' or null if not found
-     * 
-     * @param ID unique identifier to find client
-     * @return the client that was found or null if client is not in clientList
-     */
-    public Client get(int ID) {
-		Iterator<Client> iterator = clients.iterator();
-		while (iterator.hasNext()) {
-		    Client client = iterator.next();
-		    if (client.getID() == ID) {
-		    	return client;
-		    }
-		}
-		return null;
-    }
-
-    /**
-     * Removes client with ID from the list if present
-     * 
-     * @param ID unique identifier to find client
-     * @return the client that was removed or null if not present
-     */
-    public Client remove(int ID) {
-		Client client = this.get(ID);
-		if (client != null) {
-		    clients.remove(client);
-		}
-	
-		return client;
-    }
-
-    /**
-     * returns an iterator to the clientList
-     * 
-     * @return clientList's iterator
-     */
-    public Iterator<Client> iterator() {
-    	return clients.iterator();
-    }
-
-    /**
-     * Adds a client to clientList if not already present in the list
-     * 
-     * @param client Client to be added
-     * @return
-     *   The Client that was added, or null if it wasn't
-     */
-    public Client add(Client client) {
-	
-		if (this.get(client.getID()) == null) {
-		    clients.add(client);
-		    return client;
-		}
-		return null;
-    }
-
-    /**
-     * Supports serialization
-     * 
-     * @param output the stream to be written to
-     */
-    public void writeObject(java.io.ObjectOutputStream output)
-		    throws IOException {
-		try {
-		    output.defaultWriteObject();
-		    output.writeObject(clientList);
-		} catch (IOException ioe) {
-		    ioe.printStackTrace();
-		}
-    }
-
-    /**
-     * Supports serialization
-     * 
-     * @param input the stream to be read from
-     */
-    public void readObject(java.io.ObjectInputStream input)
-		    throws IOException, ClassNotFoundException {
-		try {
-		    input.defaultReadObject();
-		    if (clientList == null) {
-		    	clientList = (ClientList) input.readObject();
-		    } else {
-		    	input.readObject();
-		    }
-		} catch (IOException ioe) {
-		    ioe.printStackTrace();
-		}
-    }
-
-    /**
-     * Returns a string listing all of the clients and the total number of
-     * clients
-     */
-    @Override
-    public String toString() {
-    	String newLine =  System.lineSeparator(); // So we aren't tied to Windows with /n
-		StringBuilder builder = new StringBuilder();
-		builder.append(this.clients.size() + " clients on file:");
-		Iterator<Client> iterator = clientList.iterator();
-		while (iterator.hasNext()) {
-			builder.append(newLine);
-		    builder.append(iterator.next().toString());
-		}
-	
-		return builder.toString();
-    }
-
-}
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Maintains a list of clients and provides custom functionality for adding,
+ * removing, and searching the list for a client via ID. Clients are held in an
+ * IDIndex so lookups, additions and removals by ID take constant time, and
+ * pages of clients in order of ID can be listed without a scan.  The
+ * list is safe to share between threads: lookups run in parallel under a read
+ * lock and iterators run over a copy of the list.
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ * 
+ *            Redistribution and use with or without modification, are permitted
+ *            provided that the following conditions are met:
+ * 
+ *            - the use is for academic purpose only - Redistributions of source
+ *            code must retain the above copyright notice, this list of
+ *            conditions and the following disclaimer. - Neither the name of
+ *            Brahma Dathan or Sarnath Ramnath may be used to endorse or promote
+ *            products derived from this software without specific prior written
+ *            permission.
+ * 
+ *            The authors do not make any claims regarding the correctness of
+ *            the code in this module and are not responsible for any loss or
+ *            damage resulting from its use.
+ */
+
+public class ClientList implements Serializable, Iterable<Client> {
+
+    private static final long serialVersionUID = 1L;
+    private transient IDIndex<Client> clients = new IDIndex<Client>();
+    private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private transient SearchIndex search = new SearchIndex();
+    private static ClientList clientList;
+
+    // The clients are still written as a List so files saved before the index was added can be read
+    private static final ObjectStreamField[] serialPersistentFields = {
+    	new ObjectStreamField("clients", List.class)
+    };
+
+    private ClientList(){
+    	// Default private for singleton
+    }
+    
+    /**
+     * Supports the singleton pattern
+     * 
+     * @return the singleton object
+     */
+    public static synchronized ClientList instance() {
+		if (clientList == null) {
+		    return (clientList = new ClientList());
+		} else {
+		    return clientList;
+		}
+    }
+
+    /**
+     * Returns the client with ID matching 'ID' or null if not found
+     * 
+     * @param ID unique identifier to find client
+     * @return the client that was found or null if client is not in clientList
+     */
+    public Client get(int ID) {
+		lock.readLock().lock();
+		try {
+		    return clients.get(ID);
+		} finally {
+		    lock.readLock().unlock();
+		}
+    }
+
+    /**
+     * Removes client with ID from the list if present
+     * 
+     * @param ID unique identifier to find client
+     * @return the client that was removed or null if not present
+     */
+    public Client remove(int ID) {
+		lock.writeLock().lock();
+		try {
+		    Client client = clients.remove(ID);
+		    if (client != null) {
+		    	client.setOwner(null);
+		    	search.remove(ID, client.getPhone());
+		    }
+		    return client;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Removes every client from the list
+     */
+    void clear() {
+		lock.writeLock().lock();
+		try {
+		    for (Client client : clients) {
+		    	client.setOwner(null);
+		    }
+		    clients.clear();
+		    search.clear();
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * returns an iterator to the clientList, over a copy of the list taken
+     * when it was created
+     * 
+     * @return clientList's iterator
+     */
+    @Override
+    public Iterator<Client> iterator() {
+		lock.readLock().lock();
+		try {
+		    if (clients.isSorted()) {
+		    	return copy().iterator();
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		// Clients added out of order are sorted into place first
+		lock.writeLock().lock();
+		try {
+		    clients.sort();
+		    return copy().iterator();
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Lists one page of clients in order of ID.  Only the clients on the page
+     * are looked at, however deep into the list it is.  A client removed
+     * while the page is being made is left out, so a page may hold fewer
+     * clients than asked for and still be followed by another.
+     * 
+     * @param cursor the cursor from the previous page, or null for the first page
+     * @param size the most clients to list
+     * @return the page
+     * @throws IllegalArgumentException if the cursor or the size is invalid
+     */
+    public Page<Client> page(String cursor, int size) {
+		Page.checkSize(size);
+		long[] position = Page.position(Page.CLIENTS, cursor);
+		// One ID more than asked for shows whether another page follows
+		int[] IDs = new int[size + 1];
+		int found = keysAfter(position, IDs);
+		List<Client> items = new ArrayList<Client>(Math.min(found, size));
+		lock.readLock().lock();
+		try {
+		    for (int i = 0; i < found && i < size; i++) {
+		    	Client client = clients.get(IDs[i]);
+		    	if (client != null) {
+		    		items.add(client);
+		    	}
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		String next = found > size ? Page.cursor(Page.CLIENTS, IDs[size - 1], 0) : null;
+		return new Page<Client>(items, next);
+    }
+
+    /*
+     * Lists the IDs after a page cursor's position, sorting any clients added
+     * out of order into place first
+     */
+    private int keysAfter(long[] position, int[] IDs) {
+		int afterID = position == null ? Integer.MIN_VALUE : (int) position[0];
+		lock.readLock().lock();
+		try {
+		    if (clients.isSorted()) {
+		    	return clients.keysAfter(afterID, IDs);
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try {
+		    clients.sort();
+		    return clients.keysAfter(afterID, IDs);
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /*
+     * Copies the list, so it can be iterated without holding the lock.  Needs
+     * the lock.
+     */
+    private List<Client> copy() {
+		List<Client> copy = new ArrayList<Client>(clients.size());
+		for (Client client : clients) {
+		    copy.add(client);
+		}
+		return copy;
+    }
+
+    /**
+     * Adds a client to clientList if not already present in the list
+     * 
+     * @param client Client to be added
+     * @return
+     *   The Client that was added, or null if it wasn't
+     */
+    public Client add(Client client) {
+		lock.writeLock().lock();
+		try {
+		    if (clients.put(client.getID(), client) == null) {
+		    	return null;
+		    }
+		    index(client);
+		    return client;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Returns the index of clients by name, address and phone number
+     * 
+     * @return the search index
+     */
+    SearchIndex search() {
+		return search;
+    }
+
+    /**
+     * Returns the clients with the given IDs, leaving out any removed since
+     * they were found
+     * 
+     * @param IDs the IDs of the clients
+     * @return the clients
+     */
+    List<Client> getAll(List<Integer> IDs) {
+		List<Client> found = new ArrayList<Client>(IDs.size());
+		for (int ID : IDs) {
+		    Client client = get(ID);
+		    if (client != null) {
+		    	found.add(client);
+		    }
+		}
+		return found;
+    }
+
+    /**
+     * Records a change to the name, address or phone number of a client in
+     * this list
+     * 
+     * @param client the client that changed
+     * @param detail SearchIndex.NAME, ADDRESS or PHONE
+     * @param old the value it had
+     * @param value the value it has now
+     */
+    void detailChanged(Client client, int detail, String old, String value) {
+		search.changed(client.getID(), detail, old, value);
+    }
+
+    /*
+     * Adds a client's details to the search index and links the client to
+     * this list so later changes are indexed too
+     */
+    private void index(Client client) {
+		client.setOwner(this);
+		search.add(client.getID(), client.getName(), client.getAddress(), client.getPhone());
+    }
+
+    /**
+     * Supports serialization.  Only the clients are written, which is the
+     * same layout the default serialization of this class has always produced.
+     * 
+     * @param output the stream to be written to
+     */
+    private void writeObject(ObjectOutputStream output)
+		    throws IOException {
+		try {
+		    List<Client> list = new ArrayList<Client>(clients.size());
+		    Iterator<Client> iterator = iterator();
+		    while (iterator.hasNext()) {
+		    	list.add(iterator.next());
+		    }
+		    ObjectOutputStream.PutField fields = output.putFields();
+		    fields.put("clients", list);
+		    output.writeFields();
+		} catch (IOException ioe) {
+		    ioe.printStackTrace();
+		}
+    }
+
+    /**
+     * Supports serialization
+     * 
+     * @param input the stream to be read from
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream input)
+		    throws IOException, ClassNotFoundException {
+		try {
+		    ObjectInputStream.GetField fields = input.readFields();
+		    clients = new IDIndex<Client>();
+		    lock = new ReentrantReadWriteLock();
+		    search = new SearchIndex();
+		    List<Client> list = (List<Client>) fields.get("clients", null);
+		    if (list != null) {
+		    	for (Client client : list) {
+		    		clients.put(client.getID(), client);
+		    		index(client);
+		    	}
+		    }
+		    if (clientList == null) {
+		    	clientList = this;
+		    }
+		} catch (IOException ioe) {
+		    ioe.printStackTrace();
+		}
+    }
+
+    /**
+     * Returns a string listing all of the clients and the total number of
+     * clients
+     */
+    @Override
+    public String toString() {
+    	String newLine =  System.lineSeparator(); // So we aren't tied to Windows with /n
+		StringBuilder builder = new StringBuilder();
+		builder.append(this.clients.size() + " clients on file:");
+		Iterator<Client> iterator = clientList.iterator();
+		while (iterator.hasNext()) {
+			builder.append(newLine);
+		    builder.append(iterator.next().toString());
+		}
+	
+		return builder.toString();
+    }
+
+}
@@ -1,46 +1,128 @@
-
-import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
-
-public class CreditCard implements Serializable{
-
-	private static final long serialVersionUID = 1L;
-	private Date expiration;
-	private String accountNumber;
-	
-	/**
-	 * Constructor
-	 * @param accountNumber The account number for the credit card
-	 * @param expiration The expiration date of the credit card
-	 */
-	public CreditCard(String accountNumber, Date expiration){
-		this.expiration = expiration;
-		this.accountNumber = accountNumber;
-	}
-
-	/**
-	 * @return the expiration
-	 */
-	public Date getExpiration() {
-		return expiration;
-	}
-
-	/**
-	 * @return the accountNumber
-	 */
-	public String getAccountNumber() {
-		return accountNumber;
-	}
-	
-	/** 
-	 * Returns a string representation of this credit card
-	 */
-	@Override
-	public String toString(){
-		SimpleDateFormat dateFormat = new SimpleDateFormat("MM-yy");
-		String expirationString = dateFormat.format(expiration);
-		return "Card Number:" + accountNumber + ", Expiration Date:" + expirationString;
-	}
-}
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Locale;
+
+
+/**
+ * A credit card.  Cards never change once made.  The expiration is held as
+ * milliseconds since the epoch so expiry checks compare plain longs.
+ */
+public class CreditCard implements Serializable{
+
+	private static final long serialVersionUID = 1L;
+	private static final DateTimeFormatter EXPIRATION_FORMAT = DateTimeFormatter.ofPattern("MM-yy");
+	private long expiration;
+	private String accountNumber;
+
+	// The expiration is still written as a Date so files saved before it was held as a long can be read
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("expiration", Date.class),
+		new ObjectStreamField("accountNumber", String.class)
+	};
+	
+	/**
+	 * Constructor
+	 * @param accountNumber The account number for the credit card
+	 * @param expiration The expiration date of the credit card
+	 */
+	public CreditCard(String accountNumber, Date expiration){
+		this(accountNumber, expiration.getTime());
+	}
+
+	/**
+	 * Constructor
+	 * @param accountNumber The account number for the credit card
+	 * @param expiration The expiration date in milliseconds since the epoch
+	 */
+	CreditCard(String accountNumber, long expiration){
+		this.expiration = expiration;
+		this.accountNumber = accountNumber;
+	}
+
+	/**
+	 * @return the expiration, as a new Date
+	 */
+	public Date getExpiration() {
+		return new Date(expiration);
+	}
+
+	/**
+	 * @return the expiration in milliseconds since the epoch
+	 */
+	public long getExpirationTime() {
+		return expiration;
+	}
+
+	/**
+	 * @param time a time in milliseconds since the epoch
+	 * @return true if the card has expired by then
+	 */
+	public boolean expiredBy(long time) {
+		return expiration <= time;
+	}
+
+	/**
+	 * @return the accountNumber
+	 */
+	public String getAccountNumber() {
+		return accountNumber;
+	}
+
+	/**
+	 * Puts an account number in the form used to compare cards: spaces and
+	 * dashes are dropped and letters are upper case, so "4111-1111" and
+	 * "4111 1111" are the same card.
+	 * @param accountNumber The account number as entered
+	 * @return The normalized account number
+	 */
+	public static String normalize(String accountNumber) {
+		StringBuilder builder = new StringBuilder(accountNumber.length());
+		for (int i = 0; i < accountNumber.length(); i++) {
+			char c = accountNumber.charAt(i);
+			if (c != ' ' && c != '-') {
+				builder.append(c);
+			}
+		}
+		return builder.toString().toUpperCase(Locale.ROOT);
+	}
+	
+	/** 
+	 * Returns a string representation of this credit card
+	 */
+	@Override
+	public String toString(){
+		String expirationString = EXPIRATION_FORMAT.format(Instant.ofEpochMilli(expiration).atZone(ZoneId.systemDefault()));
+		return "Card Number:" + accountNumber + ", Expiration Date:" + expirationString;
+	}
+
+	/**
+	 * Supports serialization
+	 * 
+	 * @param output the stream to be written to
+	 */
+	private void writeObject(ObjectOutputStream output) throws IOException {
+		ObjectOutputStream.PutField fields = output.putFields();
+		fields.put("expiration", new Date(expiration));
+		fields.put("accountNumber", accountNumber);
+		output.writeFields();
+	}
+
+	/**
+	 * Supports serialization
+	 * 
+	 * @param input the stream to be read from
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		expiration = ((Date) fields.get("expiration", null)).getTime();
+		accountNumber = (String) fields.get("accountNumber", null);
+	}
+}
@@ -1,176 +1,290 @@
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Iterator;
-import java.util.List;
-
-/**
- * Represents a single customer
- * 
- * @author Mohamad Hussain
- * 
- */
-public class Customer implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private String name;
-    private String address;
-    private String phone;
-    private List<CreditCard> creditCards;
-    private int ID;
-  
-    /**
-     *  creation of a Customer
-     * 
-     * @param name customer's name
-     * @param address customer's address
-     * @param phone customer's phone number
-     * @param ID unique identifier
-     */
-    public Customer(String name, String address, String phone, String creditCardNumber, Date expiryDate) {
-		this.setName(name);
-		this.setAddress(address);
-		this.setPhone(phone);
-		this.creditCards = new ArrayList<CreditCard>();
-		if (addCard(creditCardNumber, expiryDate) == null){
-			throw new IllegalArgumentException("The credit card has already expired");
-		}
-		ID = IDServer.instance().getCustomerID();
-    } 
-
-    /**
-     * Creates and adds a credit card to this customer.  Cards that have already expired will not be allowed.
-     * @param creditCardNumber
-     *   The number of the credit card
-     * @param expiryDate
-     *   The expiration date of the credit card
-     * @return 
-     *   The Customer that had a card added, or null if it wasn't
-     */
-    public Customer addCard(String creditCardNumber, Date expiryDate) throws IllegalArgumentException {
-    	// Check if its already expired
-    	Date rightNow = Calendar.getInstance().getTime();
-    	System.out.println("now:" + rightNow);
-    	System.out.println("exp:" + expiryDate);
-		if (expiryDate.compareTo(rightNow) <= 0){
-			return null;
-		}
-		
-		// Add the card
-    	CreditCard card = new CreditCard(creditCardNumber, expiryDate);
-    	this.creditCards.add(card);
-    	return this;
-    }
-    
-    /**
-     * Removed a credit card from the customer.
-     * @param creditCardNumber
-     *   The number of the card to be removed
-     * @return
-     *   TheCreditCard that was removed, or null if a card with the supplied number was not found.
-     */
-    public CreditCard removeCard(String creditCardNumber) {
-    	Iterator<CreditCard> iterator = listCards();
-    	CreditCard card;
-    	if(this.creditCards.size()==1){
-    	    return null;
-    	}
-    	while (iterator.hasNext()){
-    		card = iterator.next();
-    		if (card.getAccountNumber().equals(creditCardNumber)){
-    			creditCards.remove(card);
-    			return card;
-    		}
-    	}
-    	return null;
-    }
-    
-    /**
-     * Gets the iterator for the list of credit cards this customer owns
-     * @return
-     *   The iterator for all this customer's credit cards
-     */
-    public Iterator<CreditCard> listCards(){
-    	return creditCards.iterator();
-    }
-    
-    /**
-     * All getters properties to get the attributes of the class object
-     */
-    
-    /**
-     * @return the customer's ID
-     */
-    public int getID() {
-    	return ID;
-    }
-
-    /**
-     * @return the customer's name
-     */
-    public String getName() {
-    	return name;
-    }
-
-    /**
-     * @return the customer's address
-     */
-    public String getAddress() {
-    	return address;
-    }
-
-    /**
-     * @return the customer's phone number
-     */
-    public String getPhone() {
-    	return phone;
-    }
-    
-    /**
-     * All Setter properties to set the attributes of the class object
-     * 
-     */
-
-    /**
-     * @param name the customer's name to set
-     */
-    public void setName(String name) {
-    	this.name = name;
-    }
-
-    /**
-     * @param address the customer's address to set
-     */
-    public void setAddress(String address) {
-    	this.address = address;
-    }
-
-    /**
-     * @param phone the customer's phone number to set
-     */
-    public void setPhone(String phone) {
-    	this.phone = phone;
-    }
-    
-
-    /**
-     * Returns a string with all of the customer's data
-     */
-    @Override
-    public String toString() {
-    	String newLine = System.lineSeparator();
-    	StringBuilder answer = new StringBuilder();
-    	
-    	answer.append("Name:" + name + ", Address:" + address + ", Phone Number:"
-    			+ phone + ", ID:" + ID);
-    	answer.append(newLine + "  Credit Cards:");
-    	
-    	Iterator<CreditCard> iterator = listCards();
-    	while(iterator.hasNext()){
-    		answer.append(newLine + "  " + iterator.next());
-    	}
-    	
-    	return answer.toString();
-    }
-}
-
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Represents a single customer.  The credit cards are held in a copy-on-write
+ * list, since they are listed far more often than they change, so they can be
+ * listed while another thread adds or removes a card.
+ * 
+ * @author Mohamad Hussain
+ * 
+ */
+public class Customer implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String name;
+    private String address;
+    private String phone;
+    private List<CreditCard> creditCards;
+    private int ID;
+    private transient CustomerList owner; // the list indexing this customer's details and cards, if any
+  
+    /**
+     *  creation of a Customer
+     * 
+     * @param name customer's name
+     * @param address customer's address
+     * @param phone customer's phone number
+     * @param ID unique identifier
+     */
+    public Customer(String name, String address, String phone, String creditCardNumber, Date expiryDate) {
+		this.setName(name);
+		this.setAddress(address);
+		this.setPhone(phone);
+		this.creditCards = new CopyOnWriteArrayList<CreditCard>();
+		if (addCard(creditCardNumber, expiryDate) == null){
+			throw new IllegalArgumentException("The credit card has already expired");
+		}
+		ID = IDServer.instance().getCustomerID();
+    } 
+
+    /**
+     * Recreates a customer that already has an ID, such as one read back from
+     * the journal.  Cards are restored afterwards with restoreCard.
+     * 
+     * @param ID the customer's existing ID
+     * @param name customer's name
+     * @param address customer's address
+     * @param phone customer's phone number
+     */
+    Customer(int ID, String name, String address, String phone) {
+		this.setName(name);
+		this.setAddress(address);
+		this.setPhone(phone);
+		this.creditCards = new CopyOnWriteArrayList<CreditCard>();
+		this.ID = ID;
+    }
+
+    /**
+     * Creates and adds a credit card to this customer.  Cards that have already expired will not be allowed.
+     * @param creditCardNumber
+     *   The number of the credit card
+     * @param expiryDate
+     *   The expiration date of the credit card
+     * @return 
+     *   The Customer that had a card added, or null if it wasn't
+     */
+    public Customer addCard(String creditCardNumber, Date expiryDate) throws IllegalArgumentException {
+    	// Check if its already expired
+		if (expiryDate.getTime() <= System.currentTimeMillis()){
+			return null;
+		}
+		
+		// Add the card
+    	CreditCard card = new CreditCard(creditCardNumber, expiryDate);
+    	this.creditCards.add(card);
+    	if (owner != null) {
+    		owner.cardAdded(this, card);
+    	}
+    	return this;
+    }
+    
+    /**
+     * Adds a card that was already accepted once, without checking its expiration.
+     * Used when rebuilding customers from saved data.
+     * @param creditCardNumber
+     *   The number of the credit card
+     * @param expiryDate
+     *   The expiration date of the credit card
+     */
+    void restoreCard(String creditCardNumber, Date expiryDate) {
+    	restoreCard(creditCardNumber, expiryDate.getTime());
+    }
+
+    /**
+     * Adds a card that was already accepted once, without checking its expiration.
+     * Used when rebuilding customers from saved data.
+     * @param creditCardNumber
+     *   The number of the credit card
+     * @param expiration
+     *   The expiration date of the credit card in milliseconds since the epoch
+     */
+    void restoreCard(String creditCardNumber, long expiration) {
+    	CreditCard card = new CreditCard(creditCardNumber, expiration);
+    	this.creditCards.add(card);
+    	if (owner != null) {
+    		owner.cardAdded(this, card);
+    	}
+    }
+    
+    /**
+     * Removed a credit card from the customer.
+     * @param creditCardNumber
+     *   The number of the card to be removed, with or without spaces and dashes
+     * @return
+     *   TheCreditCard that was removed, or null if a card with the supplied number was not found.
+     */
+    public CreditCard removeCard(String creditCardNumber) {
+    	Iterator<CreditCard> iterator = listCards();
+    	CreditCard card;
+    	if(this.creditCards.size()==1){
+    	    return null;
+    	}
+    	// Compared the way the card index compares them, however they are punctuated
+    	String key = CreditCard.normalize(creditCardNumber);
+    	while (iterator.hasNext()){
+    		card = iterator.next();
+    		if (CreditCard.normalize(card.getAccountNumber()).equals(key)){
+    			creditCards.remove(card);
+    			if (owner != null) {
+    				owner.cardRemoved(this, card);
+    			}
+    			return card;
+    		}
+    	}
+    	return null;
+    }
+    
+    /**
+     * @param card a card
+     * @return true if this customer holds that very card
+     */
+    boolean holds(CreditCard card) {
+    	for (CreditCard held : creditCards) {
+    		if (held == card) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * Gets the iterator for the list of credit cards this customer owns
+     * @return
+     *   The iterator for all this customer's credit cards
+     */
+    public Iterator<CreditCard> listCards(){
+    	return creditCards.iterator();
+    }
+
+    /**
+     * @return a separate Customer with the same data, for snapshots.  The
+     *   CreditCards are shared since they never change.
+     */
+    Customer copy() {
+    	Customer copy = new Customer(ID, name, address, phone);
+    	copy.creditCards.addAll(creditCards);
+    	return copy;
+    }
+
+    /**
+     * Sets the CustomerList that indexes this customer, so details set and
+     * cards added or removed later are kept in its indexes
+     * @param owner
+     *   The list holding this customer, or null once it has been removed
+     */
+    void setOwner(CustomerList owner) {
+    	this.owner = owner;
+    }
+    
+    /**
+     * All getters properties to get the attributes of the class object
+     */
+    
+    /**
+     * @return the customer's ID
+     */
+    public int getID() {
+    	return ID;
+    }
+
+    /**
+     * @return the customer's name
+     */
+    public String getName() {
+    	return name;
+    }
+
+    /**
+     * @return the customer's address
+     */
+    public String getAddress() {
+    	return address;
+    }
+
+    /**
+     * @return the customer's phone number
+     */
+    public String getPhone() {
+    	return phone;
+    }
+    
+    /**
+     * All Setter properties to set the attributes of the class object
+     * 
+     */
+
+    /**
+     * @param name the customer's name to set
+     */
+    public void setName(String name) {
+    	String old = this.name;
+    	this.name = name;
+    	if (owner != null) {
+    		owner.detailChanged(this, SearchIndex.NAME, old, name);
+    	}
+    }
+
+    /**
+     * @param address the customer's address to set
+     */
+    public void setAddress(String address) {
+    	String old = this.address;
+    	this.address = address;
+    	if (owner != null) {
+    		owner.detailChanged(this, SearchIndex.ADDRESS, old, address);
+    	}
+    }
+
+    /**
+     * @param phone the customer's phone number to set
+     */
+    public void setPhone(String phone) {
+    	String old = this.phone;
+    	this.phone = phone;
+    	if (owner != null) {
+    		owner.detailChanged(this, SearchIndex.PHONE, old, phone);
+    	}
+    }
+    
+
+    /**
+     * Supports serialization.  Customers saved before the cards were kept in a
+     * copy-on-write list are read with whatever list they were saved with, so
+     * the cards are moved into one.
+     * 
+     * @param input the stream to be read from
+     */
+    private void readObject(ObjectInputStream input)
+    		throws IOException, ClassNotFoundException {
+    	input.defaultReadObject();
+    	if (!(creditCards instanceof CopyOnWriteArrayList)) {
+    		creditCards = new CopyOnWriteArrayList<CreditCard>(creditCards);
+    	}
+    }
+
+    /**
+     * Returns a string with all of the customer's data
+     */
+    @Override
+    public String toString() {
+    	String newLine = System.lineSeparator();
+    	StringBuilder answer = new StringBuilder();
+    	
+    	answer.append("Name:" + name + ", Address:" + address + ", Phone Number:"
+    			+ phone + ", ID:" + ID);
+    	answer.append(newLine + "  Credit Cards:");
+    	
+    	Iterator<CreditCard> iterator = listCards();
+    	while(iterator.hasNext()){
+    		answer.append(newLine + "  " + iterator.next());
+    	}
+    	
+    	return answer.toString();
+    }
+}
+
@@ -1,147 +1,684 @@
-import java.io.IOException;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-/**
- * @author Mohamad Hussain
- * 
- * Maintains a list of customers and provides custom functionality for adding,
- * removing, and searching the list for a customer via ID
- * 
- */
-
-public class CustomerList implements Serializable {
-
-    private static final long serialVersionUID = 1L;
-    private List<Customer> customers = new ArrayList<Customer>();
-    private static CustomerList customerList;
-
-    private CustomerList(){
-    	// Default private for singleton
-    }
-    
-    /**
-     * Supports the singleton pattern
-     * 
-     * @return the singleton object
-     */
-    public static CustomerList instance() {
-		if (customerList == null) {
-		    return (customerList = new CustomerList());
-		} else {
-		    return customerList;
-		}
-    }
-
-    /**
-     * Returns the customer with ID matching 'ID' or null if not found
-     * 
-     * @param ID unique identifier to find customer
-     * @return the customer that was found or null if customer is not in customerList
-     */
-    public Customer get(int ID) {
-		Iterator<Customer> iterator = customers.iterator();
-		while (iterator.hasNext()) {
-		    Customer customer = (Customer) iterator.next();
-		    if (customer.getID() == ID) {
-		    	return customer;
-		    }
-		}
-		return null;
-    }
-
-    /**
-     * Removes customer with ID from the list if present
-     * 
-     * @param ID unique identifier to find customer
-     * @return the customer that was removed or null if not present
-     */
-    public Customer remove(int ID) {
-		Customer customer = this.get(ID);
-		if (customer != null) {
-		    customers.remove(customer);
-		}
-		return customer;
-    }
-
-    /**
-     * returns an iterator to the customerList
-     * 
-     * @return customerList's iterator
-     */
-    public Iterator<Customer> iterator() {
-    	return customers.iterator();
-    }
-
-    /**
-     * Adds a Customer to customerList if not already present in the list
-     * 
-     * @param customer Customer to be added
-     * @return The customer that was added, or null if it wasn't
-     */
-    public Customer add(Customer customer) {
-
-		if (this.get(customer.getID()) == null) {
-		    customers.add(customer);
-		    return customer;
-		}
-		return null;
-    }
-
-    /**
-     * Supports serialization
-     * 
-     * @param output the stream to be written to
-     */
-    private void writeObject(java.io.ObjectOutputStream output)
-		    throws IOException {
-		try {
-		    output.defaultWriteObject();
-		    output.writeObject(customerList);
-		} catch (IOException ioe) {
-		    ioe.printStackTrace();
-		}
-    }
-
-    /**
-     * Supports serialization
-     * 
-     * @param input the stream to be read from
-     */
-    private void readObject(java.io.ObjectInputStream input)
-		    throws IOException, ClassNotFoundException {
-		try {
-		    input.defaultReadObject();
-		    if (customerList == null) {
-		    	customerList = (CustomerList) input.readObject();
-		    } else {
-			input.readObject();
-		    }
-		} catch (IOException ioe) {
-		    ioe.printStackTrace();
-		}
-    }
-
-    /**
-     * Returns a string listing all of the customers and the total number of
-     * customers
-     */
-    @Override
-    public String toString() {
-    	String newLine =  System.lineSeparator(); // So we aren't tied to Windows with /n
-    	
-		StringBuilder builder = new StringBuilder();
-		builder.append(this.customers.size() + " customers on file:");
-		Iterator<Customer> iterator = customerList.iterator();
-		
-		while (iterator.hasNext()) {
-			builder.append(newLine);
-		    builder.append(iterator.next().toString());
-		}
-		return builder.toString();
-    }
-
-}
-
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author Mohamad Hussain
+ * 
+ * Maintains a list of customers and provides custom functionality for adding,
+ * removing, and searching the list for a customer via ID
+ * 
+ * Customers are held in an IDIndex so that get, add and remove by ID take
+ * constant time, while iteration and paging follow the order of ID.
+ * It also keeps an index from normalized card number to the ID of the customer
+ * holding that card, so duplicate card checks don't have to scan every customer,
+ * and an ExpiryIndex of every card by the month it expires in.
+ * 
+ * After a lazy load the customers stay in the mapped snapshot, and each is
+ * decoded into the index the first time get, remove or iteration reaches it.
+ * An ID missing from the index is looked up in the snapshot's sorted customer
+ * index, and a bit per snapshot position marks the customers already decoded
+ * or removed, so attaching a snapshot doesn't touch its customers at all.
+ * 
+ * The list is safe to share between threads.  Lookups take a read lock and run
+ * in parallel; changes to the list take the write lock.  Card ownership is
+ * claimed atomically in a concurrent map, so two customers can never end up
+ * holding the same card.
+ * 
+ */
+
+public class CustomerList implements Serializable, Iterable<Customer> {
+
+    private static final long serialVersionUID = 1L;
+    private transient IDIndex<Customer> customers = new IDIndex<Customer>();
+    private transient ConcurrentMap<String, Integer> cardOwners = new ConcurrentHashMap<String, Integer>();
+    private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private transient ExpiryIndex expiries = new ExpiryIndex();
+    private transient SearchIndex search = new SearchIndex();
+    private transient LazyCustomers lazy;
+    private transient BitSet settled; // snapshot positions decoded or removed
+    private transient int unloaded;
+    private static CustomerList customerList;
+
+    // The customers are still written as a List so files saved before the index was added can be read
+    private static final ObjectStreamField[] serialPersistentFields = {
+    	new ObjectStreamField("customers", List.class)
+    };
+
+    private CustomerList(){
+    	// Default private for singleton
+    }
+    
+    /**
+     * Supports the singleton pattern
+     * 
+     * @return the singleton object
+     */
+    public static synchronized CustomerList instance() {
+		if (customerList == null) {
+		    return (customerList = new CustomerList());
+		} else {
+		    return customerList;
+		}
+    }
+
+    /**
+     * Returns the customer with ID matching 'ID' or null if not found
+     * 
+     * @param ID unique identifier to find customer
+     * @return the customer that was found or null if customer is not in customerList
+     */
+    public Customer get(int ID) {
+		Customer customer;
+		lock.readLock().lock();
+		try {
+		    customer = customers.get(ID);
+		    if (customer != null || unloadedPosition(ID) < 0) {
+		    	return customer;
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try {
+		    customer = customers.get(ID);
+		    if (customer == null) {
+		    	int position = unloadedPosition(ID);
+		    	if (position >= 0) {
+		    		customer = load(position);
+		    	}
+		    }
+		    return customer;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Removes customer with ID from the list if present
+     * 
+     * @param ID unique identifier to find customer
+     * @return the customer that was removed or null if not present
+     */
+    public Customer remove(int ID) {
+		lock.writeLock().lock();
+		try {
+		    int position = unloadedPosition(ID);
+		    if (position >= 0) {
+		    	load(position);
+		    }
+		    Customer customer = customers.remove(ID);
+		    if (customer != null) {
+		    	customer.setOwner(null);
+		    	search.remove(ID, customer.getPhone());
+		    	Iterator<CreditCard> cards = customer.listCards();
+		    	while (cards.hasNext()) {
+		    		cardRemoved(customer, cards.next());
+		    	}
+		    }
+		    return customer;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Removes every customer from the list
+     */
+    void clear() {
+		lock.writeLock().lock();
+		try {
+		    for (Customer customer : customers) {
+		    	customer.setOwner(null);
+		    }
+		    customers.clear();
+		    cardOwners.clear();
+		    expiries.clear();
+		    search.clear();
+		    lazy = null;
+		    settled = null;
+		    unloaded = 0;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * returns an iterator to the customerList.  The iterator runs over a copy
+     * of the list taken when it was created, so other threads may go on
+     * changing the list while it is used.
+     * 
+     * @return customerList's iterator
+     */
+    @Override
+    public Iterator<Customer> iterator() {
+		lock.readLock().lock();
+		try {
+		    if (unloaded == 0 && customers.isSorted()) {
+		    	return copy().iterator();
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		// Listing every customer decodes whatever is still in the snapshot and
+		// sorts customers added out of order into place
+		lock.writeLock().lock();
+		try {
+		    loadAll();
+		    customers.sort();
+		    return copy().iterator();
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Returns the index of every card by expiry month.  Any customers still
+     * in a mapped snapshot are decoded first, so that their cards are in it.
+     * 
+     * @return the expiry index
+     */
+    ExpiryIndex expiries() {
+		lock.readLock().lock();
+		try {
+		    if (unloaded == 0) {
+		    	return expiries;
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try {
+		    loadAll();
+		    return expiries;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Returns the index of customers by name, address, phone number and card.
+     * Any customers still in a mapped snapshot are decoded first, so that
+     * they can be found.
+     * 
+     * @return the search index
+     */
+    SearchIndex search() {
+		lock.readLock().lock();
+		try {
+		    if (unloaded == 0) {
+		    	return search;
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try {
+		    loadAll();
+		    return search;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Returns the customers with the given IDs, leaving out any removed since
+     * they were found
+     * 
+     * @param IDs the IDs of the customers
+     * @return the customers
+     */
+    List<Customer> getAll(List<Integer> IDs) {
+		List<Customer> found = new ArrayList<Customer>(IDs.size());
+		for (int ID : IDs) {
+		    Customer customer = get(ID);
+		    if (customer != null) {
+		    	found.add(customer);
+		    }
+		}
+		return found;
+    }
+
+    /**
+     * Lists one page of customers in order of ID.  Only the customers on the
+     * page are looked at, however deep into the list it is.  A customer
+     * removed while the page is being made is left out, so a page may hold
+     * fewer customers than asked for and still be followed by another.
+     * 
+     * @param cursor the cursor from the previous page, or null for the first page
+     * @param size the most customers to list
+     * @return the page
+     * @throws IllegalArgumentException if the cursor or the size is invalid
+     */
+    public Page<Customer> page(String cursor, int size) {
+		return page(cursor, size, true);
+    }
+
+    /**
+     * Lists one page of customers like page(), but decodes customers still in
+     * a mapped snapshot without keeping them, so walking the whole list doesn't
+     * load the snapshot into memory.  The customers decoded are copies that
+     * later changes don't reach; they are only for reading, as by an export.
+     * 
+     * @param cursor the cursor from the previous page, or null for the first page
+     * @param size the most customers to list
+     * @return the page
+     * @throws IllegalArgumentException if the cursor or the size is invalid
+     */
+    Page<Customer> detachedPage(String cursor, int size) {
+		return page(cursor, size, false);
+    }
+
+    private Page<Customer> page(String cursor, int size, boolean keep) {
+		Page.checkSize(size);
+		long[] position = Page.position(Page.CUSTOMERS, cursor);
+		// One ID more than asked for shows whether another page follows
+		int[] IDs = new int[size + 1];
+		int found = keysAfter(position, IDs);
+		List<Customer> items = new ArrayList<Customer>(Math.min(found, size));
+		for (int i = 0; i < found && i < size; i++) {
+		    // get() decodes customers still in a mapped snapshot and keeps them
+		    Customer customer = keep ? get(IDs[i]) : peek(IDs[i]);
+		    if (customer != null) {
+		    	items.add(customer);
+		    }
+		}
+		String next = found > size ? Page.cursor(Page.CUSTOMERS, IDs[size - 1], 0) : null;
+		return new Page<Customer>(items, next);
+    }
+
+    /*
+     * Returns the customer with an ID, decoding one still in the mapped
+     * snapshot without keeping it
+     */
+    private Customer peek(int ID) {
+		lock.readLock().lock();
+		try {
+		    Customer customer = customers.get(ID);
+		    if (customer == null) {
+		    	int position = unloadedPosition(ID);
+		    	if (position >= 0) {
+		    		customer = lazy.loadAt(position);
+		    	}
+		    }
+		    return customer;
+		} finally {
+		    lock.readLock().unlock();
+		}
+    }
+
+    /*
+     * Lists the IDs after a page cursor's position, sorting any customers
+     * added out of order into place first
+     */
+    private int keysAfter(long[] position, int[] IDs) {
+		int afterID = position == null ? Integer.MIN_VALUE : (int) position[0];
+		lock.readLock().lock();
+		try {
+		    if (customers.isSorted()) {
+		    	return mergedKeysAfter(afterID, IDs);
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try {
+		    customers.sort();
+		    return mergedKeysAfter(afterID, IDs);
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /*
+     * Lists the IDs after afterID of both the customers in the index and
+     * those still in the mapped snapshot, merged in order.  Needs the lock and
+     * a sorted index.
+     */
+    private int mergedKeysAfter(int afterID, int[] IDs) {
+		if (lazy == null) {
+		    return customers.keysAfter(afterID, IDs);
+		}
+		int[] loaded = new int[IDs.length];
+		int loadedCount = customers.keysAfter(afterID, loaded);
+		int position = lazy.positionOf(afterID);
+		position = settled.nextClearBit(position < 0 ? -position - 1 : position + 1);
+		int next = 0;
+		int found = 0;
+		while (found < IDs.length) {
+		    boolean inSnapshot = position < lazy.size();
+		    if (inSnapshot && (next == loadedCount || lazy.IDAt(position) < loaded[next])) {
+		    	IDs[found++] = lazy.IDAt(position);
+		    	position = settled.nextClearBit(position + 1);
+		    } else if (next < loadedCount) {
+		    	IDs[found++] = loaded[next++];
+		    } else {
+		    	break;
+		    }
+		}
+		return found;
+    }
+
+    /**
+     * Adds a Customer to customerList if not already present in the list and
+     * none of its cards is held by another customer
+     * 
+     * @param customer Customer to be added
+     * @return The customer that was added, or null if it wasn't
+     */
+    public Customer add(Customer customer) {
+		lock.writeLock().lock();
+		try {
+		    if (customers.containsKey(customer.getID()) || unloadedPosition(customer.getID()) >= 0) {
+		    	return null;
+		    }
+		    List<String> claimed = new ArrayList<String>();
+		    Iterator<CreditCard> cards = customer.listCards();
+		    while (cards.hasNext()) {
+		    	String key = CreditCard.normalize(cards.next().getAccountNumber());
+		    	boolean taken = heldInSnapshot(key) != 0;
+		    	if (!taken) {
+		    		Integer holder = cardOwners.putIfAbsent(key, customer.getID());
+		    		if (holder == null) {
+		    			claimed.add(key);
+		    		} else {
+		    			taken = holder.intValue() != customer.getID();
+		    		}
+		    	}
+		    	if (taken) {
+		    		for (String claim : claimed) {
+		    			cardOwners.remove(claim);
+		    		}
+		    		return null;
+		    	}
+		    }
+		    customers.put(customer.getID(), customer);
+		    customer.setOwner(this);
+		    search.add(customer.getID(), customer.getName(), customer.getAddress(), customer.getPhone());
+		    cards = customer.listCards();
+		    while (cards.hasNext()) {
+		    	CreditCard card = cards.next();
+		    	expiries.add(customer.getID(), card);
+		    	search.addCard(customer.getID(), card.getAccountNumber());
+		    }
+		    return customer;
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Returns the customer holding the card with the given account number
+     * 
+     * @param accountNumber the card number, compared in normalized form
+     * @return the customer holding the card, or null if no customer has it
+     */
+    public Customer cardOwner(String accountNumber) {
+		String key = CreditCard.normalize(accountNumber);
+		int owner;
+		lock.readLock().lock();
+		try {
+		    Integer ID = cardOwners.get(key);
+		    if (ID != null) {
+		    	return customers.get(ID);
+		    }
+		    owner = heldInSnapshot(key);
+		} finally {
+		    lock.readLock().unlock();
+		}
+		return owner == 0 ? null : get(owner);
+    }
+
+    /**
+     * Claims a card for a customer before it is added to them, so that no
+     * other customer can be given the same card in the meantime.  The claim
+     * must be released if the card is not added after all.
+     * 
+     * @param accountNumber the card number, compared in normalized form
+     * @param ID the ID of the customer the card is for
+     * @return true if the card was claimed, false if a customer already holds it
+     */
+    boolean claimCard(String accountNumber, int ID) {
+		String key = CreditCard.normalize(accountNumber);
+		lock.readLock().lock();
+		try {
+		    return heldInSnapshot(key) == 0 && cardOwners.putIfAbsent(key, ID) == null;
+		} finally {
+		    lock.readLock().unlock();
+		}
+    }
+
+    /**
+     * Gives up a claim made with claimCard for a card that was not added
+     * 
+     * @param accountNumber the card number, compared in normalized form
+     * @param ID the ID of the customer the card was claimed for
+     */
+    void releaseCard(String accountNumber, int ID) {
+		cardOwners.remove(CreditCard.normalize(accountNumber), ID);
+    }
+
+    /**
+     * Replaces the contents of the list with the customers of a mapped
+     * snapshot, without decoding or even listing any of them yet
+     * 
+     * @param snapshot the customers in the snapshot
+     */
+    void attach(LazyCustomers snapshot) {
+		lock.writeLock().lock();
+		try {
+		    clear();
+		    unloaded = snapshot.size();
+		    if (unloaded > 0) {
+		    	lazy = snapshot;
+		    	settled = new BitSet();
+		    }
+		} finally {
+		    lock.writeLock().unlock();
+		}
+    }
+
+    /**
+     * Records a card that was added to a customer in this list
+     * 
+     * @param customer the customer that got the card
+     * @param card the card added
+     */
+    void cardAdded(Customer customer, CreditCard card) {
+		// Never take a card away from the customer already holding it, which
+		// can only be asked for while replaying a journal over a newer snapshot
+		cardOwners.putIfAbsent(CreditCard.normalize(card.getAccountNumber()), customer.getID());
+		expiries.add(customer.getID(), card);
+		search.addCard(customer.getID(), card.getAccountNumber());
+    }
+
+    /**
+     * Records a change to the name, address or phone number of a customer in
+     * this list
+     * 
+     * @param customer the customer that changed
+     * @param detail SearchIndex.NAME, ADDRESS or PHONE
+     * @param old the value it had
+     * @param value the value it has now
+     */
+    void detailChanged(Customer customer, int detail, String old, String value) {
+		search.changed(customer.getID(), detail, old, value);
+    }
+
+    /**
+     * Forgets a card that was removed from a customer in this list
+     * 
+     * @param customer the customer that lost the card
+     * @param card the card removed
+     */
+    void cardRemoved(Customer customer, CreditCard card) {
+		cardOwners.remove(CreditCard.normalize(card.getAccountNumber()), customer.getID());
+		expiries.remove(card);
+		search.removeCard(customer.getID(), card.getAccountNumber());
+    }
+
+    /*
+     * Returns the ID of the customer holding a card in the mapped snapshot, if
+     * that customer has not been decoded yet, or 0.  Cards of customers still
+     * in the snapshot are only in its card index.  Needs the lock.
+     */
+    private int heldInSnapshot(String key) {
+		if (lazy == null) {
+		    return 0;
+		}
+		int owner = lazy.cardOwner(key);
+		return owner != 0 && unloadedPosition(owner) >= 0 ? owner : 0;
+    }
+
+    /*
+     * Returns the snapshot position of a customer that is still only in the
+     * mapped snapshot, or -1 if the customer isn't there or has already been
+     * decoded or removed.  Needs the lock.
+     */
+    private int unloadedPosition(int ID) {
+		if (lazy == null) {
+		    return -1;
+		}
+		int position = lazy.positionOf(ID);
+		return position >= 0 && !settled.get(position) ? position : -1;
+    }
+
+    /*
+     * Copies the list, so it can be iterated without holding the lock.  Needs
+     * the lock.
+     */
+    private List<Customer> copy() {
+		List<Customer> copy = new ArrayList<Customer>(customers.size());
+		for (Customer customer : customers) {
+		    copy.add(customer);
+		}
+		return copy;
+    }
+
+    /*
+     * Decodes every customer still in the mapped snapshot.  Needs the write
+     * lock.
+     */
+    private void loadAll() {
+		int position = 0;
+		while (unloaded > 0) {
+		    position = settled.nextClearBit(position);
+		    load(position);
+		}
+    }
+
+    /*
+     * Decodes the customer at a position in the mapped snapshot into the
+     * index.  Needs the write lock.
+     */
+    private Customer load(int position) {
+		Customer customer = lazy.loadAt(position);
+		settled.set(position);
+		customers.put(customer.getID(), customer);
+		index(customer);
+		if (--unloaded == 0) {
+		    // Everything has been decoded, so the mapping can be let go
+		    lazy = null;
+		    settled = null;
+		}
+		return customer;
+    }
+
+    /*
+     * Adds a customer's details to the search index and all of its cards to
+     * the card indexes, and links the customer to this list so later changes
+     * are indexed too
+     */
+    private void index(Customer customer) {
+		customer.setOwner(this);
+		search.add(customer.getID(), customer.getName(), customer.getAddress(), customer.getPhone());
+		Iterator<CreditCard> cards = customer.listCards();
+		while (cards.hasNext()) {
+		    cardAdded(customer, cards.next());
+		}
+    }
+
+    /**
+     * Supports serialization
+     * 
+     * @param output the stream to be written to
+     */
+    private void writeObject(ObjectOutputStream output)
+		    throws IOException {
+		try {
+		    List<Customer> list = new ArrayList<Customer>(customers.size());
+		    Iterator<Customer> iterator = iterator();
+		    while (iterator.hasNext()) {
+		    	list.add(iterator.next());
+		    }
+		    ObjectOutputStream.PutField fields = output.putFields();
+		    fields.put("customers", list);
+		    output.writeFields();
+		    output.writeObject(customerList);
+		} catch (IOException ioe) {
+		    ioe.printStackTrace();
+		}
+    }
+
+    /**
+     * Supports serialization
+     * 
+     * @param input the stream to be read from
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream input)
+		    throws IOException, ClassNotFoundException {
+		try {
+		    ObjectInputStream.GetField fields = input.readFields();
+		    customers = new IDIndex<Customer>();
+		    cardOwners = new ConcurrentHashMap<String, Integer>();
+		    lock = new ReentrantReadWriteLock();
+		    expiries = new ExpiryIndex();
+		    search = new SearchIndex();
+		    List<Customer> list = (List<Customer>) fields.get("customers", null);
+		    if (list != null) {
+		    	for (Customer customer : list) {
+		    		customers.put(customer.getID(), customer);
+		    		index(customer);
+		    	}
+		    }
+		    if (customerList == null) {
+		    	customerList = (CustomerList) input.readObject();
+		    } else {
+			input.readObject();
+		    }
+		} catch (IOException ioe) {
+		    ioe.printStackTrace();
+		}
+    }
+
+    /**
+     * Returns a string listing all of the customers and the total number of
+     * customers
+     */
+    @Override
+    public String toString() {
+    	String newLine =  System.lineSeparator(); // So we aren't tied to Windows with /n
+    	
+		StringBuilder builder = new StringBuilder();
+		builder.append((this.customers.size() + unloaded) + " customers on file:");
+		Iterator<Customer> iterator = customerList.iterator();
+		
+		while (iterator.hasNext()) {
+			builder.append(newLine);
+		    builder.append(iterator.next().toString());
+		}
+		return builder.toString();
+    }
+
+}
+
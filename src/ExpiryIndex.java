@@ -0,0 +1,205 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An index of every customer's credit cards by the month they expire in.
+ * Cards are kept in one bucket per month, so the cards expiring in the next
+ * few months are found by visiting just those buckets, and the cards that
+ * expired in a month gone by can be taken out as a whole bucket.
+ *
+ * Expired cards that can't be removed, because they are their customer's
+ * last card, are set aside as lapsed until the customer gets a new card.
+ *
+ * The CustomerList keeps the index up to date as cards are added and
+ * removed.  It is safe to use from several threads.
+ */
+public class ExpiryIndex {
+
+	/**
+	 * A card along with the ID of the customer holding it
+	 */
+	public static class Entry {
+		private final int customerID;
+		private final CreditCard card;
+
+		Entry(int customerID, CreditCard card) {
+			this.customerID = customerID;
+			this.card = card;
+		}
+
+		/**
+		 * @return the ID of the customer holding the card
+		 */
+		public int getCustomerID() {
+			return customerID;
+		}
+
+		/**
+		 * @return the card
+		 */
+		public CreditCard getCard() {
+			return card;
+		}
+
+		@Override
+		public String toString() {
+			return "Customer ID:" + customerID + ", " + card;
+		}
+	}
+
+	// Month number to the cards expiring in it; cards are compared by identity
+	private final ConcurrentNavigableMap<Integer, ConcurrentMap<CreditCard, Integer>> buckets =
+			new ConcurrentSkipListMap<Integer, ConcurrentMap<CreditCard, Integer>>();
+	private final ConcurrentMap<CreditCard, Integer> lapsed = new ConcurrentHashMap<CreditCard, Integer>();
+
+	/**
+	 * Adds a card
+	 * @param customerID the ID of the customer holding it
+	 * @param card the card
+	 */
+	void add(int customerID, CreditCard card) {
+		Integer month = month(card.getExpirationTime());
+		ConcurrentMap<CreditCard, Integer> bucket = buckets.get(month);
+		if (bucket == null) {
+			bucket = new ConcurrentHashMap<CreditCard, Integer>();
+			ConcurrentMap<CreditCard, Integer> raced = buckets.putIfAbsent(month, bucket);
+			if (raced != null) {
+				bucket = raced;
+			}
+		}
+		bucket.put(card, customerID);
+	}
+
+	/**
+	 * Removes a card
+	 * @param card the card
+	 */
+	void remove(CreditCard card) {
+		ConcurrentMap<CreditCard, Integer> bucket = buckets.get(month(card.getExpirationTime()));
+		if (bucket != null) {
+			bucket.remove(card);
+		}
+		lapsed.remove(card);
+	}
+
+	/**
+	 * Removes every card
+	 */
+	void clear() {
+		buckets.clear();
+		lapsed.clear();
+	}
+
+	/**
+	 * Lists the cards that have not expired yet but will within some months
+	 * @param now the current time in milliseconds since the epoch
+	 * @param months how many months to look ahead, counting the current one
+	 * @return the cards found, in order of month
+	 */
+	public List<Entry> expiringWithin(long now, int months) {
+		List<Entry> found = new ArrayList<Entry>();
+		if (months <= 0) {
+			return found;
+		}
+		int first = month(now);
+		// Clamped so a long look ahead doesn't wrap around before first
+		int end = (int) Math.min((long) first + months, Integer.MAX_VALUE);
+		for (Map<CreditCard, Integer> bucket : buckets.subMap(first, end).values()) {
+			for (Map.Entry<CreditCard, Integer> card : bucket.entrySet()) {
+				if (!card.getKey().expiredBy(now)) {
+					found.add(new Entry(card.getValue(), card.getKey()));
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Lists the IDs of customers who may have no valid card left: those with a
+	 * lapsed card, and those with an expired card that has not been swept yet.
+	 * Callers should check each customer's cards.
+	 * @param now the current time in milliseconds since the epoch
+	 * @return the customer IDs, possibly with repeats
+	 */
+	List<Integer> lapsedCandidates(long now) {
+		List<Integer> candidates = new ArrayList<Integer>(lapsed.values());
+		for (Map<CreditCard, Integer> bucket : buckets.headMap(month(now), true).values()) {
+			for (Map.Entry<CreditCard, Integer> card : bucket.entrySet()) {
+				if (card.getKey().expiredBy(now)) {
+					candidates.add(card.getValue());
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Takes out the oldest bucket if its month is over, so every card in it
+	 * has expired
+	 * @param now the current time in milliseconds since the epoch
+	 * @return the cards in the bucket, or null if there is no such bucket
+	 */
+	List<Entry> pollExpiredBucket(long now) {
+		Map.Entry<Integer, ConcurrentMap<CreditCard, Integer>> oldest = buckets.firstEntry();
+		if (oldest == null || oldest.getKey() >= month(now) || !buckets.remove(oldest.getKey(), oldest.getValue())) {
+			return null;
+		}
+		List<Entry> expired = new ArrayList<Entry>(oldest.getValue().size());
+		for (Map.Entry<CreditCard, Integer> card : oldest.getValue().entrySet()) {
+			expired.add(new Entry(card.getValue(), card.getKey()));
+		}
+		return expired;
+	}
+
+	/**
+	 * Sets aside an expired card its customer has to keep, or one a sweep
+	 * took out of its bucket but didn't get to
+	 * @param entry the card and its customer
+	 */
+	void lapse(Entry entry) {
+		lapsed.put(entry.getCard(), entry.getCustomerID());
+	}
+
+	/**
+	 * Forgets a lapsed card its customer no longer holds
+	 * @param entry the card and its customer
+	 */
+	void unlapse(Entry entry) {
+		lapsed.remove(entry.getCard(), entry.getCustomerID());
+	}
+
+	/**
+	 * @return the lapsed cards, to be retried once their customers may have new cards
+	 */
+	List<Entry> lapsedCards() {
+		List<Entry> cards = new ArrayList<Entry>(lapsed.size());
+		for (Map.Entry<CreditCard, Integer> card : lapsed.entrySet()) {
+			cards.add(new Entry(card.getValue(), card.getKey()));
+		}
+		return cards;
+	}
+
+	/**
+	 * @return the number of lapsed cards
+	 */
+	public int lapsedCount() {
+		return lapsed.size();
+	}
+
+	/*
+	 * Numbers months from the epoch in the local time zone, so a month's bucket
+	 * holds the cards expiring on its calendar days
+	 */
+	private static int month(long time) {
+		ZonedDateTime date = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault());
+		return date.getYear() * 12 + date.getMonthValue() - 1;
+	}
+}
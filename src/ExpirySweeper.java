@@ -0,0 +1,153 @@
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes expired credit cards from customers, a month of the ExpiryIndex at
+ * a time.  A card is only removed if its customer has another card, as
+ * Customer.removeCard requires; a customer's last card is kept even when it
+ * has expired and is set aside as lapsed.  Lapsed cards are tried again on
+ * every sweep, since the customer may have been given a new card since.  If a
+ * sweep fails part way through a month, the cards it didn't get to are set
+ * aside as lapsed too.
+ *
+ * Sweeps can be run by hand or on a timer.  Only one sweep runs at a time.
+ */
+public class ExpirySweeper {
+
+	/**
+	 * The card was removed
+	 */
+	public static final int REMOVED = 0;
+
+	/**
+	 * The card was kept as its customer's last card
+	 */
+	public static final int KEPT = 1;
+
+	/**
+	 * The card or its customer was removed before the sweep got to it
+	 */
+	public static final int GONE = 2;
+
+	/**
+	 * What one sweep did
+	 */
+	public static class Report {
+		private final int buckets;
+		private final int removed;
+		private final int kept;
+		private final long millis;
+
+		Report(int buckets, int removed, int kept, long millis) {
+			this.buckets = buckets;
+			this.removed = removed;
+			this.kept = kept;
+			this.millis = millis;
+		}
+
+		/**
+		 * @return the number of months of cards swept
+		 */
+		public int getBuckets() {
+			return buckets;
+		}
+
+		/**
+		 * @return the number of expired cards removed
+		 */
+		public int getRemoved() {
+			return removed;
+		}
+
+		/**
+		 * @return the number of expired cards kept because they were their customer's last
+		 */
+		public int getKept() {
+			return kept;
+		}
+
+		@Override
+		public String toString() {
+			return removed + " expired cards removed and " + kept + " kept as a customer's last card, from "
+					+ buckets + " months, in " + millis + " ms";
+		}
+	}
+
+	private ScheduledExecutorService timer;
+	private volatile Report lastReport;
+
+	/**
+	 * Sweeps every month that is over, and retries the lapsed cards
+	 * @param theater the Theater to sweep
+	 * @return what the sweep did
+	 */
+	public synchronized Report sweep(Theater theater) {
+		long start = System.currentTimeMillis();
+		ExpiryIndex index = theater.expiryIndex();
+		int[] outcomes = new int[3];
+		for (ExpiryIndex.Entry entry : index.lapsedCards()) {
+			outcomes[theater.sweepCard(entry)]++;
+		}
+		int buckets = 0;
+		List<ExpiryIndex.Entry> bucket;
+		while ((bucket = index.pollExpiredBucket(start)) != null) {
+			buckets++;
+			int swept = 0;
+			try {
+				for (; swept < bucket.size(); swept++) {
+					outcomes[theater.sweepCard(bucket.get(swept))]++;
+				}
+			} finally {
+				// The bucket is out of the index, so whatever a failure left is set aside to be retried
+				for (int i = swept; i < bucket.size(); i++) {
+					index.lapse(bucket.get(i));
+				}
+			}
+		}
+		Report report = new Report(buckets, outcomes[REMOVED], outcomes[KEPT], System.currentTimeMillis() - start);
+		lastReport = report;
+		return report;
+	}
+
+	/**
+	 * Sweeps on a timer
+	 * @param intervalSeconds how often to sweep; 0 to stop sweeping
+	 */
+	public synchronized void every(long intervalSeconds) {
+		if (timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+		if (intervalSeconds > 0) {
+			timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "expiry-sweeper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			timer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sweep(Theater.instance());
+					} catch (RuntimeException failure) {
+						// Keep the timer going; cards this sweep missed were set aside as lapsed and are retried next time
+						System.out.println("The expiry sweep failed: " + failure);
+					}
+				}
+			}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * @return the report of the last sweep, or null if there hasn't been one
+	 */
+	public Report lastReport() {
+		return lastReport;
+	}
+}
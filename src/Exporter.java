@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * Streams clients, customers and shows out as CSV or JSON Lines.  Each record
+ * is encoded straight into one reused buffer as UTF-8 and the buffer is
+ * written to the channel whenever it fills, so no strings are built per
+ * record and memory use doesn't grow with the number of records.  For that to
+ * hold end to end, feed it from the Theater's walk methods, which read the
+ * data a page at a time instead of copying it.
+ *
+ * CSV files start with a header line.  Customers are written one line per
+ * card, so a customer with two cards takes two lines.  Dates are written
+ * yyyy-MM-dd in both formats.
+ */
+public class Exporter {
+
+	public static final int CSV = 0;
+	public static final int JSON_LINES = 1;
+
+	private final WritableByteChannel channel;
+	private final int format;
+	private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private final Calendar calendar = Calendar.getInstance();
+	private char highSurrogate; // the first half of a surrogate pair, until the second arrives
+
+	/**
+	 * @param channel where to write; it is not closed by the Exporter
+	 * @param format CSV or JSON_LINES
+	 */
+	public Exporter(WritableByteChannel channel, int format) {
+		if (format != CSV && format != JSON_LINES) {
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+		this.channel = channel;
+		this.format = format;
+	}
+
+	/**
+	 * A filter for customers holding a card that expires before a date
+	 * @param date the date
+	 * @return the filter
+	 */
+	public static Predicate<Customer> cardsExpiringBefore(Date date) {
+		final long time = date.getTime();
+		return new Predicate<Customer>() {
+			@Override
+			public boolean test(Customer customer) {
+				Iterator<CreditCard> cards = customer.listCards();
+				while (cards.hasNext()) {
+					if (cards.next().getExpirationTime() < time) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * A filter for shows that start after a date
+	 * @param date the date
+	 * @return the filter
+	 */
+	public static Predicate<Show> showsAfter(Date date) {
+		final long time = date.getTime();
+		return new Predicate<Show>() {
+			@Override
+			public boolean test(Show show) {
+				return show.getStartTime() > time;
+			}
+		};
+	}
+
+	/**
+	 * Writes clients
+	 * @param clients the clients to write
+	 * @param filter which clients to write, or null for all of them
+	 * @return the number of clients written
+	 * @throws IOException if the channel cannot be written
+	 */
+	public int exportClients(Iterator<Client> clients, Predicate<Client> filter) throws IOException {
+		int count = 0;
+		if (format == CSV) {
+			text("id,name,address,phone,balance\n");
+		}
+		while (clients.hasNext()) {
+			Client client = clients.next();
+			if (filter != null && !filter.test(client)) {
+				continue;
+			}
+			if (format == CSV) {
+				number(client.getID());
+				text(",");
+				field(client.getName());
+				text(",");
+				field(client.getAddress());
+				text(",");
+				field(client.getPhone());
+				text(",");
+				number(client.getBalance());
+			} else {
+				text("{\"id\":");
+				number(client.getID());
+				text(",\"name\":");
+				field(client.getName());
+				text(",\"address\":");
+				field(client.getAddress());
+				text(",\"phone\":");
+				field(client.getPhone());
+				text(",\"balance\":");
+				number(client.getBalance());
+				text("}");
+			}
+			text("\n");
+			count++;
+		}
+		flush();
+		return count;
+	}
+
+	/**
+	 * Writes customers along with their cards
+	 * @param customers the customers to write
+	 * @param filter which customers to write, or null for all of them
+	 * @return the number of customers written
+	 * @throws IOException if the channel cannot be written
+	 */
+	public int exportCustomers(Iterator<Customer> customers, Predicate<Customer> filter) throws IOException {
+		int count = 0;
+		if (format == CSV) {
+			text("id,name,address,phone,cardNumber,expiration\n");
+		}
+		while (customers.hasNext()) {
+			Customer customer = customers.next();
+			if (filter != null && !filter.test(customer)) {
+				continue;
+			}
+			Iterator<CreditCard> cards = customer.listCards();
+			if (format == CSV) {
+				while (cards.hasNext()) {
+					CreditCard card = cards.next();
+					number(customer.getID());
+					text(",");
+					field(customer.getName());
+					text(",");
+					field(customer.getAddress());
+					text(",");
+					field(customer.getPhone());
+					text(",");
+					field(card.getAccountNumber());
+					text(",");
+					date(card.getExpirationTime());
+					text("\n");
+				}
+			} else {
+				text("{\"id\":");
+				number(customer.getID());
+				text(",\"name\":");
+				field(customer.getName());
+				text(",\"address\":");
+				field(customer.getAddress());
+				text(",\"phone\":");
+				field(customer.getPhone());
+				text(",\"cards\":[");
+				while (cards.hasNext()) {
+					CreditCard card = cards.next();
+					text("{\"cardNumber\":");
+					field(card.getAccountNumber());
+					text(",\"expiration\":\"");
+					date(card.getExpirationTime());
+					text(cards.hasNext() ? "\"}," : "\"}");
+				}
+				text("]}\n");
+			}
+			count++;
+		}
+		flush();
+		return count;
+	}
+
+	/**
+	 * Writes shows
+	 * @param shows the shows to write
+	 * @param filter which shows to write, or null for all of them
+	 * @return the number of shows written
+	 * @throws IOException if the channel cannot be written
+	 */
+	public int exportShows(Iterator<Show> shows, Predicate<Show> filter) throws IOException {
+		int count = 0;
+		if (format == CSV) {
+			text("name,clientId,start,end\n");
+		}
+		while (shows.hasNext()) {
+			Show show = shows.next();
+			if (filter != null && !filter.test(show)) {
+				continue;
+			}
+			if (format == CSV) {
+				field(show.getName());
+				text(",");
+				number(show.getClientID());
+				text(",");
+				date(show.getStartTime());
+				text(",");
+				date(show.getEndTime());
+			} else {
+				text("{\"name\":");
+				field(show.getName());
+				text(",\"clientId\":");
+				number(show.getClientID());
+				text(",\"start\":\"");
+				date(show.getStartTime());
+				text("\",\"end\":\"");
+				date(show.getEndTime());
+				text("\"}");
+			}
+			text("\n");
+			count++;
+		}
+		flush();
+		return count;
+	}
+
+	/**
+	 * Writes out whatever is buffered
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/*
+	 * Writes a string field: quoted only if needed in CSV, always quoted and
+	 * escaped in JSON
+	 */
+	private void field(String value) throws IOException {
+		if (format == JSON_LINES) {
+			character('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					character('\\');
+					character(c);
+				} else if (c < 0x20) {
+					text("\\u00");
+					character(Character.forDigit(c >> 4, 16));
+					character(Character.forDigit(c & 0xF, 16));
+				} else {
+					character(c);
+				}
+			}
+			character('"');
+			return;
+		}
+		boolean quoted = false;
+		for (int i = 0; i < value.length() && !quoted; i++) {
+			char c = value.charAt(i);
+			quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quoted) {
+			text(value);
+			return;
+		}
+		character('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				character('"');
+			}
+			character(c);
+		}
+		character('"');
+	}
+
+	private void text(String value) throws IOException {
+		for (int i = 0; i < value.length(); i++) {
+			character(value.charAt(i));
+		}
+	}
+
+	/*
+	 * Encodes one char as UTF-8.  A surrogate pair is encoded when its low
+	 * half arrives.
+	 */
+	private void character(char c) throws IOException {
+		if (buffer.remaining() < 4) {
+			flush();
+		}
+		if (c < 0x80) {
+			buffer.put((byte) c);
+		} else if (c < 0x800) {
+			buffer.put((byte) (0xC0 | (c >> 6)));
+			buffer.put((byte) (0x80 | (c & 0x3F)));
+		} else if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+			int codePoint = Character.toCodePoint(highSurrogate, c);
+			highSurrogate = 0;
+			buffer.put((byte) (0xF0 | (codePoint >> 18)));
+			buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+			buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+		} else {
+			buffer.put((byte) (0xE0 | (c >> 12)));
+			buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (c & 0x3F)));
+		}
+	}
+
+	/*
+	 * Writes a number in decimal without making a string of it
+	 */
+	private void number(long value) throws IOException {
+		if (buffer.remaining() < 20) {
+			flush();
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+		} else {
+			value = -value;
+		}
+		// Digits are worked out on the negative value so Long.MIN_VALUE works too
+		int start = buffer.position();
+		do {
+			buffer.put((byte) ('0' - (value % 10)));
+			value /= 10;
+		} while (value != 0);
+		for (int low = start, high = buffer.position() - 1; low < high; low++, high--) {
+			byte swap = buffer.get(low);
+			buffer.put(low, buffer.get(high));
+			buffer.put(high, swap);
+		}
+	}
+
+	private void date(long time) throws IOException {
+		calendar.setTimeInMillis(time);
+		number(calendar.get(Calendar.YEAR));
+		character('-');
+		twoDigits(calendar.get(Calendar.MONTH) + 1);
+		character('-');
+		twoDigits(calendar.get(Calendar.DAY_OF_MONTH));
+	}
+
+	private void twoDigits(int value) throws IOException {
+		character((char) ('0' + value / 10));
+		character((char) ('0' + value % 10));
+	}
+}
@@ -0,0 +1,345 @@
+import java.io.Serializable;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An index of objects keyed by a primitive int ID.  Lookups, additions and
+ * removals are constant time on average and no Integer boxing is done.
+ * Iteration returns the objects in order of ID.
+ *
+ * Entries are kept in a dense array and an open addressing table (linear
+ * probing) maps each ID to its slot in that array.  An added entry always goes
+ * at the end, so adding takes constant time.  IDs are mostly handed out in
+ * increasing order, which keeps the array sorted by ID; one that arrives out of
+ * order leaves the index unsorted until sort() is called, which sorts every
+ * such entry into place at once.  The sorted array lets keysAfter() find a
+ * page of IDs by binary search.  A removal just clears the slot; the dense
+ * array is compacted once cleared slots make up half of it.
+ *
+ * Reads never sort the index, so an owner that lets readers share it should
+ * call sort() under its exclusive lock before paging or listing in order.
+ *
+ * @param <E> the type of object held in the index
+ */
+public class IDIndex<E> implements Serializable, Iterable<E> {
+
+	private static final long serialVersionUID = 1L;
+	private static final int INITIAL_CAPACITY = 16;
+
+	// Dense storage sorted by ID.  A null value marks a removed entry, whose ID stays in place.
+	private int[] keys;
+	private Object[] values;
+	private int used;     // slots of keys/values in use, including removed ones
+	private int size;     // live entries
+	private boolean sorted = true; // keys[0..used) are in increasing order
+
+	// Open addressing table holding (dense position + 1); 0 marks an empty bucket
+	private int[] table;
+	private int mask;
+
+	private transient int modCount;
+
+	/**
+	 * Creates an empty index
+	 */
+	public IDIndex() {
+		keys = new int[INITIAL_CAPACITY];
+		values = new Object[INITIAL_CAPACITY];
+		table = new int[INITIAL_CAPACITY * 2];
+		mask = table.length - 1;
+	}
+
+	/**
+	 * @return the number of objects in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the object stored under ID, or null if there is none
+	 *
+	 * @param ID the key to look up
+	 * @return the object found or null
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(int ID) {
+		int bucket = find(ID);
+		if (bucket < 0) {
+			return null;
+		}
+		return (E) values[table[bucket] - 1];
+	}
+
+	/**
+	 * @param ID the key to look up
+	 * @return true if an object is stored under ID
+	 */
+	public boolean containsKey(int ID) {
+		return find(ID) >= 0;
+	}
+
+	/**
+	 * Stores value under ID if no object is stored under it yet
+	 *
+	 * @param ID the key of the object
+	 * @param value the object to store; must not be null
+	 * @return value if it was stored, or null if ID was already in use
+	 */
+	public E put(int ID, E value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values are not allowed");
+		}
+		if (find(ID) >= 0) {
+			return null;
+		}
+		if (used == keys.length) {
+			if (size <= used / 2) {
+				compact();
+			} else {
+				growEntries();
+			}
+		}
+		if ((used + 1) * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		int position = used;
+		if (position > 0 && keys[position - 1] > ID) {
+			sorted = false;
+		}
+		keys[position] = ID;
+		values[position] = value;
+		used++;
+		size++;
+		modCount++;
+		insertBucket(ID, position + 1);
+		return value;
+	}
+
+	/**
+	 * @return true if every entry is in order of ID, so the index can be paged
+	 */
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	/**
+	 * Sorts the entries added out of order into place.  Takes O(n log n) when
+	 * the index is unsorted and nothing otherwise.  Counts as a change, so no
+	 * other thread may be reading the index.
+	 */
+	public void sort() {
+		if (sorted) {
+			return;
+		}
+		// Each live entry as its ID in the high half and its position in the low half
+		long[] order = new long[size];
+		int live = 0;
+		for (int position = 0; position < used; position++) {
+			if (values[position] != null) {
+				order[live++] = ((long) keys[position] << 32) | position;
+			}
+		}
+		java.util.Arrays.sort(order);
+		Object[] sortedValues = new Object[values.length];
+		for (int i = 0; i < live; i++) {
+			keys[i] = (int) (order[i] >> 32);
+			sortedValues[i] = values[(int) order[i]];
+		}
+		values = sortedValues;
+		used = live;
+		sorted = true;
+		modCount++;
+		rehash(table.length);
+	}
+
+	/**
+	 * Lists the IDs that follow a given ID, in order.  Takes O(log n) to find
+	 * the first one plus the number of IDs listed.
+	 *
+	 * @param afterID list IDs greater than this one
+	 * @param into where to put the IDs; at most into.length are listed
+	 * @return the number of IDs put in into
+	 * @throws IllegalStateException if the index is unsorted
+	 */
+	public int keysAfter(int afterID, int[] into) {
+		if (!sorted) {
+			throw new IllegalStateException("The index must be sorted before it is paged");
+		}
+		int low = 0;
+		int high = used;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] <= afterID) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int count = 0;
+		for (int position = low; position < used && count < into.length; position++) {
+			if (values[position] != null) {
+				into[count++] = keys[position];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Removes the object stored under ID
+	 *
+	 * @param ID the key of the object to remove
+	 * @return the object removed, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public E remove(int ID) {
+		int bucket = find(ID);
+		if (bucket < 0) {
+			return null;
+		}
+		int position = table[bucket] - 1;
+		E value = (E) values[position];
+		values[position] = null;
+		size--;
+		modCount++;
+		deleteBucket(bucket);
+		if (position == used - 1) {
+			used--;
+		}
+		return value;
+	}
+
+	/**
+	 * Removes every object from the index
+	 */
+	public void clear() {
+		java.util.Arrays.fill(values, 0, used, null);
+		java.util.Arrays.fill(table, 0);
+		used = 0;
+		size = 0;
+		sorted = true;
+		modCount++;
+	}
+
+	/**
+	 * Returns an iterator over the objects in order of ID, or in order of
+	 * addition for entries added out of order since the last sort().
+	 * The index must not be changed while the iterator is in use.
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int position = advance(0);
+			private final int expectedModCount = modCount;
+
+			private int advance(int from) {
+				while (from < used && values[from] == null) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return position < used;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public E next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (position >= used) {
+					throw new NoSuchElementException();
+				}
+				E value = (E) values[position];
+				position = advance(position + 1);
+				return value;
+			}
+		};
+	}
+
+	/*
+	 * Spreads the bits of an ID so sequential IDs don't cluster in the table
+	 */
+	private static int hash(int ID) {
+		int h = ID * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/*
+	 * Returns the table bucket holding ID, or -1 if ID is not present
+	 */
+	private int find(int ID) {
+		int bucket = hash(ID) & mask;
+		int entry;
+		while ((entry = table[bucket]) != 0) {
+			if (keys[entry - 1] == ID) {
+				return bucket;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void insertBucket(int ID, int entry) {
+		int bucket = hash(ID) & mask;
+		while (table[bucket] != 0) {
+			bucket = (bucket + 1) & mask;
+		}
+		table[bucket] = entry;
+	}
+
+	/*
+	 * Backward shift deletion, so no tombstones are left in the table
+	 */
+	private void deleteBucket(int bucket) {
+		int hole = bucket;
+		int next = (hole + 1) & mask;
+		while (table[next] != 0) {
+			int home = hash(keys[table[next] - 1]) & mask;
+			// Move the entry back if its home bucket is not between the hole and where it is now
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				table[hole] = table[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		table[hole] = 0;
+	}
+
+	private void growEntries() {
+		keys = java.util.Arrays.copyOf(keys, keys.length * 2);
+		values = java.util.Arrays.copyOf(values, values.length * 2);
+	}
+
+	/*
+	 * Squeezes removed entries out of the dense arrays and rebuilds the table
+	 */
+	private void compact() {
+		int live = 0;
+		for (int position = 0; position < used; position++) {
+			if (values[position] != null) {
+				keys[live] = keys[position];
+				values[live] = values[position];
+				live++;
+			}
+		}
+		java.util.Arrays.fill(values, live, used, null);
+		used = live;
+		modCount++;
+		rehash(table.length);
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		mask = capacity - 1;
+		for (int position = 0; position < used; position++) {
+			if (values[position] != null) {
+				insertBucket(keys[position], position + 1);
+			}
+		}
+	}
+}
@@ -1,135 +1,344 @@
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.Serializable;
-
-/**
- * 
- * Generates customer IDs & client IDs.
- * 
- * @author Brahma Dathan, Sarnath Ramnath, and Dan Hanson(Modifying)
- * @Copyright (c) 2010
- * 
- *            Redistribution and use with or without modification, are permitted
- *            provided that the following conditions are met:
- * 
- *            - the use is for academic purpose only - Redistributions of source
- *            code must retain the above copyright notice, this list of
- *            conditions and the following disclaimer. - Neither the name of
- *            Brahma Dathan or Sarnath Ramnath may be used to endorse or promote
- *            products derived from this software without specific prior written
- *            permission.
- * 
- *            The authors do not make any claims regarding the correctness of
- *            the code in this module and are not responsible for any loss or
- *            damage resulting from its use.
- */
-
-public class IDServer implements Serializable {
-
-    private static final long serialVersionUID = 1L;
-    private int customerIdCounter;
-    private int clientIdCounter;
-
-    private static IDServer server;
-
-    /*
-     * Private constructor for singleton pattern
-     */
-    private IDServer() {
-		customerIdCounter = 1;
-		clientIdCounter = 1;
-    }
-
-    /**
-     * Supports the singleton pattern
-     * 
-     * @return the singleton object
-     */
-    public static IDServer instance() {
-		if (server == null) {
-		    return (server = new IDServer());
-		} else {
-		    return server;
-		}
-    }
-
-    /**
-     * Returns the next valid customer ID number
-     * 
-     * @return ID of the customer
-     */
-    public int getCustomerID() {
-    	return customerIdCounter++;
-    }
-
-    /**
-     * Returns the next valid client ID number
-     * 
-     * @return id of the client
-     */
-    public int getClientID() {
-    	return clientIdCounter++;
-    }
-
-    /**
-     * String representation of the ID server
-     * 
-     */
-    @Override
-    public String toString() {
-		return ("ID Server\n" + "Customer ID:" + customerIdCounter
-			+ "\nClient ID:" + clientIdCounter);
-    }
-
-    /**
-     * Retrieves the server object
-     * 
-     * @param input inputstream for deserialization
-     */
-    public static void retrieve(ObjectInputStream input) {
-		try {
-		    server = (IDServer) input.readObject();
-		} catch (IOException IoException) {
-		    System.out.println("Error deserializing: I/O Exception");
-		} catch (ClassNotFoundException noClassException) {
-		    System.out.println("Error deserializing: Class not found");
-		}
-    }
-
-    /*
-     * Supports serialization
-     * 
-     * @param output the stream to be written to
-     */
-    private void writeObject(java.io.ObjectOutputStream output) {
-		try {
-		    output.defaultWriteObject();
-		    output.writeObject(server);
-		} catch (IOException IoException) {
-		    System.out.println("Error in serialization: I/O Exception");
-		}
-    }
-
-    /*
-     * Supports serialization
-     * 
-     * @param input the stream to be read from
-     */
-    private void readObject(java.io.ObjectInputStream input)
-    		throws IOException, ClassNotFoundException{
-		try {
-		    input.defaultReadObject();
-		    if (server == null) {
-		    	server = (IDServer) input.readObject();
-		    } else {
-		    	input.readObject();
-		    }
-		} catch (ClassNotFoundException noClassException) {
-		    System.out.println("Error in deserialization: Class not found");
-	
-		} catch (IOException IoException) {
-		    System.out.println("Error in deserialization: I/O Exception");
-		}
-    }
-    
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 
+ * Generates customer IDs & client IDs.  IDs are handed out lock-free from
+ * atomic counters, one at a time or in leased blocks for bulk creation.
+ * 
+ * So that no ID is ever handed out twice, even after a crash before the
+ * Theater was saved, a high-water mark for each kind of ID is kept in the file
+ * TheaterIDs.  An ID is only handed out once the mark above it has been forced
+ * to disk.  The mark is raised a block at a time, so the file is written once
+ * per HIGH_WATER_STEP IDs, and on startup the counters resume from the mark.
+ * 
+ * @author Brahma Dathan, Sarnath Ramnath, and Dan Hanson(Modifying)
+ * @Copyright (c) 2010
+ * 
+ *            Redistribution and use with or without modification, are permitted
+ *            provided that the following conditions are met:
+ * 
+ *            - the use is for academic purpose only - Redistributions of source
+ *            code must retain the above copyright notice, this list of
+ *            conditions and the following disclaimer. - Neither the name of
+ *            Brahma Dathan or Sarnath Ramnath may be used to endorse or promote
+ *            products derived from this software without specific prior written
+ *            permission.
+ * 
+ *            The authors do not make any claims regarding the correctness of
+ *            the code in this module and are not responsible for any loss or
+ *            damage resulting from its use.
+ */
+
+public class IDServer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final String HIGH_WATER_FILE = "TheaterIDs";
+    private static final int HIGH_WATER_STEP = 1000;
+    private transient AtomicInteger customerIdCounter;
+    private transient AtomicInteger clientIdCounter;
+    private transient volatile int customerHighWater;
+    private transient volatile int clientHighWater;
+
+    // The counters are still written as the int fields they used to be
+    private static final ObjectStreamField[] serialPersistentFields = {
+    	new ObjectStreamField("customerIdCounter", int.class),
+    	new ObjectStreamField("clientIdCounter", int.class)
+    };
+
+    private static IDServer server;
+
+    /*
+     * Private constructor for singleton pattern
+     */
+    private IDServer() {
+		customerIdCounter = new AtomicInteger(1);
+		clientIdCounter = new AtomicInteger(1);
+		resumeFromHighWater();
+    }
+
+    /**
+     * Supports the singleton pattern
+     * 
+     * @return the singleton object
+     */
+    public static synchronized IDServer instance() {
+		if (server == null) {
+		    return (server = new IDServer());
+		} else {
+		    return server;
+		}
+    }
+
+    /**
+     * Returns the next valid customer ID number
+     * 
+     * @return ID of the customer
+     */
+    public int getCustomerID() {
+    	int ID = customerIdCounter.getAndIncrement();
+    	if (ID >= customerHighWater) {
+    		raiseHighWater(ID + 1, 0);
+    	}
+    	return ID;
+    }
+
+    /**
+     * Returns the next valid client ID number
+     * 
+     * @return id of the client
+     */
+    public int getClientID() {
+    	int ID = clientIdCounter.getAndIncrement();
+    	if (ID >= clientHighWater) {
+    		raiseHighWater(0, ID + 1);
+    	}
+    	return ID;
+    }
+
+    /**
+     * Leases a block of consecutive customer IDs, for creating many customers
+     * at once.  IDs of the block that end up unused are never handed out.
+     * 
+     * @param count the number of IDs wanted
+     * @return the first ID of the block; the block runs to first + count - 1
+     */
+    public int leaseCustomerIDs(int count) {
+    	if (count < 1) {
+    		throw new IllegalArgumentException("At least one ID must be leased");
+    	}
+    	int first = customerIdCounter.getAndAdd(count);
+    	if (first + count > customerHighWater) {
+    		raiseHighWater(first + count, 0);
+    	}
+    	return first;
+    }
+
+    /**
+     * Leases a block of consecutive client IDs, for creating many clients at
+     * once.  IDs of the block that end up unused are never handed out.
+     * 
+     * @param count the number of IDs wanted
+     * @return the first ID of the block; the block runs to first + count - 1
+     */
+    public int leaseClientIDs(int count) {
+    	if (count < 1) {
+    		throw new IllegalArgumentException("At least one ID must be leased");
+    	}
+    	int first = clientIdCounter.getAndAdd(count);
+    	if (first + count > clientHighWater) {
+    		raiseHighWater(0, first + count);
+    	}
+    	return first;
+    }
+
+    /**
+     * @return the customer ID that will be handed out next
+     */
+    int customerCounter() {
+    	return customerIdCounter.get();
+    }
+
+    /**
+     * @return the client ID that will be handed out next
+     */
+    int clientCounter() {
+    	return clientIdCounter.get();
+    }
+
+    /**
+     * Makes sure a customer ID that is already in use is never handed out again
+     * 
+     * @param ID a customer ID restored from saved data
+     */
+    public void reserveCustomerID(int ID) {
+    	raiseCounter(customerIdCounter, ID + 1);
+    }
+
+    /**
+     * Makes sure a client ID that is already in use is never handed out again
+     * 
+     * @param ID a client ID restored from saved data
+     */
+    public void reserveClientID(int ID) {
+    	raiseCounter(clientIdCounter, ID + 1);
+    }
+
+    /**
+     * Lowers the high-water marks to the IDs that will be handed out next, so
+     * the counters resume where they left off after a restart instead of at
+     * the end of the current block.  Called once the Theater has been saved,
+     * while no IDs are being handed out.
+     */
+    synchronized void trimHighWater() {
+    	int customers = customerIdCounter.get();
+    	int clients = clientIdCounter.get();
+    	if (customers == customerHighWater && clients == clientHighWater) {
+    		return;
+    	}
+    	try {
+    		writeHighWater(customers, clients);
+    		customerHighWater = customers;
+    		clientHighWater = clients;
+    	} catch (IOException ioe) {
+    		System.out.println("Error saving the ID high-water mark");
+    		return;
+    	}
+    	// An ID handed out while the mark was written is covered again
+    	if (customerIdCounter.get() != customers || clientIdCounter.get() != clients) {
+    		raiseHighWater(customerIdCounter.get(), clientIdCounter.get());
+    	}
+    }
+
+    /*
+     * Raises the counter to at least the given value, without locking
+     */
+    private static void raiseCounter(AtomicInteger counter, int atLeast) {
+    	int current = counter.get();
+    	while (current < atLeast && !counter.compareAndSet(current, atLeast)) {
+    		current = counter.get();
+    	}
+    }
+
+    /*
+     * Makes the high-water marks cover the given IDs, persisting the new marks
+     * before anyone can hand those IDs out.  A mark of 0 leaves that kind of ID
+     * as it is.  Only runs once per block, so threads handing out IDs below
+     * the mark never wait here.
+     */
+    private synchronized void raiseHighWater(int customersNeeded, int clientsNeeded) {
+    	if (customersNeeded <= customerHighWater && clientsNeeded <= clientHighWater) {
+    		// Another thread raised the mark while this one waited
+    		return;
+    	}
+    	int customers = customersNeeded > customerHighWater ? customersNeeded + HIGH_WATER_STEP : customerHighWater;
+    	int clients = clientsNeeded > clientHighWater ? clientsNeeded + HIGH_WATER_STEP : clientHighWater;
+    	try {
+    		writeHighWater(customers, clients);
+    	} catch (IOException ioe) {
+    		// Handing out IDs that might be reused after a crash is worse than failing
+    		throw new IllegalStateException("The ID high-water mark could not be saved", ioe);
+    	}
+    	customerHighWater = customers;
+    	clientHighWater = clients;
+    }
+
+    /*
+     * Forces the high-water marks to disk
+     */
+    private static void writeHighWater(int customers, int clients) throws IOException {
+    	RandomAccessFile file = new RandomAccessFile(HIGH_WATER_FILE, "rw");
+    	try {
+    		FileChannel channel = file.getChannel();
+    		ByteBuffer marks = ByteBuffer.allocate(8);
+    		marks.putInt(customers).putInt(clients).flip();
+    		while (marks.hasRemaining()) {
+    			channel.write(marks, marks.position());
+    		}
+    		channel.force(true);
+    	} finally {
+    		file.close();
+    	}
+    }
+
+    /*
+     * Moves the counters up to the high-water marks saved by an earlier run,
+     * since any ID below them may already have been handed out
+     */
+    private void resumeFromHighWater() {
+    	File marks = new File(HIGH_WATER_FILE);
+    	if (marks.length() < 8) {
+    		return;
+    	}
+    	try {
+    		RandomAccessFile file = new RandomAccessFile(marks, "r");
+    		try {
+    			customerHighWater = file.readInt();
+    			clientHighWater = file.readInt();
+    		} finally {
+    			file.close();
+    		}
+    	} catch (IOException ioe) {
+    		System.out.println("Error reading the ID high-water mark");
+    		return;
+    	}
+    	raiseCounter(customerIdCounter, customerHighWater);
+    	raiseCounter(clientIdCounter, clientHighWater);
+    }
+
+    /**
+     * String representation of the ID server
+     * 
+     */
+    @Override
+    public String toString() {
+		return ("ID Server\n" + "Customer ID:" + customerIdCounter.get()
+			+ "\nClient ID:" + clientIdCounter.get());
+    }
+
+    /**
+     * Retrieves the server object
+     * 
+     * @param input inputstream for deserialization
+     */
+    public static void retrieve(ObjectInputStream input) {
+		try {
+		    server = (IDServer) input.readObject();
+		} catch (IOException IoException) {
+		    System.out.println("Error deserializing: I/O Exception");
+		} catch (ClassNotFoundException noClassException) {
+		    System.out.println("Error deserializing: Class not found");
+		}
+    }
+
+    /*
+     * Supports serialization
+     * 
+     * @param output the stream to be written to
+     */
+    private void writeObject(ObjectOutputStream output) {
+		try {
+		    ObjectOutputStream.PutField fields = output.putFields();
+		    fields.put("customerIdCounter", customerIdCounter.get());
+		    fields.put("clientIdCounter", clientIdCounter.get());
+		    output.writeFields();
+		    output.writeObject(server);
+		} catch (IOException IoException) {
+		    System.out.println("Error in serialization: I/O Exception");
+		}
+    }
+
+    /*
+     * Supports serialization
+     * 
+     * @param input the stream to be read from
+     */
+    private void readObject(java.io.ObjectInputStream input)
+    		throws IOException, ClassNotFoundException{
+		try {
+		    ObjectInputStream.GetField fields = input.readFields();
+		    customerIdCounter = new AtomicInteger(fields.get("customerIdCounter", 1));
+		    clientIdCounter = new AtomicInteger(fields.get("clientIdCounter", 1));
+		    resumeFromHighWater();
+		    if (server == null) {
+		    	server = (IDServer) input.readObject();
+		    } else {
+		    	input.readObject();
+		    }
+		} catch (ClassNotFoundException noClassException) {
+		    System.out.println("Error in deserialization: Class not found");
+	
+		} catch (IOException IoException) {
+		    System.out.println("Error in deserialization: I/O Exception");
+		}
+    }
+    
 }
\ No newline at end of file
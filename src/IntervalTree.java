@@ -0,0 +1,304 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An augmented interval tree.  Each object is stored with a closed interval
+ * [low, high] and the tree is a balanced (AVL) search tree ordered by low,
+ * where every node also records the largest high in its subtree.  That lets
+ * overlap queries skip whole subtrees, so finding the objects that overlap a
+ * range takes O(log n + k) for the k objects found.
+ *
+ * Intervals are inclusive at both ends: [1, 5] and [5, 9] overlap.
+ *
+ * @param <E> the type of object held in the tree
+ */
+public class IntervalTree<E> implements Iterable<E> {
+
+	private static class Node<E> {
+		long low;
+		long high;
+		long maxHigh;
+		int height = 1;
+		E value;
+		Node<E> left;
+		Node<E> right;
+
+		Node(long low, long high, E value) {
+			this.low = low;
+			this.high = high;
+			this.maxHigh = high;
+			this.value = value;
+		}
+	}
+
+	private Node<E> root;
+	private int size;
+
+	/**
+	 * @return the number of objects in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an object with the interval [low, high]
+	 * @param low the start of the interval
+	 * @param high the end of the interval, not less than low
+	 * @param value the object to add
+	 */
+	public void add(long low, long high, E value) {
+		if (high < low) {
+			throw new IllegalArgumentException("Interval end " + high + " is before its start " + low);
+		}
+		root = insert(root, new Node<E>(low, high, value));
+		size++;
+	}
+
+	/**
+	 * Removes an object that was added with the given interval start
+	 * @param low the start of the interval the object was added with
+	 * @param value the object to remove, compared by identity
+	 * @return true if the object was found and removed
+	 */
+	public boolean remove(long low, E value) {
+		int before = size;
+		root = delete(root, low, value);
+		return size < before;
+	}
+
+	/**
+	 * Finds the object with the earliest start that overlaps [low, high]
+	 * @param low the start of the range
+	 * @param high the end of the range
+	 * @return the first overlapping object, or null if nothing overlaps
+	 */
+	public E firstOverlap(long low, long high) {
+		Node<E> node = firstOverlap(root, low, high);
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * Lists every object overlapping [low, high] in order of start
+	 * @param low the start of the range
+	 * @param high the end of the range
+	 * @return the overlapping objects
+	 */
+	public List<E> overlapping(long low, long high) {
+		List<E> found = new ArrayList<E>();
+		collect(root, low, high, found);
+		return found;
+	}
+
+	/**
+	 * Lists objects in order of interval start, beginning with the first whose
+	 * start is at least low.  Takes O(log n + limit).
+	 * @param low the earliest interval start to list
+	 * @param limit the most objects to list
+	 * @return the objects found
+	 */
+	public List<E> startingFrom(long low, int limit) {
+		List<E> found = new ArrayList<E>();
+		Iterator<E> objects = iterator(low);
+		while (objects.hasNext() && found.size() < limit) {
+			found.add(objects.next());
+		}
+		return found;
+	}
+
+	/**
+	 * Returns an iterator over the objects in order of interval start
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return iterator(Long.MIN_VALUE);
+	}
+
+	/**
+	 * Returns an iterator over the objects in order of interval start,
+	 * beginning with the first whose start is at least low.  Finding it takes
+	 * O(log n), and each object after it O(1) on average.  The tree must not
+	 * be changed while the iterator is in use.
+	 * @param low the earliest interval start to return
+	 */
+	public Iterator<E> iterator(final long low) {
+		return new Iterator<E>() {
+			private final List<Node<E>> stack = new ArrayList<Node<E>>();
+			{
+				// The path to the first node starting at or after low
+				Node<E> node = root;
+				while (node != null) {
+					if (node.low >= low) {
+						stack.add(node);
+						node = node.left;
+					} else {
+						node = node.right;
+					}
+				}
+			}
+
+			private void pushLeft(Node<E> node) {
+				while (node != null) {
+					stack.add(node);
+					node = node.left;
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !stack.isEmpty();
+			}
+
+			@Override
+			public E next() {
+				if (stack.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Node<E> node = stack.remove(stack.size() - 1);
+				pushLeft(node.right);
+				return node.value;
+			}
+		};
+	}
+
+	private Node<E> firstOverlap(Node<E> node, long low, long high) {
+		if (node == null || node.maxHigh < low) {
+			return null;
+		}
+		Node<E> found = firstOverlap(node.left, low, high);
+		if (found != null) {
+			return found;
+		}
+		if (node.low > high) {
+			// Everything to the right starts even later
+			return null;
+		}
+		if (node.high >= low) {
+			return node;
+		}
+		return firstOverlap(node.right, low, high);
+	}
+
+	private void collect(Node<E> node, long low, long high, List<E> found) {
+		if (node == null || node.maxHigh < low) {
+			return;
+		}
+		collect(node.left, low, high, found);
+		if (node.low > high) {
+			return;
+		}
+		if (node.high >= low) {
+			found.add(node.value);
+		}
+		collect(node.right, low, high, found);
+	}
+
+	private Node<E> insert(Node<E> node, Node<E> added) {
+		if (node == null) {
+			return added;
+		}
+		if (added.low < node.low) {
+			node.left = insert(node.left, added);
+		} else {
+			node.right = insert(node.right, added);
+		}
+		return balance(node);
+	}
+
+	private Node<E> delete(Node<E> node, long low, E value) {
+		if (node == null) {
+			return null;
+		}
+		if (low < node.low) {
+			node.left = delete(node.left, low, value);
+		} else if (low > node.low) {
+			node.right = delete(node.right, low, value);
+		} else if (node.value != value) {
+			// Equal starts may sit on either side after rotations
+			int before = size;
+			node.left = delete(node.left, low, value);
+			if (size == before) {
+				node.right = delete(node.right, low, value);
+			}
+		} else {
+			size--;
+			if (node.left == null) {
+				return node.right;
+			}
+			if (node.right == null) {
+				return node.left;
+			}
+			Node<E> successor = node.right;
+			while (successor.left != null) {
+				successor = successor.left;
+			}
+			node.right = removeLeftmost(node.right);
+			successor.left = node.left;
+			successor.right = node.right;
+			node = successor;
+		}
+		return balance(node);
+	}
+
+	private Node<E> removeLeftmost(Node<E> node) {
+		if (node.left == null) {
+			return node.right;
+		}
+		node.left = removeLeftmost(node.left);
+		return balance(node);
+	}
+
+	private static <E> int height(Node<E> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static <E> void update(Node<E> node) {
+		node.height = 1 + Math.max(height(node.left), height(node.right));
+		long max = node.high;
+		if (node.left != null && node.left.maxHigh > max) {
+			max = node.left.maxHigh;
+		}
+		if (node.right != null && node.right.maxHigh > max) {
+			max = node.right.maxHigh;
+		}
+		node.maxHigh = max;
+	}
+
+	private Node<E> balance(Node<E> node) {
+		update(node);
+		int skew = height(node.left) - height(node.right);
+		if (skew > 1) {
+			if (height(node.left.left) < height(node.left.right)) {
+				node.left = rotateLeft(node.left);
+			}
+			return rotateRight(node);
+		}
+		if (skew < -1) {
+			if (height(node.right.right) < height(node.right.left)) {
+				node.right = rotateRight(node.right);
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	private Node<E> rotateRight(Node<E> node) {
+		Node<E> pivot = node.left;
+		node.left = pivot.right;
+		pivot.right = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	private Node<E> rotateLeft(Node<E> node) {
+		Node<E> pivot = node.right;
+		node.right = pivot.left;
+		pivot.left = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+}
@@ -0,0 +1,380 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead journal of the changes made to the Theater.
+ * Each change is written as one compact binary record:
+ *
+ *   int length, byte type, payload, int CRC32 of type and payload
+ *
+ * Strings are written with writeUTF and dates as epoch milliseconds.  Each
+ * record is handed to the operating system as it is written, so it survives
+ * the process dying.  Records are group committed to disk: the file is only
+ * forced every syncEvery records, or when commit() is called, so a machine
+ * crash can lose the records since the last force.
+ *
+ * The journal holds the changes made since the last checkpoint, so the state
+ * of the Theater is the last saved snapshot with the journal replayed on top.
+ * Replaying is idempotent, so a crash between writing a snapshot and clearing
+ * the journal does no harm.  A torn record at the end of the file, left by a
+ * crash in the middle of a write, is dropped.
+ */
+public class Journal {
+
+	static final byte ADD_CLIENT = 1;
+	static final byte REMOVE_CLIENT = 2;
+	static final byte ADD_CUSTOMER = 3;
+	static final byte REMOVE_CUSTOMER = 4;
+	static final byte ADD_CARD = 5;
+	static final byte REMOVE_CARD = 6;
+	static final byte ADD_SHOW = 7;
+
+	private final File file;
+	private final int syncEvery;
+	private FileOutputStream fileStream;
+	private DataOutputStream output;
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(128);
+	private final DataOutputStream record = new DataOutputStream(recordBuffer);
+	private final CRC32 crc = new CRC32();
+	private int unsynced;
+	private int records;
+
+	/**
+	 * Creates a journal on a file.  Nothing is opened until open() is called.
+	 * @param fileName the name of the journal file
+	 * @param syncEvery how many records may be written before the file is forced to disk
+	 */
+	public Journal(String fileName, int syncEvery) {
+		if (syncEvery < 1) {
+			throw new IllegalArgumentException("syncEvery must be at least 1");
+		}
+		this.file = new File(fileName);
+		this.syncEvery = syncEvery;
+	}
+
+	/**
+	 * @return true once the journal has been opened for writing
+	 */
+	public boolean isOpen() {
+		return output != null;
+	}
+
+	/**
+	 * @return true if the journal file exists
+	 */
+	public boolean exists() {
+		return file.exists();
+	}
+
+	/**
+	 * @return the number of records written since the journal was opened or reset
+	 */
+	public int records() {
+		return records;
+	}
+
+	/**
+	 * Opens the journal for appending
+	 * @param append true to keep the records already in the file, false to start empty
+	 * @throws IOException if the file cannot be opened
+	 */
+	public synchronized void open(boolean append) throws IOException {
+		close();
+		fileStream = new FileOutputStream(file, append);
+		output = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+		records = 0;
+		unsynced = 0;
+		if (!append) {
+			fileStream.getChannel().force(true);
+		}
+	}
+
+	/**
+	 * Empties the journal, after a checkpoint has saved everything in it
+	 * @throws IOException if the file cannot be truncated
+	 */
+	public synchronized void reset() throws IOException {
+		open(false);
+	}
+
+	/**
+	 * Forces the records written so far to disk
+	 * @throws IOException if the records cannot be written
+	 */
+	public synchronized void commit() throws IOException {
+		if (output == null || unsynced == 0) {
+			return;
+		}
+		output.flush();
+		fileStream.getChannel().force(false);
+		unsynced = 0;
+	}
+
+	/**
+	 * Commits any buffered records and closes the file
+	 * @throws IOException if the records cannot be written
+	 */
+	public synchronized void close() throws IOException {
+		if (output != null) {
+			commit();
+			output.close();
+			output = null;
+			fileStream = null;
+		}
+	}
+
+	/**
+	 * Records a client being added
+	 * @param client the client that was added
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void addClient(Client client) throws IOException {
+		begin(ADD_CLIENT);
+		record.writeInt(client.getID());
+		record.writeUTF(client.getName());
+		record.writeUTF(client.getAddress());
+		record.writeUTF(client.getPhone());
+		end();
+	}
+
+	/**
+	 * Records a client being removed
+	 * @param clientID the ID of the client that was removed
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void removeClient(int clientID) throws IOException {
+		begin(REMOVE_CLIENT);
+		record.writeInt(clientID);
+		end();
+	}
+
+	/**
+	 * Records a customer being added, along with its cards
+	 * @param customer the customer that was added
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void addCustomer(Customer customer) throws IOException {
+		begin(ADD_CUSTOMER);
+		record.writeInt(customer.getID());
+		record.writeUTF(customer.getName());
+		record.writeUTF(customer.getAddress());
+		record.writeUTF(customer.getPhone());
+		List<CreditCard> cards = new ArrayList<CreditCard>();
+		Iterator<CreditCard> iterator = customer.listCards();
+		while (iterator.hasNext()) {
+			cards.add(iterator.next());
+		}
+		record.writeShort(cards.size());
+		for (CreditCard card : cards) {
+			record.writeUTF(card.getAccountNumber());
+			record.writeLong(card.getExpirationTime());
+		}
+		end();
+	}
+
+	/**
+	 * Records a customer being removed
+	 * @param customerID the ID of the customer that was removed
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void removeCustomer(int customerID) throws IOException {
+		begin(REMOVE_CUSTOMER);
+		record.writeInt(customerID);
+		end();
+	}
+
+	/**
+	 * Records a card being added to a customer
+	 * @param customerID the ID of the customer that got the card
+	 * @param accountNumber the card number
+	 * @param expiration the expiration date of the card
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void addCard(int customerID, String accountNumber, Date expiration) throws IOException {
+		begin(ADD_CARD);
+		record.writeInt(customerID);
+		record.writeUTF(accountNumber);
+		record.writeLong(expiration.getTime());
+		end();
+	}
+
+	/**
+	 * Records a card being removed from a customer
+	 * @param customerID the ID of the customer that lost the card
+	 * @param accountNumber the card number
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void removeCard(int customerID, String accountNumber) throws IOException {
+		begin(REMOVE_CARD);
+		record.writeInt(customerID);
+		record.writeUTF(accountNumber);
+		end();
+	}
+
+	/**
+	 * Records a show being scheduled
+	 * @param show the show that was added
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void addShow(Show show) throws IOException {
+		begin(ADD_SHOW);
+		record.writeInt(show.getClientID());
+		record.writeUTF(show.getName());
+		record.writeLong(show.getStartTime());
+		record.writeLong(show.getEndTime());
+		end();
+	}
+
+	/**
+	 * Applies every complete record in the journal file to the theater.  A torn
+	 * or corrupt record ends the replay and is cut off the file.
+	 * @param theater the theater, already loaded from the last checkpoint
+	 * @return the number of records replayed
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized int replay(Theater theater) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		int replayed = 0;
+		long goodLength = 0;
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			while (true) {
+				int length;
+				try {
+					length = input.readInt();
+				} catch (EOFException endOfJournal) {
+					break;
+				}
+				if (length < 1 || length > 1 << 20) {
+					break;
+				}
+				byte[] body = new byte[length];
+				int checksum;
+				try {
+					input.readFully(body);
+					checksum = input.readInt();
+				} catch (EOFException tornRecord) {
+					break;
+				}
+				crc.reset();
+				crc.update(body, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				apply(theater, new DataInputStream(new ByteArrayInputStream(body)));
+				replayed++;
+				goodLength += 8 + length;
+			}
+		} finally {
+			input.close();
+		}
+		if (goodLength < file.length()) {
+			RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+			try {
+				truncate.setLength(goodLength);
+			} finally {
+				truncate.close();
+			}
+		}
+		return replayed;
+	}
+
+	private void apply(Theater theater, DataInputStream body) throws IOException {
+		byte type = body.readByte();
+		switch (type) {
+			case ADD_CLIENT:
+				theater.replayAddClient(body.readInt(), body.readUTF(), body.readUTF(), body.readUTF());
+				break;
+
+			case REMOVE_CLIENT:
+				theater.replayRemoveClient(body.readInt());
+				break;
+
+			case ADD_CUSTOMER:
+				int customerID = body.readInt();
+				String name = body.readUTF();
+				String address = body.readUTF();
+				String phone = body.readUTF();
+				int cardCount = body.readShort();
+				String[] numbers = new String[cardCount];
+				Date[] expirations = new Date[cardCount];
+				for (int i = 0; i < cardCount; i++) {
+					numbers[i] = body.readUTF();
+					expirations[i] = new Date(body.readLong());
+				}
+				theater.replayAddCustomer(customerID, name, address, phone, numbers, expirations);
+				break;
+
+			case REMOVE_CUSTOMER:
+				theater.replayRemoveCustomer(body.readInt());
+				break;
+
+			case ADD_CARD:
+				theater.replayAddCard(body.readInt(), body.readUTF(), new Date(body.readLong()));
+				break;
+
+			case REMOVE_CARD:
+				theater.replayRemoveCard(body.readInt(), body.readUTF());
+				break;
+
+			case ADD_SHOW:
+				int clientID = body.readInt();
+				String showName = body.readUTF();
+				Date start = new Date(body.readLong());
+				Date end = new Date(body.readLong());
+				try {
+					theater.replayAddShow(showName, start, end, clientID);
+				} catch (IllegalArgumentException badShow) {
+					throw new IOException("The show " + showName + " could not be replayed: " + badShow.getMessage());
+				}
+				break;
+
+			default:
+				throw new IOException("Unknown journal record type " + type);
+		}
+	}
+
+	private void begin(byte type) throws IOException {
+		if (output == null) {
+			throw new IOException("The journal is not open");
+		}
+		recordBuffer.reset();
+		record.writeByte(type);
+	}
+
+	/*
+	 * Frames the buffered record and hands it to the operating system, forcing
+	 * the file to disk once syncEvery records have built up
+	 */
+	private void end() throws IOException {
+		record.flush();
+		byte[] body = recordBuffer.toByteArray();
+		crc.reset();
+		crc.update(body, 0, body.length);
+		output.writeInt(body.length);
+		output.write(body);
+		output.writeInt((int) crc.getValue());
+		output.flush();
+		records++;
+		if (++unsynced >= syncEvery) {
+			commit();
+		}
+	}
+}
@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the HTTP API: parsing flat objects whose values are
+ * strings, numbers, booleans or null, and writing quoted strings.  Nested
+ * objects and arrays in requests are rejected, since no request needs them.
+ */
+final class Json {
+
+	private Json() {
+		// Only static methods
+	}
+
+	/**
+	 * Parses a flat JSON object
+	 * @param text the JSON text
+	 * @return the members of the object in the order they appear.  Strings are
+	 *   unescaped, other values are kept as written and null becomes a Java null.
+	 * @throws IllegalArgumentException if the text is not a flat JSON object
+	 */
+	static Map<String, String> parseObject(String text) {
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		int[] position = { skipSpace(text, 0) };
+		expect(text, position, '{');
+		if (peek(text, position) == '}') {
+			position[0]++;
+		} else {
+			while (true) {
+				String name = parseString(text, position);
+				expect(text, position, ':');
+				members.put(name, parseValue(text, position));
+				char next = peek(text, position);
+				position[0]++;
+				if (next == '}') {
+					break;
+				}
+				if (next != ',') {
+					throw new IllegalArgumentException("Expected , or } at " + (position[0] - 1));
+				}
+			}
+		}
+		if (skipSpace(text, position[0]) != text.length()) {
+			throw new IllegalArgumentException("Unexpected text after the object");
+		}
+		return members;
+	}
+
+	/**
+	 * Writes a string as a quoted JSON string
+	 * @param value the string
+	 * @param output where to write it
+	 * @throws IOException if the output cannot be written
+	 */
+	static void quote(CharSequence value, Appendable output) throws IOException {
+		output.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					output.append("\\\"");
+					break;
+				case '\\':
+					output.append("\\\\");
+					break;
+				case '\n':
+					output.append("\\n");
+					break;
+				case '\r':
+					output.append("\\r");
+					break;
+				case '\t':
+					output.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						output.append("\\u00");
+						output.append(Character.forDigit(c >> 4, 16));
+						output.append(Character.forDigit(c & 0xF, 16));
+					} else {
+						output.append(c);
+					}
+			}
+		}
+		output.append('"');
+	}
+
+	/**
+	 * @param value the string
+	 * @return the string as a quoted JSON string
+	 */
+	static String quote(CharSequence value) {
+		StringBuilder quoted = new StringBuilder(value.length() + 2);
+		try {
+			quote(value, quoted);
+		} catch (IOException cannotHappen) {
+			throw new IllegalStateException(cannotHappen);
+		}
+		return quoted.toString();
+	}
+
+	private static String parseValue(String text, int[] position) {
+		char first = peek(text, position);
+		if (first == '"') {
+			return parseString(text, position);
+		}
+		if (first == '{' || first == '[') {
+			throw new IllegalArgumentException("Nested values are not supported at " + position[0]);
+		}
+		int start = position[0];
+		int end = start;
+		while (end < text.length() && ",}] \t\r\n".indexOf(text.charAt(end)) < 0) {
+			end++;
+		}
+		String literal = text.substring(start, end);
+		if (literal.isEmpty()) {
+			throw new IllegalArgumentException("Expected a value at " + start);
+		}
+		if (!literal.equals("true") && !literal.equals("false") && !literal.equals("null")
+				&& !literal.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?")) {
+			throw new IllegalArgumentException("Unexpected value " + literal);
+		}
+		position[0] = end;
+		return literal.equals("null") ? null : literal;
+	}
+
+	private static String parseString(String text, int[] position) {
+		expect(text, position, '"');
+		StringBuilder value = new StringBuilder();
+		int i = position[0];
+		while (true) {
+			if (i >= text.length()) {
+				throw new IllegalArgumentException("Unterminated string");
+			}
+			char c = text.charAt(i++);
+			if (c == '"') {
+				break;
+			}
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+			if (i >= text.length()) {
+				throw new IllegalArgumentException("Unterminated string");
+			}
+			char escaped = text.charAt(i++);
+			switch (escaped) {
+				case '"':
+				case '\\':
+				case '/':
+					value.append(escaped);
+					break;
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case 'u':
+					if (i + 4 > text.length()) {
+						throw new IllegalArgumentException("Bad unicode escape");
+					}
+					try {
+						value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+					} catch (NumberFormatException nfe) {
+						throw new IllegalArgumentException("Bad unicode escape");
+					}
+					i += 4;
+					break;
+				default:
+					throw new IllegalArgumentException("Bad escape \\" + escaped);
+			}
+		}
+		position[0] = i;
+		return value.toString();
+	}
+
+	private static void expect(String text, int[] position, char wanted) {
+		if (peek(text, position) != wanted) {
+			throw new IllegalArgumentException("Expected " + wanted + " at " + position[0]);
+		}
+		position[0]++;
+	}
+
+	/*
+	 * Skips white space and returns the next character without consuming it
+	 */
+	private static char peek(String text, int[] position) {
+		position[0] = skipSpace(text, position[0]);
+		if (position[0] >= text.length()) {
+			throw new IllegalArgumentException("Unexpected end of JSON");
+		}
+		return text.charAt(position[0]);
+	}
+
+	private static int skipSpace(String text, int position) {
+		while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+			position++;
+		}
+		return position;
+	}
+}
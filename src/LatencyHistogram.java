@@ -0,0 +1,161 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long something took, in nanoseconds, in log-linear buckets:
+ * each power of two is split into 16 equal buckets, so any value is known to
+ * within 1/16 of itself from a nanosecond up to several hours, in a fixed
+ * array of counters.  Recording takes no lock and allocates nothing, so it
+ * can be done on every call from any number of threads.
+ *
+ * Percentiles are read from a copy of the counts.  A copy taken while values
+ * are being recorded may include some of them and not others.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/*
+	 * Values of 2^45 ns, nearly ten hours, or more are counted in the last bucket
+	 */
+	private static final int MAX_EXPONENT = 44;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one value
+	 * @param nanos how long it took; negative values are counted as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		total.add(nanos);
+		long highest = max.get();
+		while (nanos > highest && !max.compareAndSet(highest, nanos)) {
+			highest = max.get();
+		}
+	}
+
+	/**
+	 * Forgets every value recorded
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		max.set(0);
+	}
+
+	/**
+	 * @return a copy of the counts, for reading percentiles from
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, total.sum(), max.get());
+	}
+
+	/*
+	 * Values below 16 have a bucket each; above that the bucket is chosen by
+	 * the highest set bit and the four bits after it
+	 */
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/*
+	 * The highest value counted in a bucket
+	 */
+	static long highestIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (sub + 1) * width - 1;
+	}
+
+	/**
+	 * The counts of a histogram at one moment
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long total;
+		private final long max;
+
+		Snapshot(long[] counts, long count, long total, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of values recorded
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the mean value in nanoseconds, or 0 if none were recorded
+		 */
+		public long getMean() {
+			return count == 0 ? 0 : total / count;
+		}
+
+		/**
+		 * @return the highest value recorded, in nanoseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Gets the value that a fraction of the values are at or below
+		 * @param fraction the fraction, such as 0.99 for the 99th percentile
+		 * @return the highest value of the bucket holding that percentile, so
+		 *   it overstates the true value by less than 1/16, but never more
+		 *   than the highest value recorded; 0 if none were recorded
+		 */
+		public long getPercentile(double fraction) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(fraction * count);
+			if (rank < 1) {
+				rank = 1;
+			}
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestIn(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The customers of a memory-mapped binary snapshot that have not been decoded
+ * yet.  Nothing is read up front: customers and cards are found by binary
+ * search of the indexes at the end of the snapshot, so attaching one to a
+ * CustomerList takes the same time however many customers it holds.  Each
+ * customer is decoded from the mapped file when it is first asked for.
+ *
+ * @see SnapshotCodec#readLazily
+ */
+class LazyCustomers {
+
+	private final ByteBuffer file;
+	private final int customerIndex;
+	private final int customerCount;
+	private final int cardIndex;
+	private final int cardCount;
+
+	/**
+	 * @param file the whole snapshot file, mapped read only
+	 * @param customerIndex the offset of the customer index in the file
+	 * @param cardIndex the offset of the card index in the file
+	 */
+	LazyCustomers(ByteBuffer file, int customerIndex, int cardIndex) {
+		this.file = file;
+		this.customerIndex = customerIndex;
+		this.customerCount = file.getInt(customerIndex);
+		this.cardIndex = cardIndex;
+		this.cardCount = file.getInt(cardIndex);
+	}
+
+	/**
+	 * @return the number of customers in the snapshot
+	 */
+	int size() {
+		return customerCount;
+	}
+
+	/**
+	 * @param position a position in the customer index, from 0 to size() - 1
+	 * @return the ID of the customer at that position; IDs ascend with position
+	 */
+	int IDAt(int position) {
+		return file.getInt(customerIndex + 4 + position * 12);
+	}
+
+	/**
+	 * Finds a customer's position in the customer index
+	 * @param ID the ID of the customer
+	 * @return the position, or (-(insertion point) - 1) if the snapshot has no
+	 *   customer with that ID, as Arrays.binarySearch returns
+	 */
+	int positionOf(int ID) {
+		int low = 0;
+		int high = customerCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int found = IDAt(middle);
+			if (found < ID) {
+				low = middle + 1;
+			} else if (found > ID) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Decodes a customer from the snapshot
+	 * @param position the customer's position in the customer index
+	 * @return the customer
+	 */
+	Customer loadAt(int position) {
+		int offset = (int) file.getLong(customerIndex + 4 + position * 12 + 4);
+		ByteBuffer record = file.duplicate();
+		record.position(offset + 4);
+		record.limit(offset + 4 + file.getInt(offset));
+		return SnapshotCodec.decodeCustomer(record.slice());
+	}
+
+	/**
+	 * Looks a card up in the snapshot's card index
+	 * @param normalizedNumber the card number in CreditCard.normalize form
+	 * @return the ID of the customer that held the card when the snapshot was
+	 *   written, or 0 if no customer did
+	 */
+	int cardOwner(String normalizedNumber) {
+		int low = 0;
+		int high = cardCount - 1;
+		ByteBuffer strings = file.duplicate();
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int slot = cardIndex + 4 + middle * 12;
+			strings.position((int) file.getLong(slot));
+			int comparison = SnapshotCodec.getString(strings).compareTo(normalizedNumber);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return file.getInt(slot + 8);
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,392 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the calls of each public Theater operation, why the ones that
+ * failed failed, and how long they all took.  Every call is recorded, so the
+ * counters are LongAdders and the latencies LatencyHistograms, which take no
+ * lock and allocate nothing; reading them is what does the work.
+ *
+ * A failure is a call that returned null, false or a BoxOffice outcome other
+ * than SOLD, or threw, and also a change that was made but couldn't be
+ * written to the journal.  The same counts can be read over JMX once
+ * register() has been called.
+ */
+public class OperationStats implements OperationStatsMBean {
+
+	/*
+	 * The operations, one for each public Theater method.  Overloads, such as
+	 * the paged and unpaged listings, share one.
+	 */
+	public static final int ADD_CLIENT = 0;
+	public static final int REMOVE_CLIENT = 1;
+	public static final int LIST_CLIENTS = 2;
+	public static final int ADD_CUSTOMER = 3;
+	public static final int REMOVE_CUSTOMER = 4;
+	public static final int IS_CARD_ON_FILE = 5;
+	public static final int GET_CARD_OWNER = 6;
+	public static final int FIND_CUSTOMERS_BY_NAME = 7;
+	public static final int FIND_CUSTOMERS_BY_NAME_WORDS = 8;
+	public static final int FIND_CUSTOMERS_BY_ADDRESS = 9;
+	public static final int FIND_CUSTOMERS_BY_PHONE = 10;
+	public static final int FIND_CUSTOMERS_BY_CARD = 11;
+	public static final int FIND_CLIENTS_BY_NAME = 12;
+	public static final int FIND_CLIENTS_BY_ADDRESS = 13;
+	public static final int FIND_CLIENTS_BY_PHONE = 14;
+	public static final int ADD_CREDIT_CARD = 15;
+	public static final int REMOVE_CREDIT_CARD = 16;
+	public static final int CARDS_EXPIRING_WITHIN = 17;
+	public static final int CUSTOMERS_WITHOUT_VALID_CARD = 18;
+	public static final int SWEEP_EXPIRED_CARDS = 19;
+	public static final int LIST_CUSTOMERS = 20;
+	public static final int ADD_SHOW = 21;
+	public static final int LIST_SHOWS = 22;
+	public static final int LIST_ARCHIVED_SHOWS = 23;
+	public static final int LIST_SHOWS_BETWEEN = 24;
+	public static final int ARCHIVE_ENDED_SHOWS = 25;
+	public static final int CREDIT_CLIENT = 26;
+	public static final int DEBIT_CLIENT = 27;
+	public static final int GET_CLIENT_BALANCE = 28;
+	public static final int LIST_LEDGER_ENTRIES = 29;
+	public static final int SETTLE_CLIENTS = 30;
+	public static final int GET_SHOW = 31;
+	public static final int BUY_TICKET = 32;
+	public static final int RESERVE_SEATS = 33;
+	public static final int PURCHASE_RESERVATION = 34;
+	public static final int CANCEL_RESERVATION = 35;
+	public static final int GET_SEATS = 36;
+	public static final int GET_CUSTOMER = 37;
+	public static final int SAVE = 38;
+	public static final int RETRIEVE = 39;
+	public static final int CHECKPOINT = 40;
+	public static final int SAVE_IN_BACKGROUND = 41;
+	public static final int FIND_FREE_WINDOW = 42;
+	public static final int LIST_FREE_WINDOWS = 43;
+
+	private static final String[] OPERATIONS = {"addClient", "removeClient", "listClients", "addCustomer",
+			"removeCustomer", "isCardOnFile", "getCardOwner", "findCustomersByName", "findCustomersByNameWords",
+			"findCustomersByAddress", "findCustomersByPhone", "findCustomersByCard", "findClientsByName",
+			"findClientsByAddress", "findClientsByPhone", "addCreditCard", "removeCreditCard",
+			"cardsExpiringWithin", "customersWithoutValidCard", "sweepExpiredCards", "listCustomers", "addShow",
+			"listShows", "listArchivedShows", "listShowsBetween", "archiveEndedShows", "creditClient",
+			"debitClient", "getClientBalance", "listLedgerEntries", "settleClients", "getShow", "buyTicket",
+			"reserveSeats", "purchaseReservation", "cancelReservation", "getSeats", "getCustomer", "save",
+			"retrieve", "checkpoint", "saveInBackground", "findFreeWindow", "listFreeWindows"};
+
+	/**
+	 * The call succeeded
+	 */
+	public static final int NONE = 0;
+
+	/**
+	 * The customer, client, show or card asked for wasn't found
+	 */
+	public static final int NOT_FOUND = 1;
+
+	/**
+	 * The card is already on file
+	 */
+	public static final int CARD_ON_FILE = 2;
+
+	/**
+	 * The client still has shows scheduled
+	 */
+	public static final int HAS_SHOWS = 3;
+
+	/**
+	 * The change isn't allowed, such as removing a customer's last card
+	 */
+	public static final int REFUSED = 4;
+
+	/**
+	 * The show overlaps one already scheduled
+	 */
+	public static final int CONFLICT = 5;
+
+	/**
+	 * An argument was invalid, such as a show ending before it starts or a bad page cursor
+	 */
+	public static final int INVALID = 6;
+
+	/**
+	 * A file couldn't be read or written
+	 */
+	public static final int IO_ERROR = 7;
+
+	/**
+	 * The change was made but couldn't be written to the journal
+	 */
+	public static final int JOURNAL_ERROR = 8;
+
+	/**
+	 * A seat was already held or sold
+	 */
+	public static final int SEAT_TAKEN = 9;
+
+	/**
+	 * A seat number or performance doesn't exist
+	 */
+	public static final int NO_SUCH_SEAT = 10;
+
+	/**
+	 * The customer or the card paying for seats wasn't accepted
+	 */
+	public static final int CARD_REJECTED = 11;
+
+	/**
+	 * The reservation was already paid for, cancelled or expired
+	 */
+	public static final int RESERVATION_CLOSED = 12;
+
+	private static final String[] REASONS = {"none", "notFound", "cardOnFile", "hasShows", "refused", "conflict",
+			"invalid", "ioError", "journalError", "seatTaken", "noSuchSeat", "cardRejected", "reservationClosed"};
+
+	private final LongAdder[] calls = new LongAdder[OPERATIONS.length];
+	private final LongAdder[][] failures = new LongAdder[OPERATIONS.length][REASONS.length];
+	private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+
+	/**
+	 * Creates the counters for every operation
+	 */
+	public OperationStats() {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			calls[i] = new LongAdder();
+			for (int j = 1; j < REASONS.length; j++) {
+				failures[i][j] = new LongAdder();
+			}
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Records a call that succeeded
+	 * @param operation the operation, such as ADD_CUSTOMER
+	 * @param startNanos the value of System.nanoTime() when the call started
+	 */
+	public void record(int operation, long startNanos) {
+		record(operation, startNanos, NONE);
+	}
+
+	/**
+	 * Records a call
+	 * @param operation the operation, such as ADD_CUSTOMER
+	 * @param startNanos the value of System.nanoTime() when the call started
+	 * @param failure why the call failed, or NONE if it succeeded
+	 */
+	public void record(int operation, long startNanos, int failure) {
+		latencies[operation].record(System.nanoTime() - startNanos);
+		calls[operation].increment();
+		if (failure != NONE) {
+			failures[operation][failure].increment();
+		}
+	}
+
+	/**
+	 * Converts the outcome of a sale to a failure reason
+	 * @param outcome BoxOffice.SOLD or one of the other BoxOffice outcomes
+	 * @return NONE if the seats were sold, otherwise why not
+	 */
+	public static int saleFailure(int outcome) {
+		switch (outcome) {
+		case BoxOffice.SOLD:
+			return NONE;
+		case BoxOffice.SEAT_TAKEN:
+			return SEAT_TAKEN;
+		case BoxOffice.NO_SUCH_SEAT:
+			return NO_SUCH_SEAT;
+		case BoxOffice.CARD_REJECTED:
+			return CARD_REJECTED;
+		case BoxOffice.RESERVATION_CLOSED:
+			return RESERVATION_CLOSED;
+		case BoxOffice.NO_SUCH_SHOW:
+		case BoxOffice.NO_SUCH_CUSTOMER:
+			return NOT_FOUND;
+		default:
+			return IO_ERROR;
+		}
+	}
+
+	/**
+	 * @param operation the operation, such as ADD_CUSTOMER
+	 * @return the number of calls
+	 */
+	public long getCalls(int operation) {
+		return calls[operation].sum();
+	}
+
+	/**
+	 * @param operation the operation, such as ADD_CUSTOMER
+	 * @return the number of failed calls
+	 */
+	public long getFailures(int operation) {
+		long sum = 0;
+		for (int j = 1; j < REASONS.length; j++) {
+			sum += failures[operation][j].sum();
+		}
+		return sum;
+	}
+
+	/**
+	 * @param operation the operation, such as ADD_CUSTOMER
+	 * @param failure the reason, such as CARD_ON_FILE
+	 * @return the number of calls that failed for that reason
+	 */
+	public long getFailures(int operation, int failure) {
+		return failure == NONE ? 0 : failures[operation][failure].sum();
+	}
+
+	/**
+	 * @param operation the operation, such as ADD_CUSTOMER
+	 * @return the latencies of its calls so far
+	 */
+	public LatencyHistogram.Snapshot getLatency(int operation) {
+		return latencies[operation].snapshot();
+	}
+
+	@Override
+	public String[] getOperations() {
+		return OPERATIONS.clone();
+	}
+
+	@Override
+	public long getTotalCalls() {
+		long sum = 0;
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			sum += getCalls(i);
+		}
+		return sum;
+	}
+
+	@Override
+	public long getTotalFailures() {
+		long sum = 0;
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			sum += getFailures(i);
+		}
+		return sum;
+	}
+
+	@Override
+	public long calls(String operation) {
+		return getCalls(operation(operation));
+	}
+
+	@Override
+	public long failures(String operation) {
+		return getFailures(operation(operation));
+	}
+
+	@Override
+	public String failureReasons(String operation) {
+		return reasons(operation(operation));
+	}
+
+	@Override
+	public double percentileMicros(String operation, double percentile) {
+		return getLatency(operation(operation)).getPercentile(percentile / 100) / 1000.0;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			calls[i].reset();
+			for (int j = 1; j < REASONS.length; j++) {
+				failures[i][j].reset();
+			}
+			latencies[i].reset();
+		}
+	}
+
+	/**
+	 * Lists every operation that has been called, with its calls, failures
+	 * and latencies in microseconds
+	 */
+	@Override
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-28s %10s %8s %10s %10s %10s %10s %10s%n", "Operation", "Calls", "Failed",
+				"Mean us", "p50 us", "p99 us", "p99.9 us", "Max us"));
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			LatencyHistogram.Snapshot latency = getLatency(i);
+			if (latency.getCount() == 0) {
+				continue;
+			}
+			report.append(String.format("%-28s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", OPERATIONS[i],
+					getCalls(i), getFailures(i), latency.getMean() / 1000.0, latency.getPercentile(0.5) / 1000.0,
+					latency.getPercentile(0.99) / 1000.0, latency.getPercentile(0.999) / 1000.0,
+					latency.getMax() / 1000.0));
+			String reasons = reasons(i);
+			if (!reasons.isEmpty()) {
+				report.append("    failed: ").append(reasons).append(System.lineSeparator());
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Publishes these counts over JMX as TheatreProject:type=OperationStats
+	 * @return true if they were published
+	 */
+	public boolean register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("TheatreProject:type=OperationStats");
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+			return true;
+		} catch (JMException jme) {
+			System.out.println("Could not publish the operation statistics over JMX");
+			return false;
+		}
+	}
+
+	/**
+	 * @param operation the operation, such as ADD_CUSTOMER
+	 * @return its name, such as addCustomer
+	 */
+	static String name(int operation) {
+		return OPERATIONS[operation];
+	}
+
+	/**
+	 * @param failure the reason, such as CARD_ON_FILE, or NONE
+	 * @return its name, such as cardOnFile
+	 */
+	static String reason(int failure) {
+		return REASONS[failure];
+	}
+
+	/*
+	 * The failure reasons of an operation that have happened, with their counts
+	 */
+	private String reasons(int operation) {
+		StringBuilder reasons = new StringBuilder();
+		for (int j = 1; j < REASONS.length; j++) {
+			long count = failures[operation][j].sum();
+			if (count > 0) {
+				if (reasons.length() > 0) {
+					reasons.append(' ');
+				}
+				reasons.append(REASONS[j]).append('=').append(count);
+			}
+		}
+		return reasons.toString();
+	}
+
+	/*
+	 * Finds an operation by name
+	 */
+	private static int operation(String name) {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			if (OPERATIONS[i].equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No operation named " + name);
+	}
+}
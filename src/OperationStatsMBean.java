@@ -0,0 +1,61 @@
+/**
+ * The management interface of OperationStats, for JConsole and other JMX
+ * clients.  Operations are named after the Theater methods they count, such
+ * as addCustomer or save.
+ */
+public interface OperationStatsMBean {
+
+	/**
+	 * @return the names of every operation counted
+	 */
+	String[] getOperations();
+
+	/**
+	 * @return the number of calls of every operation
+	 */
+	long getTotalCalls();
+
+	/**
+	 * @return the number of failed calls of every operation
+	 */
+	long getTotalFailures();
+
+	/**
+	 * @return a table of the calls, failures and latencies of every operation called so far
+	 */
+	String getReport();
+
+	/**
+	 * @param operation the name of the operation
+	 * @return the number of calls
+	 * @throws IllegalArgumentException if there is no such operation
+	 */
+	long calls(String operation);
+
+	/**
+	 * @param operation the name of the operation
+	 * @return the number of failed calls
+	 * @throws IllegalArgumentException if there is no such operation
+	 */
+	long failures(String operation);
+
+	/**
+	 * @param operation the name of the operation
+	 * @return the number of failures for each reason, such as "notFound=2 journalError=1"
+	 * @throws IllegalArgumentException if there is no such operation
+	 */
+	String failureReasons(String operation);
+
+	/**
+	 * @param operation the name of the operation
+	 * @param percentile the percentile, such as 99.9
+	 * @return the latency at that percentile, in microseconds
+	 * @throws IllegalArgumentException if there is no such operation
+	 */
+	double percentileMicros(String operation, double percentile);
+
+	/**
+	 * Sets every count back to zero
+	 */
+	void reset();
+}
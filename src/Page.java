@@ -0,0 +1,157 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * One page of a listing, along with the cursor that resumes the listing after
+ * it.  Cursors record where the page ended (the last ID, or the last start
+ * date for shows) rather than a position, so they stay valid while other
+ * threads add and remove entries: the next page simply starts after that
+ * point, whatever has changed around it.
+ *
+ * A cursor is an opaque string.  Callers should only hand it back to the
+ * listing it came from.
+ *
+ * @param <E> the type of object listed
+ */
+public class Page<E> {
+
+	/**
+	 * The largest page that may be asked for
+	 */
+	public static final int MAX_SIZE = 10000;
+
+	static final char CUSTOMERS = 'C';
+	static final char CLIENTS = 'L';
+	static final char SHOWS = 'S';
+
+	/**
+	 * A listing that can be read a page at a time
+	 * @param <E> the type of object listed
+	 */
+	interface Source<E> {
+		/**
+		 * @param cursor the cursor from the previous page, or null for the first page
+		 * @param size the most objects to list
+		 * @return the page
+		 */
+		Page<E> page(String cursor, int size);
+	}
+
+	private final List<E> items;
+	private final String nextCursor;
+
+	Page(List<E> items, String nextCursor) {
+		this.items = Collections.unmodifiableList(items);
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return the objects on this page, in listing order
+	 */
+	public List<E> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return the cursor for the next page, or null if this is the last page
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * @return true if there is another page after this one
+	 */
+	public boolean hasMore() {
+		return nextCursor != null;
+	}
+
+	/**
+	 * Makes a cursor
+	 * @param kind which listing the cursor is for
+	 * @param key where the page ended
+	 * @param tie how many entries sharing that key were listed; only needed for
+	 *   keys that are not unique
+	 * @return the cursor
+	 */
+	static String cursor(char kind, long key, int tie) {
+		String plain = kind + ":" + key + ":" + tie;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Reads a cursor back
+	 * @param kind which listing the cursor must be for
+	 * @param cursor the cursor, or null or empty for the first page
+	 * @return the key and the tie count, or null for the first page
+	 * @throws IllegalArgumentException if the cursor is malformed or belongs to another listing
+	 */
+	static long[] position(char kind, String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		try {
+			String plain = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+			String[] parts = plain.split(":");
+			if (parts.length != 3 || parts[0].length() != 1 || parts[0].charAt(0) != kind) {
+				throw new IllegalArgumentException("Invalid cursor " + cursor);
+			}
+			long[] position = { Long.parseLong(parts[1]), Integer.parseInt(parts[2]) };
+			if (position[1] < 0) {
+				throw new IllegalArgumentException("Invalid cursor " + cursor);
+			}
+			return position;
+		} catch (IllegalArgumentException malformed) {
+			// Covers bad Base64 and bad numbers as well
+			throw new IllegalArgumentException("Invalid cursor " + cursor);
+		}
+	}
+
+	/**
+	 * Walks a whole listing one page at a time, so only one page is held at
+	 * once however long the listing is.  Like the pages themselves, the walk
+	 * carries on past changes made while it runs.
+	 * @param source the listing
+	 * @param size the number of objects to fetch at a time
+	 * @return an iterator over the objects in listing order
+	 */
+	static <E> Iterator<E> walk(final Source<E> source, final int size) {
+		return new Iterator<E>() {
+			private Page<E> page = source.page(null, size);
+			private Iterator<E> items = page.getItems().iterator();
+
+			@Override
+			public boolean hasNext() {
+				// A page may come back empty and still be followed by another
+				while (!items.hasNext() && page.hasMore()) {
+					page = source.page(page.getNextCursor(), size);
+					items = page.getItems().iterator();
+				}
+				return items.hasNext();
+			}
+
+			@Override
+			public E next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return items.next();
+			}
+		};
+	}
+
+	/**
+	 * Checks a requested page size
+	 * @param size the number of objects asked for
+	 * @throws IllegalArgumentException if size is not between 1 and MAX_SIZE
+	 */
+	static void checkSize(int size) {
+		if (size <= 0 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Page size must be between 1 and " + MAX_SIZE + ", not " + size);
+		}
+	}
+}
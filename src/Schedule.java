@@ -1,167 +1,694 @@
-import java.io.IOException;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
-import java.util.Calendar;
-
-/**
- * 
- * @author Corin Dennison
- * A singleton container class to hold Show objects for the Theater program.
- * Also has some intelligence to do some minor scheduling so shows won't overlap.
- */
-public class Schedule implements Serializable{
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 1L;
-	private ArrayList<Show> shows = new ArrayList<Show>();
-	private static Schedule schedule;
-	
-	private Schedule(){
-		// Default constructor is private
-	}
-	
-	/**
-     * Supports the singleton pattern
-     * 
-     * @return the singleton object
-     */
-	public static Schedule instance(){
-		if (schedule == null){
-			return (schedule = new Schedule());
-		} else {
-			return schedule;
-		}
-	}
-	
-	/**
-	 * Query this Schedule to see if a specific client has any shows scheduled
-	 * now or in the future.
-	 * @param clientID
-	 *   The ID of the client whose shows we want to query
-	 * @return
-	 *   True if there are any shows scheduled now or in the future for the client
-	 */
-	public boolean scheduled(int clientID){
-		Iterator<Show> iterator = shows.iterator();
-		Date rightNow = Calendar.getInstance().getTime();
-		
-		while (iterator.hasNext()){
-			Show show = iterator.next();
-			// If this show belongs to the right client and is scheduled sometime in the future (or present)
-			if(show.getClientID() == clientID && show.getEndDate().compareTo(rightNow) >= 0){
-				return true;
-			}
-		}
-		return false;
-	}
-	
-	/**
-	 * Queries the Schedule to see if any shows overlap with given start and end dates.
-	 * @param start
-	 *   The start date to query against
-	 * @param end
-	 *   The end date to query against
-	 * @return
-	 *   Null if there are no shows that conflict with the given dates. Otherwise the
-	 *   first conflicting show discovered is returned.  
-	 */
-	public Show anyShowScheduled(Date start, Date end){
-		Iterator<Show> iterator = shows.iterator();
-		
-		while (iterator.hasNext()){
-			Show show = iterator.next();
-			Date showStart = show.getStartDate();
-			Date showEnd = show.getEndDate();
-			
-			// if param start is later than show end or param end is before show start then there is no conflict
-			// otherwise there is a conflict
-			if (!(start.compareTo(showEnd) > 0 || end.compareTo(showStart) < 0)){
-				return show;
-			}
-		}
-		
-		return null;
-	}
-	
-	/**
-	 * Returns an iterator to iterate over the list of shows in this Schedule
-	 * @return
-	 */
-	public Iterator<Show> iterator(){
-		return shows.iterator();
-	}
-	
-	/**
-	 * Adds a show to this Schedule.  If it conflicts with a show already in the
-	 * Schedule an IllegalArgumentEsception will be thrown
-	 * @param show
-	 *   The show to be added
-	 * @return
-	 *   The show that was added
-	 * @throws IllegalArgumentException
-	 *   If the supplied show has a scheduling conflict with another show.
-	 */
-	public Show add(Show show){
-		Show conflict = anyShowScheduled(show.getStartDate(), show.getEndDate());
-		if(conflict == null){
-			shows.add(show);
-			return show;
-		}
-		else{
-			throw new IllegalArgumentException("The show could not be added because it conflicts with show [" + conflict + "]");
-		}
-	}
-	
-	/**
-     * Supports serialization
-     * 
-     * @param output the stream to be written to
-     */
-    private void writeObject(java.io.ObjectOutputStream output)
-    		throws IOException {
-		try {
-		    output.defaultWriteObject();
-		    output.writeObject(schedule);
-		} catch (IOException ioe) {
-		    ioe.printStackTrace();
-		}
-    }
-
-    /**
-     * Supports serialization
-     * 
-     * @param input the stream to be read from
-     */
-    private void readObject(java.io.ObjectInputStream input)
-    		throws IOException, ClassNotFoundException {
-		try {
-		    input.defaultReadObject();
-		    if (schedule == null) {
-		    	schedule = (Schedule) input.readObject();
-		    } else {
-		    	input.readObject();
-		    }
-		} catch (IOException ioe) {
-		    ioe.printStackTrace();
-		}
-    }
-    
-    /**
-     * Returns a string listing all of the shows and the total number of
-     * shows
-     */
-    @Override
-    public String toString() {
-		StringBuilder builder = new StringBuilder();
-		builder.append(this.shows.size() + " shows on file:\n");
-		Iterator<Show> iterator = shows.iterator();
-		while (iterator.hasNext()) {
-		    builder.append(iterator.next().toString());
-		}
-	
-		return builder.toString();
-    }
-}
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 
+ * @author Corin Dennison
+ * A singleton container class to hold Show objects for the Theater program.
+ * Also has some intelligence to do some minor scheduling so shows won't overlap.
+ * Shows are indexed in an interval tree on their run dates so conflict checks
+ * don't have to look at every show ever added, and each client's shows are
+ * kept in a list sorted by end date.
+ * 
+ * Shows that have ended are moved out to a ShowArchive, so the live
+ * structures only hold current and future shows.  This happens on load and
+ * then at most once an hour as shows are added, or whenever archiveEnded() is
+ * called.  Archived shows still count in conflict checks, and can be listed
+ * for history and reporting.  Snapshots hold both.
+ * 
+ * The Schedule is safe to share between threads.  Queries run in parallel
+ * under a read lock, while add() holds the write lock so the conflict check
+ * and the insertion happen as one step.
+ */
+public class Schedule implements Serializable, Iterable<Show>{
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private static final long ARCHIVE_EVERY = 60 * 60 * 1000L;
+	private ArrayList<Show> shows = new ArrayList<Show>();
+	private transient ShowArchive archive = new ShowArchive();
+	private transient long nextArchive; // when add() should next move ended shows to the archive
+	private transient IntervalTree<Show> timeline = new IntervalTree<Show>();
+	private transient IDIndex<List<Show>> clientShows = new IDIndex<List<Show>>();
+	private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private static Schedule schedule;
+	
+	private Schedule(){
+		// Default constructor is private
+	}
+	
+	/**
+     * Supports the singleton pattern
+     * 
+     * @return the singleton object
+     */
+	public static synchronized Schedule instance(){
+		if (schedule == null){
+			return (schedule = new Schedule());
+		} else {
+			return schedule;
+		}
+	}
+	
+	/**
+	 * Query this Schedule to see if a specific client has any shows scheduled
+	 * now or in the future.
+	 * @param clientID
+	 *   The ID of the client whose shows we want to query
+	 * @return
+	 *   True if there are any shows scheduled now or in the future for the client
+	 */
+	public boolean scheduled(int clientID){
+		lock.readLock().lock();
+		try {
+			List<Show> forClient = clientShows.get(clientID);
+			if (forClient == null || forClient.isEmpty()){
+				return false;
+			}
+			// The client's shows are sorted by end date, so only the last one needs checking
+			return forClient.get(forClient.size() - 1).getEndTime() >= System.currentTimeMillis();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns an iterator over one client's shows, archived ones included, in
+	 * order of end date
+	 * @param clientID
+	 *   The ID of the client whose shows we want
+	 * @return
+	 *   An iterator over the client's shows
+	 */
+	public Iterator<Show> clientShows(int clientID){
+		lock.readLock().lock();
+		try {
+			// Archived shows don't overlap and all ended before the current ones were
+			// archived, so in start order they are also in end order and come first
+			List<Show> all = archive.clientShows(clientID);
+			List<Show> forClient = clientShows.get(clientID);
+			if (forClient != null){
+				all.addAll(forClient);
+			}
+			return Collections.unmodifiableList(all).iterator();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Queries the Schedule to see if any shows overlap with given start and end dates.
+	 * @param start
+	 *   The start date to query against
+	 * @param end
+	 *   The end date to query against
+	 * @return
+	 *   Null if there are no shows that conflict with the given dates. Otherwise the
+	 *   first conflicting show discovered is returned.  
+	 */
+	public Show anyShowScheduled(Date start, Date end){
+		// A show conflicts unless it ends before start or begins after end
+		lock.readLock().lock();
+		try {
+			return firstOverlap(start.getTime(), end.getTime());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Lists all the shows that overlap the given dates, in order of start date.
+	 * @param start
+	 *   The start date to query against
+	 * @param end
+	 *   The end date to query against
+	 * @return
+	 *   The shows running at any time between start and end, inclusive, archived
+	 *   ones included
+	 */
+	public List<Show> showsBetween(Date start, Date end){
+		lock.readLock().lock();
+		try {
+			List<Show> found = archive.overlapping(start.getTime(), end.getTime());
+			if (found.isEmpty()){
+				return timeline.overlapping(start.getTime(), end.getTime());
+			}
+			found.addAll(timeline.overlapping(start.getTime(), end.getTime()));
+			Collections.sort(found, new Comparator<Show>(){
+				@Override
+				public int compare(Show first, Show second){
+					return Long.compare(first.getStartTime(), second.getStartTime());
+				}
+			});
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Finds the earliest free stretch of the Schedule that starts at or after
+	 * a given date and is at least a given length.  Current and archived
+	 * shows are walked in order of start date from the one running at that
+	 * date, so this takes O(log n + k) for k shows passed over.
+	 * @param from
+	 *   The earliest date the stretch may start
+	 * @param length
+	 *   The least number of milliseconds from its start to its end
+	 * @return
+	 *   The first gap long enough, which may be open-ended, or null if a
+	 *   show scheduled to run forever leaves none
+	 */
+	public Gap firstGap(Date from, long length){
+		lock.readLock().lock();
+		try {
+			List<Gap> found = gaps(from.getTime(), Long.MAX_VALUE, length, 1);
+			return found.isEmpty() ? null : found.get(0);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Lists the free stretches of the Schedule between two dates that are at
+	 * least a given length.  Takes O(log n + k) for k shows in the range.
+	 * @param start
+	 *   The start of the range
+	 * @param end
+	 *   The end of the range, inclusive
+	 * @param length
+	 *   The least number of milliseconds from a gap's start to its end
+	 * @return
+	 *   The gaps in order of date, cut off at start and end
+	 */
+	public List<Gap> gapsBetween(Date start, Date end, long length){
+		lock.readLock().lock();
+		try {
+			return gaps(start.getTime(), end.getTime(), length, Integer.MAX_VALUE);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Checks that a show is on this Schedule, archived or not, rather than one
+	 * that was never added or was taken back.
+	 * @param show
+	 *   The show to look for, compared by identity
+	 * @return
+	 *   True if the show is on the Schedule
+	 */
+	public boolean contains(Show show){
+		lock.readLock().lock();
+		try {
+			// Shows don't overlap, so only the one running at its start can be it
+			long start = show.getStartTime();
+			return timeline.firstOverlap(start, start) == show || archive.firstOverlap(start, start) == show;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Lists archived shows, which ended before they were archived.
+	 * @return
+	 *   A copy of the archive, in order of start date
+	 */
+	public List<Show> archivedShows(){
+		lock.readLock().lock();
+		try {
+			List<Show> copy = new ArrayList<Show>(archive.size());
+			for (Show show : archive){
+				copy.add(show);
+			}
+			return copy;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Lists every show, archived or not, for snapshots.
+	 * @return
+	 *   A copy of the archive followed by the current shows
+	 */
+	List<Show> allShows(){
+		lock.readLock().lock();
+		try {
+			List<Show> all = new ArrayList<Show>(archive.size() + shows.size());
+			for (Show show : archive){
+				all.add(show);
+			}
+			all.addAll(shows);
+			return all;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Moves every show that has ended to the archive.
+	 * @return
+	 *   The number of shows archived
+	 */
+	public int archiveEnded(){
+		lock.writeLock().lock();
+		try {
+			long now = System.currentTimeMillis();
+			nextArchive = now + ARCHIVE_EVERY;
+			List<Show> ended = new ArrayList<Show>();
+			ArrayList<Show> current = new ArrayList<Show>(shows.size());
+			for (Show show : shows){
+				if (show.getEndTime() < now){
+					ended.add(show);
+				} else {
+					current.add(show);
+				}
+			}
+			if (ended.isEmpty()){
+				return 0;
+			}
+			shows = current;
+			for (Show show : ended){
+				timeline.remove(show.getStartTime(), show);
+				List<Show> forClient = clientShows.get(show.getClientID());
+				forClient.remove(show);
+				if (forClient.isEmpty()){
+					clientShows.remove(show.getClientID());
+				}
+			}
+			archive.append(ended);
+			return ended.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns an iterator to iterate over the list of current and future shows
+	 * in this Schedule; archived shows are not included.  It runs over a copy
+	 * of the list, so shows may be added while it is used.
+	 * @return
+	 */
+	@Override
+	public Iterator<Show> iterator(){
+		lock.readLock().lock();
+		try {
+			return Collections.unmodifiableList(new ArrayList<Show>(shows)).iterator();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Lists one page of shows in order of start date.  Finding where the page
+	 * starts takes O(log n) in the number of shows, so deep pages cost no more
+	 * than the first.
+	 * @param cursor
+	 *   The cursor from the previous page, or null for the first page
+	 * @param size
+	 *   The most shows to list
+	 * @return
+	 *   The page
+	 * @throws IllegalArgumentException
+	 *   If the cursor or the size is invalid
+	 */
+	public Page<Show> page(String cursor, int size){
+		Page.checkSize(size);
+		long[] position = Page.position(Page.SHOWS, cursor);
+		long from = position == null ? Long.MIN_VALUE : position[0];
+		int listed = position == null ? 0 : (int) position[1];
+		List<Show> found;
+		lock.readLock().lock();
+		try {
+			// Shows that start when the last page ended and were already on it come
+			// first, then the page, then one more to show whether another follows
+			found = timeline.startingFrom(from, (int) Math.min(Integer.MAX_VALUE, (long) listed + size + 1));
+		} finally {
+			lock.readLock().unlock();
+		}
+		int first = 0;
+		while (first < listed && first < found.size() && found.get(first).getStartTime() == from){
+			first++;
+		}
+		int end = Math.min(found.size(), first + size);
+		String next = null;
+		if (end < found.size()){
+			long last = found.get(end - 1).getStartTime();
+			int tie = 0;
+			for (int i = end - 1; i >= 0 && found.get(i).getStartTime() == last; i--){
+				tie++;
+			}
+			next = Page.cursor(Page.SHOWS, last, tie);
+		}
+		return new Page<Show>(new ArrayList<Show>(found.subList(first, end)), next);
+	}
+
+	/**
+	 * Returns the lock add() takes, so a caller can make its own checks and
+	 * the addition of a show one step, or keep shows from being added while
+	 * it acts on a client.  Reentrant, so add() may be called while holding it.
+	 * @return
+	 *   The Schedule's write lock
+	 */
+	Lock writeLock(){
+		return lock.writeLock();
+	}
+	
+	/**
+	 * Adds a show to this Schedule.  If it conflicts with a show already in the
+	 * Schedule an IllegalArgumentEsception will be thrown
+	 * @param show
+	 *   The show to be added
+	 * @return
+	 *   The show that was added
+	 * @throws IllegalArgumentException
+	 *   If the supplied show has a scheduling conflict with another show.
+	 */
+	public Show add(Show show){
+		lock.writeLock().lock();
+		try {
+			if (System.currentTimeMillis() >= nextArchive){
+				archiveEnded();
+			}
+			Show conflict = firstOverlap(show.getStartTime(), show.getEndTime());
+			if(conflict == null){
+				index(show);
+				shows.add(show);
+				return show;
+			}
+			else{
+				throw new IllegalArgumentException("The show could not be added because it conflicts with show [" + conflict + "]");
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Takes back a show that was just added, such as when the addition
+	 * couldn't be journaled.  Shows that have been archived are left alone.
+	 * @param show
+	 *   The show to remove
+	 * @return
+	 *   True if the show was found and removed
+	 */
+	boolean remove(Show show){
+		lock.writeLock().lock();
+		try {
+			if (!timeline.remove(show.getStartTime(), show)){
+				return false;
+			}
+			shows.remove(show);
+			List<Show> forClient = clientShows.get(show.getClientID());
+			forClient.remove(show);
+			if (forClient.isEmpty()){
+				clientShows.remove(show.getClientID());
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Moves a show to new dates.  A show on this Schedule is taken out of the
+	 * date index and its client's list and put back under its new dates, so
+	 * both stay in order; it keeps its place in the list of shows.  A show
+	 * that was never added just takes the new dates.
+	 * @param show
+	 *   The show to move
+	 * @param startTime
+	 *   The new start in milliseconds since the epoch
+	 * @param endTime
+	 *   The new end
+	 * @throws IllegalArgumentException
+	 *   If the end is not after the start, the show would overlap another, or
+	 *   the show has been archived; the show is left as it was
+	 */
+	void move(Show show, long startTime, long endTime){
+		lock.writeLock().lock();
+		try {
+			long oldStart = show.getStartTime();
+			long oldEnd = show.getEndTime();
+			if (!timeline.remove(oldStart, show)){
+				if (archive.firstOverlap(oldStart, oldStart) == show){
+					throw new IllegalArgumentException("The show has ended and been archived, so it can't be moved");
+				}
+				show.setTimes(startTime, endTime);
+				return;
+			}
+			clientShows.get(show.getClientID()).remove(show);
+			try {
+				show.setTimes(startTime, endTime);
+				Show conflict = firstOverlap(startTime, endTime);
+				if (conflict != null){
+					show.setTimes(oldStart, oldEnd);
+					throw new IllegalArgumentException("The show could not be moved because it conflicts with show [" + conflict + "]");
+				}
+			} finally {
+				index(show);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Removes every show from this Schedule
+	 */
+	void clear(){
+		lock.writeLock().lock();
+		try {
+			shows.clear();
+			archive.clear();
+			timeline = new IntervalTree<Show>();
+			clientShows.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/*
+	 * Finds the first show overlapping [low, high], current or archived.  Needs the lock.
+	 */
+	private Show firstOverlap(long low, long high){
+		TheaterEvents.ConflictCheck event = new TheaterEvents.ConflictCheck();
+		event.begin();
+		Show conflict = timeline.firstOverlap(low, high);
+		if (conflict == null){
+			conflict = archive.firstOverlap(low, high);
+		}
+		if (event.shouldCommit()){
+			event.rangeStart = low;
+			event.rangeEnd = high;
+			event.conflict = conflict != null;
+			event.shows = timeline.size() + archive.size();
+			event.commit();
+		}
+		return conflict;
+	}
+	
+	/*
+	 * Lists the gaps of at least length between shows in [from, to], up to limit of them.
+	 * Shows don't overlap, so merging the timeline and the archive by start date
+	 * gives the busy stretches in order.  Needs the lock.
+	 */
+	private List<Gap> gaps(long from, long to, long length, int limit){
+		List<Gap> found = new ArrayList<Gap>();
+		Show running = timeline.firstOverlap(from, from);
+		Iterator<Show> current = timeline.iterator(running == null ? from : running.getStartTime());
+		Iterator<Show> archived = archive.reaching(from);
+		Show nextCurrent = current.hasNext() ? current.next() : null;
+		Show nextArchived = archived.hasNext() ? archived.next() : null;
+		long free = from;
+		while ((nextCurrent != null || nextArchived != null) && free <= to && found.size() < limit){
+			Show show;
+			if (nextArchived == null || (nextCurrent != null && nextCurrent.getStartTime() < nextArchived.getStartTime())){
+				show = nextCurrent;
+				nextCurrent = current.hasNext() ? current.next() : null;
+			} else {
+				show = nextArchived;
+				nextArchived = archived.hasNext() ? archived.next() : null;
+			}
+			if (show.getStartTime() > free){
+				long end = Math.min(show.getStartTime() - 1, to);
+				if (spans(free, end, length)){
+					found.add(new Gap(free, end));
+				}
+			}
+			if (show.getEndTime() >= free){
+				if (show.getEndTime() == Long.MAX_VALUE){
+					return found;
+				}
+				free = show.getEndTime() + 1;
+			}
+		}
+		if (free <= to && found.size() < limit && spans(free, to, length)){
+			found.add(new Gap(free, to));
+		}
+		return found;
+	}
+	
+	/*
+	 * Checks that end, which is free or later, is at least length after free.
+	 * The difference overflows a long when free is far before the epoch and end
+	 * far after it, but it always fits as an unsigned one.
+	 */
+	private static boolean spans(long free, long end, long length){
+		return length <= 0 || Long.compareUnsigned(end - free, length) >= 0;
+	}
+	
+	/*
+	 * Adds a show to the date index and to its client's list, keeping that list sorted by end date
+	 */
+	private void index(Show show){
+		timeline.add(show.getStartTime(), show.getEndTime(), show);
+		List<Show> forClient = clientShows.get(show.getClientID());
+		if (forClient == null){
+			forClient = new ArrayList<Show>();
+			clientShows.put(show.getClientID(), forClient);
+		}
+		int position = forClient.size();
+		while (position > 0 && forClient.get(position - 1).getEndTime() > show.getEndTime()){
+			position--;
+		}
+		forClient.add(position, show);
+	}
+	
+	/**
+     * Supports serialization
+     * 
+     * @param output the stream to be written to
+     */
+    private void writeObject(java.io.ObjectOutputStream output)
+    		throws IOException {
+		lock.readLock().lock();
+		try {
+		    // Archived shows are written with the rest, so the file keeps its layout
+		    ArrayList<Show> all = new ArrayList<Show>(archive.size() + shows.size());
+		    for (Show show : archive) {
+		    	all.add(show);
+		    }
+		    all.addAll(shows);
+		    java.io.ObjectOutputStream.PutField fields = output.putFields();
+		    fields.put("shows", all);
+		    output.writeFields();
+		    output.writeObject(schedule);
+		} catch (IOException ioe) {
+		    ioe.printStackTrace();
+		} finally {
+		    lock.readLock().unlock();
+		}
+    }
+
+    /**
+     * Supports serialization
+     * 
+     * @param input the stream to be read from
+     */
+    private void readObject(java.io.ObjectInputStream input)
+    		throws IOException, ClassNotFoundException {
+		try {
+		    input.defaultReadObject();
+		    timeline = new IntervalTree<Show>();
+		    clientShows = new IDIndex<List<Show>>();
+		    lock = new ReentrantReadWriteLock();
+		    archive = new ShowArchive();
+		    for (Show show : shows) {
+		    	index(show);
+		    }
+		    archiveEnded();
+		    if (schedule == null) {
+		    	schedule = (Schedule) input.readObject();
+		    } else {
+		    	input.readObject();
+		    }
+		} catch (IOException ioe) {
+		    ioe.printStackTrace();
+		}
+    }
+    
+    /**
+     * Returns a string listing all of the shows and the total number of
+     * shows
+     */
+    @Override
+    public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(this.shows.size() + " shows on file:\n");
+		Iterator<Show> iterator = iterator();
+		while (iterator.hasNext()) {
+		    builder.append(iterator.next().toString());
+		}
+	
+		return builder.toString();
+    }
+    
+    /**
+     * A stretch of time with no show scheduled, from its start to its end
+     * inclusive
+     */
+    public static class Gap {
+		private final long startTime;
+		private final long endTime;
+		
+		Gap(long startTime, long endTime){
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+		
+		/**
+		 * @return the first free instant
+		 */
+		public Date getStart(){
+			return new Date(startTime);
+		}
+		
+		/**
+		 * @return the last free instant, or null if nothing is scheduled after the start
+		 */
+		public Date getEnd(){
+			return isOpenEnded() ? null : new Date(endTime);
+		}
+		
+		/**
+		 * @return the first free instant in milliseconds since the epoch
+		 */
+		public long getStartTime(){
+			return startTime;
+		}
+		
+		/**
+		 * @return the last free instant in milliseconds since the epoch, or
+		 *   Long.MAX_VALUE if nothing is scheduled after the start
+		 */
+		public long getEndTime(){
+			return endTime;
+		}
+		
+		/**
+		 * @return true if nothing is scheduled after the start
+		 */
+		public boolean isOpenEnded(){
+			return endTime == Long.MAX_VALUE;
+		}
+		
+		@Override
+		public String toString(){
+			if (isOpenEnded()){
+				return "Free from " + new Date(startTime) + " on";
+			}
+			return "Free from " + new Date(startTime) + " to " + new Date(endTime);
+		}
+    }
+}
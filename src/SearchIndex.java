@@ -0,0 +1,479 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds customers or clients by their details rather than their IDs.  Names
+ * and addresses are split into words, folded to lower case without accents,
+ * and each word is kept in a sorted map to the IDs using it, so a word or the
+ * start of one is found without a scan.  Phone numbers are kept by their
+ * digits, and cards by their last four digits.
+ *
+ * The lists keep the index up to date as records are added and removed and
+ * as their details are set.  Queries run in parallel with each other and
+ * with changes; changes are made one at a time.
+ */
+public class SearchIndex {
+
+	/**
+	 * The name of a record
+	 */
+	public static final int NAME = 0;
+
+	/**
+	 * The address of a record
+	 */
+	public static final int ADDRESS = 1;
+
+	/**
+	 * The phone number of a record
+	 */
+	public static final int PHONE = 2;
+
+	// Only the last 10 digits of a phone number are kept, so it is found with or without a country code
+	private static final int PHONE_DIGITS = 10;
+
+	/*
+	 * The IDs under one key.  Most keys have only a few, which are kept in a
+	 * small array that is copied on each change; a key with more moves them
+	 * to a concurrent set.  Only changed under the index's lock, but read at
+	 * any time.
+	 */
+	private static final class IDs implements Iterable<Integer> {
+		private static final int FEW = 16;
+		private volatile int[] few = new int[0];
+		private volatile Set<Integer> many;
+
+		void add(int ID) {
+			if (many != null) {
+				many.add(ID);
+				return;
+			}
+			int[] current = few;
+			for (int held : current) {
+				if (held == ID) {
+					return;
+				}
+			}
+			if (current.length < FEW) {
+				int[] grown = Arrays.copyOf(current, current.length + 1);
+				grown[current.length] = ID;
+				few = grown;
+				return;
+			}
+			Set<Integer> set = ConcurrentHashMap.newKeySet();
+			for (int held : current) {
+				set.add(held);
+			}
+			set.add(ID);
+			many = set;
+		}
+
+		boolean remove(int ID) {
+			if (many != null) {
+				return many.remove(ID);
+			}
+			int[] current = few;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i] == ID) {
+					int[] shrunk = new int[current.length - 1];
+					System.arraycopy(current, 0, shrunk, 0, i);
+					System.arraycopy(current, i + 1, shrunk, i, shrunk.length - i);
+					few = shrunk;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean isEmpty() {
+			return many != null ? many.isEmpty() : few.length == 0;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			Set<Integer> set = many;
+			if (set != null) {
+				return set.iterator();
+			}
+			final int[] current = few;
+			return new Iterator<Integer>() {
+				private int position;
+
+				@Override
+				public boolean hasNext() {
+					return position < current.length;
+				}
+
+				@Override
+				public Integer next() {
+					if (position >= current.length) {
+						throw new NoSuchElementException();
+					}
+					return current[position++];
+				}
+			};
+		}
+	}
+
+	/*
+	 * An index of the words in one detail, such as the names
+	 */
+	private static class Words {
+		private final ConcurrentNavigableMap<String, IDs> IDsByWord =
+				new ConcurrentSkipListMap<String, IDs>();
+		private final ConcurrentMap<Integer, String[]> wordsByID = new ConcurrentHashMap<Integer, String[]>();
+
+		void add(int ID, String text) {
+			String[] words = words(text);
+			wordsByID.put(ID, words);
+			for (String word : words) {
+				SearchIndex.add(IDsByWord, word, ID);
+			}
+		}
+
+		void remove(int ID) {
+			String[] words = wordsByID.remove(ID);
+			if (words != null) {
+				for (String word : words) {
+					SearchIndex.remove(IDsByWord, word, ID);
+				}
+			}
+		}
+
+		void clear() {
+			IDsByWord.clear();
+			wordsByID.clear();
+		}
+
+		/*
+		 * Finds records with a word starting with each word of the query, or
+		 * equal to it if whole is true.  The records are read from the most
+		 * selective word of the query, the longest, and checked against the rest.
+		 */
+		List<Integer> find(String query, boolean whole, int limit) {
+			String[] wanted = words(query);
+			Set<Integer> found = new LinkedHashSet<Integer>();
+			if (wanted.length == 0 || limit <= 0) {
+				return new ArrayList<Integer>(found);
+			}
+			Arrays.sort(wanted, LONGEST_FIRST);
+			Map<String, IDs> candidates = whole
+					? IDsByWord.subMap(wanted[0], true, wanted[0], true)
+					: IDsByWord.subMap(wanted[0], true, wanted[0] + Character.MAX_VALUE, true);
+			for (IDs IDs : candidates.values()) {
+				for (Integer ID : IDs) {
+					if (!found.contains(ID) && matchesAll(wordsByID.get(ID), wanted, whole)) {
+						found.add(ID);
+						if (found.size() >= limit) {
+							return new ArrayList<Integer>(found);
+						}
+					}
+				}
+			}
+			return new ArrayList<Integer>(found);
+		}
+
+		private static boolean matchesAll(String[] words, String[] wanted, boolean whole) {
+			if (words == null) {
+				return false;
+			}
+			for (int i = 1; i < wanted.length; i++) {
+				boolean matched = false;
+				for (String word : words) {
+					if (whole ? word.equals(wanted[i]) : word.startsWith(wanted[i])) {
+						matched = true;
+						break;
+					}
+				}
+				if (!matched) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final Words names = new Words();
+	private final Words addresses = new Words();
+	private final ConcurrentMap<String, IDs> phones = new ConcurrentHashMap<String, IDs>();
+	private final ConcurrentMap<String, IDs> cards = new ConcurrentHashMap<String, IDs>();
+	// How many cards each record holds under a key of cards, as "ID:last four"; only used under the lock
+	private final Map<String, Integer> cardsHeld = new HashMap<String, Integer>();
+	private final ReentrantLock changes = new ReentrantLock();
+
+	/**
+	 * Adds a record's details
+	 * @param ID the ID of the record
+	 * @param name its name
+	 * @param address its address
+	 * @param phone its phone number
+	 */
+	void add(int ID, String name, String address, String phone) {
+		changes.lock();
+		try {
+			names.add(ID, name);
+			addresses.add(ID, address);
+			add(phones, phoneKey(phone), ID);
+		} finally {
+			changes.unlock();
+		}
+	}
+
+	/**
+	 * Removes a record's details
+	 * @param ID the ID of the record
+	 * @param phone its phone number
+	 */
+	void remove(int ID, String phone) {
+		changes.lock();
+		try {
+			names.remove(ID);
+			addresses.remove(ID);
+			remove(phones, phoneKey(phone), ID);
+		} finally {
+			changes.unlock();
+		}
+	}
+
+	/**
+	 * Moves a record from one value of a detail to another
+	 * @param ID the ID of the record
+	 * @param detail NAME, ADDRESS or PHONE
+	 * @param old the value it had
+	 * @param value the value it has now
+	 */
+	void changed(int ID, int detail, String old, String value) {
+		changes.lock();
+		try {
+			if (detail == NAME) {
+				names.remove(ID);
+				names.add(ID, value);
+			} else if (detail == ADDRESS) {
+				addresses.remove(ID);
+				addresses.add(ID, value);
+			} else {
+				remove(phones, phoneKey(old), ID);
+				add(phones, phoneKey(value), ID);
+			}
+		} finally {
+			changes.unlock();
+		}
+	}
+
+	/**
+	 * Adds a card held by a record
+	 * @param ID the ID of the record
+	 * @param accountNumber the card number
+	 */
+	void addCard(int ID, String accountNumber) {
+		changes.lock();
+		try {
+			String key = lastFour(accountNumber);
+			Integer held = cardsHeld.put(ID + ":" + key, 1);
+			if (held == null) {
+				add(cards, key, ID);
+			} else {
+				cardsHeld.put(ID + ":" + key, held + 1);
+			}
+		} finally {
+			changes.unlock();
+		}
+	}
+
+	/**
+	 * Removes a card held by a record.  The record is still found by the
+	 * card's last four digits while it holds another card ending in them.
+	 * @param ID the ID of the record
+	 * @param accountNumber the card number
+	 */
+	void removeCard(int ID, String accountNumber) {
+		changes.lock();
+		try {
+			String key = lastFour(accountNumber);
+			Integer held = cardsHeld.remove(ID + ":" + key);
+			if (held == null || held == 1) {
+				remove(cards, key, ID);
+			} else {
+				cardsHeld.put(ID + ":" + key, held - 1);
+			}
+		} finally {
+			changes.unlock();
+		}
+	}
+
+	/**
+	 * Removes every record
+	 */
+	void clear() {
+		changes.lock();
+		try {
+			names.clear();
+			addresses.clear();
+			phones.clear();
+			cards.clear();
+			cardsHeld.clear();
+		} finally {
+			changes.unlock();
+		}
+	}
+
+	/**
+	 * Finds records whose names have a word starting with each word of the
+	 * query, in any order, so "jo sm" finds John Smith
+	 * @param query the start of one or more words
+	 * @param limit the most IDs to return
+	 * @return the IDs of the records found
+	 */
+	public List<Integer> namesStartingWith(String query, int limit) {
+		return names.find(query, false, limit);
+	}
+
+	/**
+	 * Finds records whose names have every word of the query, in any order
+	 * @param query one or more whole words
+	 * @param limit the most IDs to return
+	 * @return the IDs of the records found
+	 */
+	public List<Integer> namesWithWords(String query, int limit) {
+		return names.find(query, true, limit);
+	}
+
+	/**
+	 * Finds records whose addresses have a word starting with each word of
+	 * the query, in any order
+	 * @param query the start of one or more words
+	 * @param limit the most IDs to return
+	 * @return the IDs of the records found
+	 */
+	public List<Integer> addressesStartingWith(String query, int limit) {
+		return addresses.find(query, false, limit);
+	}
+
+	/**
+	 * Finds records by phone number, however it is punctuated
+	 * @param phone the phone number
+	 * @return the IDs of the records found
+	 */
+	public List<Integer> withPhone(String phone) {
+		return found(phones.get(phoneKey(phone)));
+	}
+
+	/**
+	 * Finds records holding a card ending in the given four digits
+	 * @param lastFour the last four digits, or a card number to take them from
+	 * @return the IDs of the records found
+	 */
+	public List<Integer> withCardEnding(String lastFour) {
+		return found(cards.get(lastFour(lastFour)));
+	}
+
+	/**
+	 * Puts a phone number in the form it is indexed by: its digits, and only
+	 * the last 10 of them
+	 * @param phone the phone number as entered
+	 * @return the digits
+	 */
+	public static String phoneKey(String phone) {
+		StringBuilder digits = new StringBuilder(phone.length());
+		for (int i = 0; i < phone.length(); i++) {
+			if (Character.isDigit(phone.charAt(i))) {
+				digits.append(phone.charAt(i));
+			}
+		}
+		return digits.length() > PHONE_DIGITS ? digits.substring(digits.length() - PHONE_DIGITS) : digits.toString();
+	}
+
+	private static String lastFour(String accountNumber) {
+		String normalized = CreditCard.normalize(accountNumber);
+		return normalized.length() > 4 ? normalized.substring(normalized.length() - 4) : normalized;
+	}
+
+	/*
+	 * Splits text into lower case words without accents
+	 */
+	private static String[] words(String text) {
+		if (text == null) {
+			return new String[0];
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) > 127) {
+				// Split accented letters into the letter and its accent, which is then skipped
+				text = Normalizer.normalize(text, Normalizer.Form.NFD);
+				break;
+			}
+		}
+		List<String> words = new ArrayList<String>(4);
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				word.append(Character.toLowerCase(c));
+			} else if (Character.getType(c) != Character.NON_SPACING_MARK && word.length() > 0) {
+				String finished = word.toString();
+				if (!words.contains(finished)) {
+					words.add(finished);
+				}
+				word.setLength(0);
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	private static List<Integer> found(IDs IDs) {
+		List<Integer> found = new ArrayList<Integer>();
+		if (IDs != null) {
+			for (Integer ID : IDs) {
+				found.add(ID);
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Adds an ID under a key.  Needs the lock, so a set is never dropped as
+	 * empty while an ID is being added to it.
+	 */
+	private static void add(ConcurrentMap<String, IDs> index, String key, int ID) {
+		IDs IDs = index.get(key);
+		if (IDs == null) {
+			IDs = new IDs();
+			IDs.add(ID);
+			index.put(key, IDs);
+		} else {
+			IDs.add(ID);
+		}
+	}
+
+	/*
+	 * Removes an ID from under a key, dropping the key once no ID is left.
+	 * Needs the lock.
+	 */
+	private static void remove(ConcurrentMap<String, IDs> index, String key, int ID) {
+		IDs IDs = index.get(key);
+		if (IDs != null && IDs.remove(ID) && IDs.isEmpty()) {
+			index.remove(key);
+		}
+	}
+
+	private static final Comparator<String> LONGEST_FIRST = new Comparator<String>() {
+		@Override
+		public int compare(String first, String second) {
+			return second.length() - first.length();
+		}
+	};
+}
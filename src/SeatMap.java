@@ -0,0 +1,175 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The seats of one performance, as two bitsets of 64 seats to a word: one
+ * bit per seat that is taken, whether held for a reservation or sold, and one
+ * per seat that is sold.  A seat is taken with a compare-and-set on its word,
+ * so two buyers can never get the same seat and no lock is needed.  Counts of
+ * sold and taken seats are kept as they change, so they are read in constant
+ * time.
+ */
+public class SeatMap {
+
+	private final int capacity;
+	private final AtomicLongArray taken;
+	private final AtomicLongArray sold;
+	private final AtomicInteger takenCount = new AtomicInteger();
+	private final AtomicInteger soldCount = new AtomicInteger();
+
+	/**
+	 * @param capacity the number of seats, numbered from 0
+	 */
+	public SeatMap(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("A performance needs at least one seat");
+		}
+		this.capacity = capacity;
+		this.taken = new AtomicLongArray((capacity + 63) >>> 6);
+		this.sold = new AtomicLongArray((capacity + 63) >>> 6);
+	}
+
+	/**
+	 * @return the number of seats
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of seats sold
+	 */
+	public int getSold() {
+		return soldCount.get();
+	}
+
+	/**
+	 * @return the number of seats neither sold nor held
+	 */
+	public int getAvailable() {
+		return capacity - takenCount.get();
+	}
+
+	/**
+	 * @param seat the seat number
+	 * @return true if the seat is sold or held
+	 */
+	public boolean isTaken(int seat) {
+		check(seat);
+		return (taken.get(seat >>> 6) & (1L << seat)) != 0;
+	}
+
+	/**
+	 * @param seat the seat number
+	 * @return true if the seat is sold
+	 */
+	public boolean isSold(int seat) {
+		check(seat);
+		return (sold.get(seat >>> 6) & (1L << seat)) != 0;
+	}
+
+	/**
+	 * Holds a seat if it is free
+	 * @param seat the seat number
+	 * @return true if the seat was free and is now held
+	 */
+	public boolean hold(int seat) {
+		check(seat);
+		if (!set(taken, seat)) {
+			return false;
+		}
+		takenCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Frees a held seat.  A sold seat stays sold.
+	 * @param seat the seat number
+	 * @return true if the seat was held and is now free
+	 */
+	public boolean release(int seat) {
+		check(seat);
+		if (isSold(seat) || !clear(taken, seat)) {
+			return false;
+		}
+		takenCount.decrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Sells a seat the caller holds
+	 * @param seat the seat number
+	 * @return true if the seat was held and not sold yet, and is now sold
+	 */
+	public boolean sell(int seat) {
+		check(seat);
+		if (!isTaken(seat) || !set(sold, seat)) {
+			return false;
+		}
+		soldCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Holds and sells a free seat in one step
+	 * @param seat the seat number
+	 * @return true if the seat was free and is now sold
+	 */
+	public boolean buy(int seat) {
+		return hold(seat) && sell(seat);
+	}
+
+	/**
+	 * Takes back a sold seat and frees it, for a sale that could not be completed
+	 * @param seat the seat number
+	 * @return true if the seat was sold and is now free
+	 */
+	public boolean refund(int seat) {
+		check(seat);
+		if (!clear(sold, seat)) {
+			return false;
+		}
+		soldCount.decrementAndGet();
+		clear(taken, seat);
+		takenCount.decrementAndGet();
+		return true;
+	}
+
+	/*
+	 * Sets a seat's bit.  Returns false if it was already set.
+	 */
+	private static boolean set(AtomicLongArray bits, int seat) {
+		int word = seat >>> 6;
+		long mask = 1L << seat;
+		long current;
+		do {
+			current = bits.get(word);
+			if ((current & mask) != 0) {
+				return false;
+			}
+		} while (!bits.compareAndSet(word, current, current | mask));
+		return true;
+	}
+
+	/*
+	 * Clears a seat's bit.  Returns false if it was already clear.
+	 */
+	private static boolean clear(AtomicLongArray bits, int seat) {
+		int word = seat >>> 6;
+		long mask = 1L << seat;
+		long current;
+		do {
+			current = bits.get(word);
+			if ((current & mask) == 0) {
+				return false;
+			}
+		} while (!bits.compareAndSet(word, current, current & ~mask));
+		return true;
+	}
+
+	private void check(int seat) {
+		if (seat < 0 || seat >= capacity) {
+			throw new IllegalArgumentException("No seat " + seat + "; seats are numbered 0 to " + (capacity - 1));
+		}
+	}
+}
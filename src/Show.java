@@ -1,115 +1,219 @@
-import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
-/**
- * 
- * @author Corin Dennison
- * 
- * A class to represent shows for the theater program.  Has a name, start and end dates, 
- * and an ID associated with the client that runs it.  
- *
- */
-public class Show implements Serializable{
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 1L;
-	private String name;
-	private Date startDate;
-	private Date endDate;
-	private int clientID;
-	
-	/**
-	 * Creates a new show.  Note that shows with an end date the same or earlier than the
-	 * start date are not valid and will throw an IllegalArgument exception.
-	 * @param name
-	 *   The name of the show
-	 * @param startDate
-	 *   The date this show will begin running
-	 * @param endDate
-	 *   The date this show will stop running
-	 * @param clientID
-	 *   The ID of the client that runs this show
-	 * @throws IllegalArgumentException
-	 *   If the dates given are invalid in that end is not after start
-	 */
-	public Show(String name, Date startDate, Date endDate, int clientID) throws IllegalArgumentException {
-		this.name = name;
-		this.startDate = startDate;
-		this.endDate = endDate;
-		this.clientID = clientID;
-		
-		if (startDate.compareTo(endDate) >= 0){
-			throw new IllegalArgumentException("Start date " + startDate + " must come before end date " + endDate);
-		}
-	}
-
-	/**
-	 * @return the name
-	 */
-	public String getName() {
-		return name;
-	}
-
-	/**
-	 * @return the startDate
-	 */
-	public Date getStartDate() {
-		return startDate;
-	}
-
-	/**
-	 * @return the endDate
-	 */
-	public Date getEndDate() {
-		return endDate;
-	}
-
-	/**
-	 * @return the clientID
-	 */
-	public int getClientID() {
-		return clientID;
-	}
-
-	/**
-	 * @param name the name to set
-	 */
-	public void setName(String name) {
-		this.name = name;
-	}
-
-	/**
-	 * @param startDate the startDate to set
-	 */
-	public void setStartDate(Date startDate) {
-		this.startDate = startDate;
-		if (startDate.compareTo(endDate) >= 0){
-			throw new IllegalArgumentException("Start date " + startDate + " must come before end date " + endDate);
-		}
-	}
-
-	/**
-	 * @param endDate the endDate to set
-	 */
-	public void setEndDate(Date endDate) {
-		this.endDate = endDate;
-		if (startDate.compareTo(endDate) >= 0){
-			throw new IllegalArgumentException("Start date " + startDate + " must come before end date " + endDate);
-		}
-	}
-	
-	/**
-	 * Returns a string representing this show in the format:
-	 * Name:My Show, Start Date:01-Jan-2015, End Date:01-Jan-2015, Client ID:123456
-	 */
-	@Override
-	public String toString(){
-		SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MMM-yyyy");
-		String startString = dateFormat.format(startDate);
-		String endString = dateFormat.format(endDate);
-		return "Name:"+ name + ", Start Date:" + startString + ", End Date:" + endString + ", Client ID:" + clientID;
-	}
-	
-}
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * 
+ * @author Corin Dennison
+ * 
+ * A class to represent shows for the theater program.  Has a name, start and end dates, 
+ * and an ID associated with the client that runs it.  
+ * 
+ * The dates are held as milliseconds since the epoch, so the scheduling checks
+ * compare plain longs.  The Date getters hand out a new Date each time, so a
+ * caller can't change a show's dates behind the Schedule's back.  The Schedule
+ * indexes shows by their dates, so the date setters move the show through the
+ * Schedule, which puts it back in order under the new dates.
+ *
+ */
+public class Show implements Serializable{
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MMM-yyyy");
+	private String name;
+	private long startTime;
+	private long endTime;
+	private int clientID;
+
+	// The dates are still written as Dates so files saved before they were held as longs can be read
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("name", String.class),
+		new ObjectStreamField("startDate", Date.class),
+		new ObjectStreamField("endDate", Date.class),
+		new ObjectStreamField("clientID", int.class)
+	};
+	
+	/**
+	 * Creates a new show.  Note that shows with an end date the same or earlier than the
+	 * start date are not valid and will throw an IllegalArgument exception.
+	 * @param name
+	 *   The name of the show
+	 * @param startDate
+	 *   The date this show will begin running
+	 * @param endDate
+	 *   The date this show will stop running
+	 * @param clientID
+	 *   The ID of the client that runs this show
+	 * @throws IllegalArgumentException
+	 *   If the dates given are invalid in that end is not after start
+	 */
+	public Show(String name, Date startDate, Date endDate, int clientID) throws IllegalArgumentException {
+		this(name, startDate.getTime(), endDate.getTime(), clientID);
+	}
+
+	/**
+	 * Creates a new show from dates in milliseconds since the epoch
+	 * @param name
+	 *   The name of the show
+	 * @param startTime
+	 *   When this show will begin running
+	 * @param endTime
+	 *   When this show will stop running
+	 * @param clientID
+	 *   The ID of the client that runs this show
+	 * @throws IllegalArgumentException
+	 *   If the dates given are invalid in that end is not after start
+	 */
+	Show(String name, long startTime, long endTime, int clientID) throws IllegalArgumentException {
+		this.name = name;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.clientID = clientID;
+		checkDates(startTime, endTime);
+	}
+
+	/**
+	 * @return a separate Show with the same data, for snapshots
+	 */
+	Show copy() {
+		return new Show(name, startTime, endTime, clientID);
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the startDate, as a new Date
+	 */
+	public Date getStartDate() {
+		return new Date(startTime);
+	}
+
+	/**
+	 * @return the endDate, as a new Date
+	 */
+	public Date getEndDate() {
+		return new Date(endTime);
+	}
+
+	/**
+	 * @return the start date in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the end date in milliseconds since the epoch
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * @return the clientID
+	 */
+	public int getClientID() {
+		return clientID;
+	}
+
+	/**
+	 * @param name the name to set
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Moves the show to a new start date.  A show on the Schedule is
+	 * re-indexed there; like the other setters, the change is not journaled.
+	 * @param startDate the startDate to set
+	 * @throws IllegalArgumentException if the start is not before the end,
+	 *   the show would overlap another, or the show has been archived
+	 * @deprecated a show's dates are meant to be set when it is scheduled
+	 */
+	@Deprecated
+	public void setStartDate(Date startDate) {
+		Schedule.instance().move(this, startDate.getTime(), endTime);
+	}
+
+	/**
+	 * Moves the show to a new end date.  A show on the Schedule is re-indexed
+	 * there; like the other setters, the change is not journaled.
+	 * @param endDate the endDate to set
+	 * @throws IllegalArgumentException if the end is not after the start,
+	 *   the show would overlap another, or the show has been archived
+	 * @deprecated a show's dates are meant to be set when it is scheduled
+	 */
+	@Deprecated
+	public void setEndDate(Date endDate) {
+		Schedule.instance().move(this, startTime, endDate.getTime());
+	}
+
+	/*
+	 * Sets both dates at once; only the Schedule calls this, holding its lock
+	 */
+	void setTimes(long startTime, long endTime) {
+		checkDates(startTime, endTime);
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+	
+	private static void checkDates(long startTime, long endTime) {
+		if (startTime >= endTime){
+			throw new IllegalArgumentException("Start date " + new Date(startTime) + " must come before end date " + new Date(endTime));
+		}
+	}
+	
+	/**
+	 * Returns a string representing this show in the format:
+	 * Name:My Show, Start Date:01-Jan-2015, End Date:01-Jan-2015, Client ID:123456
+	 */
+	@Override
+	public String toString(){
+		ZoneId zone = ZoneId.systemDefault();
+		String startString = DATE_FORMAT.format(Instant.ofEpochMilli(startTime).atZone(zone));
+		String endString = DATE_FORMAT.format(Instant.ofEpochMilli(endTime).atZone(zone));
+		return "Name:"+ name + ", Start Date:" + startString + ", End Date:" + endString + ", Client ID:" + clientID;
+	}
+
+	/**
+     * Supports serialization
+     * 
+     * @param output the stream to be written to
+     */
+	private void writeObject(ObjectOutputStream output) throws IOException {
+		ObjectOutputStream.PutField fields = output.putFields();
+		fields.put("name", name);
+		fields.put("startDate", new Date(startTime));
+		fields.put("endDate", new Date(endTime));
+		fields.put("clientID", clientID);
+		output.writeFields();
+	}
+
+	/**
+     * Supports serialization
+     * 
+     * @param input the stream to be read from
+     */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		name = (String) fields.get("name", null);
+		startTime = ((Date) fields.get("startDate", null)).getTime();
+		endTime = ((Date) fields.get("endDate", null)).getTime();
+		clientID = fields.get("clientID", 0);
+	}
+	
+}
@@ -0,0 +1,227 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The cold segment of the Schedule: shows that have ended.  Shows are only
+ * ever appended, so the archive is kept as flat arrays sorted by start date,
+ * which searches read straight through instead of walking a tree.  Alongside
+ * the starts it keeps the latest end date seen so far at each position, so an
+ * overlap query can binary search to the first show that could overlap.
+ *
+ * Shows are nearly always archived in order of start date.  A batch that
+ * starts before the end of the archive, such as a show added in the past
+ * after later ones were archived, is merged in instead.
+ *
+ * Each client's positions in the arrays are also listed, in start order, so
+ * looking up one client's shows doesn't read through the whole archive.
+ *
+ * Not thread-safe; the Schedule guards it with its own lock.
+ */
+public class ShowArchive implements Iterable<Show> {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private Show[] shows = new Show[INITIAL_CAPACITY];
+	private long[] starts = new long[INITIAL_CAPACITY];
+	private long[] ends = new long[INITIAL_CAPACITY];
+	private long[] latestEnds = new long[INITIAL_CAPACITY]; // the latest end among shows[0..i]
+	private int size;
+	private IDIndex<Positions> byClient = new IDIndex<Positions>();
+
+	/**
+	 * @return the number of shows in the archive
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds shows that have ended
+	 * @param ended the shows, in any order
+	 */
+	void append(List<Show> ended) {
+		if (ended.isEmpty()) {
+			return;
+		}
+		List<Show> sorted = new ArrayList<Show>(ended);
+		Collections.sort(sorted, BY_START);
+		if (size > 0 && sorted.get(0).getStartTime() < starts[size - 1]) {
+			// Out of order, so merge everything and rebuild
+			List<Show> merged = new ArrayList<Show>(size + sorted.size());
+			merged.addAll(Arrays.asList(shows).subList(0, size));
+			merged.addAll(sorted);
+			Collections.sort(merged, BY_START);
+			size = 0;
+			byClient.clear();
+			sorted = merged;
+		}
+		ensureCapacity(size + sorted.size());
+		for (Show show : sorted) {
+			shows[size] = show;
+			starts[size] = show.getStartTime();
+			ends[size] = show.getEndTime();
+			latestEnds[size] = size == 0 ? ends[size] : Math.max(latestEnds[size - 1], ends[size]);
+			Positions positions = byClient.get(show.getClientID());
+			if (positions == null) {
+				positions = byClient.put(show.getClientID(), new Positions());
+			}
+			positions.add(size);
+			size++;
+		}
+	}
+
+	/**
+	 * Removes every show from the archive
+	 */
+	void clear() {
+		Arrays.fill(shows, 0, size, null);
+		size = 0;
+		byClient.clear();
+	}
+
+	/**
+	 * Finds the archived show with the earliest start that overlaps [low, high]
+	 * @param low the start of the range in milliseconds since the epoch
+	 * @param high the end of the range
+	 * @return the first overlapping show, or null if none overlaps
+	 */
+	public Show firstOverlap(long low, long high) {
+		for (int i = firstReaching(low); i < size && starts[i] <= high; i++) {
+			if (ends[i] >= low) {
+				return shows[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Lists the archived shows overlapping [low, high] in order of start date
+	 * @param low the start of the range in milliseconds since the epoch
+	 * @param high the end of the range
+	 * @return the overlapping shows
+	 */
+	public List<Show> overlapping(long low, long high) {
+		List<Show> found = new ArrayList<Show>();
+		for (int i = firstReaching(low); i < size && starts[i] <= high; i++) {
+			if (ends[i] >= low) {
+				found.add(shows[i]);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Lists one client's archived shows in order of start date
+	 * @param clientID the ID of the client
+	 * @return the client's shows
+	 */
+	public List<Show> clientShows(int clientID) {
+		Positions positions = byClient.get(clientID);
+		if (positions == null) {
+			return new ArrayList<Show>();
+		}
+		List<Show> found = new ArrayList<Show>(positions.count);
+		for (int i = 0; i < positions.count; i++) {
+			found.add(shows[positions.at[i]]);
+		}
+		return found;
+	}
+
+	/**
+	 * Returns an iterator over the archived shows in order of start date.  The
+	 * archive must not be added to while it is in use.
+	 */
+	@Override
+	public Iterator<Show> iterator() {
+		return iterator(0);
+	}
+
+	/**
+	 * Returns an iterator over the archived shows in order of start date,
+	 * beginning with the first that could still be running at a given time.
+	 * No show it skips runs until that time.  The archive must not be added
+	 * to while it is in use.
+	 * @param time the time in milliseconds since the epoch
+	 */
+	public Iterator<Show> reaching(long time) {
+		return iterator(firstReaching(time));
+	}
+
+	/*
+	 * Returns an iterator over the archived shows from a position on
+	 */
+	private Iterator<Show> iterator(final int first) {
+		return new Iterator<Show>() {
+			private int position = first;
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public Show next() {
+				if (position >= size) {
+					throw new NoSuchElementException();
+				}
+				return shows[position++];
+			}
+		};
+	}
+
+	/*
+	 * Returns the first position whose show, or an earlier one, runs until
+	 * time or later.  No show before it can reach time.
+	 */
+	private int firstReaching(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (latestEnds[middle] < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= shows.length) {
+			return;
+		}
+		int grown = Math.max(capacity, shows.length * 2);
+		shows = Arrays.copyOf(shows, grown);
+		starts = Arrays.copyOf(starts, grown);
+		ends = Arrays.copyOf(ends, grown);
+		latestEnds = Arrays.copyOf(latestEnds, grown);
+	}
+
+	/*
+	 * One client's positions in the archive, in increasing order
+	 */
+	private static class Positions {
+		int[] at = new int[4];
+		int count;
+
+		void add(int position) {
+			if (count == at.length) {
+				at = Arrays.copyOf(at, count * 2);
+			}
+			at[count++] = position;
+		}
+	}
+
+	private static final Comparator<Show> BY_START = new Comparator<Show>() {
+		@Override
+		public int compare(Show first, Show second) {
+			return Long.compare(first.getStartTime(), second.getStartTime());
+		}
+	};
+}
@@ -0,0 +1,567 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads and writes the Theater as a compact, versioned binary snapshot.  This
+ * is an alternative to Java serialization, which stores class descriptors and
+ * object handles along with the data and is slow for large databases.
+ *
+ * The layout is:
+ *
+ *   int magic "THTR", short version,
+ *   int next customer ID, int next client ID,
+ *   int client count, client records,
+ *   int customer count, customer records,
+ *   int show count, show records,
+ *   customer index, card index, trailer
+ *
+ * Every record is preceded by its length as an int.  Strings are a varint byte
+ * count followed by UTF-8 bytes, and dates are epoch milliseconds.  All I/O goes
+ * through a 64K buffer on a FileChannel.
+ *
+ * The customer index is an int count followed by (int ID, long offset) pairs
+ * in ID order, giving where each customer record starts.  The card index is an
+ * int count, then (long offset, int customer ID) slots sorted by normalized card
+ * number, then the card number strings the slots point at.  The trailer is the
+ * offset of the show count, the offsets of the two indexes and the magic
+ * number again.  The indexes let readLazily() map the
+ * file and find any customer or card without reading the customer records up
+ * front, and the show offset lets it skip straight past them to the shows.
+ */
+public class SnapshotCodec {
+
+	static final int MAGIC = 0x54485452;
+	static final short VERSION = 1;
+	static final int TRAILER_SIZE = 28;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final ByteBuffer mapped;
+	private ByteBuffer record = ByteBuffer.allocate(256);
+
+	private SnapshotCodec(FileChannel channel) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.mapped = null;
+	}
+
+	private SnapshotCodec(ByteBuffer mapped) {
+		this.channel = null;
+		this.buffer = null;
+		this.mapped = mapped;
+	}
+
+	/**
+	 * Tells whether a snapshot file starts with the binary snapshot magic number
+	 * @param channel the open snapshot file
+	 * @return true for a binary snapshot, false for anything else such as a serialized one
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isBinary(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(4);
+		channel.read(magic, 0);
+		return magic.position() == 4 && magic.getInt(0) == MAGIC;
+	}
+
+	/**
+	 * Writes a snapshot of the Theater's contents to a channel.  Each collection
+	 * is iterated twice, once to count it and once to write it.
+	 * @param clients the clients to write
+	 * @param customers the customers to write
+	 * @param shows the shows to write
+	 * @param nextCustomerID the customer ID the IDServer will hand out next
+	 * @param nextClientID the client ID the IDServer will hand out next
+	 * @param channel the channel to write to, positioned at the start of the file
+	 * @return the number of bytes written
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public static long write(Iterable<Client> clients, Iterable<Customer> customers, Iterable<Show> shows,
+			int nextCustomerID, int nextClientID, FileChannel channel) throws IOException {
+		SnapshotCodec codec = new SnapshotCodec(channel);
+		long start = channel.position();
+		codec.writeHeader(nextCustomerID, nextClientID);
+		codec.writeClients(clients);
+		CustomerOffsets offsets = codec.writeCustomers(customers);
+		long showStart = codec.offset();
+		codec.writeShows(shows);
+		long customerIndex = codec.offset();
+		codec.writeCustomerIndex(offsets);
+		long cardIndex = codec.offset();
+		codec.writeCardIndex(offsets);
+		codec.ensureBuffer(TRAILER_SIZE);
+		codec.buffer.putLong(showStart);
+		codec.buffer.putLong(customerIndex);
+		codec.buffer.putLong(cardIndex);
+		codec.buffer.putInt(MAGIC);
+		codec.flush();
+		return channel.position() - start;
+	}
+
+	/**
+	 * Loads a snapshot into a Theater, replacing whatever it held before
+	 * @param theater the theater to load into
+	 * @param channel the channel to read from, positioned at the start of the file
+	 * @throws IOException if the snapshot cannot be read or is not a version this code understands
+	 */
+	public static void read(Theater theater, FileChannel channel) throws IOException {
+		SnapshotCodec codec = new SnapshotCodec(channel);
+		codec.buffer.flip();
+		codec.readAll(theater);
+	}
+
+	/**
+	 * Loads a snapshot into a Theater without decoding its customers.  The file
+	 * is memory mapped, clients and shows are loaded, and the customers are left
+	 * in the mapped file; each one is decoded the first time the CustomerList
+	 * touches it.
+	 * @param theater the theater to load into
+	 * @param channel the open snapshot file
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public static void readLazily(Theater theater, FileChannel channel) throws IOException {
+		if (channel.size() > Integer.MAX_VALUE) {
+			// A mapped buffer can't address more than 2GB
+			channel.position(0);
+			read(theater, channel);
+			return;
+		}
+		ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		SnapshotCodec codec = new SnapshotCodec(file);
+		codec.readHeader(theater);
+		codec.readClients(theater);
+		int trailer = file.limit() - TRAILER_SIZE;
+		if (trailer < file.position() || file.getInt(trailer + 24) != MAGIC) {
+			throw new IOException("The snapshot is truncated");
+		}
+		// Skip past the customer records to the shows
+		file.position((int) file.getLong(trailer));
+		codec.readShows(theater);
+		codec.restoreCounters();
+		theater.attachLazyCustomers(new LazyCustomers(file, (int) file.getLong(trailer + 8), (int) file.getLong(trailer + 16)));
+	}
+
+	/**
+	 * Decodes one customer record
+	 * @param record the record, positioned after its length
+	 * @return the customer, not yet in any CustomerList
+	 */
+	static Customer decodeCustomer(ByteBuffer record) {
+		int ID = record.getInt();
+		String name = getString(record);
+		String address = getString(record);
+		String phone = getString(record);
+		Customer customer = new Customer(ID, name, address, phone);
+		int cards = getVarint(record);
+		for (int card = 0; card < cards; card++) {
+			String number = getString(record);
+			customer.restoreCard(number, record.getLong());
+		}
+		return customer;
+	}
+
+	/**
+	 * Reads a varint at the buffer's position
+	 */
+	static int getVarint(ByteBuffer source) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = source.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string at the buffer's position
+	 */
+	static String getString(ByteBuffer source) {
+		int length = getVarint(source);
+		String value;
+		if (source.hasArray()) {
+			value = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+			source.position(source.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			source.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+	/*
+	 * Where each customer record was written, for the indexes at the end of the file
+	 */
+	private static class CustomerOffsets {
+		int[] IDs;
+		long[] offsets;
+		List<String> cardNumbers = new ArrayList<String>();
+		List<Integer> cardOwners = new ArrayList<Integer>();
+
+		CustomerOffsets(int count) {
+			IDs = new int[count];
+			offsets = new long[count];
+		}
+	}
+
+	private void writeHeader(int nextCustomerID, int nextClientID) {
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putInt(nextCustomerID);
+		buffer.putInt(nextClientID);
+	}
+
+	private void writeClients(Iterable<Client> clients) throws IOException {
+		int count = 0;
+		for (Iterator<Client> iterator = clients.iterator(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		writeCount(count);
+		Iterator<Client> iterator = clients.iterator();
+		while (iterator.hasNext()) {
+			Client client = iterator.next();
+			record.clear();
+			record.putInt(client.getID());
+			putString(client.getName());
+			putString(client.getAddress());
+			putString(client.getPhone());
+			ensureRecord(8);
+			record.putLong(client.getBalance());
+			writeRecord();
+		}
+	}
+
+	private CustomerOffsets writeCustomers(Iterable<Customer> customers) throws IOException {
+		int count = 0;
+		for (Iterator<Customer> iterator = customers.iterator(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		writeCount(count);
+		CustomerOffsets offsets = new CustomerOffsets(count);
+		int written = 0;
+		Iterator<Customer> iterator = customers.iterator();
+		while (iterator.hasNext()) {
+			Customer customer = iterator.next();
+			record.clear();
+			record.putInt(customer.getID());
+			putString(customer.getName());
+			putString(customer.getAddress());
+			putString(customer.getPhone());
+			int cards = 0;
+			for (Iterator<CreditCard> cardIterator = customer.listCards(); cardIterator.hasNext(); cardIterator.next()) {
+				cards++;
+			}
+			putVarint(cards);
+			Iterator<CreditCard> cardIterator = customer.listCards();
+			while (cardIterator.hasNext()) {
+				CreditCard card = cardIterator.next();
+				putString(card.getAccountNumber());
+				ensureRecord(8);
+				record.putLong(card.getExpirationTime());
+				offsets.cardNumbers.add(CreditCard.normalize(card.getAccountNumber()));
+				offsets.cardOwners.add(customer.getID());
+			}
+			offsets.IDs[written] = customer.getID();
+			offsets.offsets[written] = offset();
+			written++;
+			writeRecord();
+		}
+		return offsets;
+	}
+
+	private void writeShows(Iterable<Show> shows) throws IOException {
+		int count = 0;
+		for (Iterator<Show> iterator = shows.iterator(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		writeCount(count);
+		Iterator<Show> iterator = shows.iterator();
+		while (iterator.hasNext()) {
+			Show show = iterator.next();
+			record.clear();
+			record.putInt(show.getClientID());
+			putString(show.getName());
+			ensureRecord(16);
+			record.putLong(show.getStartTime());
+			record.putLong(show.getEndTime());
+			writeRecord();
+		}
+	}
+
+	/*
+	 * Writes (ID, offset) pairs sorted by ID
+	 */
+	private void writeCustomerIndex(final CustomerOffsets offsets) throws IOException {
+		int count = offsets.IDs.length;
+		Integer[] order = new Integer[count];
+		boolean sorted = true;
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+			sorted &= i == 0 || offsets.IDs[i - 1] < offsets.IDs[i];
+		}
+		if (!sorted) {
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer first, Integer second) {
+					return Integer.compare(offsets.IDs[first], offsets.IDs[second]);
+				}
+			});
+		}
+		writeCount(count);
+		for (int i = 0; i < count; i++) {
+			ensureBuffer(12);
+			buffer.putInt(offsets.IDs[order[i]]);
+			buffer.putLong(offsets.offsets[order[i]]);
+		}
+	}
+
+	/*
+	 * Writes the card slots sorted by card number, then the card numbers themselves
+	 */
+	private void writeCardIndex(final CustomerOffsets offsets) throws IOException {
+		int count = offsets.cardNumbers.size();
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return offsets.cardNumbers.get(first).compareTo(offsets.cardNumbers.get(second));
+			}
+		});
+		writeCount(count);
+		long stringOffset = offset() + 12L * count;
+		byte[][] numbers = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			numbers[i] = offsets.cardNumbers.get(order[i]).getBytes(StandardCharsets.UTF_8);
+			ensureBuffer(12);
+			buffer.putLong(stringOffset);
+			buffer.putInt(offsets.cardOwners.get(order[i]));
+			stringOffset += varintSize(numbers[i].length) + numbers[i].length;
+		}
+		for (int i = 0; i < count; i++) {
+			record.clear();
+			putVarint(numbers[i].length);
+			ensureRecord(numbers[i].length);
+			record.put(numbers[i]);
+			record.flip();
+			ensureBuffer(record.remaining());
+			buffer.put(record);
+		}
+	}
+
+	private void readAll(Theater theater) throws IOException {
+		readHeader(theater);
+		readClients(theater);
+		int customers = readCount();
+		for (int i = 0; i < customers; i++) {
+			theater.restoreCustomer(decodeCustomer(readRecord()));
+		}
+		readShows(theater);
+		restoreCounters();
+	}
+
+	private int nextCustomerID;
+	private int nextClientID;
+
+	private void readHeader(Theater theater) throws IOException {
+		require(10);
+		ByteBuffer source = source();
+		if (source.getInt() != MAGIC) {
+			throw new IOException("Not a binary Theater snapshot");
+		}
+		short version = source.getShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported snapshot version " + version);
+		}
+		theater.clear();
+		require(8);
+		nextCustomerID = source.getInt();
+		nextClientID = source.getInt();
+	}
+
+	private void readClients(Theater theater) throws IOException {
+		int clients = readCount();
+		for (int i = 0; i < clients; i++) {
+			ByteBuffer client = readRecord();
+			int ID = client.getInt();
+			Client restored = theater.replayAddClient(ID, getString(client), getString(client), getString(client));
+			restored.setBalance(client.getLong());
+		}
+	}
+
+	private void readShows(Theater theater) throws IOException {
+		int shows = readCount();
+		for (int i = 0; i < shows; i++) {
+			ByteBuffer show = readRecord();
+			int clientID = show.getInt();
+			String name = getString(show);
+			Date start = new Date(show.getLong());
+			Date end = new Date(show.getLong());
+			theater.replayAddShow(name, start, end, clientID);
+		}
+	}
+
+	private void restoreCounters() {
+		IDServer server = IDServer.instance();
+		server.reserveCustomerID(nextCustomerID - 1);
+		server.reserveClientID(nextClientID - 1);
+	}
+
+	private ByteBuffer source() {
+		return mapped != null ? mapped : buffer;
+	}
+
+	private void writeCount(int count) throws IOException {
+		ensureBuffer(4);
+		buffer.putInt(count);
+	}
+
+	/*
+	 * Appends the record built in the record buffer, preceded by its length
+	 */
+	private void writeRecord() throws IOException {
+		record.flip();
+		ensureBuffer(4 + record.remaining());
+		buffer.putInt(record.remaining());
+		if (record.remaining() > buffer.remaining()) {
+			drain();
+			while (record.hasRemaining()) {
+				channel.write(record);
+			}
+		} else {
+			buffer.put(record);
+		}
+	}
+
+	private long offset() throws IOException {
+		return channel.position() + buffer.position();
+	}
+
+	private void ensureBuffer(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void flush() throws IOException {
+		drain();
+		channel.force(false);
+	}
+
+	private void ensureRecord(int bytes) {
+		if (record.remaining() < bytes) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+			record.flip();
+			bigger.put(record);
+			record = bigger;
+		}
+	}
+
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private void putVarint(int value) {
+		ensureRecord(5);
+		while ((value & ~0x7F) != 0) {
+			record.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		record.put((byte) value);
+	}
+
+	private void putString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putVarint(bytes.length);
+		ensureRecord(bytes.length);
+		record.put(bytes);
+	}
+
+	/*
+	 * Makes sure at least the given number of bytes are in the read buffer
+	 */
+	private void require(int bytes) throws IOException {
+		if (mapped != null) {
+			if (mapped.remaining() < bytes) {
+				throw new EOFException("The snapshot is truncated");
+			}
+			return;
+		}
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("The snapshot is truncated");
+			}
+		}
+		buffer.flip();
+	}
+
+	private int readCount() throws IOException {
+		require(4);
+		return source().getInt();
+	}
+
+	/*
+	 * Reads the next length-prefixed record and returns a buffer holding just its body
+	 */
+	private ByteBuffer readRecord() throws IOException {
+		require(4);
+		int length = source().getInt();
+		if (length < 0) {
+			throw new IOException("Corrupt snapshot record");
+		}
+		if (mapped != null) {
+			require(length);
+			ByteBuffer body = mapped.slice();
+			body.limit(length);
+			mapped.position(mapped.position() + length);
+			return body;
+		}
+		record.clear();
+		ensureRecord(length);
+		record.clear();
+		record.limit(length);
+		while (record.hasRemaining()) {
+			if (!buffer.hasRemaining()) {
+				require(1);
+			}
+			int chunk = Math.min(record.remaining(), buffer.remaining());
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit(slice.position() + chunk);
+			record.put(slice);
+			buffer.position(buffer.position() + chunk);
+		}
+		record.flip();
+		return record;
+	}
+}
@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Writes snapshots of the Theater on a background thread, so commands don't
+ * wait for the file to be written.  The caller takes a point-in-time copy of
+ * the clients, customers and shows (see State), which is cheap compared to
+ * encoding and writing them, and this class writes that copy with the binary
+ * SnapshotCodec while commands carry on against the live data.
+ *
+ * Snapshots can also be taken automatically, once a number of changes have
+ * been made or once an interval has passed with changes pending.  Snapshots
+ * are written one at a time, in the order they were taken.  All methods may
+ * be called from any thread.
+ */
+public class SnapshotScheduler {
+
+	/**
+	 * A point-in-time copy of everything a snapshot holds
+	 */
+	public static class State {
+		final List<Client> clients;
+		final List<Customer> customers;
+		final List<Show> shows;
+		final int nextCustomerID;
+		final int nextClientID;
+
+		State(List<Client> clients, List<Customer> customers, List<Show> shows, int nextCustomerID, int nextClientID) {
+			this.clients = clients;
+			this.customers = customers;
+			this.shows = shows;
+			this.nextCustomerID = nextCustomerID;
+			this.nextClientID = nextClientID;
+		}
+	}
+
+	/**
+	 * What one snapshot cost
+	 */
+	public static class Report {
+		private final long bytes;
+		private final long captureMillis;
+		private final long writeMillis;
+
+		Report(long bytes, long captureMillis, long writeMillis) {
+			this.bytes = bytes;
+			this.captureMillis = captureMillis;
+			this.writeMillis = writeMillis;
+		}
+
+		/**
+		 * @return the size of the snapshot file in bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return how long commands were held up while the state was copied
+		 */
+		public long getCaptureMillis() {
+			return captureMillis;
+		}
+
+		/**
+		 * @return how long the background thread took to write the snapshot
+		 */
+		public long getWriteMillis() {
+			return writeMillis;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot of " + bytes + " bytes written in " + writeMillis + " ms (state copied in "
+					+ captureMillis + " ms)";
+		}
+	}
+
+	private final String fileName;
+	private final ExecutorService writer;
+	private ScheduledExecutorService timer;
+	private int dirtyLimit;
+	private int dirty;
+	private CompletableFuture<Report> lastSnapshot = CompletableFuture.completedFuture(null);
+	private volatile Report lastReport;
+
+	/**
+	 * @param fileName the snapshot file to write
+	 */
+	public SnapshotScheduler(String fileName) {
+		this.fileName = fileName;
+		this.writer = Executors.newSingleThreadExecutor(daemon("snapshot-writer"));
+	}
+
+	/**
+	 * Turns on automatic snapshots
+	 * @param intervalSeconds take a snapshot when this many seconds have passed
+	 *   with changes pending; 0 for no time limit
+	 * @param dirtyOperations take a snapshot after this many changes; 0 for no limit
+	 * @param snapshot takes and submits a snapshot; run on the timer thread once
+	 *   the interval has passed with changes pending
+	 */
+	public synchronized void automatic(long intervalSeconds, int dirtyOperations, final Runnable snapshot) {
+		dirtyLimit = dirtyOperations;
+		if (timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+		if (intervalSeconds > 0) {
+			timer = Executors.newSingleThreadScheduledExecutor(daemon("snapshot-timer"));
+			timer.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					boolean pending;
+					synchronized (SnapshotScheduler.this) {
+						pending = dirty > 0;
+					}
+					if (pending) {
+						snapshot.run();
+					}
+				}
+			}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Counts one change to the Theater
+	 * @return true if an automatic snapshot is now due
+	 */
+	public synchronized boolean changed() {
+		dirty++;
+		return dirtyLimit > 0 && dirty >= dirtyLimit;
+	}
+
+	/**
+	 * Queues a copy of the Theater to be written
+	 * @param state the copy to write
+	 * @param captureMillis how long taking the copy took
+	 * @return the report for the snapshot, completed once it has been written
+	 */
+	public synchronized CompletableFuture<Report> submit(final State state, final long captureMillis) {
+		dirty = 0;
+		lastSnapshot = CompletableFuture.supplyAsync(new Supplier<Report>() {
+			@Override
+			public Report get() {
+				try {
+					Report report = write(state, captureMillis);
+					lastReport = report;
+					return report;
+				} catch (IOException ioe) {
+					throw new CompletionException(ioe);
+				}
+			}
+		}, writer);
+		return lastSnapshot;
+	}
+
+	/**
+	 * @return the report of the last snapshot written, or null if none has been
+	 */
+	public Report lastReport() {
+		return lastReport;
+	}
+
+	/**
+	 * Waits for the snapshots already queued to be written
+	 */
+	public void awaitIdle() {
+		CompletableFuture<Report> pending;
+		synchronized (this) {
+			pending = lastSnapshot;
+		}
+		try {
+			pending.get();
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException failed) {
+			// Already reported to whoever asked for that snapshot
+		}
+	}
+
+	private Report write(State state, long captureMillis) throws IOException {
+		long start = System.nanoTime();
+		File temporary = new File(fileName + ".bg.tmp");
+		long bytes;
+		RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			channel.truncate(0);
+			bytes = SnapshotCodec.write(state.clients, state.customers, state.shows,
+					state.nextCustomerID, state.nextClientID, channel);
+		} finally {
+			file.close();
+		}
+		Files.move(temporary.toPath(), new File(fileName).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return new Report(bytes, captureMillis, (System.nanoTime() - start) / 1000000);
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -1,258 +1,1817 @@
-import java.io.Serializable;
-import java.util.Date;
-import java.util.Iterator;
-import java.io.IOException;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-
-public class Theater implements Serializable{
-	
-	private static final long serialVersionUID = 1L;
-	private CustomerList customers;
-	private ClientList clients;
-	private Schedule schedule;
-    private static Theater theater;
-	
-    /**
-     * Constructor
-     */
-     private Theater() {
-    	 customers = CustomerList.instance();
-    	 clients = ClientList.instance();
-    	 schedule = Schedule.instance();
-     }
-    
-     public static Theater instance(){
-    	 if (theater == null){
-    		 IDServer.instance();
-    		 theater = new Theater();
-    	 }
-    	 return theater;
-     }
-     
-     /**
-      * Add Client to the client collection class
-      * @param name String
-      * @param address String
-      * @param phoneNumber String
-      * @return The Client that was successfully added, or null if it wasn't
-      */
-     public Client addClient(String name, String address, String phoneNumber) {
-    	 return clients.add(new Client(name, address, phoneNumber));
-     }
-     
-     /**
-      * Remove client
-      * Searches by id
-      * Client List returns the client if could be removed or not
-      * @param clientID int
-      * @return The Client that has been successfully removed, or null if it hasn't 
-      */
-     public Client removeClient(int clientID) {
-    	 if (schedule.scheduled(clientID)){
-    		 return null;
-    	 }
-         return clients.remove(clientID);
-     }
-     
-     /**
-      * list all currently added clients
-      * @return An Iterator<Client> for the list of clients
-      */
-     public Iterator<Client> listClients() {
-    	 return clients.iterator();
-     }
-     
-     /**
-      * Adds a customer
-      * @param name Name of the Customer
-      * @param address Address of the Customer
-      * @param phone Phone number of the Customer
-      * @return The Customer that was added, or null if it wasn't
-      */
-     public Customer addCustomer(String name, String address, String phone, String cardNumber, Date expiration) {
-	 if(isCardOnFile(cardNumber)){
-	     System.out.println("Card is already on file");
-	     return null;
-	 }else{
-    	 Customer customer = new Customer(name, address, phone, cardNumber, expiration);
-    	 return customers.add(customer);
-	 }
-     }
-     
-     /**
-      * Removes a customer
-      * @param ID The ID of the customer to be removed
-      * @return The Customer that was removed, or null if it wasn't
-      */
-     public Customer removeCustomer(int ID){
-    	return customers.remove(ID); 
-     }
-     
-     /**
-      * checks whether the account number is already stored by one of the customers
-      * @param accountNumber the account number we are looking for
-      * @return
-      */
-     public boolean isCardOnFile(String accountNumber){
-	 Iterator<Customer> customerIterator = customers.iterator();
-	 while(customerIterator.hasNext()){
-	     Iterator<CreditCard> cardIterator  = customerIterator.next().listCards();
-	     while(cardIterator.hasNext()){
-		 CreditCard card = cardIterator.next();
-		 if(card.getAccountNumber().equalsIgnoreCase(accountNumber)){
-		     return true;
-		 }
-	     }
-	     
-	 }
-	 return false;
-     }
-     
-     /**
-      * Add a credit card to a customer
-      * @param customerId The ID of the customer who gets a new card
-      * @param accountNumber The account number of the new credit card
-      * @param expiration THe expiration date of the new credit card
-      * @return The CreditCard that was added, or null if it wasn't
-      */
-     public Customer addCreditCard(int customerId, String accountNumber, Date expiration) {
-	 
-                
-         if(isCardOnFile(accountNumber)){
-             System.out.println("Card is already on file");
-             return null;
-         }else{
-             Customer customer = customers.get(customerId);  
-             return customer.addCard(accountNumber, expiration);
-         }
-     }
-     
-     /**
-      * Removed a credit card from a customer
-      * @param customerId The ID of the customer who is losing a credit card
-      * @param accountNumber The card number of the credit card to be removed
-      * @return CreditCard The credit card that was removed, or null if it wasn't
-      */
-     public CreditCard removeCreditCard(int customerId, String accountNumber) {
-    	 Customer customer = customers.get(customerId);
-    	 return customer.removeCard(accountNumber);
-     }
-     
-     /**
-      * Get the entire list of customers
-      * @return An Iterator<Customer> containing the list of Customers
-      */
-     public Iterator<Customer> listCustomers(){
-    	 return customers.iterator();
-     }
-	
-     /**
-      * Schedule a new show
-      * @param name The name of the show
-      * @param startDate The date the show will begin running
-      * @param endDate The date the show will stop running
-      * @param clientId The ID of the CLient who is running the show
-      * @return The show that has been scheduled, or null if it wasn't
-      */
-	public Show addShow(String name, Date startDate, Date endDate, int clientId) {
-		   //Check if client id exists
-        Client client = clients.get(clientId);
-        if(client == null) {
-        	return null;
-        }
-
-       	return schedule.add(new Show(name, startDate, endDate, clientId));
-    }
-	
-	/**
-	 * List all shows
-	 * @return An Iterator<Show> containing all the shows
-	 */
-	public Iterator<Show> listShows() {
-		return schedule.iterator();
-	}
-
-	/**
-	 * Get a customer from the list
-	 * @param ID THe ID of the Customer to get
-	 * @return THe Customer that was found, or null if it wasn't
-	 */
-	public Customer getCustomer(int ID){
-		return customers.get(ID);
-	}
-
-	/**
-	 * Serializes the Library object
-	 * @return true if the data could be saved
-	 */
-	public static boolean save() {
-		try {
-			FileOutputStream file = new FileOutputStream("TheaterData");
-			ObjectOutputStream output = new ObjectOutputStream(file);
-			output.writeObject(theater);
-			output.writeObject(IDServer.instance());
-			output.close();
-			return true;
-		} catch(IOException ioe) {
-			System.out.println("Error saving Theater");
-			return false;
-		}
-	}
-
-	/**
-	 * Retrieves a deserialized version of the Theater from disk
-	 * @return a Theater object
-	 */
-	public static Theater retrieve() {
-		try {
-			FileInputStream file = new FileInputStream("TheaterData");
-			ObjectInputStream input = new ObjectInputStream(file);
-			theater = (Theater) input.readObject();
-			IDServer.retrieve(input);
-			return theater;
-		} catch(IOException ioe) {	
-			return null;
-		} catch(ClassNotFoundException cnfe) {
-			return null;
-		}
-	}
-
-	/**
-	 * Writes the object to the output stream
-	 * @param output the stream to be written to
-	 */
-	private void writeObject(java.io.ObjectOutputStream output) {
-		try {
-			output.defaultWriteObject();
-			output.writeObject(theater);
-		} catch(IOException ioe) {
-			System.out.println("Error serializing");
-		}
-	}
-	/**
-	 * Reads the object from a given stream
-	 * @param input the stream to be read
-	 */
-	private void readObject(java.io.ObjectInputStream input) {
-		try {
-			input.defaultReadObject();
-			if (theater == null) {
-				theater = (Theater) input.readObject();
-			} else {
-				input.readObject();
-			}
-		} catch(IOException ioe) {
-			System.out.println("Error deserializing");
-		} catch(Exception e) {
-			System.out.println("Error deserializing");
-		}
-	}
-
-
-
-
-
-}
+import java.io.Serializable;
+import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The facade for the whole theater.  It is safe to use from several threads
+ * at once, such as one per box-office terminal.  Queries run in parallel
+ * against the lists, which lock themselves.  Changes share a lock that
+ * snapshots and checkpoints take exclusively, so a snapshot always sees whole
+ * changes, and changes that depend on a check hold a finer lock as well: one
+ * of a set of per-customer stripes for card changes, or the Schedule's lock
+ * for shows and client removal.  A card claimed or given up is journaled
+ * under a stripe keyed by its number, so a card freed by one customer and
+ * claimed by another is journaled in that order.
+ */
+public class Theater implements Serializable{
+	
+	private static final long serialVersionUID = 1L;
+	private CustomerList customers;
+	private ClientList clients;
+	private Schedule schedule;
+    private static Theater theater;
+    private static Journal journal;
+    private static int checkpointEvery;
+    private static boolean binarySnapshots;
+    private static boolean lazyLoading;
+    private static SnapshotScheduler snapshots;
+    private static final ExpirySweeper sweeper = new ExpirySweeper();
+    private static final OperationStats stats = new OperationStats();
+    private static volatile BoxOffice boxOffice;
+    private static int seatsPerPerformance = 500;
+    private static long holdSeconds = 600;
+    private static long ticketPrice = 0;
+    private static int ticketSyncEvery = 256;
+    private static volatile ClientLedger ledger;
+    private static final ReentrantReadWriteLock changeLock = new ReentrantReadWriteLock();
+    private static final Lock[] customerLocks = new Lock[64];
+    private static final Lock[] cardLocks = new Lock[64];
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final int WALK_PAGE = 1000; // records fetched at a time by the walk methods
+
+    static {
+    	for (int i = 0; i < customerLocks.length; i++) {
+    		customerLocks[i] = new ReentrantLock();
+    		cardLocks[i] = new ReentrantLock();
+    	}
+    }
+	
+    /**
+     * Constructor
+     */
+     private Theater() {
+    	 customers = CustomerList.instance();
+    	 clients = ClientList.instance();
+    	 schedule = Schedule.instance();
+     }
+    
+     public static synchronized Theater instance(){
+    	 if (theater == null){
+    		 IDServer.instance();
+    		 theater = new Theater();
+    	 }
+    	 return theater;
+     }
+     
+     /**
+      * Add Client to the client collection class
+      * @param name String
+      * @param address String
+      * @param phoneNumber String
+      * @return The Client that was successfully added, or null if it wasn't
+      */
+     public Client addClient(String name, String address, String phoneNumber) {
+    	 long start = System.nanoTime();
+    	 TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+    	 event.begin();
+    	 int failure = OperationStats.NONE;
+    	 boolean journaling = journalReady();
+    	 Client client;
+    	 changeLock.readLock().lock();
+    	 try {
+    		 client = clients.add(new Client(name, address, phoneNumber));
+    		 if (client != null && journaling) {
+    			 try {
+    				 journal.addClient(client);
+    			 } catch (IOException ioe) {
+    				 // A change that can't be journaled isn't durable, so it is taken back
+    				 System.out.println("Error writing to the journal");
+    				 failure = OperationStats.JOURNAL_ERROR;
+    				 clients.remove(client.getID());
+    				 client = null;
+    			 }
+    		 }
+    	 } finally {
+    		 changeLock.readLock().unlock();
+    	 }
+    	 if (client != null) {
+    		 changed();
+    	 } else if (failure == OperationStats.NONE) {
+    		 failure = OperationStats.REFUSED;
+    	 }
+    	 recordChange(event, OperationStats.ADD_CLIENT, start, failure, client == null ? 0 : client.getID());
+    	 return client;
+     }
+     
+     /**
+      * Remove client
+      * Searches by id
+      * Client List returns the client if could be removed or not
+      * @param clientID int
+      * @return The Client that has been successfully removed, or null if it hasn't 
+      */
+     public Client removeClient(int clientID) {
+    	 long start = System.nanoTime();
+    	 TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+    	 event.begin();
+    	 int failure = OperationStats.NONE;
+    	 boolean journaling = journalReady();
+    	 Client client = null;
+    	 changeLock.readLock().lock();
+    	 // Holding the schedule's lock keeps a show from being added for the
+    	 // client between the check and the removal
+    	 Lock scheduling = schedule.writeLock();
+    	 scheduling.lock();
+    	 try {
+    		 if (schedule.scheduled(clientID)){
+    			 failure = OperationStats.HAS_SHOWS;
+    		 } else {
+    			 client = clients.remove(clientID);
+    			 if (client == null) {
+    				 failure = OperationStats.NOT_FOUND;
+    			 } else if (journaling) {
+    				 try {
+    					 journal.removeClient(clientID);
+    				 } catch (IOException ioe) {
+    					 System.out.println("Error writing to the journal");
+    					 failure = OperationStats.JOURNAL_ERROR;
+    					 clients.add(client);
+    					 client = null;
+    				 }
+    			 }
+    		 }
+    	 } finally {
+    		 scheduling.unlock();
+    		 changeLock.readLock().unlock();
+    	 }
+    	 if (client != null) {
+    		 changed();
+    	 }
+    	 recordChange(event, OperationStats.REMOVE_CLIENT, start, failure, clientID);
+         return client;
+     }
+     
+     /**
+      * list all currently added clients
+      * @return An Iterator<Client> for the list of clients
+      */
+     public Iterator<Client> listClients() {
+    	 long start = System.nanoTime();
+    	 Iterator<Client> iterator = clients.iterator();
+    	 stats.record(OperationStats.LIST_CLIENTS, start);
+    	 return iterator;
+     }
+     
+     /**
+      * Walk all clients in order of ID a page at a time, without copying the
+      * list, for exports that must not grow with the number of clients
+      * @return An Iterator<Client> over the clients
+      */
+     public Iterator<Client> walkClients() {
+    	 return Page.walk(new Page.Source<Client>() {
+    		 @Override
+    		 public Page<Client> page(String cursor, int size) {
+    			 return clients.page(cursor, size);
+    		 }
+    	 }, WALK_PAGE);
+     }
+     
+     /**
+      * List one page of clients, in order of ID
+      * @param cursor The cursor from the previous page, or null for the first page
+      * @param size The most clients to list, up to Page.MAX_SIZE
+      * @return The page, with the cursor for the next one
+      * @throws IllegalArgumentException if the cursor or the size is invalid
+      */
+     public Page<Client> listClients(String cursor, int size) {
+    	 long start = System.nanoTime();
+    	 try {
+    		 Page<Client> page = clients.page(cursor, size);
+    		 stats.record(OperationStats.LIST_CLIENTS, start);
+    		 return page;
+    	 } catch (IllegalArgumentException iae) {
+    		 stats.record(OperationStats.LIST_CLIENTS, start, OperationStats.INVALID);
+    		 throw iae;
+    	 }
+     }
+     
+     /**
+      * Adds a customer
+      * @param name Name of the Customer
+      * @param address Address of the Customer
+      * @param phone Phone number of the Customer
+      * @return The Customer that was added, or null if it wasn't
+      * @throws IllegalArgumentException if the card has already expired
+      */
+     public Customer addCustomer(String name, String address, String phone, String cardNumber, Date expiration) {
+	 long start = System.nanoTime();
+	 TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+	 event.begin();
+	 if(customers.cardOwner(cardNumber) != null){
+	     System.out.println("Card is already on file");
+	     recordChange(event, OperationStats.ADD_CUSTOMER, start, OperationStats.CARD_ON_FILE, 0);
+	     return null;
+	 }else{
+    	 int failure = OperationStats.NONE;
+    	 boolean journaling = journalReady();
+    	 Customer customer = null;
+    	 changeLock.readLock().lock();
+    	 Lock cardLock = cardLock(cardNumber);
+    	 cardLock.lock();
+    	 try {
+    		 // Making the customer throws if the card has already expired
+    		 failure = OperationStats.INVALID;
+    		 Customer created = new Customer(name, address, phone, cardNumber, expiration);
+    		 failure = OperationStats.NONE;
+    		 // The list claims the card again, in case another caller added it since the check
+    		 customer = customers.add(created);
+    		 if (customer == null) {
+    			 System.out.println("Card is already on file");
+    			 failure = OperationStats.CARD_ON_FILE;
+    			 return null;
+    		 }
+    		 if (journaling) {
+    			 try {
+    				 journal.addCustomer(customer);
+    			 } catch (IOException ioe) {
+    				 System.out.println("Error writing to the journal");
+    				 failure = OperationStats.JOURNAL_ERROR;
+    				 customers.remove(customer.getID());
+    				 customer = null;
+    				 return null;
+    			 }
+    		 }
+    	 } finally {
+    		 cardLock.unlock();
+    		 changeLock.readLock().unlock();
+    		 if (customer == null) {
+    			 recordChange(event, OperationStats.ADD_CUSTOMER, start, failure, 0);
+    		 }
+    	 }
+    	 changed();
+    	 recordChange(event, OperationStats.ADD_CUSTOMER, start, failure, customer.getID());
+    	 return customer;
+	 }
+     }
+     
+     /**
+      * Removes a customer
+      * @param ID The ID of the customer to be removed
+      * @return The Customer that was removed, or null if it wasn't
+      */
+     public Customer removeCustomer(int ID){
+    	 long start = System.nanoTime();
+    	 TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+    	 event.begin();
+    	 int failure = OperationStats.NONE;
+    	 boolean journaling = journalReady();
+    	 Customer customer;
+    	 changeLock.readLock().lock();
+    	 Lock stripe = customerLock(ID);
+    	 stripe.lock();
+    	 // The customer's cards are given up, so nobody may claim them until that is journaled
+    	 List<Lock> heldCards = lockCards(customers.get(ID));
+    	 try {
+    		 customer = customers.remove(ID);
+    		 if (customer == null) {
+    			 failure = OperationStats.NOT_FOUND;
+    		 } else if (journaling) {
+    			 try {
+    				 journal.removeCustomer(ID);
+    			 } catch (IOException ioe) {
+    				 // Nobody can have claimed its cards, since their locks are held
+    				 System.out.println("Error writing to the journal");
+    				 failure = OperationStats.JOURNAL_ERROR;
+    				 customers.add(customer);
+    				 customer = null;
+    			 }
+    		 }
+    	 } finally {
+    		 unlock(heldCards);
+    		 stripe.unlock();
+    		 changeLock.readLock().unlock();
+    	 }
+    	 if (customer != null) {
+    		 changed();
+    	 }
+    	 recordChange(event, OperationStats.REMOVE_CUSTOMER, start, failure, ID);
+    	 return customer;
+     }
+     
+     /**
+      * checks whether the account number is already stored by one of the customers
+      * @param accountNumber the account number we are looking for
+      * @return
+      */
+     public boolean isCardOnFile(String accountNumber){
+    	 long start = System.nanoTime();
+    	 TheaterEvents.CardLookup event = new TheaterEvents.CardLookup();
+    	 event.begin();
+    	 Customer owner = customers.cardOwner(accountNumber);
+    	 stats.record(OperationStats.IS_CARD_ON_FILE, start);
+    	 if (event.shouldCommit()) {
+    		 event.found = owner != null;
+    		 event.customerID = owner == null ? 0 : owner.getID();
+    		 event.commit();
+    	 }
+    	 return owner != null;
+     }
+     
+     /**
+      * Finds the customer holding a credit card
+      * @param accountNumber The account number of the card
+      * @return The Customer holding the card, or null if no customer has it
+      */
+     public Customer getCardOwner(String accountNumber){
+    	 long start = System.nanoTime();
+    	 Customer owner = customers.cardOwner(accountNumber);
+    	 stats.record(OperationStats.GET_CARD_OWNER, start);
+    	 return owner;
+     }
+     
+     /**
+      * Finds customers whose names have a word starting with each word of the
+      * query, in any order, so "jo sm" finds John Smith
+      * @param query The start of one or more words of the name
+      * @param limit The most customers to return
+      * @return The customers found
+      */
+     public List<Customer> findCustomersByName(String query, int limit) {
+    	 long start = System.nanoTime();
+    	 List<Customer> found = customers.getAll(customers.search().namesStartingWith(query, limit));
+    	 stats.record(OperationStats.FIND_CUSTOMERS_BY_NAME, start);
+    	 return found;
+     }
+
+     /**
+      * Finds customers whose names have every word of the query, in any order
+      * @param query One or more whole words of the name
+      * @param limit The most customers to return
+      * @return The customers found
+      */
+     public List<Customer> findCustomersByNameWords(String query, int limit) {
+    	 long start = System.nanoTime();
+    	 List<Customer> found = customers.getAll(customers.search().namesWithWords(query, limit));
+    	 stats.record(OperationStats.FIND_CUSTOMERS_BY_NAME_WORDS, start);
+    	 return found;
+     }
+
+     /**
+      * Finds customers whose addresses have a word starting with each word of the query
+      * @param query The start of one or more words of the address
+      * @param limit The most customers to return
+      * @return The customers found
+      */
+     public List<Customer> findCustomersByAddress(String query, int limit) {
+    	 long start = System.nanoTime();
+    	 List<Customer> found = customers.getAll(customers.search().addressesStartingWith(query, limit));
+    	 stats.record(OperationStats.FIND_CUSTOMERS_BY_ADDRESS, start);
+    	 return found;
+     }
+
+     /**
+      * Finds customers by phone number, however it is punctuated
+      * @param phone The phone number
+      * @return The customers found
+      */
+     public List<Customer> findCustomersByPhone(String phone) {
+    	 long start = System.nanoTime();
+    	 List<Customer> found = customers.getAll(customers.search().withPhone(phone));
+    	 stats.record(OperationStats.FIND_CUSTOMERS_BY_PHONE, start);
+    	 return found;
+     }
+
+     /**
+      * Finds customers holding a card ending in the given digits
+      * @param lastFour The last four digits of the card
+      * @return The customers found
+      */
+     public List<Customer> findCustomersByCard(String lastFour) {
+    	 long start = System.nanoTime();
+    	 List<Customer> found = customers.getAll(customers.search().withCardEnding(lastFour));
+    	 stats.record(OperationStats.FIND_CUSTOMERS_BY_CARD, start);
+    	 return found;
+     }
+
+     /**
+      * Finds clients whose names have a word starting with each word of the query
+      * @param query The start of one or more words of the name
+      * @param limit The most clients to return
+      * @return The clients found
+      */
+     public List<Client> findClientsByName(String query, int limit) {
+    	 long start = System.nanoTime();
+    	 List<Client> found = clients.getAll(clients.search().namesStartingWith(query, limit));
+    	 stats.record(OperationStats.FIND_CLIENTS_BY_NAME, start);
+    	 return found;
+     }
+
+     /**
+      * Finds clients whose addresses have a word starting with each word of the query
+      * @param query The start of one or more words of the address
+      * @param limit The most clients to return
+      * @return The clients found
+      */
+     public List<Client> findClientsByAddress(String query, int limit) {
+    	 long start = System.nanoTime();
+    	 List<Client> found = clients.getAll(clients.search().addressesStartingWith(query, limit));
+    	 stats.record(OperationStats.FIND_CLIENTS_BY_ADDRESS, start);
+    	 return found;
+     }
+
+     /**
+      * Finds clients by phone number, however it is punctuated
+      * @param phone The phone number
+      * @return The clients found
+      */
+     public List<Client> findClientsByPhone(String phone) {
+    	 long start = System.nanoTime();
+    	 List<Client> found = clients.getAll(clients.search().withPhone(phone));
+    	 stats.record(OperationStats.FIND_CLIENTS_BY_PHONE, start);
+    	 return found;
+     }
+     
+     /**
+      * Add a credit card to a customer
+      * @param customerId The ID of the customer who gets a new card
+      * @param accountNumber The account number of the new credit card
+      * @param expiration THe expiration date of the new credit card
+      * @return The CreditCard that was added, or null if it wasn't
+      */
+     public Customer addCreditCard(int customerId, String accountNumber, Date expiration) {
+
+         long start = System.nanoTime();
+         TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+         event.begin();
+         if(customers.cardOwner(accountNumber) != null){
+             System.out.println("Card is already on file");
+             recordChange(event, OperationStats.ADD_CREDIT_CARD, start, OperationStats.CARD_ON_FILE, customerId);
+             return null;
+         }else{
+             int failure = OperationStats.NONE;
+             boolean journaling = journalReady();
+             Customer result = null;
+             changeLock.readLock().lock();
+             Lock stripe = customerLock(customerId);
+             stripe.lock();
+             Lock cardLock = cardLock(accountNumber);
+             cardLock.lock();
+             try {
+            	 Customer customer = customers.get(customerId);
+            	 // Claiming the card makes the uniqueness check and the addition one step
+            	 if (customer == null) {
+            		 failure = OperationStats.NOT_FOUND;
+            	 } else if (!customers.claimCard(accountNumber, customerId)) {
+            		 System.out.println("Card is already on file");
+            		 failure = OperationStats.CARD_ON_FILE;
+            	 } else {
+            		 result = customer.addCard(accountNumber, expiration);
+            		 if (result == null) {
+            			 customers.releaseCard(accountNumber, customerId);
+            			 failure = OperationStats.REFUSED;
+            		 } else if (journaling) {
+            			 try {
+            				 journal.addCard(customerId, accountNumber, expiration);
+            			 } catch (IOException ioe) {
+            				 System.out.println("Error writing to the journal");
+            				 failure = OperationStats.JOURNAL_ERROR;
+            				 customer.removeCard(accountNumber);
+            				 result = null;
+            			 }
+            		 }
+            	 }
+             } finally {
+            	 cardLock.unlock();
+            	 stripe.unlock();
+            	 changeLock.readLock().unlock();
+             }
+             if (result != null) {
+            	 changed();
+             }
+             recordChange(event, OperationStats.ADD_CREDIT_CARD, start, failure, customerId);
+             return result;
+         }
+     }
+     
+     /**
+      * Removed a credit card from a customer
+      * @param customerId The ID of the customer who is losing a credit card
+      * @param accountNumber The card number of the credit card to be removed
+      * @return CreditCard The credit card that was removed, or null if it wasn't
+      */
+     public CreditCard removeCreditCard(int customerId, String accountNumber) {
+    	 long start = System.nanoTime();
+    	 TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+    	 event.begin();
+    	 int failure = OperationStats.NONE;
+    	 boolean journaling = journalReady();
+    	 CreditCard card = null;
+    	 changeLock.readLock().lock();
+    	 // The customer's last card may not be removed, so two removals must not overlap
+    	 Lock stripe = customerLock(customerId);
+    	 stripe.lock();
+    	 // The card is free once removed, so nobody may claim it until the removal is journaled
+    	 Lock cardLock = cardLock(accountNumber);
+    	 cardLock.lock();
+    	 try {
+    		 Customer customer = customers.get(customerId);
+    		 if (customer == null) {
+    			 failure = OperationStats.NOT_FOUND;
+    		 } else {
+    			 card = customer.removeCard(accountNumber);
+    			 if (card == null) {
+    				 failure = OperationStats.REFUSED;
+    			 } else if (journaling) {
+    				 try {
+    					 journal.removeCard(customerId, accountNumber);
+    				 } catch (IOException ioe) {
+    					 System.out.println("Error writing to the journal");
+    					 failure = OperationStats.JOURNAL_ERROR;
+    					 customer.restoreCard(card.getAccountNumber(), card.getExpirationTime());
+    					 card = null;
+    				 }
+    			 }
+    		 }
+    	 } finally {
+    		 cardLock.unlock();
+    		 stripe.unlock();
+    		 changeLock.readLock().unlock();
+    	 }
+    	 if (card != null) {
+    		 changed();
+    	 }
+    	 recordChange(event, OperationStats.REMOVE_CREDIT_CARD, start, failure, customerId);
+    	 return card;
+     }
+
+     /**
+      * Lists the cards that will expire within some months
+      * @param months How many months to look ahead, counting the current one
+      * @return The cards and the IDs of the customers holding them, in order of month
+      */
+     public List<ExpiryIndex.Entry> cardsExpiringWithin(int months) {
+    	 long start = System.nanoTime();
+    	 List<ExpiryIndex.Entry> expiring = customers.expiries().expiringWithin(System.currentTimeMillis(), months);
+    	 stats.record(OperationStats.CARDS_EXPIRING_WITHIN, start);
+    	 return expiring;
+     }
+
+     /**
+      * Lists the customers whose cards have all expired
+      * @return The customers with no valid card left
+      */
+     public List<Customer> customersWithoutValidCard() {
+    	 long start = System.nanoTime();
+    	 long now = System.currentTimeMillis();
+    	 List<Customer> lapsed = new ArrayList<Customer>();
+    	 Set<Integer> seen = new HashSet<Integer>();
+    	 for (Integer ID : customers.expiries().lapsedCandidates(now)) {
+    		 Customer customer = customers.get(ID);
+    		 if (customer == null || !seen.add(ID)) {
+    			 continue;
+    		 }
+    		 boolean valid = false;
+    		 Iterator<CreditCard> cards = customer.listCards();
+    		 while (cards.hasNext() && !valid) {
+    			 valid = !cards.next().expiredBy(now);
+    		 }
+    		 if (!valid) {
+    			 lapsed.add(customer);
+    		 }
+    	 }
+    	 stats.record(OperationStats.CUSTOMERS_WITHOUT_VALID_CARD, start);
+    	 return lapsed;
+     }
+     
+     /**
+      * Removes expired cards from customers, except for a customer's last card
+      * @return What the sweep did
+      */
+     public ExpirySweeper.Report sweepExpiredCards() {
+    	 long start = System.nanoTime();
+    	 ExpirySweeper.Report report = sweeper.sweep(this);
+    	 stats.record(OperationStats.SWEEP_EXPIRED_CARDS, start);
+    	 return report;
+     }
+     
+     /**
+      * @return The index of every card by expiry month
+      */
+     ExpiryIndex expiryIndex() {
+    	 return customers.expiries();
+     }
+     
+     /**
+      * Removes one expired card for the sweeper, unless it is its customer's
+      * last card, in which case the card is set aside as lapsed
+      * @param entry The card and the ID of its customer
+      * @return ExpirySweeper.REMOVED, KEPT or GONE, which is also returned if
+      *   the removal couldn't be journaled and the card was put back
+      */
+     int sweepCard(ExpiryIndex.Entry entry) {
+    	 boolean journaling = journalReady();
+    	 int customerId = entry.getCustomerID();
+    	 CreditCard card = entry.getCard();
+    	 changeLock.readLock().lock();
+    	 Lock stripe = customerLock(customerId);
+    	 stripe.lock();
+    	 Lock cardLock = cardLock(card.getAccountNumber());
+    	 cardLock.lock();
+    	 try {
+    		 Customer customer = customers.get(customerId);
+    		 if (customer == null || !customer.holds(card)) {
+    			 // It may have been set aside by a sweep that failed as the card went
+    			 customers.expiries().unlapse(entry);
+    			 return ExpirySweeper.GONE;
+    		 }
+    		 if (customer.removeCard(card.getAccountNumber()) == null) {
+    			 customers.expiries().lapse(entry);
+    			 return ExpirySweeper.KEPT;
+    		 }
+    		 if (journaling) {
+    			 try {
+    				 journal.removeCard(customerId, card.getAccountNumber());
+    			 } catch (IOException ioe) {
+    				 // Put back, and so indexed to be swept again
+    				 System.out.println("Error writing to the journal");
+    				 customer.restoreCard(card.getAccountNumber(), card.getExpirationTime());
+    				 return ExpirySweeper.GONE;
+    			 }
+    		 }
+    	 } finally {
+    		 cardLock.unlock();
+    		 stripe.unlock();
+    		 changeLock.readLock().unlock();
+    	 }
+    	 changed();
+    	 return ExpirySweeper.REMOVED;
+     }
+     
+     /**
+      * Get the entire list of customers
+      * @return An Iterator<Customer> containing the list of Customers
+      */
+     public Iterator<Customer> listCustomers(){
+    	 long start = System.nanoTime();
+    	 Iterator<Customer> iterator = customers.iterator();
+    	 stats.record(OperationStats.LIST_CUSTOMERS, start);
+    	 return iterator;
+     }
+     
+     /**
+      * Walk all customers in order of ID a page at a time, without copying the
+      * list.  Customers still in a lazily loaded snapshot are decoded as they
+      * are reached and not kept, so an export doesn't load the snapshot.  The
+      * customers returned are only for reading.
+      * @return An Iterator<Customer> over the customers
+      */
+     public Iterator<Customer> walkCustomers() {
+    	 return Page.walk(new Page.Source<Customer>() {
+    		 @Override
+    		 public Page<Customer> page(String cursor, int size) {
+    			 return customers.detachedPage(cursor, size);
+    		 }
+    	 }, WALK_PAGE);
+     }
+     
+     /**
+      * List one page of customers, in order of ID
+      * @param cursor The cursor from the previous page, or null for the first page
+      * @param size The most customers to list, up to Page.MAX_SIZE
+      * @return The page, with the cursor for the next one
+      * @throws IllegalArgumentException if the cursor or the size is invalid
+      */
+     public Page<Customer> listCustomers(String cursor, int size) {
+    	 long start = System.nanoTime();
+    	 try {
+    		 Page<Customer> page = customers.page(cursor, size);
+    		 stats.record(OperationStats.LIST_CUSTOMERS, start);
+    		 return page;
+    	 } catch (IllegalArgumentException iae) {
+    		 stats.record(OperationStats.LIST_CUSTOMERS, start, OperationStats.INVALID);
+    		 throw iae;
+    	 }
+     }
+	
+     /**
+      * Schedule a new show
+      * @param name The name of the show
+      * @param startDate The date the show will begin running
+      * @param endDate The date the show will stop running
+      * @param clientId The ID of the CLient who is running the show
+      * @return The show that has been scheduled, or null if it wasn't
+      */
+	public Show addShow(String name, Date startDate, Date endDate, int clientId) {
+		long start = System.nanoTime();
+		TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+		event.begin();
+		int failure = OperationStats.NONE;
+		boolean journaling = journalReady();
+		Show show = null;
+		changeLock.readLock().lock();
+		// Holding the schedule's lock keeps the client from being removed
+		// while its show is added
+		Lock scheduling = schedule.writeLock();
+		scheduling.lock();
+		try {
+			   //Check if client id exists
+	        Client client = clients.get(clientId);
+	        if(client == null) {
+	        	failure = OperationStats.NOT_FOUND;
+	        	return null;
+	        }
+
+	        // Each step throws if it fails, so the failure is set to its reason first
+	        failure = OperationStats.INVALID;
+	        Show created = new Show(name, startDate, endDate, clientId);
+	        failure = OperationStats.CONFLICT;
+	       	show = schedule.add(created);
+	       	failure = OperationStats.NONE;
+	       	if (journaling) {
+	       		try {
+	       			journal.addShow(show);
+	       		} catch (IOException ioe) {
+	       			System.out.println("Error writing to the journal");
+	       			failure = OperationStats.JOURNAL_ERROR;
+	       			schedule.remove(show);
+	       			show = null;
+	       			return null;
+	       		}
+	       	}
+		} finally {
+			scheduling.unlock();
+			changeLock.readLock().unlock();
+			if (show == null) {
+				recordChange(event, OperationStats.ADD_SHOW, start, failure, clientId);
+			}
+		}
+       	changed();
+       	recordChange(event, OperationStats.ADD_SHOW, start, failure, clientId);
+       	return show;
+    }
+	
+	/**
+	 * List all current and future shows; shows that have ended are archived
+	 * @return An Iterator<Show> containing the shows
+	 */
+	public Iterator<Show> listShows() {
+		long start = System.nanoTime();
+		Iterator<Show> iterator = schedule.iterator();
+		stats.record(OperationStats.LIST_SHOWS, start);
+		return iterator;
+	}
+
+	/**
+	 * Walk all current and future shows in order of start date a page at a
+	 * time, without copying the Schedule, for exports
+	 * @return An Iterator<Show> over the shows
+	 */
+	public Iterator<Show> walkShows() {
+		return Page.walk(new Page.Source<Show>() {
+			@Override
+			public Page<Show> page(String cursor, int size) {
+				return schedule.page(cursor, size);
+			}
+		}, WALK_PAGE);
+	}
+
+	/**
+	 * List the shows that have ended and been archived, for history and reporting
+	 * @return An Iterator<Show> over the archived shows, in order of start date
+	 */
+	public Iterator<Show> listArchivedShows() {
+		long start = System.nanoTime();
+		Iterator<Show> iterator = schedule.archivedShows().iterator();
+		stats.record(OperationStats.LIST_ARCHIVED_SHOWS, start);
+		return iterator;
+	}
+
+	/**
+	 * List the shows, archived or not, running at any time in a range
+	 * @param start The start of the range
+	 * @param end The end of the range
+	 * @return The shows, in order of start date
+	 */
+	public List<Show> listShowsBetween(Date start, Date end) {
+		long began = System.nanoTime();
+		List<Show> shows = schedule.showsBetween(start, end);
+		stats.record(OperationStats.LIST_SHOWS_BETWEEN, began);
+		return shows;
+	}
+
+	/**
+	 * Finds the earliest time a show could be booked for a number of days,
+	 * checking archived shows as well as current ones
+	 * @param after The earliest date the show may start
+	 * @param days The number of days from the show's start to its end
+	 * @return The first free stretch at least that long, or null if days is negative or there is none
+	 */
+	public Schedule.Gap findFreeWindow(Date after, int days) {
+		long start = System.nanoTime();
+		if (days < 0) {
+			stats.record(OperationStats.FIND_FREE_WINDOW, start, OperationStats.INVALID);
+			return null;
+		}
+		Schedule.Gap gap = schedule.firstGap(after, days * DAY);
+		stats.record(OperationStats.FIND_FREE_WINDOW, start, gap == null ? OperationStats.NOT_FOUND : OperationStats.NONE);
+		return gap;
+	}
+
+	/**
+	 * List the times in a range a show could be booked for a number of days
+	 * @param start The start of the range
+	 * @param end The end of the range
+	 * @param days The number of days from the show's start to its end
+	 * @return The free stretches at least that long, in order of date, or null if days is negative
+	 */
+	public List<Schedule.Gap> listFreeWindows(Date start, Date end, int days) {
+		long began = System.nanoTime();
+		if (days < 0) {
+			stats.record(OperationStats.LIST_FREE_WINDOWS, began, OperationStats.INVALID);
+			return null;
+		}
+		List<Schedule.Gap> gaps = schedule.gapsBetween(start, end, days * DAY);
+		stats.record(OperationStats.LIST_FREE_WINDOWS, began);
+		return gaps;
+	}
+
+	/**
+	 * Moves the shows that have ended to the archive now, rather than waiting
+	 * for it to happen as shows are added
+	 * @return The number of shows archived
+	 */
+	public int archiveEndedShows() {
+		long start = System.nanoTime();
+		int archived = schedule.archiveEnded();
+		stats.record(OperationStats.ARCHIVE_ENDED_SHOWS, start);
+		return archived;
+	}
+
+	/**
+	 * List one page of current and future shows, in order of start date
+	 * @param cursor The cursor from the previous page, or null for the first page
+	 * @param size The most shows to list, up to Page.MAX_SIZE
+	 * @return The page, with the cursor for the next one
+	 * @throws IllegalArgumentException if the cursor or the size is invalid
+	 */
+	public Page<Show> listShows(String cursor, int size) {
+		long start = System.nanoTime();
+		try {
+			Page<Show> page = schedule.page(cursor, size);
+			stats.record(OperationStats.LIST_SHOWS, start);
+			return page;
+		} catch (IllegalArgumentException iae) {
+			stats.record(OperationStats.LIST_SHOWS, start, OperationStats.INVALID);
+			throw iae;
+		}
+	}
+
+	/**
+	 * List the shows run by one client
+	 * @param clientId The ID of the client
+	 * @return An Iterator<Show> over the client's shows, archived ones included, in order of end date
+	 */
+	public Iterator<Show> listShows(int clientId) {
+		long start = System.nanoTime();
+		Iterator<Show> iterator = schedule.clientShows(clientId);
+		stats.record(OperationStats.LIST_SHOWS, start);
+		return iterator;
+	}
+
+	/**
+	 * Credits a client, such as with revenue from a show
+	 * @param clientID The ID of the client
+	 * @param cents The amount owed to the client, in cents
+	 * @return The client, or null if it wasn't found or the credit couldn't be recorded
+	 */
+	public Client creditClient(int clientID, long cents) {
+		return post(OperationStats.CREDIT_CLIENT, clientID, ClientLedger.CREDIT, cents);
+	}
+
+	/**
+	 * Debits a client, such as for a fee or a refund
+	 * @param clientID The ID of the client
+	 * @param cents The amount the client owes, in cents
+	 * @return The client, or null if it wasn't found or the debit couldn't be recorded
+	 */
+	public Client debitClient(int clientID, long cents) {
+		return post(OperationStats.DEBIT_CLIENT, clientID, ClientLedger.DEBIT, cents);
+	}
+
+	/**
+	 * Gets what the theater owes a client
+	 * @param clientID The ID of the client
+	 * @return The balance in cents, negative if the client owes the theater, or 0 if there is no such client
+	 */
+	public long getClientBalance(int clientID) {
+		long start = System.nanoTime();
+		Client client = clients.get(clientID);
+		long balance = client == null ? 0 : client.getBalance();
+		stats.record(OperationStats.GET_CLIENT_BALANCE, start, client == null ? OperationStats.NOT_FOUND : OperationStats.NONE);
+		return balance;
+	}
+
+	/**
+	 * Lists every change made to a client's balance
+	 * @param clientID The ID of the client
+	 * @return The entries from the ledger, oldest first, or null if the ledger couldn't be read
+	 */
+	public List<ClientLedger.Entry> listLedgerEntries(int clientID) {
+		long start = System.nanoTime();
+		try {
+			List<ClientLedger.Entry> entries = ledger().entries(clientID);
+			stats.record(OperationStats.LIST_LEDGER_ENTRIES, start);
+			return entries;
+		} catch (IOException ioe) {
+			System.out.println("Error reading the client ledger");
+			stats.record(OperationStats.LIST_LEDGER_ENTRIES, start, OperationStats.IO_ERROR);
+			return null;
+		}
+	}
+
+	/**
+	 * Pays out what the theater owes every client and takes their balances
+	 * to zero.  Clients who owe the theater keep their balances.
+	 * @return What was paid out, or null if the payouts couldn't be recorded
+	 */
+	public ClientLedger.Settlement settleClients() {
+		long start = System.nanoTime();
+		TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+		event.begin();
+		List<Client> all = new ArrayList<Client>();
+		for (Client client : clients) {
+			all.add(client);
+		}
+		try {
+			ClientLedger.Settlement settlement = ledger().settle(all);
+			recordChange(event, OperationStats.SETTLE_CLIENTS, start, OperationStats.NONE, 0);
+			return settlement;
+		} catch (IOException ioe) {
+			System.out.println("Error writing to the client ledger");
+			recordChange(event, OperationStats.SETTLE_CLIENTS, start, OperationStats.IO_ERROR, 0);
+			return null;
+		}
+	}
+
+	/*
+	 * Posts a credit or debit to a client's balance, and records it as the
+	 * given operation
+	 */
+	private Client post(int operation, int clientID, byte type, long cents) {
+		long start = System.nanoTime();
+		TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+		event.begin();
+		Client client = clients.get(clientID);
+		if (client == null) {
+			recordChange(event, operation, start, OperationStats.NOT_FOUND, clientID);
+			return null;
+		}
+		try {
+			ledger().post(client, type, cents);
+			recordChange(event, operation, start, OperationStats.NONE, clientID);
+			return client;
+		} catch (IOException ioe) {
+			System.out.println("Error writing to the client ledger");
+			recordChange(event, operation, start, OperationStats.IO_ERROR, clientID);
+			return null;
+		}
+	}
+
+	/*
+	 * Records a change in the operation statistics, and as a flight recorder
+	 * event if a recording has them turned on
+	 */
+	private static void recordChange(TheaterEvents.Mutation event, int operation, long start, int failure, int entityID) {
+		stats.record(operation, start, failure);
+		if (event.shouldCommit()) {
+			event.operation = OperationStats.name(operation);
+			event.entityID = entityID;
+			event.result = OperationStats.reason(failure);
+			event.commit();
+		}
+	}
+
+	/*
+	 * Credits a show's client with the price of the seats sold, and returns
+	 * false if the credit couldn't be recorded
+	 */
+	private boolean paid(Show show, int seats) {
+		return ticketPrice <= 0 || creditClient(show.getClientID(), ticketPrice * seats) != null;
+	}
+
+	/*
+	 * Returns the outcome of a sale that couldn't be credited, which stands
+	 * only if its seats couldn't be refunded either
+	 */
+	private static int uncredited(Show show, boolean refunded) {
+		if (refunded) {
+			return BoxOffice.NOT_CREDITED;
+		}
+		System.out.println("The sale could not be credited to client " + show.getClientID() + " or refunded");
+		return BoxOffice.SOLD;
+	}
+
+	/**
+	 * Finds the show, archived or not, that starts at a given time
+	 * @param start The start date of the show
+	 * @return The show, or null if no show starts then
+	 */
+	public Show getShow(Date start) {
+		long began = System.nanoTime();
+		for (Show show : schedule.showsBetween(start, start)) {
+			if (show.getStartTime() == start.getTime()) {
+				stats.record(OperationStats.GET_SHOW, began);
+				return show;
+			}
+		}
+		stats.record(OperationStats.GET_SHOW, began, OperationStats.NOT_FOUND);
+		return null;
+	}
+
+	/**
+	 * Sells a customer one seat for a performance of a show
+	 * @param show The show
+	 * @param date Any time on the day of the performance
+	 * @param seat The seat number, from 0
+	 * @param customerID The ID of the customer buying the seat
+	 * @param cardNumber The card the customer pays with
+	 * @return BoxOffice.SOLD, or one of the other BoxOffice outcomes saying why it wasn't sold
+	 */
+	public int buyTicket(Show show, Date date, int seat, int customerID, String cardNumber) {
+		long start = System.nanoTime();
+		TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+		event.begin();
+		Customer customer = customers.get(customerID);
+		int outcome = BoxOffice.NO_SUCH_CUSTOMER;
+		if (!schedule.contains(show)) {
+			outcome = BoxOffice.NO_SUCH_SHOW;
+		} else if (customer != null) {
+			outcome = boxOffice().buy(show, date, seat, customer, cardNumber);
+			if (outcome == BoxOffice.SOLD && !paid(show, 1)) {
+				outcome = uncredited(show, boxOffice().refund(show, date, new int[] {seat}, customerID));
+			}
+		}
+		recordChange(event, OperationStats.BUY_TICKET, start, OperationStats.saleFailure(outcome), customerID);
+		return outcome;
+	}
+
+	/**
+	 * Holds seats for a performance until the customer pays for them
+	 * @param show The show
+	 * @param date Any time on the day of the performance
+	 * @param seats The seat numbers
+	 * @param customerID The ID of the customer to hold them for
+	 * @return The reservation, or null if the customer, the show or a seat wasn't found or a seat is taken
+	 */
+	public BoxOffice.Reservation reserveSeats(Show show, Date date, int[] seats, int customerID) {
+		long start = System.nanoTime();
+		TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+		event.begin();
+		Customer customer = customers.get(customerID);
+		if (customer == null || !schedule.contains(show)) {
+			recordChange(event, OperationStats.RESERVE_SEATS, start, OperationStats.NOT_FOUND, customerID);
+			return null;
+		}
+		BoxOffice.Reservation reservation = boxOffice().reserve(show, date, seats, customer);
+		recordChange(event, OperationStats.RESERVE_SEATS, start, reservation == null ? OperationStats.SEAT_TAKEN : OperationStats.NONE, customerID);
+		return reservation;
+	}
+
+	/**
+	 * Pays for reserved seats
+	 * @param reservation The reservation
+	 * @param cardNumber The card the customer pays with
+	 * @return BoxOffice.SOLD, or one of the other BoxOffice outcomes saying why they weren't sold
+	 */
+	public int purchaseReservation(BoxOffice.Reservation reservation, String cardNumber) {
+		long start = System.nanoTime();
+		TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+		event.begin();
+		Customer customer = customers.get(reservation.getCustomerID());
+		int outcome = BoxOffice.NO_SUCH_CUSTOMER;
+		if (!schedule.contains(reservation.getShow())) {
+			outcome = BoxOffice.NO_SUCH_SHOW;
+		} else if (customer != null) {
+			outcome = boxOffice().purchase(reservation, customer, cardNumber);
+			if (outcome == BoxOffice.SOLD && !paid(reservation.getShow(), reservation.getSeats().length)) {
+				outcome = uncredited(reservation.getShow(), boxOffice().refund(reservation));
+			}
+		}
+		recordChange(event, OperationStats.PURCHASE_RESERVATION, start, OperationStats.saleFailure(outcome), reservation.getCustomerID());
+		return outcome;
+	}
+
+	/**
+	 * Gives up reserved seats
+	 * @param reservation The reservation
+	 * @return true if the seats were released, false if it was already paid for or closed
+	 */
+	public boolean cancelReservation(BoxOffice.Reservation reservation) {
+		long start = System.nanoTime();
+		TheaterEvents.Mutation event = new TheaterEvents.Mutation();
+		event.begin();
+		boolean cancelled = boxOffice().cancel(reservation);
+		recordChange(event, OperationStats.CANCEL_RESERVATION, start, cancelled ? OperationStats.NONE : OperationStats.RESERVATION_CLOSED, reservation.getCustomerID());
+		return cancelled;
+	}
+
+	/**
+	 * Gets the seats of a performance, for its sold and available counts
+	 * @param show The show
+	 * @param date Any time on the day of the performance
+	 * @return The seats, or null if the show doesn't play that day
+	 */
+	public SeatMap getSeats(Show show, Date date) {
+		long start = System.nanoTime();
+		SeatMap seats = boxOffice().seats(show, date);
+		stats.record(OperationStats.GET_SEATS, start, seats == null ? OperationStats.NOT_FOUND : OperationStats.NONE);
+		return seats;
+	}
+
+	/**
+	 * Get a customer from the list
+	 * @param ID THe ID of the Customer to get
+	 * @return THe Customer that was found, or null if it wasn't
+	 */
+	public Customer getCustomer(int ID){
+		long start = System.nanoTime();
+		Customer customer = customers.get(ID);
+		stats.record(OperationStats.GET_CUSTOMER, start, customer == null ? OperationStats.NOT_FOUND : OperationStats.NONE);
+		return customer;
+	}
+
+	/**
+	 * Turns on journal mode.  Every change is then appended to the file
+	 * TheaterJournal as it is made, and retrieve() replays the journal on top
+	 * of the last saved snapshot.  Must be called before the Theater is
+	 * retrieved or created.  A change that can't be written to the journal
+	 * isn't durable, so it is taken back and reported as failed.
+	 * @param syncEvery how many changes may be buffered before the journal is forced to disk
+	 * @param checkpoint how many changes may build up in the journal before a snapshot is
+	 *   saved and the journal is emptied
+	 */
+	public static void enableJournal(int syncEvery, int checkpoint) {
+		journal = new Journal("TheaterJournal", syncEvery);
+		checkpointEvery = checkpoint;
+	}
+
+	/**
+	 * Chooses the format save() writes.  retrieve() recognizes both formats,
+	 * so files written either way can always be loaded.
+	 * @param binary true to write the compact SnapshotCodec format, false for
+	 *   Java serialization
+	 */
+	public static void useBinarySnapshots(boolean binary) {
+		binarySnapshots = binary;
+	}
+
+	/**
+	 * Chooses how retrieve() loads a binary snapshot.  With lazy loading the
+	 * file is memory mapped and each customer is only decoded when it is first
+	 * used, so startup time hardly depends on how many customers are on file.
+	 * @param lazy true to load customers lazily
+	 */
+	public static void useLazyLoading(boolean lazy) {
+		lazyLoading = lazy;
+	}
+
+	/**
+	 * Turns on background snapshots.  saveInBackground() can then be used, and
+	 * snapshots are also taken automatically when the given limits are reached.
+	 * Background snapshots are always written in the binary format.
+	 * @param intervalSeconds take a snapshot once this many seconds have passed
+	 *   with unsaved changes; 0 for no time limit
+	 * @param dirtyOperations take a snapshot after this many changes; 0 for no limit
+	 */
+	public static void enableBackgroundSnapshots(long intervalSeconds, int dirtyOperations) {
+		if (snapshots == null) {
+			snapshots = new SnapshotScheduler("TheaterData");
+		}
+		snapshots.automatic(intervalSeconds, dirtyOperations, new Runnable() {
+			@Override
+			public void run() {
+				saveInBackground();
+			}
+		});
+	}
+
+	/**
+	 * Sets up the box office.  Must be called before the first ticket is sold.
+	 * @param seats the number of seats at each performance
+	 * @param holdSeconds how long a reservation holds its seats
+	 * @param priceCents what each seat sold credits the show's client, in cents
+	 * @param syncEvery how many sales or ledger entries may be written before
+	 *   the ticket log or the client ledger is forced to disk
+	 */
+	public static synchronized void configureBoxOffice(int seats, long holdSeconds, long priceCents, int syncEvery) {
+		if (boxOffice != null || ledger != null) {
+			throw new IllegalStateException("The box office is already open");
+		}
+		seatsPerPerformance = seats;
+		Theater.holdSeconds = holdSeconds;
+		ticketPrice = priceCents;
+		ticketSyncEvery = syncEvery;
+	}
+
+	/*
+	 * Returns the box office, opening it the first time.  Sales are kept in
+	 * the file TheaterTickets, which is replayed when it opens; if the file
+	 * can't be used, sales are only kept in memory.
+	 */
+	private static BoxOffice boxOffice() {
+		BoxOffice office = boxOffice;
+		if (office != null) {
+			return office;
+		}
+		synchronized (Theater.class) {
+			if (boxOffice == null) {
+				office = new BoxOffice(seatsPerPerformance, holdSeconds, new TicketLog("TheaterTickets", ticketSyncEvery));
+				try {
+					office.open();
+				} catch (IOException ioe) {
+					System.out.println("Error opening the ticket log; sales will not be saved");
+					office = new BoxOffice(seatsPerPerformance, holdSeconds, null);
+				}
+				boxOffice = office;
+			}
+			return boxOffice;
+		}
+	}
+
+	/*
+	 * Returns the client ledger, opening it the first time.  The ledger's log,
+	 * TheaterLedger, is checked and any torn entry cut off before it is
+	 * opened for appending.
+	 */
+	private static ClientLedger ledger() {
+		ClientLedger opened = ledger;
+		if (opened != null) {
+			return opened;
+		}
+		synchronized (Theater.class) {
+			if (ledger == null) {
+				opened = new ClientLedger("TheaterLedger", ticketSyncEvery);
+				try {
+					opened.balances();
+					opened.open();
+				} catch (IOException ioe) {
+					System.out.println("Error opening the client ledger");
+				}
+				ledger = opened;
+			}
+			return ledger;
+		}
+	}
+
+	/*
+	 * Sets every client's balance from the ledger, which has every change to
+	 * a balance, however recent.  With no ledger the balances saved with the
+	 * clients are kept.
+	 */
+	private void restoreBalances() {
+		try {
+			Map<Integer, Long> balances = ledger().balances();
+			if (balances == null) {
+				return;
+			}
+			for (Client client : clients) {
+				Long balance = balances.get(client.getID());
+				client.setBalance(balance == null ? 0 : balance);
+			}
+		} catch (IOException ioe) {
+			System.out.println("Error reading the client ledger");
+		}
+	}
+
+	/**
+	 * Turns on sweeps of expired cards on a background thread
+	 * @param intervalSeconds how often to sweep; 0 to stop sweeping
+	 */
+	public static void enableExpirySweeps(long intervalSeconds) {
+		sweeper.every(intervalSeconds);
+	}
+
+	/**
+	 * @return the report of the last sweep of expired cards, or null if there hasn't been one
+	 */
+	public static ExpirySweeper.Report lastSweepReport() {
+		return sweeper.lastReport();
+	}
+
+	/**
+	 * @return the calls, failures and latencies of every public operation since the program started
+	 */
+	public static OperationStats operationStats() {
+		return stats;
+	}
+
+	/**
+	 * Takes a point-in-time copy of the Theater and writes it to TheaterData on
+	 * a background thread.  Only the copy is made before this returns.
+	 * @return the report of the snapshot, completed once it has been written,
+	 *   or null if background snapshots are not enabled
+	 */
+	public static CompletableFuture<SnapshotScheduler.Report> saveInBackground() {
+		if (snapshots == null) {
+			return null;
+		}
+		long start = System.nanoTime();
+		SnapshotScheduler.State state;
+		changeLock.writeLock().lock();
+		try {
+			state = instance().capture();
+		} finally {
+			changeLock.writeLock().unlock();
+		}
+		// Only the copy holds callers up, so that is what is timed
+		stats.record(OperationStats.SAVE_IN_BACKGROUND, start);
+		return snapshots.submit(state, (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * @return the report of the last background snapshot, or null if there hasn't been one
+	 */
+	public static SnapshotScheduler.Report lastSnapshotReport() {
+		return snapshots == null ? null : snapshots.lastReport();
+	}
+
+	/*
+	 * Copies the clients, customers, shows and ID counters so they can be
+	 * written while the live objects go on changing
+	 */
+	private SnapshotScheduler.State capture() {
+		List<Client> clientCopies = new ArrayList<Client>();
+		for (Client client : clients) {
+			clientCopies.add(client.copy());
+		}
+		List<Customer> customerCopies = new ArrayList<Customer>();
+		for (Customer customer : customers) {
+			customerCopies.add(customer.copy());
+		}
+		List<Show> showCopies = new ArrayList<Show>();
+		for (Show show : schedule.allShows()) {
+			showCopies.add(show.copy());
+		}
+		IDServer server = IDServer.instance();
+		return new SnapshotScheduler.State(clientCopies, customerCopies, showCopies,
+				server.customerCounter(), server.clientCounter());
+	}
+
+	/**
+	 * Saves a snapshot of the Theater and empties the journal, since
+	 * everything in it is now part of the snapshot
+	 * @return true if the data could be saved
+	 */
+	public static boolean checkpoint() {
+		long start = System.nanoTime();
+		TheaterEvents.Persistence event = new TheaterEvents.Persistence();
+		event.begin();
+		boolean saved = false;
+		changeLock.writeLock().lock();
+		try {
+			if (!writeSnapshot()) {
+				return false;
+			}
+			if (journal != null) {
+				try {
+					journal.reset();
+				} catch (IOException ioe) {
+					System.out.println("Error resetting the journal");
+					return false;
+				}
+			}
+			saved = true;
+			return true;
+		} finally {
+			changeLock.writeLock().unlock();
+			stats.record(OperationStats.CHECKPOINT, start, saved ? OperationStats.NONE : OperationStats.IO_ERROR);
+			persisted(event, OperationStats.CHECKPOINT, binarySnapshots, saved);
+		}
+	}
+
+	/**
+	 * Makes a bulk change, such as an import, as one step.  No other change
+	 * is made while it runs, and in journal mode it is saved by a single
+	 * checkpoint instead of a journal record for each thing it adds.
+	 * @param change adds records through the restore and replay methods,
+	 *   which don't journal
+	 * @return true if the change could be saved
+	 */
+	static boolean applyInBulk(Runnable change) {
+		changeLock.writeLock().lock();
+		try {
+			change.run();
+			if (journal != null) {
+				return checkpoint();
+			}
+			return true;
+		} finally {
+			changeLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Serializes the Library object
+	 * @return true if the data could be saved
+	 */
+	public static boolean save() {
+		long start = System.nanoTime();
+		TheaterEvents.Persistence event = new TheaterEvents.Persistence();
+		event.begin();
+		boolean saved = journal != null ? checkpoint() : writeSnapshot();
+		stats.record(OperationStats.SAVE, start, saved ? OperationStats.NONE : OperationStats.IO_ERROR);
+		persisted(event, OperationStats.SAVE, binarySnapshots, saved);
+		return saved;
+	}
+
+	/**
+	 * Retrieves a deserialized version of the Theater from disk.  In journal
+	 * mode the journal is then replayed to bring it up to date.  If the
+	 * snapshot or the journal can't be read the Theater is left empty rather
+	 * than half loaded.
+	 * @return a Theater object, or null if there was nothing to retrieve or it
+	 *   couldn't be read
+	 */
+	public static Theater retrieve() {
+		long start = System.nanoTime();
+		TheaterEvents.Persistence event = new TheaterEvents.Persistence();
+		event.begin();
+		boolean binary = false;
+		// Set once the singletons start being filled, so a failure has to empty them again
+		boolean loading = false;
+		FileInputStream file = null;
+		try {
+			if (new File("TheaterData").exists()) {
+				file = new FileInputStream("TheaterData");
+				if (SnapshotCodec.isBinary(file.getChannel())) {
+					binary = true;
+					instance();
+					loading = true;
+					try {
+						if (lazyLoading) {
+							SnapshotCodec.readLazily(theater, file.getChannel());
+						} else {
+							SnapshotCodec.read(theater, file.getChannel());
+						}
+					} catch (RuntimeException corrupt) {
+						throw new IOException("The snapshot is corrupt", corrupt);
+					}
+				} else {
+					ObjectInputStream input = new ObjectInputStream(file);
+					theater = (Theater) input.readObject();
+					IDServer.retrieve(input);
+				}
+			} else if (journal == null || !journal.exists()) {
+				stats.record(OperationStats.RETRIEVE, start, OperationStats.NOT_FOUND);
+				persisted(event, OperationStats.RETRIEVE, binary, false);
+				return null;
+			} else {
+				theater = null;
+				instance();
+			}
+			if (journal != null) {
+				loading = true;
+				journal.replay(theater);
+				journal.open(true);
+			}
+			theater.restoreBalances();
+			theater.schedule.archiveEnded();
+			stats.record(OperationStats.RETRIEVE, start);
+			persisted(event, OperationStats.RETRIEVE, binary, true);
+			return theater;
+		} catch(IOException ioe) {	
+			System.out.println("The Theater could not be retrieved: " + ioe.getMessage());
+			if (loading) {
+				theater.clear();
+			}
+			stats.record(OperationStats.RETRIEVE, start, OperationStats.IO_ERROR);
+			persisted(event, OperationStats.RETRIEVE, binary, false);
+			return null;
+		} catch(ClassNotFoundException cnfe) {
+			stats.record(OperationStats.RETRIEVE, start, OperationStats.INVALID);
+			persisted(event, OperationStats.RETRIEVE, binary, false);
+			return null;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ioe) {
+					System.out.println("Error closing the file TheaterData");
+				}
+			}
+		}
+	}
+
+	/*
+	 * Commits a flight recorder event for a snapshot saved or retrieved, if
+	 * a recording has them turned on
+	 */
+	private static void persisted(TheaterEvents.Persistence event, int operation, boolean binary, boolean success) {
+		if (event.shouldCommit()) {
+			event.operation = OperationStats.name(operation);
+			event.format = binary ? "binary" : "serialized";
+			event.bytes = new File("TheaterData").length();
+			event.success = success;
+			event.commit();
+		}
+	}
+
+	/*
+	 * Writes the Theater and IDServer to TheaterData in the chosen format.
+	 * The data goes to a temporary file first, so a crash part way through
+	 * never leaves a damaged snapshot behind.  No changes are made while it
+	 * is written.
+	 */
+	private static boolean writeSnapshot() {
+		changeLock.writeLock().lock();
+		try {
+			if (snapshots != null) {
+				// Don't let an older background snapshot land on top of this one
+				snapshots.awaitIdle();
+			}
+			if (!writeSnapshotFile()) {
+				return false;
+			}
+			// The snapshot holds the ID counters, so they no longer need to run ahead
+			IDServer.instance().trimHighWater();
+			return true;
+		} finally {
+			changeLock.writeLock().unlock();
+		}
+	}
+
+	private static boolean writeSnapshotFile() {
+		try {
+			File temporary = new File("TheaterData.tmp");
+			if (binarySnapshots) {
+				RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+				try {
+					FileChannel channel = file.getChannel();
+					channel.truncate(0);
+					SnapshotCodec.write(theater.clients, theater.customers, theater.schedule.allShows(),
+							IDServer.instance().customerCounter(), IDServer.instance().clientCounter(), channel);
+				} finally {
+					file.close();
+				}
+			} else {
+				FileOutputStream file = new FileOutputStream(temporary);
+				ObjectOutputStream output = new ObjectOutputStream(file);
+				output.writeObject(theater);
+				output.writeObject(IDServer.instance());
+				output.flush();
+				file.getFD().sync();
+				output.close();
+			}
+			Files.move(temporary.toPath(), new File("TheaterData").toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch(IOException ioe) {
+			System.out.println("Error saving Theater");
+			return false;
+		}
+	}
+
+	/*
+	 * Returns true if changes should be journaled.  A journal that has not
+	 * been opened by retrieve() belongs to a brand new Theater, so a
+	 * checkpoint is taken first to start a fresh history.  Since that needs
+	 * the change lock exclusively, this is called before a change takes it.
+	 */
+	private static boolean journalReady() {
+		if (journal == null) {
+			return false;
+		}
+		if (!journal.isOpen()) {
+			checkpoint();
+		}
+		return journal.isOpen();
+	}
+
+	/*
+	 * Called after every change.  Compacts the journal into a new snapshot
+	 * once enough changes have built up, and starts an automatic background
+	 * snapshot when one is due.
+	 */
+	private static void changed() {
+		if (journal != null && journal.records() >= checkpointEvery) {
+			changeLock.writeLock().lock();
+			try {
+				// Another thread may have taken the checkpoint while this one waited
+				if (journal.records() >= checkpointEvery) {
+					checkpoint();
+				}
+			} finally {
+				changeLock.writeLock().unlock();
+			}
+		}
+		if (snapshots != null && snapshots.changed()) {
+			saveInBackground();
+		}
+	}
+
+	/*
+	 * Returns the lock guarding changes to the cards of a customer
+	 */
+	private static Lock customerLock(int ID) {
+		return customerLocks[ID & (customerLocks.length - 1)];
+	}
+
+	/*
+	 * Returns the lock held while a card number is claimed or given up and the
+	 * change is journaled, so the journal has the changes to one card in the
+	 * order they were made.  Taken after the customer's lock.
+	 */
+	private static Lock cardLock(String accountNumber) {
+		return cardLocks[CreditCard.normalize(accountNumber).hashCode() & (cardLocks.length - 1)];
+	}
+
+	/*
+	 * Takes the locks of all of a customer's cards, in order of stripe so two
+	 * callers can't deadlock.  Needs the customer's lock.
+	 */
+	private static List<Lock> lockCards(Customer customer) {
+		List<Lock> locked = new ArrayList<Lock>();
+		if (customer == null) {
+			return locked;
+		}
+		boolean[] needed = new boolean[cardLocks.length];
+		Iterator<CreditCard> cards = customer.listCards();
+		while (cards.hasNext()) {
+			needed[CreditCard.normalize(cards.next().getAccountNumber()).hashCode() & (cardLocks.length - 1)] = true;
+		}
+		for (int i = 0; i < cardLocks.length; i++) {
+			if (needed[i]) {
+				cardLocks[i].lock();
+				locked.add(cardLocks[i]);
+			}
+		}
+		return locked;
+	}
+
+	/*
+	 * Releases locks taken by lockCards
+	 */
+	private static void unlock(List<Lock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+	/**
+	 * Empties the Theater before a snapshot is loaded into it
+	 */
+	void clear() {
+		customers.clear();
+		clients.clear();
+		schedule.clear();
+	}
+
+	/**
+	 * Re-adds a client read from the journal or a binary snapshot, or bulk imported
+	 * @return the client with that ID
+	 */
+	Client replayAddClient(int ID, String name, String address, String phone) {
+		IDServer.instance().reserveClientID(ID);
+		Client client = clients.add(new Client(ID, name, address, phone));
+		return client != null ? client : clients.get(ID);
+	}
+
+	/**
+	 * Removes a client again while replaying the journal
+	 */
+	void replayRemoveClient(int ID) {
+		clients.remove(ID);
+	}
+
+	/**
+	 * Re-adds a customer read from the journal or a binary snapshot.  Card expiration is not
+	 * checked again, since the cards were valid when first added.
+	 */
+	void replayAddCustomer(int ID, String name, String address, String phone, String[] cardNumbers, Date[] expirations) {
+		IDServer.instance().reserveCustomerID(ID);
+		if (customers.get(ID) != null) {
+			return;
+		}
+		Customer customer = new Customer(ID, name, address, phone);
+		for (int i = 0; i < cardNumbers.length; i++) {
+			customer.restoreCard(cardNumbers[i], expirations[i]);
+		}
+		customers.add(customer);
+	}
+
+	/**
+	 * Adds a customer decoded from a binary snapshot or bulk imported
+	 */
+	void restoreCustomer(Customer customer) {
+		IDServer.instance().reserveCustomerID(customer.getID());
+		customers.add(customer);
+	}
+
+	/**
+	 * Hands the customers of a mapped snapshot to the customer list, to be
+	 * decoded as they are used
+	 */
+	void attachLazyCustomers(LazyCustomers snapshot) {
+		customers.attach(snapshot);
+	}
+
+	/**
+	 * Removes a customer again while replaying the journal
+	 */
+	void replayRemoveCustomer(int ID) {
+		customers.remove(ID);
+	}
+
+	/**
+	 * Re-adds a credit card read from the journal
+	 */
+	void replayAddCard(int customerID, String accountNumber, Date expiration) {
+		Customer customer = customers.get(customerID);
+		if (customer != null && customers.cardOwner(accountNumber) == null) {
+			customer.restoreCard(accountNumber, expiration);
+		}
+	}
+
+	/**
+	 * Removes a credit card again while replaying the journal
+	 */
+	void replayRemoveCard(int customerID, String accountNumber) {
+		Customer customer = customers.get(customerID);
+		if (customer != null) {
+			customer.removeCard(accountNumber);
+		}
+	}
+
+	/**
+	 * Re-adds a show read from the journal or a binary snapshot, or bulk imported.  A show that is already in the
+	 * snapshot conflicts with itself and is skipped.
+	 * @throws IllegalArgumentException if the dates are invalid or the show conflicts with a different show
+	 */
+	void replayAddShow(String name, Date startDate, Date endDate, int clientID) {
+		Show show = new Show(name, startDate, endDate, clientID);
+		try {
+			schedule.add(show);
+		} catch (IllegalArgumentException conflict) {
+			Show scheduled = schedule.anyShowScheduled(startDate, endDate);
+			if (scheduled == null || scheduled.getStartTime() != show.getStartTime()
+					|| scheduled.getEndTime() != show.getEndTime() || scheduled.getClientID() != clientID) {
+				throw conflict;
+			}
+		}
+	}
+
+	/**
+	 * Writes the object to the output stream
+	 * @param output the stream to be written to
+	 */
+	private void writeObject(java.io.ObjectOutputStream output) {
+		try {
+			output.defaultWriteObject();
+			output.writeObject(theater);
+		} catch(IOException ioe) {
+			System.out.println("Error serializing");
+		}
+	}
+	/**
+	 * Reads the object from a given stream
+	 * @param input the stream to be read
+	 */
+	private void readObject(java.io.ObjectInputStream input) {
+		try {
+			input.defaultReadObject();
+			if (theater == null) {
+				theater = (Theater) input.readObject();
+			} else {
+				input.readObject();
+			}
+		} catch(IOException ioe) {
+			System.out.println("Error deserializing");
+		} catch(Exception e) {
+			System.out.println("Error deserializing");
+		}
+	}
+
+
+
+
+
+}
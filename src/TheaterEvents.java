@@ -0,0 +1,114 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+/**
+ * The JDK Flight Recorder events of the Theater, so a recording can show
+ * which changes, schedule checks, card lookups and snapshots were running
+ * alongside a GC pause or slow I/O.
+ *
+ * Every event is off unless a recording turns it on, such as with the
+ * theater.jfc settings file.  While an event is off, shouldCommit() returns
+ * false straight away and its fields are never filled in, so the only cost
+ * is an object the JIT can do away with.
+ */
+public class TheaterEvents {
+
+	private TheaterEvents() {
+	}
+
+	/**
+	 * A change to the Theater: a client, customer, card or show added or
+	 * removed, a balance posted or settled, or seats sold or held
+	 */
+	@Name("theater.Mutation")
+	@Label("Theater Mutation")
+	@Category("Theater")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Mutation extends Event {
+		@Label("Operation")
+		String operation;
+
+		@Label("Entity ID")
+		@Description("The ID of the client or customer changed, or 0 if there is none")
+		int entityID;
+
+		@Label("Result")
+		@Description("none if the change was made, otherwise why it wasn't")
+		String result;
+	}
+
+	/**
+	 * A check of the Schedule for shows overlapping a range of dates
+	 */
+	@Name("theater.ScheduleConflictCheck")
+	@Label("Schedule Conflict Check")
+	@Category("Theater")
+	@Enabled(false)
+	@StackTrace(false)
+	static class ConflictCheck extends Event {
+		@Label("Range Start")
+		@Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+		long rangeStart;
+
+		@Label("Range End")
+		@Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+		long rangeEnd;
+
+		@Label("Conflict")
+		boolean conflict;
+
+		@Label("Shows")
+		@Description("The number of shows checked against, archived ones included")
+		int shows;
+	}
+
+	/**
+	 * A lookup of whether a card is on file
+	 */
+	@Name("theater.CardLookup")
+	@Label("Card Lookup")
+	@Category("Theater")
+	@Enabled(false)
+	@StackTrace(false)
+	static class CardLookup extends Event {
+		@Label("Found")
+		boolean found;
+
+		@Label("Customer ID")
+		@Description("The ID of the customer holding the card, or 0 if it isn't on file")
+		int customerID;
+	}
+
+	/**
+	 * A snapshot saved or retrieved
+	 */
+	@Name("theater.Persistence")
+	@Label("Theater Persistence")
+	@Category("Theater")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Persistence extends Event {
+		@Label("Operation")
+		String operation;
+
+		@Label("Format")
+		@Description("binary or serialized")
+		String format;
+
+		@Label("Bytes")
+		@Description("The size of TheaterData after it was written or when it was read")
+		@DataAmount(DataAmount.BYTES)
+		long bytes;
+
+		@Label("Success")
+		boolean success;
+	}
+}
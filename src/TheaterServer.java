@@ -0,0 +1,586 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP/JSON API over the Theater, for the web box office and kiosks.  It
+ * runs on the JDK's built-in HTTP server, with each request handled on a
+ * virtual thread where the JVM has them and on a bounded thread pool where it
+ * doesn't.  The Theater is safe to use from many threads, so requests are
+ * handled in parallel.  A request only gets a thread if it is within the
+ * connection limit; any more are handed to a couple of spare threads that
+ * turn them away with 503 straight away, rather than queueing them.
+ *
+ * The resources are:
+ *
+ *   GET    /clients                          list clients
+ *   POST   /clients                          add a client: name, address, phone
+ *   DELETE /clients/{id}                     remove a client
+ *   GET    /clients/{id}/shows               list a client's shows
+ *   GET    /customers                        list customers
+ *   POST   /customers                        add a customer: name, address, phone,
+ *                                              cardNumber, expiration
+ *   GET    /customers/{id}                   get a customer
+ *   DELETE /customers/{id}                   remove a customer
+ *   POST   /customers/{id}/cards             add a card: cardNumber, expiration
+ *   DELETE /customers/{id}/cards/{number}    remove a card
+ *   GET    /shows                            list shows
+ *   POST   /shows                            add a show: name, clientId, start, end
+ *
+ * The three top-level lists can be fetched a page at a time by adding
+ * ?limit=n to the request.  The page is still returned as a JSON array, and
+ * when more follow the Next-Cursor header carries a cursor to pass back as
+ * &cursor=... for the next page.
+ *
+ * Request bodies are flat JSON objects and dates are written yyyy-MM-dd.
+ * Errors are returned as {"error": "..."} with status 400 for bad input,
+ * 404 for unknown IDs, 409 when the Theater refuses the change and 503 when
+ * the server is already handling as many requests as it is allowed to.
+ */
+public class TheaterServer {
+
+	private static final int MAX_BODY = 64 * 1024;
+	private static final int SPARE_THREADS = 2;
+
+	// Set on the spare threads while they handle a request over the limit
+	private static final ThreadLocal<Boolean> overLimit = new ThreadLocal<Boolean>();
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ExecutorService spare;
+	private final Semaphore permits;
+
+	/**
+	 * Creates the server, without starting it.  The request timeout and the
+	 * connection limit are passed to the JDK server through its system
+	 * properties, which it reads when the first server is created, unless
+	 * they have already been set on the command line.
+	 * @param host the address to listen on, such as 127.0.0.1 for local clients only
+	 * @param port the port to listen on, or 0 for any free port
+	 * @param maxConnections how many requests may be handled at once; further
+	 *   requests are turned away with 503.  Unless set on the command line it
+	 *   is also the JDK server's connection limit, over which it closes new
+	 *   connections without a response.
+	 * @param timeoutSeconds how long a client has to send its request, and to
+	 *   read the response, before its connection is closed
+	 * @throws IOException if the port cannot be opened
+	 */
+	public TheaterServer(String host, int port, int maxConnections, int timeoutSeconds) throws IOException {
+		if (maxConnections < 1 || timeoutSeconds < 1) {
+			throw new IllegalArgumentException("The connection limit and timeout must be positive");
+		}
+		setDefault("sun.net.httpserver.maxReqTime", timeoutSeconds);
+		setDefault("sun.net.httpserver.maxRspTime", timeoutSeconds);
+		setDefault("sun.net.httpserver.idleInterval", timeoutSeconds);
+		setDefault("jdk.httpserver.maxConnections", maxConnections);
+		permits = new Semaphore(maxConnections);
+		executor = newExecutor(maxConnections);
+		spare = newPool(SPARE_THREADS, new ArrayBlockingQueue<Runnable>(maxConnections), "theater-http-busy");
+		server = HttpServer.create(new InetSocketAddress(host, port), maxConnections);
+		server.setExecutor(new Executor() {
+			@Override
+			public void execute(Runnable exchange) {
+				admit(exchange);
+			}
+		});
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+	}
+
+	/**
+	 * Starts accepting requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits for the ones being handled to finish
+	 * @param delaySeconds the longest to wait for requests being handled
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+		spare.shutdown();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/*
+	 * Takes a permit before a request is handed to a thread, so requests over
+	 * the limit never wait behind the ones being handled.  Those go to the
+	 * spare threads, and if even their queue is full the JDK server is told
+	 * the request was rejected and drops the connection.
+	 */
+	private void admit(final Runnable exchange) {
+		if (permits.tryAcquire()) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							exchange.run();
+						} finally {
+							permits.release();
+						}
+					}
+				});
+			} catch (RuntimeException rejected) {
+				permits.release();
+				throw rejected;
+			}
+		} else {
+			spare.execute(new Runnable() {
+				@Override
+				public void run() {
+					overLimit.set(Boolean.TRUE);
+					try {
+						exchange.run();
+					} finally {
+						overLimit.remove();
+					}
+				}
+			});
+		}
+	}
+
+	/*
+	 * Handles one request, or turns it away if it is over the connection limit
+	 */
+	private void serve(HttpExchange exchange) throws IOException {
+		boolean aborted = false;
+		try {
+			if (overLimit.get() != null) {
+				respond(exchange, 503, error("Too many requests"));
+				return;
+			}
+			try {
+				route(exchange);
+			} catch (IllegalArgumentException badRequest) {
+				respond(exchange, 400, error(badRequest.getMessage()));
+			} catch (RuntimeException failure) {
+				respond(exchange, 500, error("Internal error"));
+			} catch (ResponseAborted abort) {
+				aborted = true;
+				throw abort;
+			}
+		} finally {
+			// Closing an aborted exchange would end its body as if it were whole
+			if (!aborted) {
+				exchange.close();
+			}
+		}
+	}
+
+	private void route(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String[] path = exchange.getRequestURI().getRawPath().replaceAll("^/+|/+$", "").split("/+");
+		Theater theater = Theater.instance();
+		if (path[0].equals("clients")) {
+			if (path.length == 1 && method.equals("GET")) {
+				String limit = query(exchange, "limit");
+				if (limit == null) {
+					listClients(exchange, theater.listClients());
+				} else {
+					Page<Client> page = theater.listClients(query(exchange, "cursor"), number(limit));
+					nextCursor(exchange, page);
+					listClients(exchange, page.getItems().iterator());
+				}
+			} else if (path.length == 1 && method.equals("POST")) {
+				Map<String, String> body = readBody(exchange);
+				Client client = theater.addClient(required(body, "name"), required(body, "address"),
+						required(body, "phone"));
+				if (client == null) {
+					respond(exchange, 409, error("The client could not be added"));
+				} else {
+					respond(exchange, 201, client(client));
+				}
+			} else if (path.length == 2 && method.equals("DELETE")) {
+				int clientID = number(path[1]);
+				Client client = theater.removeClient(clientID);
+				if (client != null) {
+					respond(exchange, 200, client(client));
+				} else if (Schedule.instance().scheduled(clientID)) {
+					respond(exchange, 409, error("The client has shows scheduled"));
+				} else {
+					respond(exchange, 404, error("No client with ID " + clientID));
+				}
+			} else if (path.length == 3 && path[2].equals("shows") && method.equals("GET")) {
+				listShows(exchange, theater.listShows(number(path[1])));
+			} else {
+				notFound(exchange, method, path);
+			}
+		} else if (path[0].equals("customers")) {
+			if (path.length == 1 && method.equals("GET")) {
+				String limit = query(exchange, "limit");
+				if (limit == null) {
+					listCustomers(exchange, theater.listCustomers());
+				} else {
+					Page<Customer> page = theater.listCustomers(query(exchange, "cursor"), number(limit));
+					nextCursor(exchange, page);
+					listCustomers(exchange, page.getItems().iterator());
+				}
+			} else if (path.length == 1 && method.equals("POST")) {
+				Map<String, String> body = readBody(exchange);
+				String cardNumber = required(body, "cardNumber");
+				Date expiration = date(required(body, "expiration"));
+				Customer customer;
+				try {
+					customer = theater.addCustomer(required(body, "name"), required(body, "address"),
+							required(body, "phone"), cardNumber, expiration);
+				} catch (IllegalArgumentException expired) {
+					respond(exchange, 400, error("The credit card has already expired"));
+					return;
+				}
+				if (customer == null) {
+					respond(exchange, 409, error("Card is already on file"));
+				} else {
+					respond(exchange, 201, customer(customer));
+				}
+			} else if (path.length == 2 && method.equals("GET")) {
+				Customer customer = theater.getCustomer(number(path[1]));
+				if (customer == null) {
+					respond(exchange, 404, error("No customer with ID " + path[1]));
+				} else {
+					respond(exchange, 200, customer(customer));
+				}
+			} else if (path.length == 2 && method.equals("DELETE")) {
+				Customer customer = theater.removeCustomer(number(path[1]));
+				if (customer == null) {
+					respond(exchange, 404, error("No customer with ID " + path[1]));
+				} else {
+					respond(exchange, 200, customer(customer));
+				}
+			} else if (path.length == 3 && path[2].equals("cards") && method.equals("POST")) {
+				int customerID = number(path[1]);
+				Map<String, String> body = readBody(exchange);
+				String cardNumber = required(body, "cardNumber");
+				Date expiration = date(required(body, "expiration"));
+				if (theater.getCustomer(customerID) == null) {
+					respond(exchange, 404, error("No customer with ID " + customerID));
+					return;
+				}
+				Customer customer = theater.addCreditCard(customerID, cardNumber, expiration);
+				if (customer == null) {
+					respond(exchange, 409, error("The card is already on file or has expired"));
+				} else {
+					respond(exchange, 201, customer(customer));
+				}
+			} else if (path.length == 4 && path[2].equals("cards") && method.equals("DELETE")) {
+				int customerID = number(path[1]);
+				if (theater.getCustomer(customerID) == null) {
+					respond(exchange, 404, error("No customer with ID " + customerID));
+					return;
+				}
+				CreditCard card = theater.removeCreditCard(customerID, URLDecoder.decode(path[3], "UTF-8"));
+				if (card == null) {
+					respond(exchange, 409, error("The card was not found or is the customer's only card"));
+				} else {
+					respond(exchange, 200, card(card));
+				}
+			} else {
+				notFound(exchange, method, path);
+			}
+		} else if (path[0].equals("shows")) {
+			if (path.length == 1 && method.equals("GET")) {
+				String limit = query(exchange, "limit");
+				if (limit == null) {
+					listShows(exchange, theater.listShows());
+				} else {
+					Page<Show> page = theater.listShows(query(exchange, "cursor"), number(limit));
+					nextCursor(exchange, page);
+					listShows(exchange, page.getItems().iterator());
+				}
+			} else if (path.length == 1 && method.equals("POST")) {
+				Map<String, String> body = readBody(exchange);
+				String name = required(body, "name");
+				int clientID = number(required(body, "clientId"));
+				Date start = date(required(body, "start"));
+				Date end = date(required(body, "end"));
+				if (!start.before(end)) {
+					throw new IllegalArgumentException("The show must start before it ends");
+				}
+				Show show;
+				try {
+					show = theater.addShow(name, start, end, clientID);
+				} catch (IllegalArgumentException conflict) {
+					respond(exchange, 409, error(conflict.getMessage()));
+					return;
+				}
+				if (show == null) {
+					respond(exchange, 404, error("No client with ID " + clientID));
+				} else {
+					respond(exchange, 201, show(show));
+				}
+			} else {
+				notFound(exchange, method, path);
+			}
+		} else {
+			notFound(exchange, method, path);
+		}
+	}
+
+	private void notFound(HttpExchange exchange, String method, String[] path) throws IOException {
+		respond(exchange, 404, error("No such resource: " + method + " /" + String.join("/", path)));
+	}
+
+	/*
+	 * The lists are written one entity at a time as they are iterated, so a
+	 * long list is never built up in memory.  By then the 200 has been sent,
+	 * so a failure part way through can't be answered with an error; the
+	 * exchange is aborted instead, leaving the client a broken response
+	 * rather than a short list that looks whole.
+	 */
+	private void listClients(HttpExchange exchange, Iterator<Client> clients) throws IOException {
+		Writer output = startList(exchange);
+		try {
+			while (clients.hasNext()) {
+				output.write(client(clients.next()));
+				if (clients.hasNext()) {
+					output.write(',');
+				}
+			}
+		} catch (RuntimeException failure) {
+			throw new ResponseAborted(failure);
+		}
+		endList(output);
+	}
+
+	private void listCustomers(HttpExchange exchange, Iterator<Customer> customers) throws IOException {
+		Writer output = startList(exchange);
+		try {
+			while (customers.hasNext()) {
+				output.write(customer(customers.next()));
+				if (customers.hasNext()) {
+					output.write(',');
+				}
+			}
+		} catch (RuntimeException failure) {
+			throw new ResponseAborted(failure);
+		}
+		endList(output);
+	}
+
+	private void listShows(HttpExchange exchange, Iterator<Show> shows) throws IOException {
+		Writer output = startList(exchange);
+		try {
+			while (shows.hasNext()) {
+				output.write(show(shows.next()));
+				if (shows.hasNext()) {
+					output.write(',');
+				}
+			}
+		} catch (RuntimeException failure) {
+			throw new ResponseAborted(failure);
+		}
+		endList(output);
+	}
+
+	/*
+	 * Thrown out of the handler once a response has been started, so the JDK
+	 * server closes the connection without ending the response body
+	 */
+	private static class ResponseAborted extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		ResponseAborted(Throwable cause) {
+			super("The response was aborted part way through", cause);
+		}
+	}
+
+	private static void nextCursor(HttpExchange exchange, Page<?> page) {
+		if (page.hasMore()) {
+			exchange.getResponseHeaders().set("Next-Cursor", page.getNextCursor());
+		}
+	}
+
+	/*
+	 * Returns a parameter from the query string, or null if it is not there
+	 */
+	private static String query(HttpExchange exchange, String name) throws IOException {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			String key = equals < 0 ? parameter : parameter.substring(0, equals);
+			if (URLDecoder.decode(key, "UTF-8").equals(name)) {
+				return equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private Writer startList(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		// A length of 0 sends the body chunked
+		exchange.sendResponseHeaders(200, 0);
+		Writer output = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+		output.write('[');
+		return output;
+	}
+
+	private void endList(Writer output) throws IOException {
+		output.write(']');
+		output.flush();
+	}
+
+	private static String client(Client client) {
+		return "{\"id\":" + client.getID() + ",\"name\":" + Json.quote(client.getName())
+				+ ",\"address\":" + Json.quote(client.getAddress()) + ",\"phone\":" + Json.quote(client.getPhone())
+				+ ",\"balance\":" + client.getBalance() + "}";
+	}
+
+	private static String customer(Customer customer) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"id\":").append(customer.getID());
+		json.append(",\"name\":").append(Json.quote(customer.getName()));
+		json.append(",\"address\":").append(Json.quote(customer.getAddress()));
+		json.append(",\"phone\":").append(Json.quote(customer.getPhone()));
+		json.append(",\"cards\":[");
+		Iterator<CreditCard> cards = customer.listCards();
+		while (cards.hasNext()) {
+			json.append(card(cards.next()));
+			if (cards.hasNext()) {
+				json.append(',');
+			}
+		}
+		return json.append("]}").toString();
+	}
+
+	private static String card(CreditCard card) {
+		return "{\"cardNumber\":" + Json.quote(card.getAccountNumber()) + ",\"expiration\":\""
+				+ format(card.getExpirationTime()) + "\"}";
+	}
+
+	private static String show(Show show) {
+		return "{\"name\":" + Json.quote(show.getName()) + ",\"clientId\":" + show.getClientID()
+				+ ",\"start\":\"" + format(show.getStartTime()) + "\",\"end\":\"" + format(show.getEndTime()) + "\"}";
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + Json.quote(message == null ? "Bad request" : message) + "}";
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+		InputStream input = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = input.read(buffer)) > 0) {
+			body.write(buffer, 0, read);
+			if (body.size() > MAX_BODY) {
+				throw new IllegalArgumentException("The request body is too large");
+			}
+		}
+		return Json.parseObject(new String(body.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private static String required(Map<String, String> body, String name) {
+		String value = body.get(name);
+		if (value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Missing " + name);
+		}
+		return value;
+	}
+
+	private static int number(String text) {
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Not a number: " + text);
+		}
+	}
+
+	private static Date date(String text) {
+		try {
+			return Date.from(LocalDate.parse(text).atStartOfDay(ZoneId.systemDefault()).toInstant());
+		} catch (DateTimeParseException dtpe) {
+			throw new IllegalArgumentException("Not a yyyy-MM-dd date: " + text);
+		}
+	}
+
+	private static String format(long time) {
+		return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate().toString();
+	}
+
+	private static void setDefault(String property, int value) {
+		if (System.getProperty(property) == null) {
+			System.setProperty(property, Integer.toString(value));
+		}
+	}
+
+	/*
+	 * Uses a virtual thread per request where the JVM supports them, found by
+	 * reflection so the code still compiles and runs on older JVMs, which get
+	 * a pool of daemon threads no larger than the connection limit instead.
+	 * Only requests holding a permit are handed to it, so the pool's queue
+	 * holds at most the requests over 256 within the limit.
+	 */
+	private static ExecutorService newExecutor(int maxConnections) {
+		try {
+			return (ExecutorService) java.util.concurrent.Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException noVirtualThreads) {
+			return newPool(Math.min(maxConnections, 256), new LinkedBlockingQueue<Runnable>(), "theater-http");
+		}
+	}
+
+	private static ExecutorService newPool(int threads, BlockingQueue<Runnable> queue,
+			final String name) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, name);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+}
@@ -0,0 +1,242 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the seats sold by the BoxOffice.  Unlike the Journal
+ * it is never emptied by a checkpoint, since sales are not part of the
+ * snapshot: the log is the record of every seat sold.  Each seat sold is one
+ * fixed size record:
+ *
+ *   long show start, long performance day, int seat, int customer ID, int CRC32
+ *
+ * A seat that is taken back after its sale is written the same way with the
+ * customer ID as ~ID, a negative number, and is freed again on replay.
+ *
+ * A sale of several seats is written as a run of records in one write.  Every
+ * record but the last of a sale holds the seat as ~seat, a negative number,
+ * so a sale only counts once its last record is in the file.  Logs written
+ * before sales were framed hold only last records, one seat to a sale.
+ *
+ * Every sale is handed to the operating system as it is written, so it
+ * survives the process dying, and the file is forced to disk every syncEvery
+ * sales.  If a sale cannot be written whole, what was written of it is cut
+ * off the file again; if even that fails the log is closed, and replay cuts
+ * it off instead.  An unfinished sale at the end of the file is dropped.
+ */
+public class TicketLog {
+
+	private static final int RECORD_LENGTH = 28;
+
+	private final File file;
+	private final int syncEvery;
+	private FileOutputStream fileStream;
+	private byte[] record = new byte[RECORD_LENGTH];
+	private final CRC32 crc = new CRC32();
+	private int unsynced;
+	private long length; // the end of the last sale written whole
+
+	/**
+	 * Creates a log on a file.  Nothing is opened until open() is called.
+	 * @param fileName the name of the log file
+	 * @param syncEvery how many sales may be written before the file is forced to disk
+	 */
+	public TicketLog(String fileName, int syncEvery) {
+		if (syncEvery < 1) {
+			throw new IllegalArgumentException("syncEvery must be at least 1");
+		}
+		this.file = new File(fileName);
+		this.syncEvery = syncEvery;
+	}
+
+	/**
+	 * Opens the log for appending
+	 * @throws IOException if the file cannot be opened
+	 */
+	public synchronized void open() throws IOException {
+		close();
+		fileStream = new FileOutputStream(file, true);
+		length = fileStream.getChannel().size();
+		unsynced = 0;
+	}
+
+	/**
+	 * Records the seats of one sale, all or none of them
+	 * @param showStart the start of the show in milliseconds since the epoch
+	 * @param day the day of the performance, counted from the epoch
+	 * @param seats the seat numbers
+	 * @param customerID the ID of the customer who bought them
+	 * @throws IOException if the sale cannot be written
+	 */
+	public synchronized void sold(long showStart, long day, int[] seats, int customerID) throws IOException {
+		write(showStart, day, seats, customerID);
+	}
+
+	/**
+	 * Records that the seats of a sale were taken back, all or none of them
+	 * @param showStart the start of the show in milliseconds since the epoch
+	 * @param day the day of the performance, counted from the epoch
+	 * @param seats the seat numbers
+	 * @param customerID the ID of the customer who bought them
+	 * @throws IOException if the refund cannot be written
+	 */
+	public synchronized void refunded(long showStart, long day, int[] seats, int customerID) throws IOException {
+		write(showStart, day, seats, ~customerID);
+	}
+
+	/*
+	 * Writes the records of one sale or refund
+	 */
+	private void write(long showStart, long day, int[] seats, int customerID) throws IOException {
+		if (fileStream == null) {
+			throw new IOException("The ticket log is not open");
+		}
+		if (record.length < seats.length * RECORD_LENGTH) {
+			record = new byte[seats.length * RECORD_LENGTH];
+		}
+		for (int i = 0; i < seats.length; i++) {
+			int offset = i * RECORD_LENGTH;
+			putLong(offset, showStart);
+			putLong(offset + 8, day);
+			putInt(offset + 16, i == seats.length - 1 ? seats[i] : ~seats[i]);
+			putInt(offset + 20, customerID);
+			crc.reset();
+			crc.update(record, offset, 24);
+			putInt(offset + 24, (int) crc.getValue());
+		}
+		try {
+			fileStream.write(record, 0, seats.length * RECORD_LENGTH);
+		} catch (IOException ioe) {
+			cutOffUnfinishedSale();
+			throw ioe;
+		}
+		length += seats.length * RECORD_LENGTH;
+		if (++unsynced >= syncEvery) {
+			fileStream.getChannel().force(false);
+			unsynced = 0;
+		}
+	}
+
+	/*
+	 * Truncates the file to the last sale written whole, or closes the log if it can't
+	 */
+	private void cutOffUnfinishedSale() {
+		try {
+			fileStream.getChannel().truncate(length);
+		} catch (IOException ioe) {
+			try {
+				fileStream.close();
+			} catch (IOException ignored) {
+				// Already failing
+			}
+			fileStream = null;
+		}
+	}
+
+	/**
+	 * Forces any sales not yet on disk out and closes the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void close() throws IOException {
+		if (fileStream != null) {
+			if (unsynced > 0) {
+				fileStream.getChannel().force(false);
+			}
+			fileStream.close();
+			fileStream = null;
+		}
+	}
+
+	/**
+	 * Marks every complete sale in the log as sold in the box office, and
+	 * frees the seats of every refund.  A torn
+	 * or corrupt record ends the replay, and it and any unfinished sale before
+	 * it are cut off the file.
+	 * @param boxOffice the box office to restore the sales to
+	 * @return the number of seats replayed
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized int replay(BoxOffice boxOffice) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		int replayed = 0;
+		long goodLength = 0;
+		List<Integer> pending = new ArrayList<Integer>();
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			long read = 0;
+			while (true) {
+				try {
+					input.readFully(record, 0, RECORD_LENGTH);
+				} catch (EOFException endOfLog) {
+					break;
+				}
+				read += RECORD_LENGTH;
+				crc.reset();
+				crc.update(record, 0, 24);
+				if ((int) crc.getValue() != getInt(24)) {
+					break;
+				}
+				int seat = getInt(16);
+				if (seat < 0) {
+					pending.add(~seat);
+					continue;
+				}
+				// The last record of a sale; the seats before it are of the same sale
+				boolean refund = getInt(20) < 0;
+				pending.add(seat);
+				for (int each : pending) {
+					if (refund) {
+						boxOffice.restoreRefund(getLong(0), getLong(8), each);
+					} else {
+						boxOffice.restoreSale(getLong(0), getLong(8), each);
+					}
+				}
+				replayed += pending.size();
+				pending.clear();
+				goodLength = read;
+			}
+		} finally {
+			input.close();
+		}
+		if (goodLength < file.length()) {
+			RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+			try {
+				truncate.setLength(goodLength);
+			} finally {
+				truncate.close();
+			}
+		}
+		return replayed;
+	}
+
+	private void putLong(int offset, long value) {
+		putInt(offset, (int) (value >>> 32));
+		putInt(offset + 4, (int) value);
+	}
+
+	private void putInt(int offset, int value) {
+		record[offset] = (byte) (value >>> 24);
+		record[offset + 1] = (byte) (value >>> 16);
+		record[offset + 2] = (byte) (value >>> 8);
+		record[offset + 3] = (byte) value;
+	}
+
+	private long getLong(int offset) {
+		return ((long) getInt(offset) << 32) | (getInt(offset + 4) & 0xFFFFFFFFL);
+	}
+
+	private int getInt(int offset) {
+		return ((record[offset] & 0xFF) << 24) | ((record[offset + 1] & 0xFF) << 16)
+				| ((record[offset + 2] & 0xFF) << 8) | (record[offset + 3] & 0xFF);
+	}
+}
@@ -1,513 +1,1021 @@
-/**
- * 
- * @author Brahma Dathan, Sarnath Ramnath, and Dan Hanson (Modifying)
- * @Copyright (c) 2010
- 
- * Redistribution and use with or without
- * modification, are permitted provided that the following conditions
- * are met:
- *
- *   - the use is for academic purpose only
- *   - Redistributions of source code must retain the above copyright
- *     notice, this list of conditions and the following disclaimer.
- *   - Neither the name of Brahma Dathan or Sarnath Ramnath
- *     may be used to endorse or promote products derived
- *     from this software without specific prior written permission.
- *
- * The authors do not make any claims regarding the correctness of the code in this module
- * and are not responsible for any loss or damage resulting from its use.  
- */
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
-import java.util.Iterator;
-import java.util.StringTokenizer;
-
-/**
- * 
- * This class implements the user interface for the Theater project. The
- * commands are encoded as integers using a number of static final variables. A
- * number of utility methods exist to make it easier to parse the input.
- * 
- */
-public class UserInterface {
-    private static UserInterface userInterface;
-    private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-    private static Theater theater;
-    private static boolean changesMade = false;
-    private static final int EXIT = 0;
-    private static final int ADD_CLIENT = 1;
-    private static final int REMOVE_CLIENT = 2;
-    private static final int LIST_CLIENTS = 3;
-    private static final int ADD_CUSTOMER = 4;
-    private static final int REMOVE_CUSTOMER = 5;
-    private static final int ADD_CREDIT_CARD = 6;
-    private static final int REMOVE_CREDIT_CARD = 7;
-    private static final int LIST_CUSTOMERS = 8;
-    private static final int ADD_SHOW = 9;
-    private static final int LIST_SHOWS = 10;
-    private static final int SAVE = 11;
-    private static final int RETRIEVE = 12;
-    private static final int HELP = 13;
-    
-    private static final String newLine = System.lineSeparator();
-
-    /**
-     * Made private for singleton pattern. Conditionally looks for any saved
-     * data Otherwise, it gets a singleton Theater object.
-     */
-    private UserInterface() {
-		if (yesOrNo("Look for saved data and use it?")) {
-		    retrieve();
-		} else {
-		    theater = Theater.instance();
-	
-		}
-    }
-
-    /**
-     * Supports the singleton pattern
-     * 
-     * @return the singleton object
-     */
-    public static UserInterface instance() {
-		if (userInterface == null) {
-		    return userInterface = new UserInterface();
-		} else {
-		    return userInterface;
-		}
-    }
-
-    /**
-     * Gets a token after prompting
-     * 
-     * @param prompt - whatever the user wants as prompt
-     * @return - the token from the keyboard
-     * 
-     */
-    private String getToken(String prompt) {
-		do {
-		    try {
-				System.out.println(prompt);
-				String line = reader.readLine();
-				StringTokenizer tokenizer = new StringTokenizer(line, "\r\f");
-				if (tokenizer.hasMoreTokens()) {
-				    return tokenizer.nextToken();
-				}
-		    } catch (IOException inputOutputException) {
-		    	System.exit(0);
-		    }
-		} while (true);
-    }
-
-    /**
-     * Queries for a yes or no and returns true for yes and false for no
-     * 
-     * @param prompt The string to be prepended to the yes/no prompt
-     * @return true for yes and false for no
-     * 
-     */
-    private boolean yesOrNo(String prompt) {
-		String more = getToken(prompt + " (Y|y)[es] or anything else for no");
-		if (more.charAt(0) != 'y' && more.charAt(0) != 'Y') {
-		    return false;
-		}
-		return true;
-    }
-
-    /**
-     * Converts the string to a number
-     * 
-     * @param prompt the string for prompting
-     * @return the integer corresponding to the string
-     * 
-     */
-    private int getNumber(String prompt) {
-		do {
-		    try {
-				String item = getToken(prompt);
-				Integer number = Integer.valueOf(item);
-				return number.intValue();
-		    } catch (NumberFormatException numberFormatExcecption) {
-		    	System.out.println("Please input a number ");
-		    }
-		} while (true);
-    }
-
-    /**
-     * Prompts for a date and gets a date object
-     * 
-     * @param prompt the prompt
-     * @return the data as a Calendar object
-     */
-    private Calendar getDate(String prompt) {
-		do {
-		    try {
-				Calendar date = new GregorianCalendar();
-				String item = getToken(prompt);
-				DateFormat dateFormat = SimpleDateFormat.getDateInstance(DateFormat.SHORT);
-				date.setTime(dateFormat.parse(item));
-				return date;
-		    } catch (Exception exception) {
-		    	System.out.println("Please input a date as MM/DD/YY");
-		    }
-		} while (true);
-    }
-
-    /**
-     * Prompts for a command from the keyboard
-     * 
-     * @return a valid command
-     * 
-     */
-    private int getCommand() {
-		do {
-		    try {
-				int value = Integer.parseInt(getToken(newLine + "Enter command:" + HELP + " for help"));
-				if (value >= EXIT && value <= HELP) {
-				    return value;
-				}
-		    } catch (NumberFormatException nfe) {
-		    	System.out.println("Enter a valid number");
-		    }
-		} while (true);
-    }
-
-    /**
-     * Displays the help screen
-     * 
-     */
-    private void help() {
-	System.out
-		.println("Enter a number between 0 and 13 as explained below:");
-	System.out.println(EXIT + " to Exit");
-	System.out.println(ADD_CLIENT + " to add a client");
-	System.out.println(REMOVE_CLIENT + " to remove a client");
-	System.out.println(LIST_CLIENTS + " to list all clients");
-	System.out.println(ADD_CUSTOMER + " to add a customer");
-	System.out.println(REMOVE_CUSTOMER + " to remove a customer");
-	System.out.println(ADD_CREDIT_CARD + " to add a credit card");
-	System.out.println(REMOVE_CREDIT_CARD + " to remove a credit card");
-	System.out.println(LIST_CUSTOMERS + " to list all customers");
-	System.out.println(ADD_SHOW + " to add a show");
-	System.out.println(LIST_SHOWS + " to list all shows");
-	System.out.println(SAVE + " to save data");
-	System.out.println(RETRIEVE + " to  retrieve data");
-	System.out.println(HELP + " for help");
-    }
-
-    /**
-     * Method to be called for saving the Theater object. Uses the appropriate
-     * Theater method for saving.
-     * 
-     */
-    private void save() {
-		if (Theater.save()) {
-		    System.out.println(" The Theater has been successfully saved in the file TheaterData");
-		} else {
-		    System.out.println(" There has been an error in saving");
-		}
-    }
-
-    /**
-     * Method to be called for retrieving saved data. Uses the appropriate
-     * Theater method for retrieval.
-     * 
-     */
-    private void retrieve() {
-		if (!changesMade) {
-		    try {
-				Theater tempTheater = Theater.retrieve();
-				if (tempTheater != null) {
-				    System.out.println("The Theater has been successfully retrieved from the file TheaterData");
-				    theater = tempTheater;
-				} else {
-				    System.out.println("File doesn't exist; creating new Theater");
-				    theater = Theater.instance();
-				}
-		    } catch (Exception missingClassException) {
-		    	System.out.println("Class Not Found Exception");
-		    }
-		} else {
-			System.out.println("You cannot retrieve data once changes to the current data model have been made");
-		}
-    }
-
-    /**
-     * Orchestrates the whole process. Calls the appropriate method for the
-     * different functionalities.
-     * 
-     */
-    private void process() {
-		int command;
-		help();
-		while ((command = getCommand()) != EXIT) {
-		    switch (command) {
-	
-			    case ADD_CLIENT:
-				addClient();
-				break;
-		
-			    case REMOVE_CLIENT:
-				removeClient();
-				break;
-		
-			    case LIST_CLIENTS:
-				listClients();
-				break;
-		
-			    case ADD_CUSTOMER:
-				addCustomer();
-				break;
-		
-			    case REMOVE_CUSTOMER:
-				removeCustomer();
-				break;
-		
-			    case ADD_CREDIT_CARD:
-				addCreditCard();
-				break;
-		
-			    case REMOVE_CREDIT_CARD:
-				removeCreditCard();
-				break;
-		
-			    case LIST_CUSTOMERS:
-				listCustomers();
-				break;
-		
-			    case ADD_SHOW:
-				addShow();
-				break;
-		
-			    case LIST_SHOWS:
-				listShows();
-				break;
-		
-			    case SAVE:
-				save();
-				break;
-		
-			    case RETRIEVE:
-				retrieve();
-				break;
-		
-			    case HELP:
-				help();
-				break;
-		    }
-		}
-        save();
-    }
-
-    /**
-     * Method to be called for adding a client. Prompts the user for the
-     * appropriate values and uses the appropriate Theater method for adding the
-     * client.
-     * 
-     */
-    private void addClient() {
-		String name = getToken("Enter client name:");
-		String address = getToken("Enter address:");
-		String phone = getToken("Enter phone number:");
-		
-		Client result = theater.addClient(name, address, phone);
-		if (result == null) {
-		    System.out.println("Could not add client");
-		} else {
-		    changesMade = true;
-		    System.out.println("The following client was added to the system:" + newLine + result);
-		}
-    }
-
-    /**
-     * Method to be called for Removing a client. Prompts the user for a client
-     * ID to remove from the system and removes the client with the
-     * corresponding client ID if it exists in the system
-     */
-    private void removeClient() {
-		int clientID = getNumber("Enter client ID:");
-		Client result = theater.removeClient(clientID);
-		if (result == null) {
-		    System.out.println("Client currently has a show scheduled or no clients with that ID");
-		} else {
-		    changesMade = true;
-		    System.out.println("The following client was removed:\n" + result);
-		}
-    }
-
-    /**
-     * Method to be called for listing all clients. Displays all of the
-     * theater's clients along with the clients' IDs, names, addresses, phone
-     * numbers, and balances.
-     */
-    private void listClients() {
-		Iterator<Client> iterator = theater.listClients();
-		System.out.println("Clients:");
-		while (iterator.hasNext()) {
-		    System.out.println(iterator.next());
-		}
-    }
-
-    /**
-     * Method to be called for adding a customer. Prompts the user for name,
-     * address, phone number, credit card number, and card expiration date
-     */
-    private void addCustomer() {
-
-		String name = getToken("Enter the customer's name:");
-		String address = getToken("Enter the customer's address:");
-		String phoneNumber = getToken("Enter the customer's phone number:");
-		String cardNumber = getToken("Enter the customer's credit card number:");
-		Calendar expirationDate = getDate("Enter the expiration date:");
-		
-		try {
-			Customer result = theater.addCustomer(name, address, phoneNumber, cardNumber, expirationDate.getTime());
-			if (result == null) {
-			    System.out.println("The customer could not be added to the system");
-			} else {
-			    changesMade = true;
-			    System.out.println("The following customer was added to the system:" + newLine + result);
-			}
-		} catch (IllegalArgumentException e) {
-			System.out.println(e.getMessage());
-		}
-    }
-
-    /**
-     * Method to be called for removing a customer from the system. Prompts the
-     * user for a customer ID to remove from the system and removes a customer
-     * with matching customer ID if it exists in the system
-     */
-    private void removeCustomer() {
-		int customerID = getNumber("Enter customer ID:");
-		Customer result = theater.removeCustomer(customerID);
-		if (result == null) {
-		    System.out.println("No customers with that ID");
-		} else {
-		    changesMade = true;
-		    System.out.println("The following customer was removed:\n" + result);
-		}
-    }
-
-    /**
-     * Method to be called for adding a customer credit card. Prompts user for
-     * customer ID and attempts to retrieve that customer. If the customer is
-     * found system asks the user to confirm it is the correct customer and then
-     * prompts the user for credit card number and expiration date
-     */
-    private void addCreditCard() {
-		int customerID = getNumber("Enter the customer ID:");
-		Customer result = theater.getCustomer(customerID);
-		if (result == null) {
-		    System.out.println("No customers with that ID");
-		} else {
-		    boolean correctCustomer = yesOrNo("Is this the correct customer?" + newLine + result + newLine);
-		    if (correctCustomer) {
-				String accountNumber = getToken("Enter the credit card number:");
-				Calendar expirationDate = getDate("Enter the expiration date as MM/DD/YY:");
-				// conform to MM/YY format
-				expirationDate.set(Calendar.DAY_OF_MONTH, 1);
-				result = theater.addCreditCard(customerID, accountNumber, expirationDate.getTime());
-				if (result == null) {
-				    System.out.println("Credit card could not be added");
-				} else {
-				    changesMade = true;
-				    System.out.println("Credit card successfully added:" + newLine + result);
-				}
-		    }
-		}
-    }
-
-    /**
-     * Method for removing a customer's credit card. Prompts user for customer
-     * ID and retrieves customer associated with that ID. System asks user to
-     * confirm the correct customer has been found and prompts for credit card
-     * number and date. The system attempts to remove the card, if there is more
-     * than one card on file for the user.
-     */
-    private void removeCreditCard() {
-		int customerID = getNumber("Enter the customer ID:");
-		Customer result = theater.getCustomer(customerID);
-		if (result == null) {
-		    System.out.println("No customers with that ID");
-		} else {
-		    boolean confirmation = yesOrNo("Is this the correct customer?\n" + result);
-		    if (confirmation) {
-				String accountNumber = getToken("Enter the credit card number to be removed:");
-				CreditCard removedCard = theater.removeCreditCard(customerID,accountNumber);
-				if (removedCard == null) {
-				    System.out.println("There was an error, the card was not removed. Is this the only card on file?");
-				} else {
-				    changesMade = true;
-				    System.out.println("the following card was removed successfully:" + newLine + removedCard);
-				}
-		    }
-		}
-    }
-
-    /**
-     * Method for listing all customers. Lists all of the customers and their
-     * information.
-     */
-    private void listCustomers() {
-		Iterator<Customer> iterator = theater.listCustomers();
-		System.out.println("Customers:");
-		while (iterator.hasNext()) {
-		    System.out.println(iterator.next());
-		}
-    }
-
-    /**
-     * Method for adding a show. Prompts the user for a client ID, show name,
-     * start date, and end date. The system attempts to add the show for the
-     * given duration.
-     */
-    private void addShow() {
-		int clientID = getNumber("Enter the client ID:");
-		String name = getToken("Enter the name of the show:");
-		Calendar startDate = getDate("Enter your desired start date as MM/DD/YY:");
-		Calendar endDate = getDate("Enter your desired end date as MM/DD/YY:");
-		while (startDate.after(endDate)) {
-		    System.out.println("Start date must be before end date");
-		    startDate = getDate("Enter your desired start date as MM/DD/YY:");
-		    endDate = getDate("Enter your desired end date as MM/DD/YY:");
-		}
-		try{
-			Show result = theater.addShow(name, startDate.getTime(), endDate.getTime(), clientID);
-			if (result == null) {
-			    System.out.println("That client could not be found");
-			} else {
-			    changesMade = true;
-			    System.out.println("The following show was added:" + newLine + result);
-			}
-		} catch(IllegalArgumentException e) {
-			System.out.println(e.getMessage());
-		}
-		
-    }
-
-    /**
-     * Method for listing shows. Lists all of the currently scheduled shows
-     */
-    private void listShows() {
-		Iterator<Show> iterator = theater.listShows();
-		System.out.println("Shows:");
-		while (iterator.hasNext()) {
-		    System.out.println(iterator.next());
-		}
-    }
-
-    /**
-     * The method to start the application. Simply calls process().
-     * 
-     * @param args not used
-     */
-    public static void main(String[] args) {
-    	UserInterface.instance().process();
-    }
+/**
+ * 
+ * @author Brahma Dathan, Sarnath Ramnath, and Dan Hanson (Modifying)
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * 
+ * This class implements the user interface for the Theater project. The
+ * commands are encoded as integers using a number of static final variables. A
+ * number of utility methods exist to make it easier to parse the input.
+ * 
+ */
+public class UserInterface {
+    private static UserInterface userInterface;
+    private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+    private static Theater theater;
+    private static TheaterServer server;
+    private static boolean changesMade = false;
+    private static final int EXIT = 0;
+    private static final int ADD_CLIENT = 1;
+    private static final int REMOVE_CLIENT = 2;
+    private static final int LIST_CLIENTS = 3;
+    private static final int ADD_CUSTOMER = 4;
+    private static final int REMOVE_CUSTOMER = 5;
+    private static final int ADD_CREDIT_CARD = 6;
+    private static final int REMOVE_CREDIT_CARD = 7;
+    private static final int LIST_CUSTOMERS = 8;
+    private static final int ADD_SHOW = 9;
+    private static final int LIST_SHOWS = 10;
+    private static final int SAVE = 11;
+    private static final int RETRIEVE = 12;
+    private static final int HELP = 13;
+    private static final int IMPORT = 14;
+    private static final int EXPORT = 15;
+    private static final int EXPIRING_CARDS = 16;
+    private static final int BUY_TICKETS = 17;
+    private static final int SETTLE_CLIENTS = 18;
+    private static final int FIND = 19;
+    private static final int STATISTICS = 20;
+    private static final int FREE_DATES = 21;
+    private static final int PAGE_SIZE = 20;
+    
+    private static final String newLine = System.lineSeparator();
+
+    /**
+     * Made private for singleton pattern. Conditionally looks for any saved
+     * data Otherwise, it gets a singleton Theater object.
+     */
+    private UserInterface() {
+		if (yesOrNo("Look for saved data and use it?")) {
+		    retrieve();
+		} else {
+		    theater = Theater.instance();
+	
+		}
+    }
+
+    /**
+     * Supports the singleton pattern
+     * 
+     * @return the singleton object
+     */
+    public static UserInterface instance() {
+		if (userInterface == null) {
+		    return userInterface = new UserInterface();
+		} else {
+		    return userInterface;
+		}
+    }
+
+    /**
+     * Gets a token after prompting
+     * 
+     * @param prompt - whatever the user wants as prompt
+     * @return - the token from the keyboard
+     * 
+     */
+    private String getToken(String prompt) {
+		do {
+		    try {
+				System.out.println(prompt);
+				String line = reader.readLine();
+				StringTokenizer tokenizer = new StringTokenizer(line, "\r\f");
+				if (tokenizer.hasMoreTokens()) {
+				    return tokenizer.nextToken();
+				}
+		    } catch (IOException inputOutputException) {
+		    	System.exit(0);
+		    }
+		} while (true);
+    }
+
+    /**
+     * Queries for a yes or no and returns true for yes and false for no
+     * 
+     * @param prompt The string to be prepended to the yes/no prompt
+     * @return true for yes and false for no
+     * 
+     */
+    private boolean yesOrNo(String prompt) {
+		String more = getToken(prompt + " (Y|y)[es] or anything else for no");
+		if (more.charAt(0) != 'y' && more.charAt(0) != 'Y') {
+		    return false;
+		}
+		return true;
+    }
+
+    /**
+     * Converts the string to a number
+     * 
+     * @param prompt the string for prompting
+     * @return the integer corresponding to the string
+     * 
+     */
+    private int getNumber(String prompt) {
+		do {
+		    try {
+				String item = getToken(prompt);
+				Integer number = Integer.valueOf(item);
+				return number.intValue();
+		    } catch (NumberFormatException numberFormatExcecption) {
+		    	System.out.println("Please input a number ");
+		    }
+		} while (true);
+    }
+
+    /**
+     * Prompts for a date and gets a date object
+     * 
+     * @param prompt the prompt
+     * @return the data as a Calendar object
+     */
+    private Calendar getDate(String prompt) {
+		do {
+		    try {
+				Calendar date = new GregorianCalendar();
+				String item = getToken(prompt);
+				DateFormat dateFormat = SimpleDateFormat.getDateInstance(DateFormat.SHORT);
+				date.setTime(dateFormat.parse(item));
+				return date;
+		    } catch (Exception exception) {
+		    	System.out.println("Please input a date as MM/DD/YY");
+		    }
+		} while (true);
+    }
+
+    /**
+     * Prompts for a command from the keyboard
+     * 
+     * @return a valid command
+     * 
+     */
+    private int getCommand() {
+		do {
+		    try {
+				int value = Integer.parseInt(getToken(newLine + "Enter command:" + HELP + " for help"));
+				if (value >= EXIT && value <= FREE_DATES) {
+				    return value;
+				}
+		    } catch (NumberFormatException nfe) {
+		    	System.out.println("Enter a valid number");
+		    }
+		} while (true);
+    }
+
+    /**
+     * Displays the help screen
+     * 
+     */
+    private void help() {
+	System.out
+		.println("Enter a number between 0 and 21 as explained below:");
+	System.out.println(EXIT + " to Exit");
+	System.out.println(ADD_CLIENT + " to add a client");
+	System.out.println(REMOVE_CLIENT + " to remove a client");
+	System.out.println(LIST_CLIENTS + " to list all clients");
+	System.out.println(ADD_CUSTOMER + " to add a customer");
+	System.out.println(REMOVE_CUSTOMER + " to remove a customer");
+	System.out.println(ADD_CREDIT_CARD + " to add a credit card");
+	System.out.println(REMOVE_CREDIT_CARD + " to remove a credit card");
+	System.out.println(LIST_CUSTOMERS + " to list all customers");
+	System.out.println(ADD_SHOW + " to add a show");
+	System.out.println(LIST_SHOWS + " to list all shows");
+	System.out.println(SAVE + " to save data");
+	System.out.println(RETRIEVE + " to  retrieve data");
+	System.out.println(HELP + " for help");
+	System.out.println(IMPORT + " to import clients, customers or shows from a CSV file");
+	System.out.println(EXPORT + " to export clients, customers or shows to a file");
+	System.out.println(EXPIRING_CARDS + " to list cards expiring soon and remove expired cards");
+	System.out.println(BUY_TICKETS + " to buy tickets for a show");
+	System.out.println(SETTLE_CLIENTS + " to show client balances and pay clients what they are owed");
+	System.out.println(FIND + " to find customers and clients by name, address, phone or card");
+	System.out.println(STATISTICS + " to show how often each operation was called, how often it failed and how long it took");
+	System.out.println(FREE_DATES + " to find dates when a show could be booked");
+    }
+
+    /**
+     * Method to be called for saving the Theater object. Uses the appropriate
+     * Theater method for saving.
+     * 
+     */
+    private void save() {
+		if (Theater.save()) {
+		    System.out.println(" The Theater has been successfully saved in the file TheaterData");
+		} else {
+		    System.out.println(" There has been an error in saving");
+		}
+    }
+
+    /**
+     * Starts a background snapshot if they are enabled, and prints its size and
+     * duration once it has been written.
+     * 
+     * @return false if background snapshots are not enabled
+     */
+    private boolean saveInBackground() {
+		CompletableFuture<SnapshotScheduler.Report> snapshot = Theater.saveInBackground();
+		if (snapshot == null) {
+		    return false;
+		}
+		System.out.println(" The Theater is being saved in the background to the file TheaterData");
+		snapshot.whenComplete(new BiConsumer<SnapshotScheduler.Report, Throwable>() {
+		    @Override
+		    public void accept(SnapshotScheduler.Report report, Throwable error) {
+		    	if (error != null) {
+		    		System.out.println(" There has been an error in saving");
+		    	} else {
+		    		System.out.println(" " + report);
+		    	}
+		    }
+		});
+		return true;
+    }
+
+    /**
+     * Method to be called for importing a CSV file.  Prompts for the kind of
+     * records and the files, and reports how many rows were imported.
+     * 
+     */
+    private void importFile() {
+		int kind = getNumber("Enter " + BulkImporter.CLIENTS + " to import clients, " + BulkImporter.CUSTOMERS
+				+ " for customers or " + BulkImporter.SHOWS + " for shows:");
+		if (kind < BulkImporter.CLIENTS || kind > BulkImporter.SHOWS) {
+		    System.out.println("Not a kind of record that can be imported");
+		    return;
+		}
+		String csvFile = getToken("Enter the CSV file to import:");
+		String rejectsFile = getToken("Enter the file to list rejected rows in:");
+		try {
+		    BulkImporter.Result result = new BulkImporter(theater).importFile(kind, csvFile, rejectsFile);
+		    if (result.getAccepted() > 0) {
+		    	changesMade = true;
+		    }
+		    System.out.println(result);
+		} catch (IOException ioe) {
+		    System.out.println("The file could not be imported: " + ioe.getMessage());
+		}
+    }
+
+    /**
+     * Method to be called for exporting to a file.  Prompts for what to export,
+     * the format, an optional date filter and the file.
+     * 
+     */
+    private void exportFile() {
+		int kind = getNumber("Enter 0 to export clients, 1 for customers or 2 for shows:");
+		if (kind < 0 || kind > 2) {
+		    System.out.println("Not something that can be exported");
+		    return;
+		}
+		int format = yesOrNo("Export as JSON Lines instead of CSV?") ? Exporter.JSON_LINES : Exporter.CSV;
+		Predicate<Customer> customerFilter = null;
+		Predicate<Show> showFilter = null;
+		if (kind == 1 && yesOrNo("Only customers with a card expiring before a date?")) {
+		    customerFilter = Exporter.cardsExpiringBefore(getDate("Enter the date as MM/DD/YY").getTime());
+		} else if (kind == 2 && yesOrNo("Only shows starting after a date?")) {
+		    showFilter = Exporter.showsAfter(getDate("Enter the date as MM/DD/YY").getTime());
+		}
+		String fileName = getToken("Enter the file to export to:");
+		try {
+		    FileOutputStream file = new FileOutputStream(fileName);
+		    try {
+		    	Exporter exporter = new Exporter(file.getChannel(), format);
+		    	int count;
+		    	if (kind == 0) {
+		    		count = exporter.exportClients(theater.walkClients(), null);
+		    	} else if (kind == 1) {
+		    		count = exporter.exportCustomers(theater.walkCustomers(), customerFilter);
+		    	} else {
+		    		count = exporter.exportShows(theater.walkShows(), showFilter);
+		    	}
+		    	System.out.println(count + " records exported to " + fileName);
+		    } finally {
+		    	file.close();
+		    }
+		} catch (IOException ioe) {
+		    System.out.println("The file could not be written: " + ioe.getMessage());
+		}
+    }
+
+    /**
+     * Method to be called for checking card expiry.  Lists the cards expiring
+     * within a number of months and the customers with no valid card left,
+     * then offers to remove expired cards.
+     * 
+     */
+    private void expiringCards() {
+		int months = getNumber("Enter how many months ahead to look, counting this one:");
+		System.out.println("Cards expiring soon:");
+		for (ExpiryIndex.Entry entry : theater.cardsExpiringWithin(months)) {
+		    System.out.println(entry);
+		}
+		System.out.println("Customers with no valid card:");
+		for (Customer customer : theater.customersWithoutValidCard()) {
+		    System.out.println(customer);
+		}
+		if (yesOrNo("Remove expired cards now?")) {
+		    ExpirySweeper.Report report = theater.sweepExpiredCards();
+		    if (report.getRemoved() > 0) {
+		    	changesMade = true;
+		    }
+		    System.out.println(report);
+		}
+    }
+
+    /**
+     * Method to be called for selling tickets.  Prompts for the show and the
+     * day of the performance, shows how many seats are left, then sells seats
+     * to a customer one at a time until the user stops.
+     * 
+     */
+    private void buyTickets() {
+		Calendar start = getDate("Enter the start date of the show as MM/DD/YY:");
+		Show show = theater.getShow(start.getTime());
+		if (show == null) {
+		    System.out.println("No show starts on that date");
+		    return;
+		}
+		Calendar date = getDate("Enter the date of the performance as MM/DD/YY:");
+		SeatMap seats = theater.getSeats(show, date.getTime());
+		if (seats == null) {
+		    System.out.println("The show doesn't play on that date");
+		    return;
+		}
+		System.out.println(seats.getSold() + " seats sold and " + seats.getAvailable() + " available of "
+			+ seats.getCapacity());
+		int customerID = getNumber("Enter the customer ID:");
+		String cardNumber = getToken("Enter the credit card number:");
+		do {
+		    int seat = getNumber("Enter the seat number, from 0 to " + (seats.getCapacity() - 1) + ":");
+		    switch (theater.buyTicket(show, date.getTime(), seat, customerID, cardNumber)) {
+			    case BoxOffice.SOLD:
+				System.out.println("Seat " + seat + " sold");
+				break;
+			    case BoxOffice.SEAT_TAKEN:
+				System.out.println("That seat is taken");
+				break;
+			    case BoxOffice.NO_SUCH_SEAT:
+				System.out.println("There is no such seat");
+				break;
+			    case BoxOffice.CARD_REJECTED:
+				System.out.println("That customer doesn't hold that card, or it has expired");
+				return;
+			    case BoxOffice.NO_SUCH_CUSTOMER:
+				System.out.println("No customer with that ID was found");
+				return;
+			    case BoxOffice.NO_SUCH_SHOW:
+				System.out.println("That show is no longer scheduled");
+				return;
+			    case BoxOffice.NOT_CREDITED:
+				System.out.println("The sale could not be credited to the client, so it was undone");
+				return;
+			    default:
+				System.out.println("The sale could not be recorded");
+				return;
+		    }
+		} while (yesOrNo("Buy another seat?"));
+		System.out.println(seats.getSold() + " seats sold and " + seats.getAvailable() + " available");
+    }
+
+    /**
+     * Method to be called for settling with clients.  Lists what each client
+     * is owed, then offers to pay them all out.
+     * 
+     */
+    private void settleClients() {
+		System.out.println("Client balances:");
+		Iterator<Client> clients = theater.listClients();
+		while (clients.hasNext()) {
+		    Client client = clients.next();
+		    System.out.println(client + ", Balance:" + ClientLedger.cents(theater.getClientBalance(client.getID())));
+		}
+		if (yesOrNo("Pay out what every client is owed now?")) {
+		    ClientLedger.Settlement settlement = theater.settleClients();
+		    if (settlement == null) {
+		    	System.out.println("The payouts could not be recorded; no balances were changed");
+		    	return;
+		    }
+		    for (Map.Entry<Integer, Long> payout : settlement.getPayouts().entrySet()) {
+		    	System.out.println("Client ID:" + payout.getKey() + " paid " + ClientLedger.cents(payout.getValue()));
+		    }
+		    System.out.println(settlement);
+		}
+    }
+
+    /**
+     * Method to be called for finding customers and clients.  Four digits are
+     * taken as the end of a card number, a longer number as a phone number,
+     * and anything else as the start of words in a name or address.
+     * 
+     */
+    private void find() {
+		String query = getToken("Enter a name, address, phone number or the last four digits of a card:");
+		String digits = SearchIndex.phoneKey(query);
+		if (digits.length() == 4 && query.trim().length() == 4) {
+		    print("Customers with a card ending in " + query + ":", theater.findCustomersByCard(query));
+		} else if (digits.length() >= 7 && digits.length() * 2 > query.length()) {
+		    print("Customers with that phone number:", theater.findCustomersByPhone(query));
+		    print("Clients with that phone number:", theater.findClientsByPhone(query));
+		} else {
+		    print("Customers by name:", theater.findCustomersByName(query, PAGE_SIZE));
+		    print("Customers by address:", theater.findCustomersByAddress(query, PAGE_SIZE));
+		    print("Clients by name:", theater.findClientsByName(query, PAGE_SIZE));
+		    print("Clients by address:", theater.findClientsByAddress(query, PAGE_SIZE));
+		}
+    }
+
+    /**
+     * Method to be called for showing the operation statistics: the calls,
+     * failures and latencies of every Theater operation used so far.
+     * 
+     */
+    private void statistics() {
+		OperationStats stats = Theater.operationStats();
+		if (stats.getTotalCalls() == 0) {
+		    System.out.println("No operations have been called yet");
+		    return;
+		}
+		System.out.print(stats.getReport());
+		if (yesOrNo("Reset the statistics?")) {
+		    stats.reset();
+		}
+    }
+
+    /**
+     * Method to be called for finding when a show could be booked. Prompts
+     * for the earliest start date and how many days the show runs, then
+     * offers the first free dates and, if asked, every free stretch up to a
+     * later date.
+     * 
+     */
+    private void freeDates() {
+		Calendar after = getDate("Enter the earliest start date as MM/DD/YY:");
+		int days = getNumber("Enter the number of days from the start date to the end date:");
+		if (days < 0) {
+		    System.out.println("The number of days can't be negative");
+		    return;
+		}
+		Date from = after.getTime();
+		Calendar[] dates = null;
+		while (dates == null) {
+		    Schedule.Gap gap = theater.findFreeWindow(from, days);
+		    if (gap == null) {
+				System.out.println("There are no free dates after " + format(after));
+				return;
+		    }
+		    dates = fit(gap, days);
+		    if (dates == null) {
+				from = new Date(gap.getEndTime() + 1);
+		    }
+		}
+		System.out.println("The earliest free dates are " + format(dates[0]) + " to " + format(dates[1]));
+		if (!yesOrNo("List every free stretch up to a later date?")) {
+		    return;
+		}
+		Calendar until = getDate("Enter the last date as MM/DD/YY:");
+		until.add(Calendar.DAY_OF_MONTH, 1);
+		until.add(Calendar.MILLISECOND, -1);
+		boolean found = false;
+		for (Schedule.Gap gap : theater.listFreeWindows(after.getTime(), until.getTime(), days)) {
+		    Calendar[] first = fit(gap, days);
+		    if (first != null) {
+				Calendar latest = new GregorianCalendar();
+				latest.setTime(gap.getEnd());
+				clearTime(latest);
+				latest.add(Calendar.DAY_OF_MONTH, -days);
+				System.out.println("Free to start from " + format(first[0]) + " to " + format(latest));
+				found = true;
+		    }
+		}
+		if (!found) {
+		    System.out.println("There are no free dates before " + format(until));
+		}
+    }
+
+    /*
+     * Finds the first whole dates a show of the given number of days fits in a gap,
+     * or null if it doesn't fit once the gap is cut down to midnights
+     */
+    private Calendar[] fit(Schedule.Gap gap, int days) {
+		Calendar start = new GregorianCalendar();
+		start.setTime(gap.getStart());
+		clearTime(start);
+		if (start.getTimeInMillis() < gap.getStartTime()) {
+		    start.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		Calendar end = (Calendar) start.clone();
+		end.add(Calendar.DAY_OF_MONTH, days);
+		if (!gap.isOpenEnded() && end.getTimeInMillis() > gap.getEndTime()) {
+		    return null;
+		}
+		return new Calendar[] {start, end};
+    }
+
+    /*
+     * Moves a date back to midnight
+     */
+    private void clearTime(Calendar date) {
+		date.set(Calendar.HOUR_OF_DAY, 0);
+		date.set(Calendar.MINUTE, 0);
+		date.set(Calendar.SECOND, 0);
+		date.set(Calendar.MILLISECOND, 0);
+    }
+
+    /*
+     * Formats a date as MM/DD/YY
+     */
+    private String format(Calendar date) {
+		return DateFormat.getDateInstance(DateFormat.SHORT).format(date.getTime());
+    }
+
+    /*
+     * Prints a heading and the records under it, if there are any
+     */
+    private void print(String heading, List<?> found) {
+		if (found.isEmpty()) {
+		    return;
+		}
+		System.out.println(heading);
+		for (Object record : found) {
+		    System.out.println(record);
+		}
+    }
+
+    /**
+     * Method to be called for retrieving saved data. Uses the appropriate
+     * Theater method for retrieval.
+     * 
+     */
+    private void retrieve() {
+		if (!changesMade) {
+		    try {
+				Theater tempTheater = Theater.retrieve();
+				if (tempTheater != null) {
+				    System.out.println("The Theater has been successfully retrieved from the file TheaterData");
+				    theater = tempTheater;
+				} else if (new File("TheaterData").exists()) {
+				    System.out.println("The file TheaterData could not be read; starting with an empty Theater");
+				    theater = Theater.instance();
+				} else {
+				    System.out.println("File doesn't exist; creating new Theater");
+				    theater = Theater.instance();
+				}
+		    } catch (Exception missingClassException) {
+		    	System.out.println("Class Not Found Exception");
+		    }
+		} else {
+			System.out.println("You cannot retrieve data once changes to the current data model have been made");
+		}
+    }
+
+    /**
+     * Orchestrates the whole process. Calls the appropriate method for the
+     * different functionalities.
+     * 
+     */
+    private void process() {
+		int command;
+		help();
+		while ((command = getCommand()) != EXIT) {
+		    switch (command) {
+	
+			    case ADD_CLIENT:
+				addClient();
+				break;
+		
+			    case REMOVE_CLIENT:
+				removeClient();
+				break;
+		
+			    case LIST_CLIENTS:
+				listClients();
+				break;
+		
+			    case ADD_CUSTOMER:
+				addCustomer();
+				break;
+		
+			    case REMOVE_CUSTOMER:
+				removeCustomer();
+				break;
+		
+			    case ADD_CREDIT_CARD:
+				addCreditCard();
+				break;
+		
+			    case REMOVE_CREDIT_CARD:
+				removeCreditCard();
+				break;
+		
+			    case LIST_CUSTOMERS:
+				listCustomers();
+				break;
+		
+			    case ADD_SHOW:
+				addShow();
+				break;
+		
+			    case LIST_SHOWS:
+				listShows();
+				break;
+		
+			    case SAVE:
+				if (!saveInBackground()) {
+				    save();
+				}
+				break;
+		
+			    case RETRIEVE:
+				retrieve();
+				break;
+		
+			    case HELP:
+				help();
+				break;
+		
+			    case IMPORT:
+				importFile();
+				break;
+		
+			    case EXPORT:
+				exportFile();
+				break;
+		
+			    case EXPIRING_CARDS:
+				expiringCards();
+				break;
+		
+			    case BUY_TICKETS:
+				buyTickets();
+				break;
+		
+			    case SETTLE_CLIENTS:
+				settleClients();
+				break;
+		
+			    case FIND:
+				find();
+				break;
+		
+			    case STATISTICS:
+				statistics();
+				break;
+		
+			    case FREE_DATES:
+				freeDates();
+				break;
+		    }
+		}
+		if (server != null) {
+		    // Let requests in progress finish before the final save
+		    server.stop(Integer.getInteger("theater.http.timeout", 30));
+		}
+        save();
+    }
+
+    /**
+     * Method to be called for adding a client. Prompts the user for the
+     * appropriate values and uses the appropriate Theater method for adding the
+     * client.
+     * 
+     */
+    private void addClient() {
+		String name = getToken("Enter client name:");
+		String address = getToken("Enter address:");
+		String phone = getToken("Enter phone number:");
+		
+		Client result = theater.addClient(name, address, phone);
+		if (result == null) {
+		    System.out.println("Could not add client");
+		} else {
+		    changesMade = true;
+		    System.out.println("The following client was added to the system:" + newLine + result);
+		}
+    }
+
+    /**
+     * Method to be called for Removing a client. Prompts the user for a client
+     * ID to remove from the system and removes the client with the
+     * corresponding client ID if it exists in the system
+     */
+    private void removeClient() {
+		int clientID = getNumber("Enter client ID:");
+		Client result = theater.removeClient(clientID);
+		if (result == null) {
+		    System.out.println("Client currently has a show scheduled or no clients with that ID");
+		} else {
+		    changesMade = true;
+		    System.out.println("The following client was removed:\n" + result);
+		}
+    }
+
+    /**
+     * Method to be called for listing all clients. Displays all of the
+     * theater's clients along with the clients' IDs, names, addresses, phone
+     * numbers, and balances, a page at a time.
+     */
+    private void listClients() {
+		System.out.println("Clients:");
+		String cursor = null;
+		do {
+		    Page<Client> page = theater.listClients(cursor, PAGE_SIZE);
+		    for (Client client : page.getItems()) {
+		    	System.out.println(client);
+		    }
+		    cursor = page.getNextCursor();
+		} while (cursor != null && yesOrNo("Show the next " + PAGE_SIZE + "?"));
+    }
+
+    /**
+     * Method to be called for adding a customer. Prompts the user for name,
+     * address, phone number, credit card number, and card expiration date
+     */
+    private void addCustomer() {
+
+		String name = getToken("Enter the customer's name:");
+		String address = getToken("Enter the customer's address:");
+		String phoneNumber = getToken("Enter the customer's phone number:");
+		String cardNumber = getToken("Enter the customer's credit card number:");
+		Calendar expirationDate = getDate("Enter the expiration date:");
+		
+		try {
+			Customer result = theater.addCustomer(name, address, phoneNumber, cardNumber, expirationDate.getTime());
+			if (result == null) {
+			    System.out.println("The customer could not be added to the system");
+			} else {
+			    changesMade = true;
+			    System.out.println("The following customer was added to the system:" + newLine + result);
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+    }
+
+    /**
+     * Method to be called for removing a customer from the system. Prompts the
+     * user for a customer ID to remove from the system and removes a customer
+     * with matching customer ID if it exists in the system
+     */
+    private void removeCustomer() {
+		int customerID = getNumber("Enter customer ID:");
+		Customer result = theater.removeCustomer(customerID);
+		if (result == null) {
+		    System.out.println("No customers with that ID");
+		} else {
+		    changesMade = true;
+		    System.out.println("The following customer was removed:\n" + result);
+		}
+    }
+
+    /**
+     * Method to be called for adding a customer credit card. Prompts user for
+     * customer ID and attempts to retrieve that customer. If the customer is
+     * found system asks the user to confirm it is the correct customer and then
+     * prompts the user for credit card number and expiration date
+     */
+    private void addCreditCard() {
+		int customerID = getNumber("Enter the customer ID:");
+		Customer result = theater.getCustomer(customerID);
+		if (result == null) {
+		    System.out.println("No customers with that ID");
+		} else {
+		    boolean correctCustomer = yesOrNo("Is this the correct customer?" + newLine + result + newLine);
+		    if (correctCustomer) {
+				String accountNumber = getToken("Enter the credit card number:");
+				Calendar expirationDate = getDate("Enter the expiration date as MM/DD/YY:");
+				// conform to MM/YY format
+				expirationDate.set(Calendar.DAY_OF_MONTH, 1);
+				result = theater.addCreditCard(customerID, accountNumber, expirationDate.getTime());
+				if (result == null) {
+				    System.out.println("Credit card could not be added");
+				} else {
+				    changesMade = true;
+				    System.out.println("Credit card successfully added:" + newLine + result);
+				}
+		    }
+		}
+    }
+
+    /**
+     * Method for removing a customer's credit card. Prompts user for customer
+     * ID and retrieves customer associated with that ID. System asks user to
+     * confirm the correct customer has been found and prompts for credit card
+     * number and date. The system attempts to remove the card, if there is more
+     * than one card on file for the user.
+     */
+    private void removeCreditCard() {
+		int customerID = getNumber("Enter the customer ID:");
+		Customer result = theater.getCustomer(customerID);
+		if (result == null) {
+		    System.out.println("No customers with that ID");
+		} else {
+		    boolean confirmation = yesOrNo("Is this the correct customer?\n" + result);
+		    if (confirmation) {
+				String accountNumber = getToken("Enter the credit card number to be removed:");
+				CreditCard removedCard = theater.removeCreditCard(customerID,accountNumber);
+				if (removedCard == null) {
+				    System.out.println("There was an error, the card was not removed. Is this the only card on file?");
+				} else {
+				    changesMade = true;
+				    System.out.println("the following card was removed successfully:" + newLine + removedCard);
+				}
+		    }
+		}
+    }
+
+    /**
+     * Method for listing all customers. Lists all of the customers and their
+     * information, a page at a time.
+     */
+    private void listCustomers() {
+		System.out.println("Customers:");
+		String cursor = null;
+		do {
+		    Page<Customer> page = theater.listCustomers(cursor, PAGE_SIZE);
+		    for (Customer customer : page.getItems()) {
+		    	System.out.println(customer);
+		    }
+		    cursor = page.getNextCursor();
+		} while (cursor != null && yesOrNo("Show the next " + PAGE_SIZE + "?"));
+    }
+
+    /**
+     * Method for adding a show. Prompts the user for a client ID, show name,
+     * start date, and end date. The system attempts to add the show for the
+     * given duration.
+     */
+    private void addShow() {
+		int clientID = getNumber("Enter the client ID:");
+		String name = getToken("Enter the name of the show:");
+		Calendar startDate = getDate("Enter your desired start date as MM/DD/YY:");
+		Calendar endDate = getDate("Enter your desired end date as MM/DD/YY:");
+		while (startDate.after(endDate)) {
+		    System.out.println("Start date must be before end date");
+		    startDate = getDate("Enter your desired start date as MM/DD/YY:");
+		    endDate = getDate("Enter your desired end date as MM/DD/YY:");
+		}
+		try{
+			Show result = theater.addShow(name, startDate.getTime(), endDate.getTime(), clientID);
+			if (result == null && ClientList.instance().get(clientID) == null) {
+			    System.out.println("That client could not be found");
+			} else if (result == null) {
+			    System.out.println("The show could not be written to the journal");
+			} else {
+			    changesMade = true;
+			    System.out.println("The following show was added:" + newLine + result);
+			}
+		} catch(IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+		
+    }
+
+    /**
+     * Method for listing shows. Lists all of the currently scheduled shows
+     * in order of start date, a page at a time
+     */
+    private void listShows() {
+		System.out.println("Shows:");
+		String cursor = null;
+		do {
+		    Page<Show> page = theater.listShows(cursor, PAGE_SIZE);
+		    for (Show show : page.getItems()) {
+		    	System.out.println(show);
+		    }
+		    cursor = page.getNextCursor();
+		} while (cursor != null && yesOrNo("Show the next " + PAGE_SIZE + "?"));
+    }
+
+    /**
+     * The method to start the application. Simply calls process().  Journal
+     * mode is turned on with -Dtheater.journal=true; the system properties
+     * theater.journal.syncEvery and theater.journal.checkpointEvery tune it.
+     * -Dtheater.snapshot=binary saves in the compact binary format, and
+     * -Dtheater.lazy=true maps binary snapshots and loads customers on demand.
+     * -Dtheater.snapshot.interval (seconds) and -Dtheater.snapshot.every
+     * (changes) turn on automatic background snapshots.
+     * -Dtheater.expirySweep.interval (seconds) removes expired cards on a timer.
+     * -Dtheater.seats sets the seats at each performance and
+     * -Dtheater.tickets.price (cents) what each one credits the show's client;
+     * -Dtheater.tickets.hold (seconds) and -Dtheater.tickets.syncEvery tune
+     * reservations and the ticket and ledger logs.
+     * 
+     * Started with -batch, commands are read from the script named next, or
+     * from standard input if none is, and run without prompts by a
+     * BatchRunner.  Nothing is retrieved unless the script asks for it.
+     * 
+     * @param args -batch and an optional script to run it in batch mode
+     */
+    public static void main(String[] args) {
+    	if (Boolean.getBoolean("theater.journal")) {
+    		Theater.enableJournal(Integer.getInteger("theater.journal.syncEvery", 1),
+    				Integer.getInteger("theater.journal.checkpointEvery", 1000));
+    	}
+    	Theater.useBinarySnapshots("binary".equals(System.getProperty("theater.snapshot")));
+    	Theater.useLazyLoading(Boolean.getBoolean("theater.lazy"));
+    	long interval = Long.getLong("theater.snapshot.interval", 0);
+    	int every = Integer.getInteger("theater.snapshot.every", 0);
+    	if (interval > 0 || every > 0) {
+    		Theater.enableBackgroundSnapshots(interval, every);
+    	}
+    	Theater.configureBoxOffice(Integer.getInteger("theater.seats", 500),
+    			Long.getLong("theater.tickets.hold", 600), Long.getLong("theater.tickets.price", 0),
+    			Integer.getInteger("theater.tickets.syncEvery", 256));
+    	if (args.length > 0 && args[0].equals("-batch")) {
+    		System.exit(runBatch(args.length > 1 ? args[1] : null) ? 0 : 1);
+    	}
+    	if (!"false".equals(System.getProperty("theater.jmx"))) {
+    		Theater.operationStats().register();
+    	}
+    	long sweepInterval = Long.getLong("theater.expirySweep.interval", 0);
+    	if (sweepInterval > 0) {
+    		Theater.enableExpirySweeps(sweepInterval);
+    	}
+    	UserInterface userInterface = UserInterface.instance();
+    	server = startServer();
+    	userInterface.process();
+    }
+
+    /*
+     * Runs a command script, or standard input if script is null, writing the
+     * results through one buffered writer.  Returns true if every command
+     * succeeded.
+     */
+    private static boolean runBatch(String script) {
+    	Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+    			StandardCharsets.UTF_8), 64 * 1024);
+    	try {
+    		BufferedReader input = new BufferedReader(new InputStreamReader(
+    				script == null ? System.in : new FileInputStream(script), StandardCharsets.UTF_8), 64 * 1024);
+    		try {
+    			return new BatchRunner(input, output).run() == 0;
+    		} finally {
+    			input.close();
+    		}
+    	} catch (IOException ioe) {
+    		System.out.println("The batch could not be run: " + ioe.getMessage());
+    		return false;
+    	}
+    }
+
+    /*
+     * Starts the HTTP API alongside the console if the theater.http.port
+     * property is set
+     */
+    private static TheaterServer startServer() {
+    	Integer port = Integer.getInteger("theater.http.port");
+    	if (port == null) {
+    		return null;
+    	}
+    	try {
+    		TheaterServer server = new TheaterServer(System.getProperty("theater.http.host", "127.0.0.1"), port,
+    				Integer.getInteger("theater.http.maxConnections", 1000),
+    				Integer.getInteger("theater.http.timeout", 30));
+    		server.start();
+    		System.out.println("Serving the HTTP API on port " + server.getPort());
+    		return server;
+    	} catch (IOException ioe) {
+    		System.out.println("Could not start the HTTP API on port " + port);
+    		return null;
+    	}
+    }
 }
\ No newline at end of file